@@ -3,7 +3,6 @@ package cz.upce.boop.ex;
 import cz.upce.boop.ex.db.core.StringPrimaryKey;
 import cz.upce.boop.ex.db.index.IndexedFileEntityRepository;
 import java.io.File;
-import java.util.List;
 
 public class Ex08 {
 
@@ -76,10 +75,7 @@ public class Ex08 {
     }
 
     private static void clearDatabase(IndexedFileEntityRepository<User, StringPrimaryKey> repository) {
-        List<User> allUsers = repository.findAll();
-        for (User user : allUsers) {
-            repository.delete(user.getId());
-        }
+        repository.deleteAll();
     }
 
 }
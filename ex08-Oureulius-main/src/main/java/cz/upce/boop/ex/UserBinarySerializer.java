@@ -0,0 +1,42 @@
+package cz.upce.boop.ex;
+
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.serializer.BinaryReader;
+import cz.upce.boop.ex.db.serializer.BinarySerializer;
+import cz.upce.boop.ex.db.serializer.BinaryWriter;
+
+/**
+ * Binary serializer for User entities.
+ */
+public class UserBinarySerializer extends BinarySerializer<User> {
+
+    private static final int VERSION = 1;
+
+    public UserBinarySerializer() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(User entity, BinaryWriter out) {
+        out.writeString(entity.getId().getValue())
+                .writeString(entity.getFirstName())
+                .writeString(entity.getLastName())
+                .writeString(entity.getUsername())
+                .writeString(entity.getCountry())
+                .writeInt(entity.getAge());
+    }
+
+    @Override
+    protected User read(BinaryReader in, int version) {
+        User user = new User();
+
+        user.setId(new StringPrimaryKey(in.readString()));
+        user.setFirstName(in.readString());
+        user.setLastName(in.readString());
+        user.setUsername(in.readString());
+        user.setCountry(in.readString());
+        user.setAge(in.readInt());
+
+        return user;
+    }
+}
@@ -1,13 +1,28 @@
 package cz.upce.boop.ex;
 
 import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.serializer.RecordSchema;
+import cz.upce.boop.ex.db.serializer.RecordView;
+import cz.upce.boop.ex.db.serializer.SchemaTextSerializer;
 import cz.upce.boop.ex.db.serializer.SerializedEntity;
-import cz.upce.boop.ex.db.serializer.TextSerializer;
 
 /**
  * Serializer for User entities.
  */
-public class UserSerializer extends TextSerializer<User> {
+public class UserSerializer extends SchemaTextSerializer<User> {
+
+    private static final RecordSchema SCHEMA
+            = RecordSchema.of("id", "firstName", "lastName", "username", "country", "age");
+    private static final int ID = SCHEMA.slot("id");
+    private static final int FIRST_NAME = SCHEMA.slot("firstName");
+    private static final int LAST_NAME = SCHEMA.slot("lastName");
+    private static final int USERNAME = SCHEMA.slot("username");
+    private static final int COUNTRY = SCHEMA.slot("country");
+    private static final int AGE = SCHEMA.slot("age");
+
+    public UserSerializer() {
+        super(SCHEMA);
+    }
 
     @Override
     protected SerializedEntity objectToSerializedEntity(User entity) {
@@ -22,19 +37,18 @@ public class UserSerializer extends TextSerializer<User> {
     }
 
     @Override
-    protected User serializedEntityToObject(SerializedEntity serialized) {
+    protected User recordToObject(RecordView record) {
         User user = new User();
         
-        serialized
-                .extractValue("id", id -> user.setId(new StringPrimaryKey(id)))
-                .extractValue("firstName", user::setFirstName)
-                .extractValue("lastName", user::setLastName)
-                .extractValue("username", user::setUsername)
-                .extractValue("country", user::setCountry)
-                .extractIntValue("age", user::setAge);
+        user.setId(new StringPrimaryKey(record.get(ID)));
+        user.setFirstName(record.get(FIRST_NAME));
+        user.setLastName(record.get(LAST_NAME));
+        user.setUsername(record.get(USERNAME));
+        user.setCountry(record.get(COUNTRY));
+        user.setAge(record.getInt(AGE));
         
         return user;
     }
 
    
-}
\ No newline at end of file
+}
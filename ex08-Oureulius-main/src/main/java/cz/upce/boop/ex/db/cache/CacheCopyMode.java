@@ -0,0 +1,18 @@
+package cz.upce.boop.ex.db.cache;
+
+/**
+ * How cached entities are handed out to callers.
+ */
+public enum CacheCopyMode {
+    /**
+     * Every caller gets the cached instance. Only safe for entities that are
+     * never modified after being read, and recommended for them, as a hit
+     * then costs a single lookup.
+     */
+    SHARED,
+    /**
+     * Every caller gets a private copy, so modifying a returned entity never
+     * affects the cache.
+     */
+    COPY
+}
@@ -0,0 +1,35 @@
+package cz.upce.boop.ex.db.cache;
+
+/**
+ * Record representing a snapshot of cache statistics.
+ *
+ * @param hitCount The number of lookups that found a cached value
+ * @param missCount The number of lookups that found nothing
+ * @param evictionCount The number of values evicted to stay within the size limit
+ * @param rejectionCount The number of values the admission policy refused to cache
+ * @param invalidationCount The number of values dropped because they changed
+ * @param size The number of cached values
+ * @param weight The total weight of the cached values
+ */
+public record CacheStats(long hitCount, long missCount, long evictionCount, long rejectionCount,
+        long invalidationCount, long size, long weight) {
+
+    /**
+     * Creates statistics of a cache that is not in use
+     *
+     * @return Statistics with all counts set to zero
+     */
+    public static CacheStats empty() {
+        return new CacheStats(0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Gets the ratio of lookups that found a cached value
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0.0 : (double) hitCount / requests;
+    }
+}
@@ -0,0 +1,301 @@
+package cz.upce.boop.ex.db.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache with W-TinyLFU admission and eviction.
+ *
+ * New values enter a small LRU window (1 % of the capacity). Values leaving
+ * the window compete for a place in the main segmented LRU with its least
+ * recently used probation value; the one accessed more often recently, as
+ * estimated by a {@link FrequencySketch}, stays. A value hit again while in
+ * probation is promoted to the protected segment (80 % of the main space).
+ * This keeps hot values cached while one-off reads, such as scans, pass
+ * through the window without displacing them.
+ *
+ * All methods are synchronized.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class EntityCache<K, V> {
+
+    private enum Region {
+        WINDOW,
+        PROBATION,
+        PROTECTED
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+        private V value;
+        private long weight;
+        private Region region;
+
+        private Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.region = Region.WINDOW;
+        }
+    }
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long mainMaximum;
+    private final long protectedMaximum;
+    private final FrequencySketch sketch;
+
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+    // Each region is kept from least to most recently used
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> protectedRegion = new LinkedHashMap<>();
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    private long stamp;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long rejectionCount;
+    private long invalidationCount;
+
+    /**
+     * Create a new cache
+     *
+     * @param maximumWeight The maximum total weight of the cached values
+     * @param expectedSize The expected number of cached values, used to size
+     * the frequency sketch
+     */
+    public EntityCache(long maximumWeight, long expectedSize) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.mainMaximum = Math.max(1, maximumWeight - windowMaximum);
+        this.protectedMaximum = mainMaximum * 8 / 10;
+        this.sketch = new FrequencySketch(expectedSize);
+    }
+
+    /**
+     * Look up a cached value and record the access
+     *
+     * @param key The key
+     * @return The cached value or null if not cached
+     */
+    public synchronized V get(K key) {
+        sketch.increment(hash(key));
+
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        onHit(node);
+        return node.value;
+    }
+
+    /**
+     * Look up several cached values at once and record the accesses
+     *
+     * @param keys The keys
+     * @return The cached values by key, without the keys that are not cached
+     */
+    public synchronized Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the current invalidation stamp. A value loaded after reading the
+     * stamp may only be cached with {@link #put(Object, Object, long, long)}
+     * if nothing was invalidated in the meantime.
+     *
+     * @return The current stamp
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Cache a loaded value, unless the cache was invalidated since the value
+     * was loaded
+     *
+     * @param key The key
+     * @param value The value
+     * @param weight The weight of the value
+     * @param loadStamp The stamp read before the value was loaded
+     */
+    public synchronized void put(K key, V value, long weight, long loadStamp) {
+        if (loadStamp != stamp) {
+            return;
+        }
+        if (weight > maximumWeight) {
+            rejectionCount++;
+            return;
+        }
+
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            addWeight(node.region, weight - node.weight);
+            node.value = value;
+            node.weight = weight;
+            onHit(node);
+        } else {
+            node = new Node<>(key, value, weight);
+            data.put(key, node);
+            window.put(key, node);
+            windowWeight += weight;
+        }
+
+        evict();
+    }
+
+    /**
+     * Drop a cached value because it changed
+     *
+     * @param key The key
+     */
+    public synchronized void invalidate(K key) {
+        stamp++;
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            region(node.region).remove(key);
+            addWeight(node.region, -node.weight);
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * Drop all cached values
+     */
+    public synchronized void invalidateAll() {
+        stamp++;
+        invalidationCount += data.size();
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedRegion.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    /**
+     * Get a snapshot of the cache statistics
+     *
+     * @return The statistics
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, rejectionCount, invalidationCount,
+                data.size(), windowWeight + probationWeight + protectedWeight);
+    }
+
+    private void onHit(Node<K, V> node) {
+        switch (node.region) {
+            case WINDOW, PROTECTED -> moveToEnd(node);
+            case PROBATION -> {
+                // A second hit proves the value is worth protecting
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                node.region = Region.PROTECTED;
+                protectedRegion.put(node.key, node);
+                protectedWeight += node.weight;
+
+                while (protectedWeight > protectedMaximum && protectedRegion.size() > 1) {
+                    Node<K, V> demoted = removeFirst(protectedRegion);
+                    protectedWeight -= demoted.weight;
+                    demoted.region = Region.PROBATION;
+                    probation.put(demoted.key, demoted);
+                    probationWeight += demoted.weight;
+                }
+            }
+        }
+    }
+
+    private void evict() {
+        while (windowWeight > windowMaximum && !window.isEmpty()) {
+            Node<K, V> candidate = removeFirst(window);
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Move a value leaving the window into the main space if it is accessed
+     * more often than the values it would displace
+     */
+    private void admit(Node<K, V> candidate) {
+        int candidateFrequency = sketch.frequency(hash(candidate.key));
+
+        while (probationWeight + protectedWeight + candidate.weight > mainMaximum) {
+            LinkedHashMap<K, Node<K, V>> victims = probation.isEmpty() ? protectedRegion : probation;
+            Node<K, V> victim = victims.values().iterator().next();
+
+            if (candidateFrequency <= sketch.frequency(hash(victim.key))) {
+                data.remove(candidate.key);
+                rejectionCount++;
+                return;
+            }
+
+            victims.remove(victim.key);
+            addWeight(victim.region, -victim.weight);
+            data.remove(victim.key);
+            evictionCount++;
+        }
+
+        candidate.region = Region.PROBATION;
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private void moveToEnd(Node<K, V> node) {
+        LinkedHashMap<K, Node<K, V>> region = region(node.region);
+        region.remove(node.key);
+        region.put(node.key, node);
+    }
+
+    private LinkedHashMap<K, Node<K, V>> region(Region region) {
+        return switch (region) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            case PROTECTED -> protectedRegion;
+        };
+    }
+
+    private void addWeight(Region region, long delta) {
+        switch (region) {
+            case WINDOW -> windowWeight += delta;
+            case PROBATION -> probationWeight += delta;
+            case PROTECTED -> protectedWeight += delta;
+        }
+    }
+
+    private static <K, V> Node<K, V> removeFirst(LinkedHashMap<K, Node<K, V>> region) {
+        Iterator<Node<K, V>> iterator = region.values().iterator();
+        Node<K, V> first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
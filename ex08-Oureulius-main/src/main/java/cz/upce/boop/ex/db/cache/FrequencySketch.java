@@ -0,0 +1,81 @@
+package cz.upce.boop.ex.db.cache;
+
+/**
+ * Count-min sketch estimating how often keys were accessed recently.
+ *
+ * Counters saturate at 15 and are all halved once the number of recorded
+ * accesses reaches the sample size, so old popularity fades away.
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private final int[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Create a sketch sized for the expected number of cached keys
+     *
+     * @param expectedSize The expected number of cached keys
+     */
+    FrequencySketch(long expectedSize) {
+        int size = (int) Math.min(Math.max(expectedSize, 16), 1 << 24);
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    /**
+     * Record one access to a key
+     *
+     * @param keyHash The hash code of the key
+     */
+    void increment(int keyHash) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(keyHash, i);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimate how often a key was accessed recently
+     *
+     * @param keyHash The hash code of the key
+     * @return The estimated access count
+     */
+    int frequency(int keyHash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[indexOf(keyHash, i)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int keyHash, int row) {
+        long hash = (keyHash + SEEDS[row]) * SEEDS[row];
+        hash += hash >>> 32;
+        return (int) hash & mask;
+    }
+}
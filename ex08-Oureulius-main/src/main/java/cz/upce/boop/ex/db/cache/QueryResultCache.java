@@ -0,0 +1,287 @@
+package cz.upce.boop.ex.db.cache;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of query results with precise invalidation.
+ *
+ * Every result is cached together with what it was computed from: the index
+ * values that were looked up, the entities that were read, or every entity
+ * for a result computed by a full scan. A changed index value or entity drops
+ * only the results depending on it. Results also expire a fixed time after
+ * they were cached, and the least recently used result is evicted once the
+ * cache is full.
+ *
+ * All methods are synchronized.
+ *
+ * @param <V> The result type
+ */
+public class QueryResultCache<V> {
+
+    /**
+     * What a result was computed from, collected while it is computed
+     */
+    public static final class Dependencies {
+
+        private final Set<IndexValue> indexValues = new HashSet<>();
+        private final Set<String> entities = new HashSet<>();
+        private boolean everything;
+
+        /**
+         * Record that the result depends on the keys indexed under a value
+         *
+         * @param indexName The name of the index
+         * @param value The indexed value
+         */
+        public void addIndexValue(String indexName, Object value) {
+            indexValues.add(new IndexValue(indexName, value));
+        }
+
+        /**
+         * Record that the result depends on the state of an entity
+         *
+         * @param fileName The file name of the entity
+         */
+        public void addEntity(String fileName) {
+            entities.add(fileName);
+        }
+
+        /**
+         * Record that the result depends on every entity
+         */
+        public void addEverything() {
+            everything = true;
+        }
+    }
+
+    private record IndexValue(String indexName, Object value) {
+
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long weight;
+        private final long expiresAt;
+        private final Dependencies dependencies;
+
+        private Entry(V value, long weight, long expiresAt, Dependencies dependencies) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final int maximumSize;
+    // 0 if results never expire
+    private final long timeToLiveNanos;
+
+    // From least to most recently used
+    private final LinkedHashMap<Object, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Keys of the cached results by what they depend on
+    private final Map<IndexValue, Set<Object>> byIndexValue = new HashMap<>();
+    private final Map<String, Set<Object>> byIndex = new HashMap<>();
+    private final Map<String, Set<Object>> byEntity = new HashMap<>();
+    private final Set<Object> onEverything = new HashSet<>();
+    private long weight;
+
+    private long stamp;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long rejectionCount;
+    private long invalidationCount;
+
+    /**
+     * Create a new cache
+     *
+     * @param maximumSize The maximum number of cached results
+     * @param timeToLive How long a result stays cached, or zero if results
+     * only leave the cache when they are invalidated or evicted
+     */
+    public QueryResultCache(int maximumSize, Duration timeToLive) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        if (timeToLive.isNegative()) {
+            throw new IllegalArgumentException("Time to live cannot be negative");
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    /**
+     * Look up a cached result
+     *
+     * @param key The key of the query
+     * @return The cached result or null if not cached or expired
+     */
+    public synchronized V get(Object key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && timeToLiveNanos > 0 && System.nanoTime() - entry.expiresAt > 0) {
+            remove(key);
+            evictionCount++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Get the current invalidation stamp. A result computed after reading the
+     * stamp may only be cached with {@link #put} if nothing was invalidated
+     * in the meantime.
+     *
+     * @return The current stamp
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Cache a computed result, unless the cache was invalidated since the
+     * result was computed
+     *
+     * @param key The key of the query
+     * @param value The result
+     * @param weight The weight of the result, such as its number of entities
+     * @param dependencies What the result was computed from
+     * @param loadStamp The stamp read before the result was computed
+     */
+    public synchronized void put(Object key, V value, long weight, Dependencies dependencies, long loadStamp) {
+        if (loadStamp != stamp) {
+            rejectionCount++;
+            return;
+        }
+
+        remove(key);
+        entries.put(key, new Entry<>(value, weight, System.nanoTime() + timeToLiveNanos, dependencies));
+        this.weight += weight;
+        for (IndexValue indexValue : dependencies.indexValues) {
+            byIndexValue.computeIfAbsent(indexValue, k -> new HashSet<>()).add(key);
+            byIndex.computeIfAbsent(indexValue.indexName(), k -> new HashSet<>()).add(key);
+        }
+        for (String fileName : dependencies.entities) {
+            byEntity.computeIfAbsent(fileName, k -> new HashSet<>()).add(key);
+        }
+        if (dependencies.everything) {
+            onEverything.add(key);
+        }
+
+        while (entries.size() > maximumSize) {
+            remove(entries.keySet().iterator().next());
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Drop the results depending on the keys indexed under a value, because
+     * a key was added to or removed from it
+     *
+     * @param indexName The name of the index
+     * @param value The indexed value
+     */
+    public synchronized void invalidateIndexValue(String indexName, Object value) {
+        stamp++;
+        invalidate(byIndexValue.get(new IndexValue(indexName, value)));
+    }
+
+    /**
+     * Drop the results depending on any value of an index, because the index
+     * was cleared, reloaded or removed
+     *
+     * @param indexName The name of the index
+     */
+    public synchronized void invalidateIndex(String indexName) {
+        stamp++;
+        invalidate(byIndex.get(indexName));
+    }
+
+    /**
+     * Drop the results depending on an entity, because it changed, together
+     * with the results depending on every entity
+     *
+     * @param fileName The file name of the entity
+     */
+    public synchronized void invalidateEntity(String fileName) {
+        stamp++;
+        invalidate(byEntity.get(fileName));
+        invalidate(onEverything);
+    }
+
+    /**
+     * Drop all cached results
+     */
+    public synchronized void invalidateAll() {
+        stamp++;
+        invalidationCount += entries.size();
+        entries.clear();
+        byIndexValue.clear();
+        byIndex.clear();
+        byEntity.clear();
+        onEverything.clear();
+        weight = 0;
+    }
+
+    /**
+     * Get a snapshot of the cache statistics. Expired results are counted as
+     * evictions, and results computed while the cache was invalidated as
+     * rejections.
+     *
+     * @return The statistics
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, rejectionCount, invalidationCount,
+                entries.size(), weight);
+    }
+
+    private void invalidate(Set<Object> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        // Removing a result also removes it from the set being iterated
+        for (Object key : keys.toArray()) {
+            if (remove(key)) {
+                invalidationCount++;
+            }
+        }
+    }
+
+    /**
+     * Remove a result and its dependencies
+     */
+    private boolean remove(Object key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        weight -= entry.weight;
+        for (IndexValue indexValue : entry.dependencies.indexValues) {
+            removeKey(byIndexValue, indexValue, key);
+            removeKey(byIndex, indexValue.indexName(), key);
+        }
+        for (String fileName : entry.dependencies.entities) {
+            removeKey(byEntity, fileName, key);
+        }
+        onEverything.remove(key);
+        return true;
+    }
+
+    private static <D> void removeKey(Map<D, Set<Object>> dependents, D dependency, Object key) {
+        Set<Object> keys = dependents.get(dependency);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            dependents.remove(dependency);
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package cz.upce.boop.ex.db.columnar;
+
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.EntityChangeListener;
+import cz.upce.boop.ex.db.core.FileEntityRepository;
+import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.query.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Column-oriented copy of selected attributes of every entity of a
+ * repository, for analytic queries such as counts with range filters or
+ * averages per group.
+ *
+ * Every registered attribute is held in a column: an {@code int[]} for int
+ * attributes and dictionary codes for string attributes. Filters are given as
+ * {@link Query} terms over the column names and evaluated into row bitmaps,
+ * and aggregates are computed by loops over the primitive arrays, so a query
+ * reads no entity and allocates no object per row.
+ *
+ * The snapshot is built by reading every entity once. Afterwards it listens
+ * to the changes of the repository and, before answering the next query,
+ * reads only the entities that changed since.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public final class ColumnarSnapshot<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
+        implements AutoCloseable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FileEntityRepository<T, K> repository;
+    private final Map<String, IntColumn<T>> intColumns;
+    private final Map<String, StringColumn<T>> stringColumns;
+
+    // Rows are kept dense: a deleted row is replaced by the last one
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private final Map<K, Integer> rowsByKey = new HashMap<>();
+    private int rowCount;
+
+    // Changes not applied yet, recorded by the repository's threads
+    private final Set<K> changedKeys = ConcurrentHashMap.newKeySet();
+    private volatile boolean cleared;
+    private final EntityChangeListener<K> listener = new EntityChangeListener<>() {
+        @Override
+        public void entityChanged(K id) {
+            changedKeys.add(id);
+        }
+
+        @Override
+        public void entitiesCleared() {
+            cleared = true;
+        }
+    };
+
+    private ColumnarSnapshot(Builder<T, K> builder) {
+        this.repository = builder.repository;
+        this.intColumns = new LinkedHashMap<>();
+        for (Map.Entry<String, ToIntFunction<T>> entry : builder.intColumns.entrySet()) {
+            intColumns.put(entry.getKey(), new IntColumn<>(entry.getKey(), entry.getValue(), INITIAL_CAPACITY));
+        }
+        this.stringColumns = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<T, String>> entry : builder.stringColumns.entrySet()) {
+            stringColumns.put(entry.getKey(),
+                    new StringColumn<>(entry.getKey(), entry.getValue(), INITIAL_CAPACITY));
+        }
+
+        // Listening first, so no change made while the entities are read is missed
+        repository.addChangeListener(listener);
+        rebuild();
+    }
+
+    /**
+     * Creates a new builder of a snapshot of a repository
+     *
+     * @param <T> The entity type
+     * @param <K> The primary key type
+     * @param repository The repository
+     * @return A new builder
+     */
+    public static <T extends DatabaseEntity<K>, K extends PrimaryKey<?>> Builder<T, K> builder(
+            FileEntityRepository<T, K> repository) {
+        return new Builder<>(repository);
+    }
+
+    /**
+     * Apply the changes of the repository since the last refresh, reading
+     * only the changed entities. Called by every query, so it is only needed
+     * to move the work out of the next query.
+     *
+     * @throws DatabaseException if an error occurs while reading the entities
+     */
+    public synchronized void refresh() {
+        if (cleared) {
+            rebuild();
+            return;
+        }
+        if (changedKeys.isEmpty()) {
+            return;
+        }
+
+        List<K> changed = new ArrayList<>(changedKeys);
+        changedKeys.removeAll(changed);
+        Map<K, T> entities = repository.findAllByIdAsMap(changed);
+        for (K id : changed) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                setRow(entity);
+            } else {
+                removeRow(id);
+            }
+        }
+    }
+
+    /**
+     * Get the number of entities in the snapshot
+     *
+     * @return The number of entities
+     */
+    public synchronized int size() {
+        refresh();
+        return rowCount;
+    }
+
+    /**
+     * Count the entities matching a filter
+     *
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The number of matching entities
+     * @throws DatabaseException if the filter uses an unknown column
+     */
+    public synchronized long count(Query filter) {
+        refresh();
+        return RowMask.count(select(filter));
+    }
+
+    /**
+     * Sum an int column over the entities matching a filter
+     *
+     * @param column The int column
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The sum, 0 if no entity matches
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized long sum(String column, Query filter) {
+        refresh();
+        IntColumn<T> values = requireIntColumn(column);
+        return values.sum(select(filter), rowCount);
+    }
+
+    /**
+     * Average an int column over the entities matching a filter
+     *
+     * @param column The int column
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The average, NaN if no entity matches
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized double average(String column, Query filter) {
+        refresh();
+        IntColumn<T> values = requireIntColumn(column);
+        long[] mask = select(filter);
+        long count = RowMask.count(mask);
+        return count == 0 ? Double.NaN : (double) values.sum(mask, rowCount) / count;
+    }
+
+    /**
+     * Get the smallest value of an int column among the entities matching a
+     * filter
+     *
+     * @param column The int column
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The smallest value, or null if no entity matches
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized Integer min(String column, Query filter) {
+        refresh();
+        IntColumn<T> values = requireIntColumn(column);
+        long[] mask = select(filter);
+        return RowMask.count(mask) == 0 ? null : values.min(mask, rowCount);
+    }
+
+    /**
+     * Get the largest value of an int column among the entities matching a
+     * filter
+     *
+     * @param column The int column
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The largest value, or null if no entity matches
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized Integer max(String column, Query filter) {
+        refresh();
+        IntColumn<T> values = requireIntColumn(column);
+        long[] mask = select(filter);
+        return RowMask.count(mask) == 0 ? null : values.max(mask, rowCount);
+    }
+
+    /**
+     * Count the entities matching a filter per value of a string column, for
+     * example the number of adult users per country
+     *
+     * @param groupColumn The string column to group by
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The number of entities by value, without values no matching
+     * entity holds
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized Map<String, Long> countBy(String groupColumn, Query filter) {
+        refresh();
+        StringColumn<T> groups = requireStringColumn(groupColumn);
+        long[] counts = groups.countByCode(select(filter), rowCount);
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(groups.decode(code), counts[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sum an int column over the entities matching a filter per value of a
+     * string column
+     *
+     * @param groupColumn The string column to group by
+     * @param column The int column to sum
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The sum by value, without values no matching entity holds
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized Map<String, Long> sumBy(String groupColumn, String column, Query filter) {
+        refresh();
+        StringColumn<T> groups = requireStringColumn(groupColumn);
+        IntColumn<T> values = requireIntColumn(column);
+        long[] mask = select(filter);
+        long[] counts = groups.countByCode(mask, rowCount);
+        long[] sums = new long[counts.length];
+        values.sumByGroup(groups.codes(), mask, rowCount, sums);
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(groups.decode(code), sums[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Average an int column over the entities matching a filter per value of
+     * a string column, for example the average age per country
+     *
+     * @param groupColumn The string column to group by
+     * @param column The int column to average
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The average by value, without values no matching entity holds
+     * @throws DatabaseException if a column is unknown
+     */
+    public synchronized Map<String, Double> averageBy(String groupColumn, String column, Query filter) {
+        refresh();
+        StringColumn<T> groups = requireStringColumn(groupColumn);
+        IntColumn<T> values = requireIntColumn(column);
+        long[] mask = select(filter);
+        long[] counts = groups.countByCode(mask, rowCount);
+        long[] sums = new long[counts.length];
+        values.sumByGroup(groups.codes(), mask, rowCount, sums);
+
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(groups.decode(code), (double) sums[code] / counts[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the primary keys of the entities matching a filter, for example
+     * to read them from the repository
+     *
+     * @param filter The filter over the column names, or null for all
+     * entities
+     * @return The primary keys, in no particular order
+     * @throws DatabaseException if the filter uses an unknown column
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<K> findIds(Query filter) {
+        refresh();
+        long[] mask = select(filter);
+        List<K> ids = new ArrayList<>((int) RowMask.count(mask));
+        for (int row = 0; row < rowCount; row++) {
+            if (RowMask.bit(mask, row) != 0) {
+                ids.add((K) keys[row]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Stop following the changes of the repository
+     */
+    @Override
+    public void close() {
+        repository.removeChangeListener(listener);
+    }
+
+    /**
+     * Read every entity again
+     */
+    private void rebuild() {
+        cleared = false;
+        changedKeys.clear();
+        Arrays.fill(keys, 0, rowCount, null);
+        rowsByKey.clear();
+        rowCount = 0;
+        for (StringColumn<T> column : stringColumns.values()) {
+            column.clear();
+        }
+
+        for (T entity : repository.findAll()) {
+            setRow(entity);
+        }
+    }
+
+    private void setRow(T entity) {
+        K id = entity.getId();
+        Integer row = rowsByKey.get(id);
+        if (row == null) {
+            row = rowCount++;
+            ensureCapacity(rowCount);
+            keys[row] = id;
+            rowsByKey.put(id, row);
+        }
+        for (IntColumn<T> column : intColumns.values()) {
+            column.set(row, entity);
+        }
+        for (StringColumn<T> column : stringColumns.values()) {
+            column.set(row, entity);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeRow(K id) {
+        Integer row = rowsByKey.remove(id);
+        if (row == null) {
+            return;
+        }
+
+        int last = --rowCount;
+        if (row != last) {
+            for (IntColumn<T> column : intColumns.values()) {
+                column.move(last, row);
+            }
+            for (StringColumn<T> column : stringColumns.values()) {
+                column.move(last, row);
+            }
+            keys[row] = keys[last];
+            rowsByKey.put((K) keys[row], row);
+        }
+        keys[last] = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (keys.length < capacity) {
+            keys = Arrays.copyOf(keys, Math.max(capacity, keys.length * 2));
+        }
+        for (IntColumn<T> column : intColumns.values()) {
+            column.ensureCapacity(capacity);
+        }
+        for (StringColumn<T> column : stringColumns.values()) {
+            column.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Evaluate a filter into a mask of the matching rows
+     */
+    private long[] select(Query filter) {
+        if (filter == null) {
+            return RowMask.all(rowCount);
+        }
+        if (filter instanceof Query.And and) {
+            long[] mask = select(and.terms().get(0));
+            for (int i = 1; i < and.terms().size(); i++) {
+                RowMask.and(mask, select(and.terms().get(i)));
+            }
+            return mask;
+        }
+        if (filter instanceof Query.Or or) {
+            long[] mask = select(or.terms().get(0));
+            for (int i = 1; i < or.terms().size(); i++) {
+                RowMask.or(mask, select(or.terms().get(i)));
+            }
+            return mask;
+        }
+        if (filter instanceof Query.Not not) {
+            long[] mask = select(not.term());
+            RowMask.not(mask, rowCount);
+            return mask;
+        }
+
+        long[] mask = RowMask.none(rowCount);
+        if (filter instanceof Query.Eq eq) {
+            selectValue(eq.attribute(), eq.value(), mask);
+        } else if (filter instanceof Query.In in) {
+            for (Object value : in.values()) {
+                selectValue(in.attribute(), value, mask);
+            }
+        } else {
+            selectRange((Query.Range) filter, mask);
+        }
+        return mask;
+    }
+
+    private void selectValue(String column, Object value, long[] mask) {
+        IntColumn<T> ints = intColumns.get(column);
+        if (ints != null) {
+            // Values are compared with equals, so only an Integer can match
+            if (value instanceof Integer number) {
+                ints.selectRange(number, number, rowCount, mask);
+            }
+            return;
+        }
+
+        StringColumn<T> strings = requireStringColumn(column);
+        if (value == null || value instanceof String) {
+            strings.selectValue((String) value, rowCount, mask);
+        }
+    }
+
+    private void selectRange(Query.Range range, long[] mask) {
+        IntColumn<T> ints = intColumns.get(range.attribute());
+        if (ints != null) {
+            int min = range.from() == null ? Integer.MIN_VALUE : intBound(range, range.from());
+            int max = range.to() == null ? Integer.MAX_VALUE : intBound(range, range.to());
+            ints.selectRange(min, max, rowCount, mask);
+            return;
+        }
+
+        StringColumn<T> strings = requireStringColumn(range.attribute());
+        String from = stringBound(range, range.from());
+        String to = stringBound(range, range.to());
+        strings.selectMatching(value -> value != null
+                && (from == null || from.compareTo(value) <= 0)
+                && (to == null || to.compareTo(value) >= 0), rowCount, mask);
+    }
+
+    private static int intBound(Query.Range range, Object bound) {
+        if (!(bound instanceof Integer number)) {
+            throw new DatabaseException("Bounds of int column '" + range.attribute() + "' must be integers");
+        }
+        return number;
+    }
+
+    private static String stringBound(Query.Range range, Object bound) {
+        if (bound != null && !(bound instanceof String)) {
+            throw new DatabaseException("Bounds of string column '" + range.attribute() + "' must be strings");
+        }
+        return (String) bound;
+    }
+
+    private IntColumn<T> requireIntColumn(String name) {
+        IntColumn<T> column = intColumns.get(name);
+        if (column == null) {
+            throw new DatabaseException("Unknown int column '" + name + "'");
+        }
+        return column;
+    }
+
+    private StringColumn<T> requireStringColumn(String name) {
+        StringColumn<T> column = stringColumns.get(name);
+        if (column == null) {
+            throw new DatabaseException(intColumns.containsKey(name)
+                    ? "Column '" + name + "' is not a string column" : "Unknown column '" + name + "'");
+        }
+        return column;
+    }
+
+    /**
+     * Builder class for ColumnarSnapshot
+     *
+     * @param <T> The entity type
+     * @param <K> The primary key type
+     */
+    public static final class Builder<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
+
+        private final FileEntityRepository<T, K> repository;
+        private final Map<String, ToIntFunction<T>> intColumns = new LinkedHashMap<>();
+        private final Map<String, Function<T, String>> stringColumns = new LinkedHashMap<>();
+
+        private Builder(FileEntityRepository<T, K> repository) {
+            if (repository == null) {
+                throw new IllegalArgumentException("Repository cannot be null");
+            }
+            this.repository = repository;
+        }
+
+        /**
+         * Adds a column of int values
+         *
+         * @param name The column name
+         * @param extractor The function to extract the value from an entity
+         * @return The builder
+         */
+        public Builder<T, K> intColumn(String name, ToIntFunction<T> extractor) {
+            requireNewName(name);
+            intColumns.put(name, extractor);
+            return this;
+        }
+
+        /**
+         * Adds a dictionary-encoded column of strings, suited to attributes
+         * with few distinct values such as a country
+         *
+         * @param name The column name
+         * @param extractor The function to extract the value from an entity
+         * @return The builder
+         */
+        public Builder<T, K> stringColumn(String name, Function<T, String> extractor) {
+            requireNewName(name);
+            stringColumns.put(name, extractor);
+            return this;
+        }
+
+        /**
+         * Builds the snapshot, reading every entity of the repository once
+         *
+         * @return The built snapshot, following the changes of the repository
+         * until it is closed
+         * @throws DatabaseException if an error occurs while reading the
+         * entities
+         */
+        public ColumnarSnapshot<T, K> build() {
+            if (intColumns.isEmpty() && stringColumns.isEmpty()) {
+                throw new IllegalStateException("Snapshot needs at least one column");
+            }
+            return new ColumnarSnapshot<>(this);
+        }
+
+        private void requireNewName(String name) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Column name cannot be empty");
+            }
+            if (intColumns.containsKey(name) || stringColumns.containsKey(name)) {
+                throw new IllegalArgumentException("Column '" + name + "' already exists");
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cz.upce.boop.ex.db.columnar;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * Column of int values, one per row of a {@link ColumnarSnapshot}.
+ *
+ * The kernels are plain counted loops over the value array that select rows
+ * without branching, which the JIT compiles to tight, unrolled code.
+ *
+ * @param <T> The entity type
+ */
+final class IntColumn<T> {
+
+    private final String name;
+    private final ToIntFunction<T> extractor;
+    private int[] values;
+
+    IntColumn(String name, ToIntFunction<T> extractor, int capacity) {
+        this.name = name;
+        this.extractor = extractor;
+        this.values = new int[capacity];
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (values.length < capacity) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    void set(int row, T entity) {
+        values[row] = extractor.applyAsInt(entity);
+    }
+
+    void move(int from, int to) {
+        values[to] = values[from];
+    }
+
+    /**
+     * Select the rows whose value lies between two bounds, inclusive, in
+     * addition to the rows already selected
+     */
+    void selectRange(int min, int max, int rowCount, long[] mask) {
+        int[] values = this.values;
+        for (int row = 0; row < rowCount; row++) {
+            int value = values[row];
+            long match = value >= min & value <= max ? 1L : 0L;
+            mask[row >>> 6] |= match << row;
+        }
+    }
+
+    long sum(long[] mask, int rowCount) {
+        int[] values = this.values;
+        long sum = 0;
+        for (int row = 0; row < rowCount; row++) {
+            sum += (long) values[row] * RowMask.bit(mask, row);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the smallest selected value, or Integer.MAX_VALUE if no row is
+     * selected
+     */
+    int min(long[] mask, int rowCount) {
+        int[] values = this.values;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < rowCount; row++) {
+            int value = RowMask.bit(mask, row) != 0 ? values[row] : Integer.MAX_VALUE;
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * Get the largest selected value, or Integer.MIN_VALUE if no row is
+     * selected
+     */
+    int max(long[] mask, int rowCount) {
+        int[] values = this.values;
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < rowCount; row++) {
+            int value = RowMask.bit(mask, row) != 0 ? values[row] : Integer.MIN_VALUE;
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * Add the selected values to the sum of their group
+     *
+     * @param codes The group of every row
+     * @param sums The sum of every group
+     */
+    void sumByGroup(int[] codes, long[] mask, int rowCount, long[] sums) {
+        int[] values = this.values;
+        for (int row = 0; row < rowCount; row++) {
+            sums[codes[row]] += (long) values[row] * RowMask.bit(mask, row);
+        }
+    }
+}
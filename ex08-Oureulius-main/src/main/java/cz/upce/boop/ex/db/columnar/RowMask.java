@@ -0,0 +1,107 @@
+package cz.upce.boop.ex.db.columnar;
+
+/**
+ * Bitmaps selecting rows of a {@link ColumnarSnapshot}, one bit per row in
+ * words of 64 rows.
+ */
+final class RowMask {
+
+    private RowMask() {
+    }
+
+    /**
+     * Create a mask selecting no row
+     *
+     * @param rowCount The number of rows
+     * @return The mask
+     */
+    static long[] none(int rowCount) {
+        return new long[(rowCount + 63) >>> 6];
+    }
+
+    /**
+     * Create a mask selecting every row
+     *
+     * @param rowCount The number of rows
+     * @return The mask
+     */
+    static long[] all(int rowCount) {
+        long[] mask = none(rowCount);
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = -1L;
+        }
+        clearTail(mask, rowCount);
+        return mask;
+    }
+
+    /**
+     * Keep only the rows selected by both masks
+     *
+     * @param mask The mask to narrow
+     * @param other The other mask
+     */
+    static void and(long[] mask, long[] other) {
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] &= other[i];
+        }
+    }
+
+    /**
+     * Add the rows selected by another mask
+     *
+     * @param mask The mask to widen
+     * @param other The other mask
+     */
+    static void or(long[] mask, long[] other) {
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] |= other[i];
+        }
+    }
+
+    /**
+     * Select exactly the rows that were not selected
+     *
+     * @param mask The mask to invert
+     * @param rowCount The number of rows
+     */
+    static void not(long[] mask, int rowCount) {
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = ~mask[i];
+        }
+        clearTail(mask, rowCount);
+    }
+
+    /**
+     * Count the selected rows
+     *
+     * @param mask The mask
+     * @return The number of selected rows
+     */
+    static long count(long[] mask) {
+        long count = 0;
+        for (long word : mask) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Get the selection bit of a row
+     *
+     * @param mask The mask
+     * @param row The row
+     * @return 1 if the row is selected, 0 otherwise
+     */
+    static int bit(long[] mask, int row) {
+        return (int) (mask[row >>> 6] >>> row) & 1;
+    }
+
+    /**
+     * Unselect the bits past the last row, which belong to no row
+     */
+    private static void clearTail(long[] mask, int rowCount) {
+        if ((rowCount & 63) != 0) {
+            mask[mask.length - 1] &= (1L << rowCount) - 1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cz.upce.boop.ex.db.columnar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Dictionary-encoded column of strings, one per row of a
+ * {@link ColumnarSnapshot}.
+ *
+ * Every distinct string gets a code, and the rows hold codes only. A term on
+ * the column is evaluated once per distinct string, and the rows are then
+ * selected by looking up their code. Code 0 stands for null. Codes of
+ * strings no row holds any more are kept until the snapshot is rebuilt.
+ *
+ * @param <T> The entity type
+ */
+final class StringColumn<T> {
+
+    private static final int NULL_CODE = 0;
+
+    private final String name;
+    private final Function<T, String> extractor;
+    private int[] codes;
+    // The string of every code, null at code 0
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> codesByValue = new HashMap<>();
+
+    StringColumn(String name, Function<T, String> extractor, int capacity) {
+        this.name = name;
+        this.extractor = extractor;
+        this.codes = new int[capacity];
+        dictionary.add(null);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (codes.length < capacity) {
+            codes = Arrays.copyOf(codes, Math.max(capacity, codes.length * 2));
+        }
+    }
+
+    void set(int row, T entity) {
+        codes[row] = encode(extractor.apply(entity));
+    }
+
+    void move(int from, int to) {
+        codes[to] = codes[from];
+    }
+
+    void clear() {
+        dictionary.subList(1, dictionary.size()).clear();
+        codesByValue.clear();
+    }
+
+    int[] codes() {
+        return codes;
+    }
+
+    int dictionarySize() {
+        return dictionary.size();
+    }
+
+    String decode(int code) {
+        return dictionary.get(code);
+    }
+
+    /**
+     * Select the rows holding a string, in addition to the rows already
+     * selected
+     */
+    void selectValue(String value, int rowCount, long[] mask) {
+        Integer code = value == null ? Integer.valueOf(NULL_CODE) : codesByValue.get(value);
+        if (code == null) {
+            return;
+        }
+        int[] codes = this.codes;
+        int wanted = code;
+        for (int row = 0; row < rowCount; row++) {
+            long match = codes[row] == wanted ? 1L : 0L;
+            mask[row >>> 6] |= match << row;
+        }
+    }
+
+    /**
+     * Select the rows whose string matches a condition, in addition to the
+     * rows already selected. The condition is tested once per distinct
+     * string.
+     */
+    void selectMatching(Predicate<String> condition, int rowCount, long[] mask) {
+        long[] table = new long[dictionary.size()];
+        for (int code = 0; code < table.length; code++) {
+            table[code] = condition.test(dictionary.get(code)) ? 1L : 0L;
+        }
+        int[] codes = this.codes;
+        for (int row = 0; row < rowCount; row++) {
+            mask[row >>> 6] |= table[codes[row]] << row;
+        }
+    }
+
+    /**
+     * Count the selected rows of every code
+     */
+    long[] countByCode(long[] mask, int rowCount) {
+        int[] codes = this.codes;
+        long[] counts = new long[dictionary.size()];
+        for (int row = 0; row < rowCount; row++) {
+            counts[codes[row]] += RowMask.bit(mask, row);
+        }
+        return counts;
+    }
+
+    private int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codesByValue.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            codesByValue.put(value, code);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,94 @@
+package cz.upce.boop.ex.db.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe bloom filter over entity file names, used to answer "does not
+ * exist" without touching the file system.
+ *
+ * A bloom filter has no false negatives, so a name must be added before its
+ * file is created. Names cannot be removed; deleted entities merely raise the
+ * false positive rate until the filter is rebuilt when the repository is
+ * opened again, and a positive answer is always confirmed on disk.
+ */
+final class BloomFilter {
+
+    private static final int HASH_COUNT = 7;
+    // About 1 % false positives at the expected number of names
+    private static final int BITS_PER_NAME = 10;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+
+    /**
+     * Create an empty filter
+     *
+     * @param expectedNames The number of names the filter is sized for
+     */
+    BloomFilter(long expectedNames) {
+        long words = Math.max(1, (expectedNames * BITS_PER_NAME + 63) / 64);
+        this.bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE - 8));
+        this.bitCount = (long) bits.length() * 64;
+    }
+
+    /**
+     * Add a file name
+     *
+     * @param fileName The file name
+     */
+    void add(String fileName) {
+        long hash = hash(fileName);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= HASH_COUNT; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Check whether a file name may have been added
+     *
+     * @param fileName The file name
+     * @return false if the name was definitely never added
+     */
+    boolean mightContain(String fileName) {
+        long hash = hash(fileName);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= HASH_COUNT; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove all names
+     */
+    void clear() {
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0);
+        }
+    }
+
+    private static long hash(String value) {
+        // 64-bit FNV-1a followed by a murmur finalizer
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,26 @@
+package cz.upce.boop.ex.db.core;
+
+/**
+ * Record representing a snapshot of record compression statistics.
+ *
+ * @param recordCount The number of records compressed
+ * @param uncompressedBytes The size of the records before compression
+ * @param storedBytes The size of the records as stored, including records
+ * kept uncompressed because compression did not make them smaller
+ * @param dictionaryId The id of the dictionary used for new records, 0 if
+ * none has been trained
+ * @param dictionarySize The size of that dictionary in bytes
+ */
+public record CompressionStats(long recordCount, long uncompressedBytes, long storedBytes,
+        int dictionaryId, int dictionarySize) {
+
+    /**
+     * Gets the ratio of the stored size to the uncompressed size
+     *
+     * @return The ratio, below 1 if compression saves space, or 1 if no
+     * records were written
+     */
+    public double ratio() {
+        return uncompressedBytes == 0 ? 1.0 : (double) storedBytes / uncompressedBytes;
+    }
+}
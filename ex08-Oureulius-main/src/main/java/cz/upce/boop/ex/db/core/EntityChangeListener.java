@@ -0,0 +1,23 @@
+package cz.upce.boop.ex.db.core;
+
+/**
+ * Listener notified by a {@link FileEntityRepository} after its entities
+ * change. Notifications arrive once the change is visible to readers, on the
+ * thread that made it.
+ *
+ * @param <K> The primary key type
+ */
+public interface EntityChangeListener<K extends PrimaryKey<?>> {
+
+    /**
+     * Called after an entity was saved, updated or deleted
+     *
+     * @param id The primary key of the entity
+     */
+    void entityChanged(K id);
+
+    /**
+     * Called after every entity was deleted at once
+     */
+    void entitiesCleared();
+}
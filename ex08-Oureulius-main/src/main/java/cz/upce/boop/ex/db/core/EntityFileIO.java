@@ -0,0 +1,151 @@
+package cz.upce.boop.ex.db.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * NIO helpers for reading and writing entity files.
+ *
+ * Every thread owns one direct buffer for reading, one for writing and one
+ * char buffer for decoding, so a read or write does not allocate once the
+ * buffers have grown to the size of the largest record. Buffers returned by
+ * this class are only valid until the next call on the same thread.
+ */
+final class EntityFileIO {
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<CharBuffer> CHAR_BUFFER
+            = ThreadLocal.withInitial(() -> CharBuffer.allocate(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<CharsetDecoder> DECODER
+            = ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
+    private static final ThreadLocal<CharsetEncoder> ENCODER
+            = ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+
+    private EntityFileIO() {
+    }
+
+    /**
+     * Read a whole file into the thread's read buffer
+     *
+     * @param path The file to read
+     * @return The buffer flipped for reading
+     * @throws IOException If an I/O error occurs
+     */
+    static ByteBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + path);
+            }
+
+            ByteBuffer buffer = buffer(READ_BUFFER, (int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full or the end of file is reached
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Write the remaining bytes of a buffer to a file
+     *
+     * @param path The file to write
+     * @param data The bytes to write
+     * @param options The options used to open the file
+     * @throws IOException If an I/O error occurs
+     */
+    static void write(Path path, ByteBuffer data, OpenOption... options) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Decode UTF-8 bytes into the thread's char buffer
+     *
+     * @param bytes The bytes to decode
+     * @return The decoded characters flipped for reading
+     * @throws DatabaseException If the bytes are not valid UTF-8
+     */
+    static CharBuffer decode(ByteBuffer bytes) {
+        CharsetDecoder decoder = DECODER.get().reset();
+        CharBuffer chars = charBuffer((int) (bytes.remaining() * (double) decoder.maxCharsPerByte()));
+        try {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            decoder.flush(chars);
+        } catch (CharacterCodingException e) {
+            throw new DatabaseException("Invalid UTF-8 content", e);
+        }
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * Encode characters as UTF-8 into the thread's write buffer
+     *
+     * @param chars The characters to encode
+     * @return The encoded bytes flipped for reading
+     * @throws DatabaseException If the characters cannot be encoded
+     */
+    static ByteBuffer encode(CharSequence chars) {
+        CharsetEncoder encoder = ENCODER.get().reset();
+        ByteBuffer bytes = buffer(WRITE_BUFFER, (int) (chars.length() * (double) encoder.maxBytesPerChar()));
+        try {
+            CoderResult result = encoder.encode(CharBuffer.wrap(chars), bytes, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            encoder.flush(bytes);
+        } catch (CharacterCodingException e) {
+            throw new DatabaseException("Content cannot be encoded as UTF-8", e);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static ByteBuffer buffer(ThreadLocal<ByteBuffer> holder, int capacity) {
+        ByteBuffer buffer = holder.get();
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(grow(capacity));
+            holder.set(buffer);
+        }
+        buffer.clear().limit(capacity);
+        return buffer;
+    }
+
+    private static CharBuffer charBuffer(int capacity) {
+        CharBuffer buffer = CHAR_BUFFER.get();
+        if (buffer.capacity() < capacity) {
+            buffer = CharBuffer.allocate(grow(capacity));
+            CHAR_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int grow(int capacity) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        return size < capacity ? capacity : size;
+    }
+}
@@ -0,0 +1,66 @@
+package cz.upce.boop.ex.db.core;
+
+/**
+ * Handle of an entity in a {@link LazyResult}, holding only its primary key
+ * until the entity is first accessed.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public final class EntityHandle<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
+
+    private final LazyResult<T, K> owner;
+    private final int position;
+    private final K id;
+    // Written by the owner under its lock, the volatile flag publishes the entity
+    private T entity;
+    private volatile boolean loaded;
+
+    EntityHandle(LazyResult<T, K> owner, int position, K id) {
+        this.owner = owner;
+        this.position = position;
+        this.id = id;
+    }
+
+    /**
+     * Get the primary key, without loading the entity
+     *
+     * @return The primary key
+     */
+    public K getId() {
+        return id;
+    }
+
+    /**
+     * Get the entity. The first access loads this entity together with the
+     * neighbouring handles of the same batch that are not loaded yet.
+     *
+     * @return The entity, or null if it no longer exists
+     * @throws DatabaseException if an error occurs while loading
+     */
+    public T get() {
+        if (!loaded) {
+            owner.loadBatch(position);
+        }
+        return entity;
+    }
+
+    /**
+     * Check whether the entity has been loaded
+     *
+     * @return true if the entity has been loaded, false otherwise
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    void set(T entity) {
+        this.entity = entity;
+        this.loaded = true;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityHandle{" + "id=" + id + ", loaded=" + loaded + '}';
+    }
+}
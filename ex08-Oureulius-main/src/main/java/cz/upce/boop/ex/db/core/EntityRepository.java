@@ -1,7 +1,12 @@
 package cz.upce.boop.ex.db.core;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public interface EntityRepository<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
 
@@ -14,6 +19,45 @@ public interface EntityRepository<T extends DatabaseEntity<K>, K extends Primary
      */
     T findById(K id);
 
+    /**
+     * Find several entities by their primary keys
+     *
+     * @param ids The primary keys of the entities to find
+     * @return The found entities in the order of the keys, without the keys
+     * that were not found
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default List<T> findAllById(Collection<K> ids) {
+        List<T> result = new ArrayList<>(ids.size());
+        for (K id : ids) {
+            T entity = findById(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find several entities by their primary keys
+     *
+     * @param ids The primary keys of the entities to find
+     * @return The found entities by primary key, in the order of the keys
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default Map<K, T> findAllByIdAsMap(Collection<K> ids) {
+        Map<K, T> result = new LinkedHashMap<>();
+        for (K id : ids) {
+            if (!result.containsKey(id)) {
+                T entity = findById(id);
+                if (entity != null) {
+                    result.put(id, entity);
+                }
+            }
+        }
+        return result;
+    }
+
     default boolean exists(K id) {
         return findById(id) != null;
     }
@@ -26,6 +70,64 @@ public interface EntityRepository<T extends DatabaseEntity<K>, K extends Primary
      */
     List<T> findAll();
 
+    /**
+     * Stream all entities in the repository. The stream should be closed
+     * after use, for example with try-with-resources.
+     *
+     * @return A stream of all entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default Stream<T> stream() {
+        return findAll().stream();
+    }
+
+    /**
+     * Stream the entities that match the given condition. The stream should
+     * be closed after use, for example with try-with-resources.
+     *
+     * @param condition The condition to match
+     * @return A stream of matching entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default Stream<T> streamByCondition(Predicate<T> condition) {
+        return stream().filter(condition);
+    }
+
+    /**
+     * Find the primary keys of all entities in the repository
+     *
+     * @return A list of all primary keys
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default List<K> findAllIds() {
+        List<T> all = findAll();
+        List<K> ids = new ArrayList<>(all.size());
+        for (T entity : all) {
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Count the entities in the repository
+     *
+     * @return The number of entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default int count() {
+        return findAll().size();
+    }
+
+    /**
+     * Get the number of entities if the repository knows it without reading
+     * its storage
+     *
+     * @return The number of entities, or -1 if it is not known
+     */
+    default int knownCount() {
+        return -1;
+    }
+
     /**
      * Save a new entity to the repository
      *
@@ -52,6 +154,44 @@ public interface EntityRepository<T extends DatabaseEntity<K>, K extends Primary
         }
     }
 
+    /**
+     * Save a batch of new entities to the repository
+     *
+     * @param entities The entities to save
+     * @throws DatabaseException if an error occurs during the operation or if
+     * any entity already exists
+     */
+    default void saveAll(Collection<T> entities) {
+        for (T entity : entities) {
+            save(entity);
+        }
+    }
+
+    /**
+     * Update a batch of existing entities in the repository
+     *
+     * @param entities The entities to update
+     * @throws DatabaseException if an error occurs during the operation or if
+     * any entity doesn't exist
+     */
+    default void updateAll(Collection<T> entities) {
+        for (T entity : entities) {
+            update(entity);
+        }
+    }
+
+    /**
+     * Save new entities and update existing ones in a single batch
+     *
+     * @param entities The entities to save or update
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default void saveOrUpdateAll(Collection<T> entities) {
+        for (T entity : entities) {
+            saveOrUpdate(entity);
+        }
+    }
+
     /**
      * Delete an entity from the repository
      *
@@ -61,6 +201,45 @@ public interface EntityRepository<T extends DatabaseEntity<K>, K extends Primary
      */
     void delete(K id);
 
+    /**
+     * Delete a batch of entities from the repository
+     *
+     * @param ids The primary keys of the entities to delete
+     * @throws DatabaseException if an error occurs during the operation or if
+     * any entity doesn't exist
+     */
+    default void deleteAll(Collection<K> ids) {
+        for (K id : ids) {
+            delete(id);
+        }
+    }
+
+    /**
+     * Delete all entities from the repository
+     *
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default void deleteAll() {
+        for (T entity : findAll()) {
+            delete(entity.getId());
+        }
+    }
+
+    /**
+     * Delete all entities that match the given condition
+     *
+     * @param condition The condition to match
+     * @return The number of deleted entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default int deleteByCondition(Predicate<T> condition) {
+        List<T> matching = findByCondition(condition);
+        for (T entity : matching) {
+            delete(entity.getId());
+        }
+        return matching.size();
+    }
+
     /**
      * Find entities that match the given condition
      *
@@ -69,4 +248,20 @@ public interface EntityRepository<T extends DatabaseEntity<K>, K extends Primary
      * @throws DatabaseException if an error occurs during the operation
      */
     List<T> findByCondition(Predicate<T> condition);
+
+    /**
+     * Find at most the given number of entities that match the given condition
+     *
+     * @param condition The condition to match
+     * @param limit The maximum number of entities to return
+     * @return A list of matching entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    default List<T> findByCondition(Predicate<T> condition, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        List<T> matching = findByCondition(condition);
+        return matching.size() > limit ? new ArrayList<>(matching.subList(0, limit)) : matching;
+    }
 }
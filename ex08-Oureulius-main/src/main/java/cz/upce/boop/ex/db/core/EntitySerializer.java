@@ -1,5 +1,7 @@
 package cz.upce.boop.ex.db.core;
 
+import java.nio.ByteBuffer;
+
 public interface EntitySerializer<T extends DatabaseEntity<?>> {
     /**
      * Serialize an entity to a string
@@ -8,6 +10,18 @@ public interface EntitySerializer<T extends DatabaseEntity<?>> {
      * @throws DatabaseException if an error occurs during serialization
      */
     String serialize(T entity);
+
+    /**
+     * Serialize an entity to the bytes stored in its file. The buffer may be
+     * reused by the next call on the same thread, so it must be consumed
+     * before another entity is serialized.
+     * @param entity The entity to serialize
+     * @return The serialized entity, flipped for reading
+     * @throws DatabaseException if an error occurs during serialization
+     */
+    default ByteBuffer serializeToBytes(T entity) {
+        return EntityFileIO.encode(serialize(entity));
+    }
     
     /**
      * Deserialize a string to an entity
@@ -16,4 +30,28 @@ public interface EntitySerializer<T extends DatabaseEntity<?>> {
      * @throws DatabaseException if an error occurs during deserialization
      */
     T deserialize(String data);
-}
\ No newline at end of file
+
+    /**
+     * Deserialize a character sequence to an entity. The sequence may be
+     * backed by a reused buffer, so implementations must not keep a reference
+     * to it after returning.
+     * @param data The characters to deserialize
+     * @return The deserialized entity
+     * @throws DatabaseException if an error occurs during deserialization
+     */
+    default T deserialize(CharSequence data) {
+        return deserialize(data.toString());
+    }
+
+    /**
+     * Deserialize UTF-8 encoded bytes to an entity. The buffer may be reused
+     * by the caller, so implementations must not keep a reference to it after
+     * returning.
+     * @param data The bytes to deserialize
+     * @return The deserialized entity
+     * @throws DatabaseException if an error occurs during deserialization
+     */
+    default T deserialize(ByteBuffer data) {
+        return deserialize(EntityFileIO.decode(data));
+    }
+}
@@ -0,0 +1,130 @@
+package cz.upce.boop.ex.db.core;
+
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Spliterator reading entities lazily, one file per advance.
+ *
+ * The root spliterator usually walks a directory iterator of unknown size.
+ * Splitting it takes a growing batch of paths off the iterator, without
+ * reading them, and hands the batch to an array-backed spliterator that
+ * halves itself on further splits. Parallel streams therefore get balanced
+ * work even though the number of files is not known in advance.
+ *
+ * @param <T> The entity type
+ */
+final class EntitySpliterator<T> implements Spliterator<T> {
+
+    private static final int BATCH_INCREMENT = 256;
+    private static final int MAX_BATCH = 1 << 14;
+
+    private final Iterator<Path> paths;
+    private final Path[] batch;
+    private int index;
+    private final int fence;
+    private final Function<Path, T> reader;
+    private final Predicate<T> condition;
+    private int batchSize;
+
+    /**
+     * Create a spliterator over an iterator of paths
+     *
+     * @param paths The paths to read
+     * @param reader Reads the entity of a path, or returns null to skip it
+     * @param condition The condition entities must match, or null to accept
+     * all of them
+     */
+    EntitySpliterator(Iterator<Path> paths, Function<Path, T> reader, Predicate<T> condition) {
+        this(paths, null, 0, 0, reader, condition);
+    }
+
+    /**
+     * Create a spliterator over an array of paths
+     *
+     * @param batch The paths to read
+     * @param reader Reads the entity of a path, or returns null to skip it
+     * @param condition The condition entities must match, or null to accept
+     * all of them
+     */
+    EntitySpliterator(Path[] batch, Function<Path, T> reader, Predicate<T> condition) {
+        this(null, batch, 0, batch.length, reader, condition);
+    }
+
+    private EntitySpliterator(Iterator<Path> paths, Path[] batch, int index, int fence,
+            Function<Path, T> reader, Predicate<T> condition) {
+        this.paths = paths;
+        this.batch = batch;
+        this.index = index;
+        this.fence = fence;
+        this.reader = reader;
+        this.condition = condition;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        Path path;
+        while ((path = nextPath()) != null) {
+            T entity = reader.apply(path);
+            if (entity != null && (condition == null || condition.test(entity))) {
+                action.accept(entity);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (paths == null) {
+            int remaining = fence - index;
+            if (remaining < 2) {
+                return null;
+            }
+            int middle = index + remaining / 2;
+            Spliterator<T> prefix = new EntitySpliterator<>(null, batch, index, middle, reader, condition);
+            index = middle;
+            return prefix;
+        }
+
+        int size = Math.min(batchSize + BATCH_INCREMENT, MAX_BATCH);
+        Path[] split = new Path[size];
+        int count = 0;
+        Path path;
+        while (count < size && (path = nextPath()) != null) {
+            split[count++] = path;
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        batchSize = count;
+        return new EntitySpliterator<>(null, split, 0, count, reader, condition);
+    }
+
+    @Override
+    public long estimateSize() {
+        return paths == null ? fence - index : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    private Path nextPath() {
+        if (paths == null) {
+            return index < fence ? batch[index++] : null;
+        }
+        try {
+            return paths.hasNext() ? paths.next() : null;
+        } catch (DirectoryIteratorException e) {
+            throw new DatabaseException("Error listing directory", e.getCause());
+        }
+    }
+}
@@ -1,17 +1,141 @@
 package cz.upce.boop.ex.db.core;
 
-import java.io.*;
+import cz.upce.boop.ex.db.cache.CacheCopyMode;
+import cz.upce.boop.ex.db.cache.CacheStats;
+import cz.upce.boop.ex.db.cache.EntityCache;
+import cz.upce.boop.ex.db.serializer.RawRecord;
+import cz.upce.boop.ex.db.serializer.TextSerializer;
+import cz.upce.boop.ex.db.wal.WalRecord;
+import cz.upce.boop.ex.db.wal.WriteAheadLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class FileEntityRepository<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
-        implements EntityRepository<T, K> {
+        implements EntityRepository<T, K>, AutoCloseable {
+
+    private static final String WAL_DIR_NAME = "wal";
+    private static final String CATALOG_DIR_NAME = "catalog";
+    private static final String CATALOG_FILE_NAME = "keys.cat";
+    private static final String COMPRESSION_DIR_NAME = "compression";
+
+    // The bloom filter is sized for twice the entities found at open, but at least this many
+    private static final int BLOOM_FILTER_MINIMUM_SIZE = 1024;
+
+    // Below this many files per transaction, writing them one by one is cheaper
+    private static final int PARALLEL_WRITE_THRESHOLD = 64;
+
+    // Used to size the cache's frequency sketch when it is limited by bytes
+    private static final int ESTIMATED_ENTITY_SIZE = 256;
+    // First value of the position in a page token of a primary key ordering
+    private static final String PRIMARY_KEY_PAGE = "pk";
+
+    /**
+     * Entity state written by a logged transaction that is not applied yet
+     */
+    private record PendingWrite<T>(long lsn, T entity) {
+
+    }
+
+    /**
+     * Cached state of an entity: the shared instance with
+     * {@link CacheCopyMode#SHARED}, otherwise its serialized form, from which
+     * every hit deserializes a private copy
+     */
+    private record CachedEntity<T>(T entity, byte[] data) {
+
+    }
 
     protected final File databaseDir;
     protected final EntitySerializer<T> serializer;
+    protected final RepositoryOptions options;
+    protected final WriteAheadLog writeAheadLog;
+    // Keyed by file name, null if caching is disabled
+    private final EntityCache<String, CachedEntity<T>> cache;
+    private final Function<String, K> keyParser;
+    // At most one of them is used, both null if disabled; set when the repository is opened
+    private PrimaryKeyCatalog<K> keyCatalog;
+    private BloomFilter bloomFilter;
+    private boolean opened;
+    private final ParallelScanner scanner;
+    private final RecordCompressor compressor;
+    protected final PageToken pageTokens;
+
+    // Guards transaction validation and the in-memory state derived from it
+    protected final Object commitLock = new Object();
+    private final Map<String, PendingWrite<T>> pendingWrites = new HashMap<>();
+    private long pendingTruncateLsn;
+    // Pending writes logged before it are deleted by the truncate
+    private long lastTruncateLsn;
+
+    private final List<EntityChangeListener<K>> changeListeners = new CopyOnWriteArrayList<>();
 
     public FileEntityRepository(String dirPath, EntitySerializer<T> serializer) {
+        this(dirPath, serializer, RepositoryOptions.defaults());
+    }
+
+    public FileEntityRepository(String dirPath, EntitySerializer<T> serializer, RepositoryOptions options) {
+        this(dirPath, serializer, options, null);
+    }
+
+    /**
+     * Create a new file entity repository
+     *
+     * @param dirPath The directory to store entity files
+     * @param serializer The serializer for entities
+     * @param options The repository options
+     * @param keyParser The function recovering a primary key from a file
+     * name, returning null if the name does not identify a key; used to
+     * rebuild the primary-key catalog without reading the entities, or null
+     * to read them
+     */
+    public FileEntityRepository(String dirPath, EntitySerializer<T> serializer, RepositoryOptions options,
+            Function<String, K> keyParser) {
+        this(dirPath, serializer, options, keyParser, true);
+    }
+
+    /**
+     * Create a new file entity repository, optionally leaving it to a
+     * subclass to open it
+     *
+     * @param dirPath The directory to store entity files
+     * @param serializer The serializer for entities
+     * @param options The repository options
+     * @param keyParser The function recovering a primary key from a file
+     * name, or null to read the entities when the primary-key catalog is
+     * rebuilt
+     * @param open Whether to open the repository right away. A subclass
+     * whose overridden methods need its own fields passes false and calls
+     * {@link #open()} at the end of its constructor, so the log is not
+     * replayed into them before the fields are set.
+     */
+    protected FileEntityRepository(String dirPath, EntitySerializer<T> serializer, RepositoryOptions options,
+            Function<String, K> keyParser, boolean open) {
         this.databaseDir = new File(dirPath);
         if (!databaseDir.exists()) {
             if (!databaseDir.mkdirs()) {
@@ -19,32 +143,314 @@ public class FileEntityRepository<T extends DatabaseEntity<K>, K extends Primary
             }
         }
         this.serializer = serializer;
+        this.options = options;
+        this.cache = createCache(options);
+        this.scanner = new ParallelScanner(options.getScanParallelism(), options.getScanExecutor());
+        this.pageTokens = new PageToken(options.getPageTokenSecret());
+        this.compressor = new RecordCompressor(new File(databaseDir, COMPRESSION_DIR_NAME), options.isCompression(),
+                options.getMaximumRecordSize());
+        this.keyParser = keyParser;
+
+        if (options.isWriteAheadLog()) {
+            this.writeAheadLog = new WriteAheadLog(new File(databaseDir, WAL_DIR_NAME), databaseDir,
+                    options.isSyncOnCommit(), options.getWalCheckpointSize(),
+                    transactions -> applyTransactions(transactions));
+        } else {
+            this.writeAheadLog = null;
+        }
+
+        if (open) {
+            open();
+        }
+    }
+
+    /**
+     * Replay the write-ahead log, if enabled, and load or rebuild the
+     * primary-key catalog or the bloom filter. Called once, by the
+     * constructor or, if a subclass asked it not to, at the end of the
+     * subclass constructor.
+     *
+     * @throws DatabaseException if the repository is already open or cannot
+     * be opened
+     */
+    protected final void open() {
+        if (opened) {
+            throw new DatabaseException("Repository is already open: " + databaseDir.getPath());
+        }
+        opened = true;
+
+        if (writeAheadLog != null) {
+            writeAheadLog.recover(this::applyRecords);
+        }
+
+        File catalogFile = getCatalogFile();
+        if (options.isPrimaryKeyCatalog()) {
+            PrimaryKeyCatalog<K> loaded = PrimaryKeyCatalog.loadFromFile(catalogFile);
+            this.keyCatalog = loaded != null ? loaded : rebuildCatalog(keyParser);
+        } else {
+            // A catalog left by an earlier session would be stale the next time it is enabled
+            if (catalogFile.exists() && !catalogFile.delete()) {
+                throw new DatabaseException("Failed to delete key catalog file: " + catalogFile.getPath());
+            }
+            this.bloomFilter = options.isBloomFilter() ? buildBloomFilter() : null;
+        }
     }
 
     @Override
     public T findById(K id) {
-        File file = new File(databaseDir, id.toFileName());
-        if (!file.exists()) {
+        String fileName = id.toFileName();
+        if (!mayExist(fileName)) {
+            return null;
+        }
+        if (cache == null) {
+            return readIfExists(new File(databaseDir, fileName));
+        }
+
+        CachedEntity<T> cached = cache.get(fileName);
+        if (cached != null) {
+            return handOut(cached);
+        }
+        return readAndCache(fileName, cache.stamp());
+    }
+
+    @Override
+    public List<T> findAllById(Collection<K> ids) {
+        Map<K, T> found = findAllByIdAsMap(ids);
+        List<T> result = new ArrayList<>(found.size());
+        for (K id : ids) {
+            T entity = found.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find several entities by their primary keys. The cache is consulted
+     * once for all keys, and the remaining files are read in file name order
+     * on the scan threads.
+     *
+     * @param ids The primary keys of the entities to find
+     * @return The found entities by primary key, in the order of the keys
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    @Override
+    public Map<K, T> findAllByIdAsMap(Collection<K> ids) {
+        List<K> keys = new ArrayList<>(ids);
+        String[] fileNames = new String[keys.size()];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileNames[i] = keys.get(i).toFileName();
+        }
+
+        Set<String> distinctFileNames = new LinkedHashSet<>(Arrays.asList(fileNames));
+        Map<String, CachedEntity<T>> cached = cache == null ? Map.of() : cache.getAll(distinctFileNames);
+        long stamp = cache == null ? 0 : cache.stamp();
+
+        List<String> toRead = new ArrayList<>();
+        for (String fileName : distinctFileNames) {
+            if (!cached.containsKey(fileName) && mayExist(fileName)) {
+                toRead.add(fileName);
+            }
+        }
+        // Neighbouring names tend to be neighbours on disk as well
+        toRead.sort(null);
+
+        Map<String, T> read = new ConcurrentHashMap<>();
+        scanner.scan(toRead, fileName -> {
+            T entity = readAndCache(fileName, stamp);
+            if (entity != null) {
+                read.put(fileName, entity);
+            }
             return null;
+        }, null, ParallelScanner.NO_LIMIT, ScanOrder.UNORDERED);
+
+        Map<K, T> result = new LinkedHashMap<>();
+        for (int i = 0; i < fileNames.length; i++) {
+            CachedEntity<T> hit = cached.get(fileNames[i]);
+            T entity = hit != null ? handOut(hit) : read.get(fileNames[i]);
+            if (entity != null) {
+                result.putIfAbsent(keys.get(i), entity);
+            }
         }
+        return result;
+    }
+
+    /**
+     * Find several entities by their primary keys lazily. Nothing is read
+     * until a handle of the result is accessed.
+     *
+     * @param ids The primary keys of the entities to find
+     * @return Handles of the entities in the order of the keys, loaded
+     * {@value LazyResult#DEFAULT_BATCH_SIZE} at a time
+     */
+    public LazyResult<T, K> findAllByIdLazy(Collection<K> ids) {
+        return findAllByIdLazy(ids, LazyResult.DEFAULT_BATCH_SIZE);
+    }
 
-        return readFromFile(file);
+    /**
+     * Find several entities by their primary keys lazily. Nothing is read
+     * until a handle of the result is accessed.
+     *
+     * @param ids The primary keys of the entities to find
+     * @param batchSize The number of entities loaded together
+     * @return Handles of the entities in the order of the keys
+     */
+    public LazyResult<T, K> findAllByIdLazy(Collection<K> ids, int batchSize) {
+        return new LazyResult<>(ids, this::findAllByIdAsMap, batchSize);
+    }
+
+    @Override
+    public boolean exists(K id) {
+        return entityExists(id.toFileName());
     }
 
     @Override
     public List<T> findAll() {
-        List<T> result = new ArrayList<>();
-        File[] files = databaseDir.listFiles();
+        return scan(null, ParallelScanner.NO_LIMIT, ScanOrder.ORDERED);
+    }
+
+    /**
+     * Stream all entities. Files are read one at a time as the stream is
+     * consumed, so short-circuiting operations such as {@code findFirst} or
+     * {@code limit} stop reading early. The stream holds an open directory
+     * handle and must be closed after use.
+     *
+     * @return A lazy stream of all entities
+     * @throws DatabaseException if the directory cannot be opened
+     */
+    @Override
+    public Stream<T> stream() {
+        return streamEntities(null);
+    }
+
+    /**
+     * Stream the entities that match the given condition. The condition is
+     * evaluated as files are read, and the stream must be closed after use.
+     *
+     * @param condition The condition to match
+     * @return A lazy stream of matching entities
+     * @throws DatabaseException if the directory cannot be opened
+     */
+    @Override
+    public Stream<T> streamByCondition(Predicate<T> condition) {
+        if (condition == null) {
+            throw new IllegalArgumentException("Condition cannot be null");
+        }
+        return streamEntities(condition);
+    }
+
+    /**
+     * Get one page of entities in ascending primary key order
+     *
+     * @param pageSize The maximum number of entities on the page
+     * @param pageToken The token of the previous page, or null for the first
+     * page
+     * @return The page
+     * @throws DatabaseException if the token is invalid or an error occurs
+     * during the operation
+     * @see #findPage(int, SortDirection, String)
+     */
+    public Page<T> findPage(int pageSize, String pageToken) {
+        return findPage(pageSize, SortDirection.ASCENDING, pageToken);
+    }
+
+    /**
+     * Get one page of entities in primary key order. The token remembers the
+     * last key of the previous page, so pages stay consistent while entities
+     * are added or deleted. With the primary key catalog enabled only the
+     * entities of the page are read; without it every entity is read to learn
+     * the keys.
+     *
+     * @param pageSize The maximum number of entities on the page
+     * @param direction The direction of the primary key order
+     * @param pageToken The token of the previous page, or null for the first
+     * page
+     * @return The page
+     * @throws DatabaseException if the token is invalid or an error occurs
+     * during the operation
+     */
+    public Page<T> findPage(int pageSize, SortDirection direction, String pageToken) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
 
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    result.add(readFromFile(file));
+        Comparable<?> after = null;
+        if (pageToken != null) {
+            PageToken.Position position = pageTokens.decode(pageToken);
+            if (!PRIMARY_KEY_PAGE.equals(position.ordering()) || position.direction() != direction) {
+                throw new DatabaseException("Page token does not belong to this ordering");
+            }
+            after = position.keyValue();
+        }
+
+        List<T> items;
+        List<K> keys;
+        if (keyCatalog != null) {
+            keys = keyCatalog.keysAfter(after, direction, pageSize + 1);
+            items = findAllById(keys.subList(0, Math.min(pageSize, keys.size())));
+        } else {
+            int sign = direction == SortDirection.ASCENDING ? 1 : -1;
+            List<T> all = findAll();
+            all.sort((x, y) -> sign * compareKeys(x.getId(), y.getId()));
+            if (after != null && !all.isEmpty() && all.get(0).getId().getValue().getClass() != after.getClass()) {
+                throw new DatabaseException("Position does not match the primary keys: " + after);
+            }
+            keys = new ArrayList<>();
+            items = new ArrayList<>();
+            for (T entity : all) {
+                if (keys.size() > pageSize) {
+                    break;
+                }
+                if (after == null || sign * compareValues(entity.getId().getValue(), after) > 0) {
+                    keys.add(entity.getId());
+                    if (items.size() < pageSize) {
+                        items.add(entity);
+                    }
                 }
             }
         }
 
-        return result;
+        String nextPageToken = keys.size() > pageSize
+                ? pageTokens.encode(PRIMARY_KEY_PAGE, direction, null, keys.get(pageSize - 1))
+                : null;
+        return new Page<>(items, nextPageToken);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(PrimaryKey a, PrimaryKey b) {
+        return a.compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    @Override
+    public List<K> findAllIds() {
+        if (keyCatalog != null) {
+            return keyCatalog.keys();
+        }
+        return EntityRepository.super.findAllIds();
+    }
+
+    @Override
+    public int knownCount() {
+        return keyCatalog != null ? keyCatalog.size() : -1;
+    }
+
+    @Override
+    public int count() {
+        if (keyCatalog != null) {
+            return keyCatalog.size();
+        }
+
+        File[] files = databaseDir.listFiles(File::isFile);
+        if (files == null) {
+            throw new DatabaseException("Failed to list directory: " + databaseDir.getPath());
+        }
+        return files.length;
     }
 
     @Override
@@ -52,13 +458,26 @@ public class FileEntityRepository<T extends DatabaseEntity<K>, K extends Primary
         if (entity.getId() == null) {
             throw new IllegalArgumentException("Entity ID cannot be null");
         }
-
-        File file = new File(databaseDir, entity.getId().toFileName());
-        if (file.exists()) {
-            throw new DatabaseException("Entity with ID " + entity.getId() + " already exists");
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.save(entity)));
+            return;
         }
 
-        writeToFile(file, entity);
+        // Writers are serialized, so the fingerprint kept for a file always matches it
+        synchronized (commitLock) {
+            File file = new File(databaseDir, entity.getId().toFileName());
+            if (entityExists(file.getName())) {
+                throw new DatabaseException("Entity with ID " + entity.getId() + " already exists");
+            }
+
+            registerKey(entity.getId());
+            try {
+                writeToFile(file, entity);
+            } catch (RuntimeException e) {
+                resyncKey(entity.getId());
+                throw e;
+            }
+        }
     }
 
     @Override
@@ -66,61 +485,1046 @@ public class FileEntityRepository<T extends DatabaseEntity<K>, K extends Primary
         if (entity.getId() == null) {
             throw new IllegalArgumentException("Entity ID cannot be null");
         }
-
-        File file = new File(databaseDir, entity.getId().toFileName());
-        if (!file.exists()) {
-            throw new DatabaseException("Entity with ID " + entity.getId() + " does not exist");
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.update(entity)));
+            return;
         }
 
-        writeToFile(file, entity);
+        synchronized (commitLock) {
+            File file = new File(databaseDir, entity.getId().toFileName());
+            if (!entityExists(file.getName())) {
+                throw new DatabaseException("Entity with ID " + entity.getId() + " does not exist");
+            }
+
+            // Unchanged entities are not rewritten
+            byte[] data = serializeToBytes(entity);
+            if (!isUnchanged(file.getName(), data)) {
+                writeToFile(file, entity.getId(), data);
+            }
+        }
     }
 
     @Override
     public void delete(K id) {
-        File file = new File(databaseDir, id.toFileName());
-        if (!file.exists()) {
-            throw new DatabaseException("Entity with ID " + id + " does not exist");
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.delete(id)));
+            return;
         }
 
-        if (!file.delete()) {
-            throw new DatabaseException("Failed to delete entity with ID " + id);
+        synchronized (commitLock) {
+            File file = new File(databaseDir, id.toFileName());
+            if (!entityExists(file.getName())) {
+                throw new DatabaseException("Entity with ID " + id + " does not exist");
+            }
+
+            if (!file.delete()) {
+                throw new DatabaseException("Failed to delete entity with ID " + id);
+            }
+            unregisterKey(file.getName());
+            invalidate(file.getName());
         }
+        notifyChanged(id);
     }
 
     @Override
     public List<T> findByCondition(Predicate<T> condition) {
-        List<T> all = findAll();
-        List<T> result = new ArrayList<>();
+        return findByCondition(condition, ParallelScanner.NO_LIMIT, ScanOrder.ORDERED);
+    }
 
-        for (T entity : all) {
-            if (condition.test(entity)) {
-                result.add(entity);
+    @Override
+    public List<T> findByCondition(Predicate<T> condition, int limit) {
+        return findByCondition(condition, limit, ScanOrder.ORDERED);
+    }
+
+    /**
+     * Find entities that match the given condition. Files are read and the
+     * condition is evaluated on several threads, and the scan stops as soon
+     * as enough matches are found.
+     *
+     * @param condition The condition to match
+     * @param limit The maximum number of entities to return
+     * @param order Whether the results must come in scan order
+     * @return A list of matching entities
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    public List<T> findByCondition(Predicate<T> condition, int limit, ScanOrder order) {
+        if (condition == null) {
+            throw new IllegalArgumentException("Condition cannot be null");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        return scan(condition, limit, order);
+    }
+
+    /**
+     * Find entities whose serialized form matches the given condition. The
+     * condition runs on the raw file content, and only matching files are
+     * deserialized into entities.
+     *
+     * @param condition The condition to match
+     * @return A list of matching entities
+     * @throws DatabaseException if the serializer does not use the text format
+     * or an error occurs during the operation
+     */
+    public List<T> findByRawCondition(Predicate<RawRecord> condition) {
+        return findByRawCondition(condition, ParallelScanner.NO_LIMIT, ScanOrder.ORDERED);
+    }
+
+    /**
+     * Find entities whose serialized form matches the given condition. The
+     * condition runs on the raw file content, and only matching files are
+     * deserialized into entities.
+     *
+     * @param condition The condition to match
+     * @param limit The maximum number of entities to return
+     * @param order Whether the results must come in scan order
+     * @return A list of matching entities
+     * @throws DatabaseException if the serializer does not use the text format
+     * or an error occurs during the operation
+     */
+    public List<T> findByRawCondition(Predicate<RawRecord> condition, int limit, ScanOrder order) {
+        return rawScan(condition, content -> serializer.deserialize((CharSequence) content), limit, order);
+    }
+
+    /**
+     * Project the serialized form of the entities that match the given
+     * condition, without deserializing any entity. The record passed to the
+     * projection is only valid during the call, so the projection must copy
+     * out what it needs, for example with {@link RawRecord#project}.
+     *
+     * @param <R> The projected type
+     * @param condition The condition to match
+     * @param projection Builds the result from a matching record
+     * @return A list of projections of the matching entities
+     * @throws DatabaseException if the serializer does not use the text format
+     * or an error occurs during the operation
+     */
+    public <R> List<R> findProjected(Predicate<RawRecord> condition, Function<RawRecord, R> projection) {
+        if (projection == null) {
+            throw new IllegalArgumentException("Projection cannot be null");
+        }
+        return rawScan(condition, content -> projection.apply(new RawRecord(content)),
+                ParallelScanner.NO_LIMIT, ScanOrder.ORDERED);
+    }
+
+    /**
+     * Read the entity files on the scan threads and test the condition on
+     * their raw content, converting the content of matching files only
+     */
+    private <R> List<R> rawScan(Predicate<RawRecord> condition, Function<CharBuffer, R> onMatch,
+            int limit, ScanOrder order) {
+        if (condition == null) {
+            throw new IllegalArgumentException("Condition cannot be null");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        if (!(serializer instanceof TextSerializer)) {
+            throw new DatabaseException("Raw record scans require a text serializer");
+        }
+
+        return scanner.scan(entityFiles(), file -> {
+            // The directory also holds subdirectories such as the write-ahead log
+            if (keyCatalog == null && !file.isFile()) {
+                return null;
+            }
+            CharBuffer content;
+            try {
+                content = EntityFileIO.decode(compressor.decompress(EntityFileIO.read(file.toPath())));
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                throw new DatabaseException("Error reading file: " + file.getName(), e);
             }
+            // A matching record is converted from the same buffer, so it is not read twice
+            return condition.test(new RawRecord(content)) ? onMatch.apply(content) : null;
+        }, null, limit, order);
+    }
+
+    @Override
+    public void saveAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.save(entity));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void updateAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.update(entity));
         }
+        commit(operations);
+    }
 
-        return result;
+    @Override
+    public void saveOrUpdateAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.saveOrUpdate(entity));
+        }
+        commit(operations);
     }
 
-    protected void writeToFile(File file, T entity) {
-        String serialized = serializer.serialize(entity);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            writer.write(serialized);
+    @Override
+    public void deleteAll(Collection<K> ids) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(ids.size());
+        for (K id : ids) {
+            operations.add(Transaction.Operation.delete(id));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void deleteAll() {
+        truncate();
+    }
+
+    @Override
+    public int deleteByCondition(Predicate<T> condition) {
+        // Only the keys of the matching entities are kept, the deletion itself reads no entity
+        List<K> ids;
+        try (Stream<T> matching = streamByCondition(condition)) {
+            ids = matching.map(DatabaseEntity::getId).toList();
+        }
+        deleteAll(ids);
+        return ids.size();
+    }
+
+    /**
+     * Delete every entity file at once, without reading any entity
+     *
+     * @throws DatabaseException if an error occurs during the operation
+     */
+    public void truncate() {
+        long lsn;
+        List<K> truncatedKeys;
+        Deque<Runnable> undo = new ArrayDeque<>();
+        synchronized (commitLock) {
+            truncatedKeys = keyCatalog != null ? keyCatalog.keys() : List.of();
+            prepareTruncate(undo);
+            List<WalRecord> records = List.of(WalRecord.truncate());
+            if (writeAheadLog == null) {
+                try {
+                    applyTransactions(List.of(records));
+                } catch (RuntimeException e) {
+                    rollbackTruncate(truncatedKeys, undo);
+                    throw e;
+                }
+                clearKeys();
+                notifyCleared();
+                return;
+            }
+
+            try {
+                lsn = writeAheadLog.append(records);
+            } catch (RuntimeException e) {
+                rollbackTruncate(truncatedKeys, undo);
+                throw e;
+            }
+            clearKeys();
+            pendingTruncateLsn = lsn;
+            lastTruncateLsn = lsn;
+        }
+
+        RuntimeException failure = null;
+        try {
+            writeAheadLog.awaitDurable(lsn);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        synchronized (commitLock) {
+            if (pendingTruncateLsn == lsn) {
+                pendingTruncateLsn = 0;
+            }
+            if (failure != null) {
+                rollbackTruncate(truncatedKeys, undo);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        notifyCleared();
+    }
+
+    /**
+     * Get the statistics of the entity cache
+     *
+     * @return The statistics, all zero if the cache is disabled
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    /**
+     * Train a compression dictionary from a random sample of the stored
+     * records. Records written from now on are compressed with it, while
+     * records written earlier keep their dictionary until they are updated.
+     *
+     * @param sampleSize The maximum number of records to sample
+     * @return Statistics of compressing the sample with the new dictionary
+     * @throws DatabaseException if compression is not enabled
+     */
+    public CompressionStats trainCompressionDictionary(int sampleSize) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("Sample size must be positive");
+        }
+
+        List<File> files = entityFiles();
+        Collections.shuffle(files);
+        List<byte[]> samples = new ArrayList<>();
+        for (File file : files) {
+            if (samples.size() == sampleSize) {
+                break;
+            }
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                ByteBuffer record = compressor.decompress(EntityFileIO.read(file.toPath()));
+                byte[] sample = new byte[record.remaining()];
+                record.get(sample);
+                samples.add(sample);
+            } catch (NoSuchFileException e) {
+                // Deleted in the meantime
+            } catch (IOException e) {
+                throw new DatabaseException("Error reading file: " + file.getName(), e);
+            }
+        }
+        return compressor.train(samples);
+    }
+
+    /**
+     * Get the statistics of the records compressed since the repository was
+     * opened, including the compression ratio
+     *
+     * @return The statistics, all zero if compression is disabled
+     */
+    public CompressionStats getCompressionStats() {
+        return compressor.getStats();
+    }
+
+    /**
+     * Register a listener notified after entities change
+     *
+     * @param listener The listener
+     */
+    public void addChangeListener(EntityChangeListener<K> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener registered with {@link #addChangeListener}
+     *
+     * @param listener The listener
+     */
+    public void removeChangeListener(EntityChangeListener<K> listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Start a new transaction on this repository
+     *
+     * @return A new transaction
+     */
+    public Transaction<T, K> beginTransaction() {
+        return new Transaction<>(this);
+    }
+
+    /**
+     * Flush the write-ahead log, if enabled, and mark it as cleanly closed.
+     * Saves the primary-key catalog, if enabled, so the next session does not
+     * have to rebuild it, and stops the repository's scan threads.
+     *
+     * @throws DatabaseException if an error occurs while closing
+     */
+    @Override
+    public void close() {
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        if (keyCatalog != null) {
+            keyCatalog.saveToFile(getCatalogFile());
+        }
+        scanner.close();
+    }
+
+    /**
+     * Validate and apply a group of operations atomically. With the
+     * write-ahead log enabled, the operations are logged first and applied
+     * once the log is durable; otherwise they are applied directly.
+     *
+     * @param operations The operations to commit
+     * @throws DatabaseException if any operation is invalid or the commit fails
+     */
+    protected void commit(List<Transaction.Operation<T, K>> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        long lsn;
+        Map<String, PendingWrite<T>> written = new HashMap<>();
+        Deque<Runnable> undo = new ArrayDeque<>();
+        synchronized (commitLock) {
+            operations = resolveOperations(operations);
+            List<WalRecord> records = prepare(operations, undo);
+            if (records.isEmpty()) {
+                return;
+            }
+            if (writeAheadLog == null) {
+                // Keys are registered before their files appear, so a missing key always means a missing file
+                registerKeys(operations);
+                try {
+                    applyTransactions(List.of(records));
+                } catch (RuntimeException e) {
+                    rollback(operations, undo);
+                    throw e;
+                }
+                unregisterKeys(operations);
+                notifyChanged(operations);
+                return;
+            }
+
+            try {
+                lsn = writeAheadLog.append(records);
+            } catch (RuntimeException e) {
+                rollback(operations, undo);
+                throw e;
+            }
+            registerKeys(operations);
+            unregisterKeys(operations);
+            for (Transaction.Operation<T, K> operation : operations) {
+                written.put(operation.id().toFileName(), new PendingWrite<>(lsn, operation.entity()));
+            }
+            pendingWrites.putAll(written);
+        }
+
+        RuntimeException failure = null;
+        try {
+            writeAheadLog.awaitDurable(lsn);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        synchronized (commitLock) {
+            for (Map.Entry<String, PendingWrite<T>> entry : written.entrySet()) {
+                pendingWrites.remove(entry.getKey(), entry.getValue());
+            }
+            if (failure != null) {
+                rollback(operations, undo);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        notifyChanged(operations);
+    }
+
+    /**
+     * Undo the in-memory changes of a commit that failed after it was
+     * prepared: the derived state changed by {@link #prepare} and the key
+     * registrations. Called while holding {@link #commitLock}.
+     */
+    private void rollback(List<Transaction.Operation<T, K>> operations, Deque<Runnable> undo) {
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+        for (Transaction.Operation<T, K> operation : operations) {
+            resyncKey(operation.id());
+        }
+    }
+
+    /**
+     * Undo the in-memory changes of a truncate that failed after it was
+     * prepared. The keys are brought in line with the entity files that are
+     * left first, so the steps pushed by {@link #prepareTruncate} can rebuild
+     * their state from those files. Called while holding {@link #commitLock}.
+     */
+    private void rollbackTruncate(List<K> truncatedKeys, Deque<Runnable> undo) {
+        if (keyCatalog != null) {
+            truncatedKeys.forEach(this::resyncKey);
+        } else if (bloomFilter != null) {
+            String[] names = databaseDir.list();
+            if (names != null) {
+                for (String name : names) {
+                    bloomFilter.add(name);
+                }
+            }
+        }
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+    }
+
+    /**
+     * Validate a group of operations against the current state and turn them
+     * into log records. Called while holding {@link #commitLock}; subclasses
+     * extend it to maintain derived state. They must leave that state
+     * unchanged when they throw, and push the steps undoing their changes
+     * otherwise, which are run in reverse order if the records cannot be
+     * logged, made durable or applied.
+     *
+     * @param operations The operations to validate
+     * @param undo The steps undoing the changes of the commit
+     * @return The records to log and apply
+     * @throws DatabaseException if any operation is invalid
+     */
+    protected List<WalRecord> prepare(List<Transaction.Operation<T, K>> operations, Deque<Runnable> undo) {
+        Map<String, Boolean> staged = new HashMap<>();
+        List<WalRecord> records = new ArrayList<>(operations.size());
+
+        for (Transaction.Operation<T, K> operation : operations) {
+            K id = operation.id();
+            if (id == null) {
+                throw new IllegalArgumentException("Entity ID cannot be null");
+            }
+
+            String fileName = id.toFileName();
+            Boolean stagedExists = staged.get(fileName);
+            boolean exists = stagedExists != null ? stagedExists : existsForWrite(fileName);
+
+            switch (operation.type()) {
+                case SAVE -> {
+                    if (exists) {
+                        throw new DatabaseException("Entity with ID " + id + " already exists");
+                    }
+                    records.add(WalRecord.put(fileName, serializeToBytes(operation.entity())));
+                    staged.put(fileName, true);
+                }
+                case UPDATE -> {
+                    if (!exists) {
+                        throw new DatabaseException("Entity with ID " + id + " does not exist");
+                    }
+                    byte[] data = serializeToBytes(operation.entity());
+                    // An update that doesn't change the stored file is not logged or written
+                    boolean unchanged = stagedExists == null && !pendingWrites.containsKey(fileName)
+                            && pendingTruncateLsn == 0 && isUnchanged(fileName, data);
+                    if (!unchanged) {
+                        records.add(WalRecord.put(fileName, data));
+                    }
+                    staged.put(fileName, true);
+                }
+                case DELETE -> {
+                    if (!exists) {
+                        throw new DatabaseException("Entity with ID " + id + " does not exist");
+                    }
+                    records.add(WalRecord.delete(fileName));
+                    staged.put(fileName, false);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Reset in-memory state derived from the entities before the repository is
+     * truncated. Called while holding {@link #commitLock}; subclasses push the
+     * steps restoring that state, which are run if the truncate cannot be
+     * logged, made durable or applied, once the keys match the entity files
+     * that are left.
+     *
+     * @param undo The steps undoing the changes of the truncate
+     */
+    protected void prepareTruncate(Deque<Runnable> undo) {
+    }
+
+    /**
+     * Replace every SAVE_OR_UPDATE operation with a save or an update,
+     * depending on whether the entity exists at that point of the transaction
+     */
+    private List<Transaction.Operation<T, K>> resolveOperations(List<Transaction.Operation<T, K>> operations) {
+        Map<String, Boolean> staged = new HashMap<>();
+        List<Transaction.Operation<T, K>> resolved = new ArrayList<>(operations.size());
+
+        for (Transaction.Operation<T, K> operation : operations) {
+            if (operation.id() == null) {
+                throw new IllegalArgumentException("Entity ID cannot be null");
+            }
+
+            String fileName = operation.id().toFileName();
+            if (operation.type() == Transaction.OperationType.SAVE_OR_UPDATE) {
+                Boolean stagedExists = staged.get(fileName);
+                boolean exists = stagedExists != null ? stagedExists : existsForWrite(fileName);
+                operation = exists
+                        ? Transaction.Operation.update(operation.entity())
+                        : Transaction.Operation.save(operation.entity());
+            }
+            staged.put(fileName, operation.type() != Transaction.OperationType.DELETE);
+            resolved.add(operation);
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Apply committed transactions to the entity files, in commit order.
+     * Subclasses extend it to persist derived state once per group.
+     *
+     * @param transactions The records of each transaction
+     */
+    protected void applyTransactions(List<List<WalRecord>> transactions) {
+        applyRecords(transactions);
+    }
+
+    private boolean existsForWrite(String fileName) {
+        PendingWrite<T> pending = pendingWrites.get(fileName);
+        if (pending != null && pending.lsn() > lastTruncateLsn) {
+            return pending.entity() != null;
+        }
+        if (pendingTruncateLsn != 0) {
+            return false;
+        }
+        return entityExists(fileName);
+    }
+
+    /**
+     * Check whether an entity file exists, answering from the catalog or the
+     * bloom filter when possible
+     */
+    private boolean entityExists(String fileName) {
+        if (keyCatalog != null) {
+            return keyCatalog.contains(fileName);
+        }
+        return mayExist(fileName) && new File(databaseDir, fileName).exists();
+    }
+
+    /**
+     * Check whether an entity file may exist without touching the file system
+     */
+    private boolean mayExist(String fileName) {
+        if (keyCatalog != null) {
+            return keyCatalog.contains(fileName);
+        }
+        return bloomFilter == null || bloomFilter.mightContain(fileName);
+    }
+
+    private void registerKey(K id) {
+        if (keyCatalog != null) {
+            keyCatalog.add(id);
+        } else if (bloomFilter != null) {
+            bloomFilter.add(id.toFileName());
+        }
+    }
+
+    private void unregisterKey(String fileName) {
+        if (keyCatalog != null) {
+            keyCatalog.remove(fileName);
+        }
+    }
+
+    /**
+     * Register the keys that exist once the operations are applied
+     */
+    private void registerKeys(List<Transaction.Operation<T, K>> operations) {
+        for (Transaction.Operation<T, K> operation : lastOperations(operations)) {
+            if (operation.type() != Transaction.OperationType.DELETE) {
+                registerKey(operation.id());
+            }
+        }
+    }
+
+    /**
+     * Unregister the keys that no longer exist once the operations are applied
+     */
+    private void unregisterKeys(List<Transaction.Operation<T, K>> operations) {
+        for (Transaction.Operation<T, K> operation : lastOperations(operations)) {
+            if (operation.type() == Transaction.OperationType.DELETE) {
+                unregisterKey(operation.id().toFileName());
+            }
+        }
+    }
+
+    private Collection<Transaction.Operation<T, K>> lastOperations(List<Transaction.Operation<T, K>> operations) {
+        if (keyCatalog == null && bloomFilter == null) {
+            return List.of();
+        }
+
+        Map<String, Transaction.Operation<T, K>> last = new HashMap<>();
+        for (Transaction.Operation<T, K> operation : operations) {
+            last.put(operation.id().toFileName(), operation);
+        }
+        return last.values();
+    }
+
+    /**
+     * Bring the key of an entity in line with its file after a failed write
+     */
+    private void resyncKey(K id) {
+        if (new File(databaseDir, id.toFileName()).exists()) {
+            registerKey(id);
+        } else {
+            unregisterKey(id.toFileName());
+        }
+    }
+
+    private void clearKeys() {
+        if (keyCatalog != null) {
+            keyCatalog.clear();
+        } else if (bloomFilter != null) {
+            bloomFilter.clear();
+        }
+    }
+
+    /**
+     * Rebuild the catalog from the directory. Keys are recovered from the file
+     * names where the parser can, only the remaining files are read.
+     */
+    private PrimaryKeyCatalog<K> rebuildCatalog(Function<String, K> keyParser) {
+        PrimaryKeyCatalog<K> catalog = new PrimaryKeyCatalog<>();
+        File[] entries = databaseDir.listFiles();
+        if (entries == null) {
+            throw new DatabaseException("Failed to list directory: " + databaseDir.getPath());
+        }
+
+        List<File> unresolved = new ArrayList<>();
+        for (File entry : entries) {
+            K key = keyParser != null ? keyParser.apply(entry.getName()) : null;
+            if (key != null) {
+                catalog.add(key);
+            } else {
+                unresolved.add(entry);
+            }
+        }
+
+        // The directory also holds subdirectories such as the write-ahead log
+        for (T entity : scanner.scan(unresolved, file -> file.isFile() ? readFromFile(file) : null,
+                null, ParallelScanner.NO_LIMIT, ScanOrder.UNORDERED)) {
+            catalog.add(entity.getId());
+        }
+        return catalog;
+    }
+
+    /**
+     * Read the entity files, from the catalog if enabled, otherwise from a
+     * directory listing, on the scan threads
+     */
+    private List<T> scan(Predicate<T> condition, int limit, ScanOrder order) {
+        List<File> files = entityFiles();
+        if (keyCatalog != null) {
+            return scanner.scan(files, this::readIfExists, condition, limit, order);
+        }
+        // The directory also holds subdirectories such as the write-ahead log
+        return scanner.scan(files, file -> file.isFile() ? readFromFile(file) : null, condition, limit, order);
+    }
+
+    /**
+     * List the entity files from the catalog if enabled, otherwise list the
+     * whole directory, including its subdirectories
+     */
+    private List<File> entityFiles() {
+        List<File> files = new ArrayList<>();
+        if (keyCatalog != null) {
+            for (String fileName : keyCatalog.fileNames()) {
+                files.add(new File(databaseDir, fileName));
+            }
+            return files;
+        }
+
+        File[] entries = databaseDir.listFiles();
+        if (entries != null) {
+            files.addAll(List.of(entries));
+        }
+        return files;
+    }
+
+    private Stream<T> streamEntities(Predicate<T> condition) {
+        if (keyCatalog != null) {
+            List<String> fileNames = keyCatalog.fileNames();
+            Path[] paths = new Path[fileNames.size()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = new File(databaseDir, fileNames.get(i)).toPath();
+            }
+            return StreamSupport.stream(
+                    new EntitySpliterator<>(paths, path -> readIfExists(path.toFile()), condition), false);
+        }
+
+        DirectoryStream<Path> directory;
+        try {
+            directory = Files.newDirectoryStream(databaseDir.toPath());
         } catch (IOException e) {
-            throw new DatabaseException("Error writing entity with ID " + entity.getId(), e);
+            throw new DatabaseException("Failed to list directory: " + databaseDir.getPath(), e);
         }
+
+        // The directory also holds subdirectories such as the write-ahead log
+        Stream<T> stream = StreamSupport.stream(new EntitySpliterator<>(directory.iterator(),
+                path -> Files.isRegularFile(path) ? readIfExists(path.toFile()) : null, condition), false);
+        return stream.onClose(() -> {
+            try {
+                directory.close();
+            } catch (IOException e) {
+                throw new DatabaseException("Failed to close directory: " + databaseDir.getPath(), e);
+            }
+        });
     }
 
-    private T readFromFile(File file) {
+    private BloomFilter buildBloomFilter() {
+        // Directories are added too, which costs nothing but avoids a stat per entry
+        String[] names = databaseDir.list();
+        if (names == null) {
+            throw new DatabaseException("Failed to list directory: " + databaseDir.getPath());
+        }
+
+        BloomFilter filter = new BloomFilter(Math.max(BLOOM_FILTER_MINIMUM_SIZE, 2L * names.length));
+        for (String name : names) {
+            filter.add(name);
+        }
+        return filter;
+    }
+
+    private File getCatalogFile() {
+        return new File(new File(databaseDir, CATALOG_DIR_NAME), CATALOG_FILE_NAME);
+    }
+
+    private void applyRecords(List<List<WalRecord>> transactions) {
+        for (List<WalRecord> records : transactions) {
+            if (records.size() == 1 && records.get(0).type() == WalRecord.Type.TRUNCATE) {
+                deleteEntityFiles();
+                continue;
+            }
+            if (records.size() < PARALLEL_WRITE_THRESHOLD) {
+                records.forEach(this::applyRecord);
+                continue;
+            }
+
+            // Only the last change of each file matters, and distinct files can be written concurrently
+            Map<String, WalRecord> lastChanges = new LinkedHashMap<>();
+            for (WalRecord record : records) {
+                lastChanges.put(record.fileName(), record);
+            }
+            lastChanges.values().parallelStream().forEach(this::applyRecord);
+        }
+    }
+
+    private void applyRecord(WalRecord record) {
+        File file = new File(databaseDir, record.fileName());
         try {
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line).append("\n");
+            if (record.type() == WalRecord.Type.PUT) {
+                writeBytes(file, record.data());
+            } else {
+                Files.deleteIfExists(file.toPath());
+                if (keyCatalog != null) {
+                    keyCatalog.contentDeleted(record.fileName());
                 }
+                invalidate(record.fileName());
             }
+        } catch (IOException e) {
+            throw new DatabaseException("Error applying change to file: " + record.fileName(), e);
+        }
+    }
+
+    private void deleteEntityFiles() {
+        File[] files = databaseDir.listFiles(File::isFile);
+        if (files == null) {
+            throw new DatabaseException("Failed to list directory: " + databaseDir.getPath());
+        }
+
+        for (File file : files) {
+            if (!file.delete() && file.exists()) {
+                throw new DatabaseException("Failed to delete file: " + file.getName());
+            }
+        }
+        if (keyCatalog != null) {
+            keyCatalog.allContentDeleted();
+        }
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        entitiesCleared();
+    }
+
+    private void writeBytes(File file, byte[] data) {
+        try {
+            EntityFileIO.write(file.toPath(), ByteBuffer.wrap(data),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DatabaseException("Error writing file: " + file.getName(), e);
+        }
+        if (keyCatalog != null) {
+            keyCatalog.contentWritten(file.getName(), data);
+        }
+        invalidate(file.getName());
+    }
+
+    /**
+     * Check whether the file of an entity is known to hold the given content
+     * already, without reading it. Only the primary key catalog keeps the
+     * fingerprints of the written files; without it every update is written.
+     *
+     * @param fileName The file name of the entity
+     * @param data The content returned by {@link #serializeToBytes}
+     * @return true if writing the content would not change the file
+     */
+    protected boolean isUnchanged(String fileName, byte[] data) {
+        return keyCatalog != null && keyCatalog.hasContent(fileName, data);
+    }
+
+    /**
+     * Serialize an entity into a new array holding the bytes of its file
+     *
+     * @param entity The entity
+     * @return The file content
+     */
+    protected byte[] serializeToBytes(T entity) {
+        ByteBuffer encoded = compressor.compress(serializer.serializeToBytes(entity));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    protected void writeToFile(File file, T entity) {
+        writeToFile(file, entity.getId(), serializeToBytes(entity));
+    }
+
+    /**
+     * Write the bytes returned by {@link #serializeToBytes} as the file of an
+     * entity
+     *
+     * @param file The file of the entity
+     * @param id The primary key of the entity
+     * @param data The file content
+     */
+    protected void writeToFile(File file, K id, byte[] data) {
+        writeBytes(file, data);
+        notifyChanged(id);
+    }
 
-            T entity = serializer.deserialize(content.toString());
+    /**
+     * Drop a changed entity from the cache. Called after the file has changed,
+     * so a concurrent read cannot cache the previous state again.
+     */
+    private void invalidate(String fileName) {
+        if (cache != null) {
+            cache.invalidate(fileName);
+        }
+        entityChanged(fileName);
+    }
+
+    /**
+     * Called after the file of an entity was written or deleted. Subclasses
+     * extend it to drop state derived from the entity.
+     *
+     * @param fileName The file name of the entity
+     */
+    protected void entityChanged(String fileName) {
+    }
+
+    private void notifyChanged(K id) {
+        for (EntityChangeListener<K> listener : changeListeners) {
+            listener.entityChanged(id);
+        }
+    }
+
+    private void notifyChanged(List<Transaction.Operation<T, K>> operations) {
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+        for (Transaction.Operation<T, K> operation : operations) {
+            notifyChanged(operation.id());
+        }
+    }
+
+    private void notifyCleared() {
+        for (EntityChangeListener<K> listener : changeListeners) {
+            listener.entitiesCleared();
+        }
+    }
+
+    /**
+     * Called after every entity file was deleted. Subclasses extend it to
+     * drop state derived from the entities.
+     */
+    protected void entitiesCleared() {
+    }
+
+    /**
+     * Make sure a cached entity is never modified through a reference held by
+     * a caller, unless the entities are declared immutable
+     *
+     * @param entity The cached entity
+     * @return The entity to hand out
+     */
+    protected T handOut(T entity) {
+        if (options.getCacheCopyMode() == CacheCopyMode.SHARED) {
+            return entity;
+        }
+        return serializer.deserialize(serializer.serializeToBytes(entity));
+    }
+
+    private T handOut(CachedEntity<T> cached) {
+        if (cached.entity() != null) {
+            return cached.entity();
+        }
+        return serializer.deserialize(ByteBuffer.wrap(cached.data()));
+    }
+
+    private static <T> EntityCache<String, CachedEntity<T>> createCache(RepositoryOptions options) {
+        if (options.getCacheMaximumSize() > 0) {
+            return new EntityCache<>(options.getCacheMaximumSize(), options.getCacheMaximumSize());
+        }
+        if (options.getCacheMaximumWeight() > 0) {
+            return new EntityCache<>(options.getCacheMaximumWeight(),
+                    options.getCacheMaximumWeight() / ESTIMATED_ENTITY_SIZE);
+        }
+        return null;
+    }
+
+    /**
+     * Read an entity and offer it to the cache, if enabled. Anything
+     * invalidated since the stamp was taken changes the stamp, so a stale
+     * entity is not cached.
+     */
+    private T readAndCache(String fileName, long stamp) {
+        File file = new File(databaseDir, fileName);
+        if (cache == null) {
+            return readIfExists(file);
+        }
+
+        T entity;
+        CachedEntity<T> cached;
+        long size;
+        try {
+            ByteBuffer data = EntityFileIO.read(file.toPath());
+            size = data.remaining();
+            ByteBuffer plain = compressor.decompress(data);
+            if (options.getCacheCopyMode() == CacheCopyMode.SHARED) {
+                entity = serializer.deserialize(plain);
+                cached = new CachedEntity<>(entity, null);
+            } else {
+                // The decompressed buffer may be reused, so the cache keeps its own copy
+                byte[] bytes = new byte[plain.remaining()];
+                plain.get(bytes);
+                entity = serializer.deserialize(ByteBuffer.wrap(bytes));
+                cached = new CachedEntity<>(null, bytes);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new DatabaseException("Error reading file: " + file.getName(), e);
+        }
+
+        cache.put(fileName, cached, options.getCacheMaximumWeight() > 0 ? size : 1, stamp);
+        return entity;
+    }
+
+    /**
+     * Read an entity, or return null if its file was deleted in the meantime
+     */
+    private T readIfExists(File file) {
+        try {
+            return serializer.deserialize(compressor.decompress(EntityFileIO.read(file.toPath())));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new DatabaseException("Error reading file: " + file.getName(), e);
+        }
+    }
+
+    private T readFromFile(File file) {
+        try {
+            T entity = serializer.deserialize(compressor.decompress(EntityFileIO.read(file.toPath())));
             return entity;
         } catch (IOException e) {
             throw new DatabaseException("Error reading file: " + file.getName(), e);
@@ -18,6 +18,21 @@ public class IntPrimaryKey implements PrimaryKey<Integer> {
         return Integer.toString(value);
     }
 
+    /**
+     * Recover a key from the name of its file
+     *
+     * @param fileName The file name
+     * @return The key, or null if the name is not the file name of a key
+     */
+    public static IntPrimaryKey fromFileName(String fileName) {
+        try {
+            int value = Integer.parseInt(fileName);
+            return Integer.toString(value).equals(fileName) ? new IntPrimaryKey(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
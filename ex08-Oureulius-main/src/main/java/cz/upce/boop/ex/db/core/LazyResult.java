@@ -0,0 +1,170 @@
+package cz.upce.boop.ex.db.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * Query result holding the primary keys of the matching entities and loading
+ * the entities only when they are accessed.
+ *
+ * The handles are split into consecutive batches. Accessing a handle loads
+ * the unloaded handles of its batch with one multi-key read, so iterating
+ * the result reads the entities a batch at a time, and entities that are
+ * never accessed are never read. A loaded entity is kept by its handle, so
+ * it reflects the state at the time it was loaded.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public final class LazyResult<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
+        extends AbstractList<EntityHandle<T, K>> implements RandomAccess {
+
+    /**
+     * The number of entities loaded together by default
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final List<EntityHandle<T, K>> handles;
+    private final Function<Collection<K>, Map<K, T>> loader;
+    private final int batchSize;
+
+    /**
+     * Create a result
+     *
+     * @param ids The primary keys of the entities
+     * @param loader Loads the entities of several keys, leaving out the
+     * missing ones
+     * @param batchSize The number of entities loaded together
+     */
+    LazyResult(Collection<K> ids, Function<Collection<K>, Map<K, T>> loader, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.handles = new ArrayList<>(ids.size());
+        for (K id : ids) {
+            handles.add(new EntityHandle<>(this, handles.size(), id));
+        }
+        this.loader = loader;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public EntityHandle<T, K> get(int index) {
+        return handles.get(index);
+    }
+
+    @Override
+    public int size() {
+        return handles.size();
+    }
+
+    /**
+     * Get the primary keys, without loading any entity
+     *
+     * @return The primary keys in the order of the handles
+     */
+    public List<K> ids() {
+        List<K> ids = new ArrayList<>(handles.size());
+        for (EntityHandle<T, K> handle : handles) {
+            ids.add(handle.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Iterate the entities, loading them a batch at a time and skipping those
+     * that no longer exist
+     *
+     * @return The entities in the order of the handles
+     */
+    public Iterable<T> entities() {
+        return EntityIterator::new;
+    }
+
+    /**
+     * Load every entity that is not loaded yet
+     *
+     * @return The entities in the order of the handles, without those that
+     * no longer exist
+     * @throws DatabaseException if an error occurs while loading
+     */
+    public List<T> loadAll() {
+        List<T> entities = new ArrayList<>(handles.size());
+        for (T entity : entities()) {
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    /**
+     * Get the number of handles whose entity has been loaded
+     *
+     * @return The number of loaded handles
+     */
+    public int loadedCount() {
+        int count = 0;
+        for (EntityHandle<T, K> handle : handles) {
+            if (handle.isLoaded()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Load the unloaded handles of the batch containing a position
+     */
+    synchronized void loadBatch(int position) {
+        if (handles.get(position).isLoaded()) {
+            return;
+        }
+        int start = position - position % batchSize;
+        int end = Math.min(start + batchSize, handles.size());
+
+        List<K> ids = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            if (!handles.get(i).isLoaded()) {
+                ids.add(handles.get(i).getId());
+            }
+        }
+        Map<K, T> loaded = ids.isEmpty() ? Collections.emptyMap() : loader.apply(ids);
+        for (int i = start; i < end; i++) {
+            EntityHandle<T, K> handle = handles.get(i);
+            if (!handle.isLoaded()) {
+                handle.set(loaded.get(handle.getId()));
+            }
+        }
+    }
+
+    private final class EntityIterator implements Iterator<T> {
+
+        private int position;
+        private T next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && position < handles.size()) {
+                next = handles.get(position++).get();
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T entity = next;
+            next = null;
+            return entity;
+        }
+    }
+}
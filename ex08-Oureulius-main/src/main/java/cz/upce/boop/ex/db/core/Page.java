@@ -0,0 +1,33 @@
+package cz.upce.boop.ex.db.core;
+
+import java.util.List;
+
+/**
+ * Record representing one page of an ordered retrieval.
+ *
+ * @param <T> The item type
+ * @param items The items of the page
+ * @param nextPageToken The token to pass to fetch the next page, or null if
+ * this is the last page
+ */
+public record Page<T>(List<T> items, String nextPageToken) {
+
+    /**
+     * Creates a page
+     *
+     * @param items The items of the page
+     * @param nextPageToken The token of the next page, or null
+     */
+    public Page {
+        items = List.copyOf(items);
+    }
+
+    /**
+     * Check whether another page follows
+     *
+     * @return true if there is a next page, false otherwise
+     */
+    public boolean hasNext() {
+        return nextPageToken != null;
+    }
+}
@@ -0,0 +1,204 @@
+package cz.upce.boop.ex.db.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encodes the position of a keyset pagination into an opaque token.
+ *
+ * A token is a tuple of text fields: the name of the ordering, the direction,
+ * and the last value and the last primary key of the previous page, each as a
+ * type tag followed by its text. The fields are Base64 encoded and signed
+ * with an HMAC. Tokens usually travel through a client, so a token that was
+ * altered or issued with another secret is rejected before any field is
+ * parsed. Only strings, numbers, booleans, characters, dates and instants can
+ * be encoded; nothing is ever deserialized.
+ */
+public final class PageToken {
+
+    /**
+     * Decoded position of a token
+     *
+     * @param ordering The name of the ordering
+     * @param direction The direction of the ordering
+     * @param value The last value of the previous page, may be null
+     * @param keyValue The value of the last primary key of the previous page
+     */
+    public record Position(String ordering, SortDirection direction, Object value, Comparable<?> keyValue) {
+
+    }
+
+    /**
+     * Type of an encoded value, with its tag and its parser
+     */
+    private enum Type {
+        NULL("N", null, text -> null),
+        STRING("S", String.class, text -> text),
+        INTEGER("I", Integer.class, Integer::valueOf),
+        LONG("L", Long.class, Long::valueOf),
+        SHORT("H", Short.class, Short::valueOf),
+        BYTE("Y", Byte.class, Byte::valueOf),
+        DOUBLE("D", Double.class, Double::valueOf),
+        FLOAT("F", Float.class, Float::valueOf),
+        BOOLEAN("B", Boolean.class, PageToken::parseBoolean),
+        CHARACTER("C", Character.class, PageToken::parseCharacter),
+        BIG_DECIMAL("BD", BigDecimal.class, BigDecimal::new),
+        BIG_INTEGER("BI", BigInteger.class, BigInteger::new),
+        LOCAL_DATE("LD", LocalDate.class, LocalDate::parse),
+        LOCAL_DATE_TIME("LT", LocalDateTime.class, LocalDateTime::parse),
+        INSTANT("IN", Instant.class, Instant::parse);
+
+        private final String tag;
+        private final Class<?> type;
+        private final Function<String, Object> parser;
+
+        Type(String tag, Class<?> type, Function<String, Object> parser) {
+            this.tag = tag;
+            this.type = type;
+            this.parser = parser;
+        }
+
+        private static Type of(Object value) {
+            for (Type type : values()) {
+                if (value == null ? type == NULL : value.getClass() == type.type) {
+                    return type;
+                }
+            }
+            throw new DatabaseException("Page position cannot hold a value of type " + value.getClass().getName());
+        }
+
+        private static Type ofTag(String tag) {
+            for (Type type : values()) {
+                if (type.tag.equals(tag)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown type tag: " + tag);
+        }
+    }
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SECRET_SIZE = 32;
+    private static final int FIELD_COUNT = 6;
+    private static final String SEPARATOR = ".";
+
+    private final SecretKeySpec secret;
+
+    /**
+     * Create a token codec
+     *
+     * @param secret The secret signing the tokens, or null for a random one,
+     * with which tokens are only accepted by this codec
+     */
+    public PageToken(byte[] secret) {
+        if (secret == null) {
+            secret = new byte[SECRET_SIZE];
+            new SecureRandom().nextBytes(secret);
+        }
+        this.secret = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    /**
+     * Encode a position
+     *
+     * @param ordering The name of the ordering
+     * @param direction The direction of the ordering
+     * @param value The last value of the page, may be null
+     * @param key The last primary key of the page
+     * @return The token
+     * @throws DatabaseException If the value or the key value is of a type
+     * that cannot be encoded
+     */
+    public String encode(String ordering, SortDirection direction, Object value, PrimaryKey<?> key) {
+        Type valueType = Type.of(value);
+        Type keyType = Type.of(key.getValue());
+        String fields = String.join(SEPARATOR,
+                field(ordering), field(direction.name()),
+                field(valueType.tag), field(value == null ? "" : value.toString()),
+                field(keyType.tag), field(key.getValue().toString()));
+        return fields + SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(fields));
+    }
+
+    /**
+     * Decode a token issued by {@link #encode}
+     *
+     * @param token The token
+     * @return The position
+     * @throws DatabaseException If the token is malformed or its signature
+     * does not match
+     */
+    public Position decode(String token) {
+        try {
+            int signatureStart = token.lastIndexOf(SEPARATOR);
+            if (signatureStart < 0) {
+                throw new IllegalArgumentException("No signature");
+            }
+            String fields = token.substring(0, signatureStart);
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(sign(fields), signature)) {
+                throw new IllegalArgumentException("Signature does not match");
+            }
+
+            String[] parts = fields.split("\\.", -1);
+            if (parts.length != FIELD_COUNT) {
+                throw new IllegalArgumentException("Unexpected number of fields");
+            }
+            Object value = parse(text(parts[2]), text(parts[3]));
+            Object keyValue = parse(text(parts[4]), text(parts[5]));
+            if (!(keyValue instanceof Comparable<?> comparable)) {
+                throw new IllegalArgumentException("Primary key value is not comparable");
+            }
+            return new Position(text(parts[0]), SortDirection.valueOf(text(parts[1])), value, comparable);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new DatabaseException("Invalid page token", e);
+        }
+    }
+
+    private byte[] sign(String fields) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return mac.doFinal(fields.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new DatabaseException("Page tokens cannot be signed", e);
+        }
+    }
+
+    private static Object parse(String tag, String text) {
+        return Type.ofTag(tag).parser.apply(text);
+    }
+
+    private static String field(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(String field) {
+        return new String(Base64.getUrlDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+
+    private static Boolean parseBoolean(String text) {
+        if (!text.equals("true") && !text.equals("false")) {
+            throw new IllegalArgumentException("Not a boolean: " + text);
+        }
+        return Boolean.valueOf(text);
+    }
+
+    private static Character parseCharacter(String text) {
+        if (text.length() != 1) {
+            throw new IllegalArgumentException("Not a character: " + text);
+        }
+        return text.charAt(0);
+    }
+}
@@ -0,0 +1,252 @@
+package cz.upce.boop.ex.db.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reads, deserializes and filters entity files on several threads.
+ *
+ * The list of sources (usually files) is cut into chunks that workers claim
+ * one at a time, and the condition is evaluated by the worker that read the
+ * entity. The calling thread works on chunks too, so a scan always completes
+ * even if the executor is saturated. A limited scan stops claiming and
+ * reading files as soon as enough matches are known.
+ */
+final class ParallelScanner implements AutoCloseable {
+
+    /**
+     * Limit of a scan that returns every match
+     */
+    static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private static final int MIN_CHUNK_SIZE = 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final Executor executor;
+    private ExecutorService ownExecutor;
+
+    /**
+     * Create a scanner
+     *
+     * @param parallelism The number of threads reading files, including the
+     * calling thread
+     * @param executor The executor running the workers, or null to use a
+     * pool owned by the scanner
+     */
+    ParallelScanner(int parallelism, Executor executor) {
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * Scan sources
+     *
+     * @param <S> The source type
+     * @param <T> The entity type
+     * @param sources The sources to scan, in scan order
+     * @param reader Reads the entity of a source, or returns null to skip it
+     * @param condition The condition entities must match, or null to accept
+     * all of them
+     * @param limit The maximum number of results
+     * @param order The order of the results
+     * @return The matching entities
+     * @throws DatabaseException If reading any file fails
+     */
+    <S, T> List<T> scan(List<S> sources, Function<S, T> reader, Predicate<T> condition, int limit,
+            ScanOrder order) {
+        if (sources.isEmpty() || limit == 0) {
+            return new ArrayList<>();
+        }
+
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, ceilDiv(sources.size(), parallelism * CHUNKS_PER_THREAD));
+        Scan<S, T> scan = new Scan<>(sources, reader, condition, limit, order == ScanOrder.ORDERED, chunkSize);
+
+        int workers = Math.min(parallelism, scan.chunkCount) - 1;
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor().execute(scan::work);
+            } catch (RejectedExecutionException e) {
+                break; // The calling thread handles the remaining chunks
+            }
+        }
+
+        scan.work();
+        return scan.result();
+    }
+
+    /**
+     * Shut down the pool owned by the scanner, if it was started
+     */
+    @Override
+    public synchronized void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            ownExecutor = null;
+        }
+    }
+
+    private synchronized Executor executor() {
+        if (executor != null) {
+            return executor;
+        }
+        if (ownExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ownExecutor = Executors.newFixedThreadPool(parallelism - 1, runnable -> {
+                Thread thread = new Thread(runnable, "entity-scan-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ownExecutor;
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * State of one scan shared by its workers
+     */
+    private static final class Scan<S, T> {
+
+        private final List<S> sources;
+        private final Function<S, T> reader;
+        private final Predicate<T> condition;
+        private final int limit;
+        private final boolean ordered;
+        private final int chunkSize;
+        private final int chunkCount;
+
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final CountDownLatch remainingChunks;
+        private final List<List<T>> chunkResults;
+        private final boolean[] chunkDone;
+        private final AtomicInteger matched = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean stopped;
+
+        // Completed chunks at the start of the source list and their matches, guarded by this
+        private int completedPrefix;
+        private int prefixMatches;
+
+        private Scan(List<S> sources, Function<S, T> reader, Predicate<T> condition, int limit,
+                boolean ordered, int chunkSize) {
+            this.sources = sources;
+            this.reader = reader;
+            this.condition = condition;
+            this.limit = limit;
+            this.ordered = ordered;
+            this.chunkSize = chunkSize;
+            this.chunkCount = ceilDiv(sources.size(), chunkSize);
+            this.remainingChunks = new CountDownLatch(chunkCount);
+            this.chunkResults = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                chunkResults.add(null);
+            }
+            this.chunkDone = new boolean[chunkCount];
+        }
+
+        private void work() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                List<T> results = null;
+                try {
+                    if (!stopped) {
+                        results = scanChunk(chunk);
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                    stopped = true;
+                } finally {
+                    completeChunk(chunk, results);
+                    remainingChunks.countDown();
+                }
+            }
+        }
+
+        private List<T> scanChunk(int chunk) {
+            int end = Math.min(sources.size(), (chunk + 1) * chunkSize);
+            List<T> results = new ArrayList<>();
+
+            for (int i = chunk * chunkSize; i < end && !stopped; i++) {
+                T entity = reader.apply(sources.get(i));
+                if (entity == null || (condition != null && !condition.test(entity))) {
+                    continue;
+                }
+
+                if (ordered) {
+                    results.add(entity);
+                    // Later matches of this chunk can never make it into the result
+                    if (results.size() >= limit) {
+                        break;
+                    }
+                } else {
+                    int count = matched.incrementAndGet();
+                    if (count > limit) {
+                        break;
+                    }
+                    results.add(entity);
+                    if (count == limit) {
+                        stopped = true;
+                    }
+                }
+            }
+
+            return results;
+        }
+
+        private synchronized void completeChunk(int chunk, List<T> results) {
+            chunkResults.set(chunk, results);
+            chunkDone[chunk] = true;
+            if (!ordered || limit == NO_LIMIT) {
+                return;
+            }
+
+            // Once the completed chunks at the start hold enough matches, the remaining chunks are not needed
+            while (completedPrefix < chunkCount && chunkDone[completedPrefix]) {
+                List<T> prefixResults = chunkResults.get(completedPrefix);
+                prefixMatches += prefixResults == null ? 0 : prefixResults.size();
+                completedPrefix++;
+            }
+            if (prefixMatches >= limit) {
+                stopped = true;
+            }
+        }
+
+        private List<T> result() {
+            try {
+                remainingChunks.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+                throw new DatabaseException("Interrupted while scanning entities", e);
+            }
+
+            Throwable error = failure.get();
+            if (error instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (error instanceof Error fatal) {
+                throw fatal;
+            }
+
+            List<T> result = new ArrayList<>();
+            for (List<T> results : chunkResults) {
+                if (results != null) {
+                    result.addAll(results);
+                }
+            }
+            return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+        }
+    }
+}
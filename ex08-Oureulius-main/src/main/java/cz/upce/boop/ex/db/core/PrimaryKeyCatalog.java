@@ -0,0 +1,268 @@
+package cz.upce.boop.ex.db.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory set of the primary keys stored in a repository, keyed by file
+ * name.
+ *
+ * The catalog is saved when the repository is closed and its file is deleted
+ * as soon as it is loaded, so a repository that was not closed properly
+ * rebuilds the catalog from the entity files instead of trusting a stale one.
+ *
+ * Changes are serialized, so the keys by file name and the keys in key order
+ * always change together; lookups and walks read without locking.
+ *
+ * For every key whose file was written since it was added, the catalog also
+ * keeps a fingerprint of the file content, so an update writing the same bytes
+ * again is detected without reading the file.
+ *
+ * @param <K> The primary key type
+ */
+final class PrimaryKeyCatalog<K extends PrimaryKey<?>> {
+
+    // Order of the values of the keys, which is the order of the keys
+    private static final Comparator<Object> KEY_VALUE_ORDER = PrimaryKeyCatalog::compare;
+
+    private final Map<String, K> keys = new ConcurrentHashMap<>();
+    // The same keys by their values in key order, for keyset pagination
+    private final NavigableMap<Object, K> sortedKeys = new ConcurrentSkipListMap<>(KEY_VALUE_ORDER);
+    // SHA-256 of the content last written to the file of a key, keyed by file name
+    private final Map<String, byte[]> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * Add a key
+     *
+     * @param key The primary key
+     */
+    synchronized void add(K key) {
+        K previous = keys.put(key.toFileName(), key);
+        if (previous != null) {
+            sortedKeys.remove(previous.getValue());
+        }
+        sortedKeys.put(key.getValue(), key);
+    }
+
+    /**
+     * Remove a key
+     *
+     * @param fileName The file name of the key
+     */
+    synchronized void remove(String fileName) {
+        K key = keys.remove(fileName);
+        if (key != null) {
+            sortedKeys.remove(key.getValue());
+        }
+        fingerprints.remove(fileName);
+    }
+
+    /**
+     * Remember the content written to the file of a key. Ignored if the key
+     * is not in the catalog.
+     *
+     * @param fileName The file name of the key
+     * @param data The file content
+     */
+    void contentWritten(String fileName, byte[] data) {
+        byte[] fingerprint = fingerprint(data);
+        synchronized (this) {
+            if (keys.containsKey(fileName)) {
+                fingerprints.put(fileName, fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Forget the content of the file of a key, after the file was deleted
+     *
+     * @param fileName The file name of the key
+     */
+    void contentDeleted(String fileName) {
+        fingerprints.remove(fileName);
+    }
+
+    /**
+     * Forget the content of every file, after the files were deleted
+     */
+    void allContentDeleted() {
+        fingerprints.clear();
+    }
+
+    /**
+     * Check whether the file of a key is known to hold the given content
+     *
+     * @param fileName The file name of the key
+     * @param data The file content
+     * @return true if the content last written to the file is the same,
+     * false if it differs or is not known
+     */
+    boolean hasContent(String fileName, byte[] data) {
+        byte[] fingerprint = fingerprints.get(fileName);
+        return fingerprint != null && MessageDigest.isEqual(fingerprint, fingerprint(data));
+    }
+
+    /**
+     * Check whether a key is stored
+     *
+     * @param fileName The file name of the key
+     * @return true if the key is in the catalog
+     */
+    boolean contains(String fileName) {
+        return keys.containsKey(fileName);
+    }
+
+    /**
+     * Get the number of keys
+     *
+     * @return The number of keys
+     */
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Get a snapshot of all keys
+     *
+     * @return The keys
+     */
+    List<K> keys() {
+        return new ArrayList<>(keys.values());
+    }
+
+    /**
+     * Get a snapshot of the file names of all keys
+     *
+     * @return The file names
+     */
+    List<String> fileNames() {
+        return new ArrayList<>(keys.keySet());
+    }
+
+    /**
+     * Get the keys following a key in key order
+     *
+     * @param after The value of the key to start after, or null to start at
+     * the first key
+     * @param direction The direction to walk in
+     * @param limit The maximum number of keys
+     * @return The keys
+     * @throws DatabaseException If the value is not of the type of the key
+     * values
+     */
+    List<K> keysAfter(Comparable<?> after, SortDirection direction, int limit) {
+        NavigableMap<Object, K> ordered = direction == SortDirection.ASCENDING
+                ? sortedKeys : sortedKeys.descendingMap();
+        if (after != null) {
+            Map.Entry<Object, K> first = sortedKeys.firstEntry();
+            if (first != null && first.getKey().getClass() != after.getClass()) {
+                throw new DatabaseException("Position does not match the primary keys: " + after);
+            }
+            ordered = ordered.tailMap(after, false);
+        }
+
+        List<K> result = new ArrayList<>(Math.min(limit, 1024));
+        for (K key : ordered.values()) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(key);
+        }
+        return result;
+    }
+
+    /**
+     * Remove all keys
+     */
+    synchronized void clear() {
+        keys.clear();
+        sortedKeys.clear();
+        fingerprints.clear();
+    }
+
+    /**
+     * Save the catalog to a file
+     *
+     * @param file The file to write
+     * @throws DatabaseException If the file cannot be written
+     */
+    void saveToFile(File file) {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new DatabaseException("Failed to create directory: " + dir.getPath());
+        }
+
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            List<K> snapshot = keys();
+            oos.writeInt(snapshot.size());
+            for (K key : snapshot) {
+                oos.writeObject(key);
+                oos.writeObject(fingerprints.get(key.toFileName()));
+            }
+        } catch (IOException e) {
+            throw new DatabaseException("Error saving key catalog to file: " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Load a catalog saved by {@link #saveToFile(File)} and delete its file
+     *
+     * @param <K> The primary key type
+     * @param file The file to read
+     * @return The catalog, or null if the file is missing or unreadable
+     */
+    @SuppressWarnings("unchecked")
+    static <K extends PrimaryKey<?>> PrimaryKeyCatalog<K> loadFromFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        PrimaryKeyCatalog<K> catalog = new PrimaryKeyCatalog<>();
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = ois.readInt();
+            for (int i = 0; i < count; i++) {
+                K key = (K) ois.readObject();
+                byte[] fingerprint = (byte[]) ois.readObject();
+                catalog.add(key);
+                if (fingerprint != null) {
+                    catalog.fingerprints.put(key.toFileName(), fingerprint);
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            catalog = null;
+        }
+
+        if (!file.delete()) {
+            throw new DatabaseException("Failed to delete key catalog file: " + file.getPath());
+        }
+        return catalog;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static byte[] fingerprint(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new DatabaseException("Cannot fingerprint entity files", e);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package cz.upce.boop.ex.db.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses entity records below the serializer.
+ *
+ * A compressed record starts with a marker byte that never starts a text or
+ * binary record, followed by the id of the dictionary and the uncompressed
+ * length as varints, and then the raw deflate stream. Records without the
+ * marker are returned as they are, so a repository can read files written
+ * before compression was enabled, and records that would not get smaller are
+ * stored uncompressed. Records larger than the maximum record size are
+ * never compressed, and a header claiming a larger size is rejected before
+ * any buffer is allocated for it.
+ *
+ * Dictionaries are trained from sample records and kept in the metadata
+ * directory, one file per dictionary. A new dictionary is used for records
+ * written afterwards, while records written with an older one stay readable.
+ */
+final class RecordCompressor {
+
+    // 0xFF is not valid in UTF-8 and differs from the binary serializer's marker
+    private static final byte MARKER = (byte) 0xFF;
+    private static final String DICTIONARY_PREFIX = "dict-";
+    private static final String DICTIONARY_SUFFIX = ".bin";
+    // Deflate finds matches up to 32 KB back, small records only reach the end of the dictionary
+    private static final int MAXIMUM_DICTIONARY_SIZE = 8 * 1024;
+    // Marker and two varints
+    private static final int MAXIMUM_HEADER_SIZE = 11;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<Deflater> DEFLATER
+            = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> COMPRESS_BUFFER
+            = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+    private static final ThreadLocal<byte[]> DECOMPRESS_BUFFER
+            = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+    private final File directory;
+    private final boolean enabled;
+    private final int maximumRecordSize;
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    // 0 while no dictionary has been trained
+    private volatile int currentId;
+
+    private final LongAdder recordCount = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    /**
+     * Create a compressor and load the dictionaries found in the directory
+     *
+     * @param directory The directory holding the dictionaries
+     * @param enabled Whether new records are compressed. Compressed records
+     * are read either way.
+     * @param maximumRecordSize The largest uncompressed size of a record
+     */
+    RecordCompressor(File directory, boolean enabled, int maximumRecordSize) {
+        this.directory = directory;
+        this.enabled = enabled;
+        this.maximumRecordSize = maximumRecordSize;
+        loadDictionaries();
+    }
+
+    /**
+     * Compress a record. The returned buffer is only valid until the next
+     * call on the same thread.
+     *
+     * @param record The serialized record
+     * @return The bytes to store, the record itself if compression is
+     * disabled, the record is larger than the maximum record size or
+     * compression does not make it smaller
+     */
+    ByteBuffer compress(ByteBuffer record) {
+        if (!enabled || record.remaining() > maximumRecordSize) {
+            return record;
+        }
+        int id = currentId;
+        ByteBuffer stored = compress(record, id, dictionaries.get(id));
+        recordCount.increment();
+        uncompressedBytes.add(record.remaining());
+        storedBytes.add(stored.remaining());
+        return stored;
+    }
+
+    /**
+     * Decompress a record if it was stored compressed. The returned buffer
+     * is only valid until the next call on the same thread.
+     *
+     * @param data The stored bytes
+     * @return The serialized record
+     * @throws DatabaseException if the record is corrupted, claims to be
+     * larger than the maximum record size or its dictionary is missing
+     */
+    ByteBuffer decompress(ByteBuffer data) {
+        if (!data.hasRemaining() || data.get(data.position()) != MARKER) {
+            return data;
+        }
+        ByteBuffer input = data.duplicate();
+        input.get();
+        int id = readVarInt(input);
+        int length = readVarInt(input);
+        if (length < 0 || length > maximumRecordSize) {
+            throw new DatabaseException("Compressed record length " + Integer.toUnsignedString(length)
+                    + " exceeds the maximum record size " + maximumRecordSize);
+        }
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        if (id != 0) {
+            byte[] dictionary = dictionaries.get(id);
+            if (dictionary == null) {
+                throw new DatabaseException("Missing compression dictionary " + id);
+            }
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(input);
+
+        byte[] output = buffer(DECOMPRESS_BUFFER, length);
+        try {
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(output, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != length) {
+                throw new DatabaseException("Truncated compressed record");
+            }
+        } catch (DataFormatException e) {
+            throw new DatabaseException("Corrupted compressed record", e);
+        }
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    /**
+     * Train a dictionary from sample records, save it and use it for the
+     * records written from now on. The dictionary consists of the lines and
+     * keys that occur in several samples, weighted by how much they save, with
+     * the most valuable ones last so they are the cheapest to reference.
+     *
+     * @param samples Uncompressed sample records
+     * @return Statistics of compressing the samples with the new dictionary,
+     * or with the current one if the samples have nothing in common
+     * @throws DatabaseException if compression is disabled or the dictionary
+     * cannot be saved
+     */
+    synchronized CompressionStats train(List<byte[]> samples) {
+        if (!enabled) {
+            throw new DatabaseException("Compression is not enabled");
+        }
+
+        byte[] dictionary = buildDictionary(samples);
+        if (dictionary.length > 0) {
+            int id = currentId + 1;
+            saveDictionary(id, dictionary);
+            dictionaries.put(id, dictionary);
+            currentId = id;
+        }
+
+        int id = currentId;
+        byte[] current = dictionaries.get(id);
+        long uncompressed = 0;
+        long stored = 0;
+        for (byte[] sample : samples) {
+            uncompressed += sample.length;
+            stored += compress(ByteBuffer.wrap(sample), id, current).remaining();
+        }
+        return new CompressionStats(samples.size(), uncompressed, stored, id, current == null ? 0 : current.length);
+    }
+
+    /**
+     * Get the statistics of the records written since the repository was
+     * opened
+     *
+     * @return The statistics
+     */
+    CompressionStats getStats() {
+        int id = currentId;
+        byte[] dictionary = dictionaries.get(id);
+        return new CompressionStats(recordCount.sum(), uncompressedBytes.sum(), storedBytes.sum(), id,
+                dictionary == null ? 0 : dictionary.length);
+    }
+
+    private static ByteBuffer compress(ByteBuffer record, int id, byte[] dictionary) {
+        int length = record.remaining();
+        byte[] output = buffer(COMPRESS_BUFFER, length + MAXIMUM_HEADER_SIZE);
+        int position = 0;
+        output[position++] = MARKER;
+        position = writeVarInt(output, position, id);
+        position = writeVarInt(output, position, length);
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(record.duplicate());
+        deflater.finish();
+        // Stop as soon as the result would be no smaller than the record
+        while (!deflater.finished() && position < length) {
+            position += deflater.deflate(output, position, length - position);
+        }
+
+        if (!deflater.finished() || position >= length) {
+            return record;
+        }
+        return ByteBuffer.wrap(output, 0, position);
+    }
+
+    private static byte[] buildDictionary(List<byte[]> samples) {
+        // ISO-8859-1 maps every byte to one char, so the strings are exact copies of the bytes
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            countSegments(new String(sample, StandardCharsets.ISO_8859_1), counts);
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1 && entry.getKey().length() > 2) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(RecordCompressor::savings).reversed());
+
+        List<String> chosen = new ArrayList<>();
+        StringBuilder all = new StringBuilder();
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String segment = candidate.getKey();
+            if (all.length() + segment.length() > MAXIMUM_DICTIONARY_SIZE) {
+                continue;
+            }
+            // A key is already covered by a chosen line starting with it
+            if (all.indexOf(segment) < 0) {
+                chosen.add(segment);
+                all.append(segment);
+            }
+        }
+
+        StringBuilder dictionary = new StringBuilder(all.length());
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.append(chosen.get(i));
+        }
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Count every line of a record including its line break, and the key of
+     * every "key=value" line including the '='. A line or key is counted
+     * once per record.
+     */
+    private static void countSegments(String record, Map<String, Integer> counts) {
+        Set<String> seen = new HashSet<>();
+        int start = 0;
+        while (start < record.length()) {
+            int end = record.indexOf('\n', start);
+            end = end < 0 ? record.length() : end + 1;
+            String line = record.substring(start, end);
+            seen.add(line);
+            int equalsPos = line.indexOf('=');
+            if (equalsPos > 0) {
+                seen.add(line.substring(0, equalsPos + 1));
+            }
+            start = end;
+        }
+        for (String segment : seen) {
+            counts.merge(segment, 1, Integer::sum);
+        }
+    }
+
+    private static long savings(Map.Entry<String, Integer> candidate) {
+        return (long) candidate.getKey().length() * candidate.getValue();
+    }
+
+    private void loadDictionaries() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(DICTIONARY_PREFIX)
+                && name.endsWith(DICTIONARY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(DICTIONARY_PREFIX.length(),
+                        name.length() - DICTIONARY_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            try {
+                dictionaries.put(id, Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                throw new DatabaseException("Error reading compression dictionary: " + name, e);
+            }
+            currentId = Math.max(currentId, id);
+        }
+    }
+
+    private void saveDictionary(int id, byte[] dictionary) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new DatabaseException("Failed to create directory: " + directory.getPath());
+        }
+        File file = new File(directory, DICTIONARY_PREFIX + id + DICTIONARY_SUFFIX);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), dictionary);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new DatabaseException("Error saving compression dictionary: " + file.getName(), e);
+        }
+    }
+
+    private static int writeVarInt(byte[] output, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            output[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarInt(ByteBuffer input) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!input.hasRemaining()) {
+                break;
+            }
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new DatabaseException("Corrupted compressed record header");
+    }
+
+    private static byte[] buffer(ThreadLocal<byte[]> holder, int capacity) {
+        byte[] buffer = holder.get();
+        if (buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+            holder.set(buffer);
+        }
+        return buffer;
+    }
+}
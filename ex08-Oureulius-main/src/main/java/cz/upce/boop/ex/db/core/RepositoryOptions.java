@@ -0,0 +1,482 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.db.cache.CacheCopyMode;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Configuration of a file entity repository.
+ */
+public class RepositoryOptions {
+
+    private final boolean writeAheadLog;
+    private final boolean syncOnCommit;
+    private final long walCheckpointSize;
+    private final long cacheMaximumSize;
+    private final long cacheMaximumWeight;
+    private final CacheCopyMode cacheCopyMode;
+    private final boolean primaryKeyCatalog;
+    private final boolean bloomFilter;
+    private final int scanParallelism;
+    private final Executor scanExecutor;
+    private final boolean compression;
+    private final int maximumRecordSize;
+    private final int queryCacheMaximumSize;
+    private final Duration queryCacheTimeToLive;
+    private final byte[] pageTokenSecret;
+
+    private RepositoryOptions(Builder builder) {
+        this.writeAheadLog = builder.writeAheadLog;
+        this.syncOnCommit = builder.syncOnCommit;
+        this.walCheckpointSize = builder.walCheckpointSize;
+        this.cacheMaximumSize = builder.cacheMaximumSize;
+        this.cacheMaximumWeight = builder.cacheMaximumWeight;
+        this.cacheCopyMode = builder.cacheCopyMode;
+        this.primaryKeyCatalog = builder.primaryKeyCatalog;
+        this.bloomFilter = builder.bloomFilter;
+        this.scanParallelism = builder.scanParallelism;
+        this.scanExecutor = builder.scanExecutor;
+        this.compression = builder.compression;
+        this.maximumRecordSize = builder.maximumRecordSize;
+        this.queryCacheMaximumSize = builder.queryCacheMaximumSize;
+        this.queryCacheTimeToLive = builder.queryCacheTimeToLive;
+        this.pageTokenSecret = builder.pageTokenSecret;
+    }
+
+    /**
+     * Creates the default options (no write-ahead log, no entity cache)
+     *
+     * @return The default options
+     */
+    public static RepositoryOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Creates a new RepositoryOptions builder
+     *
+     * @return A new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Check whether writes go through the write-ahead log
+     *
+     * @return true if the write-ahead log is enabled
+     */
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Check whether commits force the write-ahead log to the storage device
+     *
+     * @return true if commits are synced
+     */
+    public boolean isSyncOnCommit() {
+        return syncOnCommit;
+    }
+
+    /**
+     * Get the log size after which the write-ahead log is truncated
+     *
+     * @return The checkpoint size in bytes
+     */
+    public long getWalCheckpointSize() {
+        return walCheckpointSize;
+    }
+
+    /**
+     * Check whether entities read by ID are cached
+     *
+     * @return true if the entity cache is enabled
+     */
+    public boolean isCacheEnabled() {
+        return cacheMaximumSize > 0 || cacheMaximumWeight > 0;
+    }
+
+    /**
+     * Get the maximum number of cached entities
+     *
+     * @return The maximum number of entities, or 0 if the cache is not limited
+     * by count
+     */
+    public long getCacheMaximumSize() {
+        return cacheMaximumSize;
+    }
+
+    /**
+     * Get the maximum total size of the cached entity files
+     *
+     * @return The maximum size in bytes, or 0 if the cache is not limited by
+     * size
+     */
+    public long getCacheMaximumWeight() {
+        return cacheMaximumWeight;
+    }
+
+    /**
+     * Get how cached entities are handed out to callers
+     *
+     * @return The copy mode
+     */
+    public CacheCopyMode getCacheCopyMode() {
+        return cacheCopyMode;
+    }
+
+    /**
+     * Check whether the primary keys are kept in memory
+     *
+     * @return true if the primary-key catalog is enabled
+     */
+    public boolean isPrimaryKeyCatalog() {
+        return primaryKeyCatalog;
+    }
+
+    /**
+     * Check whether missing entities are detected by a bloom filter
+     *
+     * @return true if the bloom filter is enabled
+     */
+    public boolean isBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * Get the number of threads reading files during a scan
+     *
+     * @return The scan parallelism, including the calling thread
+     */
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    /**
+     * Get the executor running scan workers
+     *
+     * @return The executor, or null if the repository uses its own pool
+     */
+    public Executor getScanExecutor() {
+        return scanExecutor;
+    }
+
+    /**
+     * Check whether entity records are compressed
+     *
+     * @return true if compression is enabled
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Get the size of the largest record that is compressed
+     *
+     * @return The maximum uncompressed size in bytes
+     */
+    public int getMaximumRecordSize() {
+        return maximumRecordSize;
+    }
+
+    /**
+     * Get the maximum number of cached query results
+     *
+     * @return The maximum number of results, or 0 if the query cache is
+     * disabled
+     */
+    public int getQueryCacheMaximumSize() {
+        return queryCacheMaximumSize;
+    }
+
+    /**
+     * Get how long a query result stays cached
+     *
+     * @return The time to live, zero if results do not expire
+     */
+    public Duration getQueryCacheTimeToLive() {
+        return queryCacheTimeToLive;
+    }
+
+    /**
+     * Get the secret signing page tokens
+     *
+     * @return A copy of the secret, or null if every repository signs its
+     * tokens with a random secret
+     */
+    public byte[] getPageTokenSecret() {
+        return pageTokenSecret == null ? null : pageTokenSecret.clone();
+    }
+
+    /**
+     * Builder class for RepositoryOptions
+     */
+    public static class Builder {
+
+        private boolean writeAheadLog = false;
+        private boolean syncOnCommit = true;
+        private long walCheckpointSize = 4 * 1024 * 1024;
+        private long cacheMaximumSize = 0;
+        private long cacheMaximumWeight = 0;
+        private CacheCopyMode cacheCopyMode = CacheCopyMode.COPY;
+        private boolean primaryKeyCatalog = false;
+        private boolean bloomFilter = false;
+        private int scanParallelism = 1;
+        private Executor scanExecutor = null;
+        private boolean compression = false;
+        private int maximumRecordSize = 16 * 1024 * 1024;
+        private int queryCacheMaximumSize = 0;
+        private Duration queryCacheTimeToLive = Duration.ZERO;
+        private byte[] pageTokenSecret = null;
+
+        /**
+         * Enables or disables the write-ahead log. With the log enabled, every
+         * write is logged before the entity files are touched and the log is
+         * replayed when the repository is opened after a crash.
+         *
+         * @param writeAheadLog Whether to use the write-ahead log
+         * @return The builder
+         */
+        public Builder writeAheadLog(boolean writeAheadLog) {
+            this.writeAheadLog = writeAheadLog;
+            return this;
+        }
+
+        /**
+         * Sets whether commits force the log to the storage device. Concurrent
+         * commits share a single force.
+         *
+         * @param syncOnCommit Whether to force the log on commit
+         * @return The builder
+         */
+        public Builder syncOnCommit(boolean syncOnCommit) {
+            this.syncOnCommit = syncOnCommit;
+            return this;
+        }
+
+        /**
+         * Sets the log size after which the log is truncated
+         *
+         * @param walCheckpointSize The checkpoint size in bytes
+         * @return The builder
+         */
+        public Builder walCheckpointSize(long walCheckpointSize) {
+            if (walCheckpointSize <= 0) {
+                throw new IllegalArgumentException("Checkpoint size must be positive");
+            }
+            this.walCheckpointSize = walCheckpointSize;
+            return this;
+        }
+
+        /**
+         * Enables the entity cache, holding at most the given number of
+         * entities. Cannot be combined with {@link #cacheMaximumWeight(long)}.
+         *
+         * @param cacheMaximumSize The maximum number of cached entities
+         * @return The builder
+         */
+        public Builder cacheMaximumSize(long cacheMaximumSize) {
+            if (cacheMaximumSize <= 0) {
+                throw new IllegalArgumentException("Cache size must be positive");
+            }
+            this.cacheMaximumSize = cacheMaximumSize;
+            return this;
+        }
+
+        /**
+         * Enables the entity cache, holding entities whose files take at most
+         * the given number of bytes. Cannot be combined with
+         * {@link #cacheMaximumSize(long)}.
+         *
+         * @param cacheMaximumWeight The maximum size of the cached entities in
+         * bytes
+         * @return The builder
+         */
+        public Builder cacheMaximumWeight(long cacheMaximumWeight) {
+            if (cacheMaximumWeight <= 0) {
+                throw new IllegalArgumentException("Cache weight must be positive");
+            }
+            this.cacheMaximumWeight = cacheMaximumWeight;
+            return this;
+        }
+
+        /**
+         * Sets how cached entities are handed out. The default
+         * {@link CacheCopyMode#COPY} is safe for mutable entities, but keeps
+         * entities serialized and deserializes one on every hit.
+         * {@link CacheCopyMode#SHARED} is recommended for entities that are
+         * never modified after being read, as a hit then costs a single
+         * lookup.
+         *
+         * @param cacheCopyMode The copy mode
+         * @return The builder
+         */
+        public Builder cacheCopyMode(CacheCopyMode cacheCopyMode) {
+            if (cacheCopyMode == null) {
+                throw new IllegalArgumentException("Cache copy mode cannot be null");
+            }
+            this.cacheCopyMode = cacheCopyMode;
+            return this;
+        }
+
+        /**
+         * Enables or disables the primary-key catalog. With the catalog
+         * enabled, every primary key is kept in memory and existence checks,
+         * counting and listing keys never touch the file system. It also
+         * keeps a fingerprint of every file written, so an update that would
+         * not change the file is skipped without reading it. The catalog
+         * is saved on close and rebuilt after an unclean shutdown, from the
+         * file names if the repository was given a key parser, otherwise from
+         * the entities.
+         *
+         * @param primaryKeyCatalog Whether to keep the primary keys in memory
+         * @return The builder
+         */
+        public Builder primaryKeyCatalog(boolean primaryKeyCatalog) {
+            this.primaryKeyCatalog = primaryKeyCatalog;
+            return this;
+        }
+
+        /**
+         * Enables or disables the bloom filter. It is a lighter alternative
+         * to the catalog: existence checks for missing entities are answered
+         * from memory, while existing entities are still confirmed on disk.
+         * Ignored when the primary-key catalog is enabled.
+         *
+         * @param bloomFilter Whether to use a bloom filter
+         * @return The builder
+         */
+        public Builder bloomFilter(boolean bloomFilter) {
+            this.bloomFilter = bloomFilter;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads reading and filtering files during
+         * {@code findAll} and {@code findByCondition}, including the calling
+         * thread. Defaults to 1, which scans on the calling thread only;
+         * larger values, such as the number of available processors, are
+         * worth it for directories of many files on storage that serves
+         * concurrent reads well.
+         *
+         * @param scanParallelism The scan parallelism
+         * @return The builder
+         */
+        public Builder scanParallelism(int scanParallelism) {
+            if (scanParallelism <= 0) {
+                throw new IllegalArgumentException("Scan parallelism must be positive");
+            }
+            this.scanParallelism = scanParallelism;
+            return this;
+        }
+
+        /**
+         * Sets the executor running scan workers. By default the repository
+         * starts its own pool of daemon threads on the first parallel scan
+         * and shuts it down on close; a provided executor is never shut down
+         * by the repository.
+         *
+         * @param scanExecutor The executor, or null to use the repository's pool
+         * @return The builder
+         */
+        public Builder scanExecutor(Executor scanExecutor) {
+            this.scanExecutor = scanExecutor;
+            return this;
+        }
+
+        /**
+         * Enables or disables record compression. Records are deflated
+         * before they are written, with a shared dictionary once one has
+         * been trained from the stored records. Compressed records are read
+         * transparently even with compression disabled.
+         *
+         * @param compression Whether to compress new records
+         * @return The builder
+         */
+        public Builder compression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Sets the size of the largest record that is compressed, 16 MB by
+         * default. Larger records are stored uncompressed, and a compressed
+         * record whose header claims a larger size is rejected as corrupted
+         * instead of allocating a buffer of that size.
+         *
+         * @param maximumRecordSize The maximum uncompressed size in bytes
+         * @return The builder
+         */
+        public Builder maximumRecordSize(int maximumRecordSize) {
+            if (maximumRecordSize <= 0) {
+                throw new IllegalArgumentException("Maximum record size must be positive");
+            }
+            this.maximumRecordSize = maximumRecordSize;
+            return this;
+        }
+
+        /**
+         * Enables the query result cache of an indexed repository, holding
+         * at most the given number of results. Index lookups and structured
+         * queries are answered from the cache until an index value or entity
+         * they were computed from changes.
+         *
+         * @param queryCacheMaximumSize The maximum number of cached results
+         * @return The builder
+         */
+        public Builder queryCacheMaximumSize(int queryCacheMaximumSize) {
+            if (queryCacheMaximumSize <= 0) {
+                throw new IllegalArgumentException("Query cache size must be positive");
+            }
+            this.queryCacheMaximumSize = queryCacheMaximumSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a query result stays cached. By default results stay
+         * until they are invalidated or evicted.
+         *
+         * @param queryCacheTimeToLive The time to live, zero for no expiry
+         * @return The builder
+         */
+        public Builder queryCacheTimeToLive(Duration queryCacheTimeToLive) {
+            if (queryCacheTimeToLive == null || queryCacheTimeToLive.isNegative()) {
+                throw new IllegalArgumentException("Query cache time to live cannot be null or negative");
+            }
+            this.queryCacheTimeToLive = queryCacheTimeToLive;
+            return this;
+        }
+
+        /**
+         * Sets the secret signing page tokens. By default every repository
+         * signs its tokens with a random secret, so a token is only accepted
+         * by the repository instance that issued it; with a shared secret,
+         * tokens stay valid when the repository is reopened and are accepted
+         * by every repository configured with the same secret.
+         *
+         * @param pageTokenSecret The secret, at least 32 bytes
+         * @return The builder
+         */
+        public Builder pageTokenSecret(byte[] pageTokenSecret) {
+            if (pageTokenSecret == null || pageTokenSecret.length < 32) {
+                throw new IllegalArgumentException("Page token secret must have at least 32 bytes");
+            }
+            this.pageTokenSecret = pageTokenSecret.clone();
+            return this;
+        }
+
+        /**
+         * Builds the RepositoryOptions
+         *
+         * @return The built RepositoryOptions
+         */
+        public RepositoryOptions build() {
+            if (cacheMaximumSize > 0 && cacheMaximumWeight > 0) {
+                throw new IllegalStateException("Cache can be limited either by size or by weight, not both");
+            }
+            return new RepositoryOptions(this);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package cz.upce.boop.ex.db.core;
+
+/**
+ * Order of the results of a repository scan.
+ */
+public enum ScanOrder {
+    /**
+     * Results come in the order a sequential scan would produce them, and a
+     * limited scan returns the first matches in that order.
+     */
+    ORDERED,
+    /**
+     * Results come in the order the workers find them, and a limited scan
+     * returns whichever matches are found first. Cheaper when the caller
+     * does not care about the order.
+     */
+    UNORDERED
+}
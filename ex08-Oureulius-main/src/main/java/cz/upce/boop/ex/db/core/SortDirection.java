@@ -0,0 +1,15 @@
+package cz.upce.boop.ex.db.core;
+
+/**
+ * Direction of an ordered retrieval.
+ */
+public enum SortDirection {
+    /**
+     * Smallest first
+     */
+    ASCENDING,
+    /**
+     * Largest first
+     */
+    DESCENDING
+}
@@ -2,6 +2,8 @@ package cz.upce.boop.ex.db.core;
 
 public class StringPrimaryKey implements PrimaryKey<String> {
 
+    private static final String FILE_EXTENSION = ".txt";
+
     private final String value;
 
     public StringPrimaryKey(String value) {
@@ -19,7 +21,22 @@ public class StringPrimaryKey implements PrimaryKey<String> {
     @Override
     public String toFileName() {
         // Nahrazení neplatných znaků pro název souboru
-        return value.replaceAll("[\\\\/:*?\"<>|]", "_") + ".txt";
+        return value.replaceAll("[\\\\/:*?\"<>|]", "_") + FILE_EXTENSION;
+    }
+
+    /**
+     * Recover a key from the name of its file
+     *
+     * @param fileName The file name
+     * @return The key, or null if the name is not the file name of a key or
+     * may belong to a key whose invalid characters were replaced
+     */
+    public static StringPrimaryKey fromFileName(String fileName) {
+        if (!fileName.endsWith(FILE_EXTENSION) || fileName.length() == FILE_EXTENSION.length()
+                || fileName.indexOf('_') >= 0) {
+            return null;
+        }
+        return new StringPrimaryKey(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
     }
 
     @Override
@@ -0,0 +1,157 @@
+package cz.upce.boop.ex.db.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of save, update and delete operations committed atomically.
+ *
+ * Operations are only staged until {@link #commit()} is called; nothing is
+ * validated or written before that. Closing a transaction that was not
+ * committed discards the staged operations.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public class Transaction<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> implements AutoCloseable {
+
+    /**
+     * Kind of a staged operation
+     */
+    public enum OperationType {
+        SAVE,
+        UPDATE,
+        SAVE_OR_UPDATE,
+        DELETE
+    }
+
+    /**
+     * Record representing one staged operation.
+     *
+     * @param <T> The entity type
+     * @param <K> The primary key type
+     * @param type The kind of the operation
+     * @param id The primary key of the affected entity
+     * @param entity The new entity state, null for deletes
+     */
+    public record Operation<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>(
+            OperationType type, K id, T entity) {
+
+        public static <T extends DatabaseEntity<K>, K extends PrimaryKey<?>> Operation<T, K> save(T entity) {
+            return new Operation<>(OperationType.SAVE, entity.getId(), entity);
+        }
+
+        public static <T extends DatabaseEntity<K>, K extends PrimaryKey<?>> Operation<T, K> update(T entity) {
+            return new Operation<>(OperationType.UPDATE, entity.getId(), entity);
+        }
+
+        public static <T extends DatabaseEntity<K>, K extends PrimaryKey<?>> Operation<T, K> saveOrUpdate(T entity) {
+            return new Operation<>(OperationType.SAVE_OR_UPDATE, entity.getId(), entity);
+        }
+
+        public static <T extends DatabaseEntity<K>, K extends PrimaryKey<?>> Operation<T, K> delete(K id) {
+            return new Operation<>(OperationType.DELETE, id, null);
+        }
+    }
+
+    private final FileEntityRepository<T, K> repository;
+    private final List<Operation<T, K>> operations;
+    private boolean completed;
+
+    Transaction(FileEntityRepository<T, K> repository) {
+        this.repository = repository;
+        this.operations = new ArrayList<>();
+    }
+
+    /**
+     * Stage saving a new entity
+     *
+     * @param entity The entity to save
+     * @return This transaction
+     */
+    public Transaction<T, K> save(T entity) {
+        checkActive();
+        operations.add(Operation.save(entity));
+        return this;
+    }
+
+    /**
+     * Stage updating an existing entity
+     *
+     * @param entity The entity to update
+     * @return This transaction
+     */
+    public Transaction<T, K> update(T entity) {
+        checkActive();
+        operations.add(Operation.update(entity));
+        return this;
+    }
+
+    /**
+     * Stage saving an entity if it doesn't exist yet, updating it otherwise
+     *
+     * @param entity The entity to save or update
+     * @return This transaction
+     */
+    public Transaction<T, K> saveOrUpdate(T entity) {
+        checkActive();
+        operations.add(Operation.saveOrUpdate(entity));
+        return this;
+    }
+
+    /**
+     * Stage deleting an entity
+     *
+     * @param id The primary key of the entity to delete
+     * @return This transaction
+     */
+    public Transaction<T, K> delete(K id) {
+        checkActive();
+        operations.add(Operation.delete(id));
+        return this;
+    }
+
+    /**
+     * Get the staged operations
+     *
+     * @return The operations in the order they were staged
+     */
+    public List<Operation<T, K>> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Validate and apply all staged operations atomically
+     *
+     * @throws DatabaseException if any operation is invalid (in which case
+     * none of them is applied) or if an error occurs during the commit
+     */
+    public void commit() {
+        checkActive();
+        completed = true;
+        repository.commit(operations);
+    }
+
+    /**
+     * Discard all staged operations
+     */
+    public void rollback() {
+        checkActive();
+        completed = true;
+        operations.clear();
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            rollback();
+        }
+    }
+
+    private void checkActive() {
+        if (completed) {
+            throw new IllegalStateException("Transaction is already completed");
+        }
+    }
+}
@@ -3,14 +3,37 @@ package cz.upce.boop.ex.db.index;
 import cz.upce.boop.ex.db.core.DatabaseEntity;
 import cz.upce.boop.ex.db.core.DatabaseException;
 import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.core.SortDirection;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
 
 /**
  * Abstract base class for index implementations
  *
+ * An index may be read and written by several threads. Subclasses hold the
+ * read lock while they read their entries and the write lock while they
+ * change them; state built lazily by a read, such as the sorted values and
+ * the statistics, is only built under the write lock.
+ *
  * @param <T> The entity type
  * @param <K> The primary key type
  * @param <V> The indexed value type
@@ -22,6 +45,41 @@ public abstract class AbstractIndex<T extends DatabaseEntity<K>, K extends Prima
     protected final Function<T, V> valueExtractor;
     protected final boolean unique;
 
+    // Guard the entries of the subclasses and all state below
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    protected final Lock readLock = lock.readLock();
+    protected final Lock writeLock = lock.writeLock();
+
+    private static final int MOST_COMMON_VALUES = 10;
+    private static final int HISTOGRAM_BUCKETS = 20;
+    // The distribution is analysed again once this share of the entries (but at least 100) has changed
+    private static final double REANALYZE_RATIO = 0.1;
+    private static final int REANALYZE_MIN_CHANGES = 100;
+
+    // Order of ordered walks, entities without a value come last
+    private static final Comparator<Object> VALUE_ORDER = Comparator.nullsLast(AbstractIndex::compare);
+    private static final Comparator<Object> KEY_VALUE_ORDER = AbstractIndex::compare;
+
+    // Maintained on every change
+    private long entryCount;
+    private long changesSinceAnalyze;
+    private V minValue;
+    private V maxValue;
+    private boolean minMaxStale;
+    private boolean ordered = true;
+
+    // Value distribution as of the last analysis, null if not analysed yet
+    private List<IndexStatistics.ValueFrequency> mostCommonValues;
+    private List<Object> histogramBounds;
+    private long histogramEntryCount;
+
+    // Primary keys by their values in key order by value in value order, built by the first ordered walk and
+    // maintained from then on
+    private TreeMap<V, TreeMap<Object, K>> sortedPostings;
+
+    // Indexed value of every primary key, so a key can be moved or removed without reading its entity
+    private final Map<K, V> valuesByKey = new HashMap<>();
+
     /**
      * Create a new abstract index
      *
@@ -61,8 +119,428 @@ public abstract class AbstractIndex<T extends DatabaseEntity<K>, K extends Prima
         return valueExtractor.apply(entity);
     }
 
+    @Override
+    public boolean addEntity(T entity) {
+        return tryInsert(extractValue(entity), entity.getId());
+    }
+
+    @Override
+    public void removeEntity(T entity) {
+        remove(extractValue(entity), entity.getId());
+    }
+
+    @Override
+    public boolean tryReplace(V oldValue, V newValue, K id) {
+        if (Objects.equals(oldValue, newValue)) {
+            return true;
+        }
+        writeLock.lock();
+        try {
+            // Reserve the new value first, the old one is only released once that succeeded
+            if (!tryInsert(newValue, id)) {
+                return false;
+            }
+            remove(oldValue, id);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(K id) {
+        readLock.lock();
+        try {
+            return valuesByKey.containsKey(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public V getIndexedValue(K id) {
+        readLock.lock();
+        try {
+            return valuesByKey.get(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<V, Integer> countBy() {
+        readLock.lock();
+        try {
+            Map<V, Integer> counts = new LinkedHashMap<>(distinctValueCount() * 4 / 3 + 1);
+            forEachPosting(counts::put);
+            return counts;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<V> distinctValues() {
+        readLock.lock();
+        try {
+            Set<V> values = new LinkedHashSet<>(distinctValueCount() * 4 / 3 + 1);
+            forEachPosting((value, keys) -> values.add(value));
+            return values;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public V min() {
+        return readFresh(() -> minMaxStale, this::recomputeMinMax, () -> {
+            requireOrdered();
+            return minValue;
+        });
+    }
+
+    @Override
+    public V max() {
+        return readFresh(() -> minMaxStale, this::recomputeMinMax, () -> {
+            requireOrdered();
+            return maxValue;
+        });
+    }
+
+    private void requireOrdered() {
+        if (!ordered) {
+            throw new DatabaseException("Index '" + name + "' does not hold ordered values");
+        }
+    }
+
+    /**
+     * Read under the read lock, after bringing lazily built state up to date
+     * under the write lock if it is stale. The write lock is downgraded to
+     * the read lock, so the read sees the state just built.
+     */
+    private <R> R readFresh(BooleanSupplier stale, Runnable refresh, Supplier<R> read) {
+        readLock.lock();
+        try {
+            if (stale.getAsBoolean()) {
+                readLock.unlock();
+                writeLock.lock();
+                try {
+                    if (stale.getAsBoolean()) {
+                        refresh.run();
+                    }
+                } finally {
+                    readLock.lock();
+                    writeLock.unlock();
+                }
+            }
+            return read.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<IndexPosition<V, K>> findOrdered(SortDirection direction, Object afterValue, Comparable<?> afterKey,
+            int limit) {
+        return readFresh(() -> sortedPostings == null, this::buildSortedPostings,
+                () -> walkOrdered(direction, afterValue, afterKey, limit));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<IndexPosition<V, K>> walkOrdered(SortDirection direction, Object afterValue, Comparable<?> afterKey,
+            int limit) {
+        boolean ascending = direction == SortDirection.ASCENDING;
+        NavigableMap<V, TreeMap<Object, K>> postings = ascending ? sortedPostings : sortedPostings.descendingMap();
+        if (afterKey != null) {
+            requirePositionTypes(afterValue, afterKey);
+            // The value has the type of the indexed values
+            postings = postings.tailMap((V) afterValue, true);
+        }
+
+        List<IndexPosition<V, K>> result = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<V, TreeMap<Object, K>> posting : postings.entrySet()) {
+            V value = posting.getKey();
+            NavigableMap<Object, K> keys = ascending ? posting.getValue() : posting.getValue().descendingMap();
+            if (afterKey != null && VALUE_ORDER.compare(value, afterValue) == 0) {
+                // Skip the keys of the value the walk resumes at that were already returned
+                keys = keys.tailMap(afterKey, false);
+            }
+            for (K key : keys.values()) {
+                if (result.size() == limit) {
+                    return result;
+                }
+                result.add(new IndexPosition<>(value, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check that a position can be compared with the sorted postings: its
+     * value with the indexed values and its key with the primary key values
+     */
+    private void requirePositionTypes(Object afterValue, Comparable<?> afterKey) {
+        if (sortedPostings.isEmpty()) {
+            return;
+        }
+        // Entities without a value come last, so the first value is only null if all are
+        Map.Entry<V, TreeMap<Object, K>> first = sortedPostings.firstEntry();
+        boolean valueMatches = afterValue == null || first.getKey() == null
+                || first.getKey().getClass() == afterValue.getClass();
+        boolean keyMatches = first.getValue().firstKey().getClass() == afterKey.getClass();
+        if (!valueMatches || !keyMatches) {
+            throw new DatabaseException("Position does not match the values of index '" + name + "'");
+        }
+    }
+
+    private void buildSortedPostings() {
+        TreeMap<V, TreeMap<Object, K>> postings = new TreeMap<>(VALUE_ORDER);
+        try {
+            forEachKey((value, id) -> postings.computeIfAbsent(value, v -> new TreeMap<>(KEY_VALUE_ORDER))
+                    .put(id.getValue(), id));
+        } catch (ClassCastException e) {
+            throw new DatabaseException("Index '" + name + "' does not hold ordered values", e);
+        }
+        sortedPostings = postings;
+    }
+
+    @Override
+    public IndexStatistics getStatistics() {
+        return readFresh(this::statisticsStale, () -> {
+            if (mostCommonValues == null || analysisStale()) {
+                analyzeEntries();
+            }
+            if (minMaxStale) {
+                recomputeMinMax();
+            }
+        }, () -> new IndexStatistics(name, entryCount, distinctValueCount(), ordered ? minValue : null,
+                ordered ? maxValue : null, mostCommonValues, histogramBounds, histogramEntryCount));
+    }
+
+    private boolean statisticsStale() {
+        return mostCommonValues == null || analysisStale() || minMaxStale;
+    }
+
+    private boolean analysisStale() {
+        return changesSinceAnalyze > Math.max(REANALYZE_MIN_CHANGES, entryCount * REANALYZE_RATIO);
+    }
+
+    /**
+     * Rebuild the most common values and the histogram from the index entries
+     */
+    public void analyze() {
+        writeLock.lock();
+        try {
+            analyzeEntries();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void analyzeEntries() {
+        List<IndexStatistics.ValueFrequency> frequencies = new ArrayList<>(distinctValueCount());
+        forEachPosting((value, count) -> frequencies.add(new IndexStatistics.ValueFrequency(value, count)));
+
+        // Only values clearly more common than the average are worth listing
+        double averageCount = frequencies.isEmpty() ? 0 : (double) entryCount / frequencies.size();
+        List<IndexStatistics.ValueFrequency> byCount = new ArrayList<>(frequencies);
+        byCount.sort(Comparator.comparingLong(IndexStatistics.ValueFrequency::count).reversed());
+        List<IndexStatistics.ValueFrequency> common = new ArrayList<>();
+        Set<Object> commonValues = new HashSet<>();
+        for (IndexStatistics.ValueFrequency frequency : byCount) {
+            if (common.size() == MOST_COMMON_VALUES || frequency.count() <= 1
+                    || frequency.count() <= averageCount) {
+                break;
+            }
+            common.add(frequency);
+            commonValues.add(frequency.value());
+        }
+
+        List<IndexStatistics.ValueFrequency> others = new ArrayList<>(frequencies.size() - common.size());
+        long otherCount = 0;
+        for (IndexStatistics.ValueFrequency frequency : frequencies) {
+            if (!commonValues.contains(frequency.value())) {
+                others.add(frequency);
+                otherCount += frequency.count();
+            }
+        }
+
+        mostCommonValues = List.copyOf(common);
+        histogramBounds = ordered ? buildHistogram(others, otherCount) : List.of();
+        histogramEntryCount = otherCount;
+        changesSinceAnalyze = 0;
+    }
+
+    /**
+     * Build equi-depth bucket bounds: every bucket holds about the same number
+     * of entries
+     */
+    private List<Object> buildHistogram(List<IndexStatistics.ValueFrequency> frequencies, long total) {
+        // Entities without a value fall in no range
+        for (IndexStatistics.ValueFrequency frequency : frequencies) {
+            if (frequency.value() == null) {
+                total -= frequency.count();
+            }
+        }
+        frequencies.removeIf(frequency -> frequency.value() == null);
+        if (frequencies.isEmpty()) {
+            return List.of();
+        }
+        try {
+            frequencies.sort((a, b) -> compare(a.value(), b.value()));
+        } catch (ClassCastException e) {
+            ordered = false;
+            return List.of();
+        }
+
+        List<Object> bounds = new ArrayList<>(HISTOGRAM_BUCKETS + 1);
+        bounds.add(frequencies.get(0).value());
+        long seen = 0;
+        int nextBound = 1;
+        for (IndexStatistics.ValueFrequency frequency : frequencies) {
+            seen += frequency.count();
+            while (nextBound < HISTOGRAM_BUCKETS && seen * HISTOGRAM_BUCKETS >= total * nextBound) {
+                bounds.add(frequency.value());
+                nextBound++;
+            }
+        }
+        Object last = frequencies.get(frequencies.size() - 1).value();
+        if (!Objects.equals(bounds.get(bounds.size() - 1), last) || bounds.size() == 1) {
+            bounds.add(last);
+        }
+        return List.copyOf(bounds);
+    }
+
+    /**
+     * Record that a primary key was added under a value. Called by subclasses
+     * holding the write lock after every successful addition.
+     *
+     * @param id The primary key
+     * @param value The indexed value
+     * @param valueAdded Whether the value was not indexed before
+     */
+    protected void recordAdd(K id, V value, boolean valueAdded) {
+        valuesByKey.put(id, value);
+        entryCount++;
+        changesSinceAnalyze++;
+        if (!minMaxStale) {
+            updateMinMax(value);
+        }
+        if (sortedPostings != null) {
+            try {
+                sortedPostings.computeIfAbsent(value, v -> new TreeMap<>(KEY_VALUE_ORDER)).put(id.getValue(), id);
+            } catch (ClassCastException e) {
+                sortedPostings = null;
+            }
+        }
+    }
+
+    /**
+     * Record that a primary key was removed from a value. Called by
+     * subclasses holding the write lock after every successful removal.
+     *
+     * @param id The primary key
+     * @param value The indexed value
+     * @param valueRemoved Whether no primary key maps to the value anymore
+     */
+    protected void recordRemove(K id, V value, boolean valueRemoved) {
+        // The key may already be indexed under the value it is being moved to
+        valuesByKey.remove(id, value);
+        entryCount--;
+        changesSinceAnalyze++;
+        if (valueRemoved && (Objects.equals(value, minValue) || Objects.equals(value, maxValue))) {
+            minMaxStale = true;
+        }
+        if (sortedPostings != null) {
+            TreeMap<Object, K> keys = sortedPostings.get(value);
+            if (keys != null && keys.remove(id.getValue()) != null && keys.isEmpty()) {
+                sortedPostings.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Reset the statistics and the value of every primary key after all
+     * entries were removed, or recount them after entries were loaded without
+     * going through {@link #recordAdd(PrimaryKey, Object, boolean)}. Called
+     * while holding the write lock.
+     */
+    protected void resetStatistics() {
+        valuesByKey.clear();
+        forEachKey((value, id) -> valuesByKey.put(id, value));
+        long[] count = new long[1];
+        forEachPosting((value, keys) -> count[0] += keys);
+        entryCount = count[0];
+        changesSinceAnalyze = 0;
+        minValue = null;
+        maxValue = null;
+        minMaxStale = entryCount > 0;
+        ordered = true;
+        mostCommonValues = null;
+        histogramBounds = null;
+        histogramEntryCount = 0;
+        sortedPostings = null;
+    }
+
+    private void recomputeMinMax() {
+        minValue = null;
+        maxValue = null;
+        minMaxStale = false;
+        ordered = true;
+        forEachPosting((value, keys) -> updateMinMax(value));
+    }
+
+    private void updateMinMax(V value) {
+        // Entities without a value do not make the values unordered
+        if (!ordered || value == null) {
+            return;
+        }
+        if (!(value instanceof Comparable)) {
+            ordered = false;
+            return;
+        }
+        try {
+            if (minValue == null || compare(value, minValue) < 0) {
+                minValue = value;
+            }
+            if (maxValue == null || compare(value, maxValue) > 0) {
+                maxValue = value;
+            }
+        } catch (ClassCastException e) {
+            ordered = false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+
+    /**
+     * Call the action with every indexed value and its number of primary keys
+     *
+     * @param action The action
+     */
+    protected abstract void forEachPosting(ObjIntConsumer<V> action);
+
+    /**
+     * Call an action for every primary key with its value
+     *
+     * @param action The action taking the value and the primary key
+     */
+    protected abstract void forEachKey(BiConsumer<V, K> action);
+
+    /**
+     * Get the number of distinct indexed values
+     *
+     * @return The number of distinct values
+     */
+    protected abstract int distinctValueCount();
+
     @Override
     public void saveToFile(String filePath) {
+        readLock.lock();
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
             // Save index metadata
             oos.writeUTF(name);
@@ -70,8 +548,12 @@ public abstract class AbstractIndex<T extends DatabaseEntity<K>, K extends Prima
 
             // Save index entries (to be implemented by subclasses)
             saveEntries(oos);
+
+            saveStatistics(oos);
         } catch (IOException e) {
             throw new DatabaseException("Error saving index to file: " + filePath, e);
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -83,8 +565,51 @@ public abstract class AbstractIndex<T extends DatabaseEntity<K>, K extends Prima
      */
     protected abstract void saveEntries(ObjectOutputStream oos) throws IOException;
 
+    private void saveStatistics(ObjectOutputStream oos) throws IOException {
+        oos.writeBoolean(mostCommonValues != null);
+        if (mostCommonValues == null) {
+            return;
+        }
+
+        oos.writeInt(mostCommonValues.size());
+        for (IndexStatistics.ValueFrequency frequency : mostCommonValues) {
+            oos.writeObject(frequency.value());
+            oos.writeLong(frequency.count());
+        }
+        oos.writeObject(new ArrayList<>(histogramBounds));
+        oos.writeLong(histogramEntryCount);
+        oos.writeLong(changesSinceAnalyze);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadStatistics(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        if (!ois.readBoolean()) {
+            return;
+        }
+
+        int size = ois.readInt();
+        List<IndexStatistics.ValueFrequency> common = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            common.add(new IndexStatistics.ValueFrequency(ois.readObject(), ois.readLong()));
+        }
+        List<Object> bounds = (List<Object>) ois.readObject();
+        histogramEntryCount = ois.readLong();
+        changesSinceAnalyze = ois.readLong();
+        mostCommonValues = List.copyOf(common);
+        histogramBounds = List.copyOf(bounds);
+    }
+
     @Override
     public void loadFromFile(String filePath, List<T> entities) {
+        writeLock.lock();
+        try {
+            readFromFile(filePath, entities);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void readFromFile(String filePath, List<T> entities) {
         // Clear existing index entries
         clear();
 
@@ -109,6 +634,13 @@ public abstract class AbstractIndex<T extends DatabaseEntity<K>, K extends Prima
 
             // Load index entries (to be implemented by subclasses)
             loadEntries(ois, entities);
+            resetStatistics();
+
+            try {
+                loadStatistics(ois);
+            } catch (EOFException e) {
+                // Index file written before statistics were saved, analysed again on first use
+            }
         } catch (IOException | ClassNotFoundException e) {
             throw new DatabaseException("Error loading index from file: " + filePath, e);
         }
@@ -1,9 +1,13 @@
 package cz.upce.boop.ex.db.index;
 
 import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
 import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.core.SortDirection;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 /**
@@ -33,6 +37,49 @@ public interface Index<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V>
      */
     void removeEntity(T entity);
     
+    /**
+     * Add a primary key under a value, checking and reserving the value with
+     * a single lookup
+     * @param value The indexed value
+     * @param id The primary key
+     * @return true if the key was added, false if the value is taken in a
+     * unique index, in which case the index is unchanged
+     */
+    boolean tryInsert(V value, K id);
+    
+    /**
+     * Move a primary key from one value to another. The new value is reserved
+     * before the old one is released, so on a unique constraint violation the
+     * key stays where it was.
+     * @param oldValue The value the key is indexed under
+     * @param newValue The value to move the key to
+     * @param id The primary key
+     * @return true if the key was moved, false if the new value is taken in a
+     * unique index, in which case the index is unchanged
+     */
+    boolean tryReplace(V oldValue, V newValue, K id);
+    
+    /**
+     * Remove a primary key from a value
+     * @param value The indexed value
+     * @param id The primary key
+     */
+    void remove(V value, K id);
+    
+    /**
+     * Check if a primary key is indexed
+     * @param id The primary key
+     * @return true if the key is indexed under some value, false otherwise
+     */
+    boolean containsKey(K id);
+    
+    /**
+     * Get the value a primary key is indexed under, without reading its entity
+     * @param id The primary key
+     * @return The indexed value, or null if the key is not indexed or its value is null
+     */
+    V getIndexedValue(K id);
+    
     /**
      * Find primary keys of entities by indexed value
      * @param value The value to search for
@@ -40,6 +87,54 @@ public interface Index<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V>
      */
     List<K> findByValue(V value);
     
+    /**
+     * Count the entities with an indexed value
+     * @param value The value to count
+     * @return The number of entities with the value
+     */
+    int count(V value);
+    
+    /**
+     * Count the entities per indexed value
+     * @return The number of entities by value, in index order
+     */
+    Map<V, Integer> countBy();
+    
+    /**
+     * Get the distinct indexed values
+     * @return The distinct values, in index order
+     */
+    Set<V> distinctValues();
+    
+    /**
+     * Get the smallest indexed value
+     * @return The smallest value, or null if the index is empty
+     * @throws DatabaseException If the indexed values are not ordered
+     */
+    V min();
+    
+    /**
+     * Get the largest indexed value
+     * @return The largest value, or null if the index is empty
+     * @throws DatabaseException If the indexed values are not ordered
+     */
+    V max();
+    
+    /**
+     * Walk the index in value order, and the primary keys of each value in
+     * key order
+     * @param direction The direction to walk in
+     * @param afterValue The value of the position to start after, may be null
+     * @param afterKey The primary key value of the position to start after,
+     * or null to start at the beginning
+     * @param limit The maximum number of positions
+     * @return The positions following the given one
+     * @throws DatabaseException If the indexed values are not ordered, or the
+     * position is not of the types of the indexed values and the keys
+     */
+    List<IndexPosition<V, K>> findOrdered(SortDirection direction, Object afterValue, Comparable<?> afterKey,
+            int limit);
+    
     /**
      * Check if this index enforces uniqueness
      * @return true if the index is unique, false otherwise
@@ -69,4 +164,10 @@ public interface Index<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V>
      * @param entities The list to load entities 
      */
     void loadFromFile(String filePath, List<T> entities);
+    
+    /**
+     * Get the statistics of the indexed values
+     * @return The index statistics
+     */
+    IndexStatistics getStatistics();
 }
\ No newline at end of file
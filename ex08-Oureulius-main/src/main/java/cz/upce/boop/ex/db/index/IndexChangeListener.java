@@ -0,0 +1,20 @@
+package cz.upce.boop.ex.db.index;
+
+/**
+ * Listener notified by an {@link IndexManager} when its indexes change
+ */
+public interface IndexChangeListener {
+
+    /**
+     * Called when a primary key was added to or removed from an indexed value
+     * @param indexName The name of the index
+     * @param value The indexed value
+     */
+    void valueChanged(String indexName, Object value);
+
+    /**
+     * Called when an index was cleared, reloaded or removed
+     * @param indexName The name of the index
+     */
+    void indexChanged(String indexName);
+}
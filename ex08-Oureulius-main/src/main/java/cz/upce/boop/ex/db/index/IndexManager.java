@@ -3,10 +3,16 @@ package cz.upce.boop.ex.db.index;
 import cz.upce.boop.ex.db.core.DatabaseEntity;
 import cz.upce.boop.ex.db.core.DatabaseException;
 import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.core.SortDirection;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -16,9 +22,48 @@ import java.util.function.Function;
  */
 public class IndexManager<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
     
+    // Marks an index that did not contain the primary key in captured values
+    private static final Object NOT_INDEXED = new Object();
+    
+    /**
+     * Values a primary key was indexed under, captured before the key is moved
+     * or removed so the change can be undone without the old entity
+     * @param <T> The entity type
+     * @param <K> The primary key type
+     */
+    public static final class IndexedValues<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
+        
+        private final K id;
+        private final List<Index<T, K, ?>> indexes;
+        private final Object[] values;
+        
+        private IndexedValues(K id, List<Index<T, K, ?>> indexes, Object[] values) {
+            this.id = id;
+            this.indexes = indexes;
+            this.values = values;
+        }
+    }
+    
     private final List<Index<T, K, ?>> indexes;
+    // Null if the indexes are only kept in memory
     private final String indexDirPath;
     
+    // Names of indexes modified since they were last saved, marked by any writer
+    private final Set<String> dirtyIndexes = ConcurrentHashMap.newKeySet();
+    
+    // Notified of every change of the indexes, null if nobody listens
+    private volatile IndexChangeListener changeListener;
+    
+    /**
+     * Create a new index manager whose indexes are only kept in memory.
+     * Saving them does nothing, and they are rebuilt from the entities
+     * instead of loaded.
+     */
+    public IndexManager() {
+        this.indexes = new ArrayList<>();
+        this.indexDirPath = null;
+    }
+    
     /**
      * Create a new index manager
      * @param indexDirPath The directory to store index files
@@ -115,11 +160,15 @@ public class IndexManager<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
         for (int i = 0; i < indexes.size(); i++) {
             if (indexes.get(i).getName().equals(name)) {
                 indexes.remove(i);
+                dirtyIndexes.remove(name);
+                notifyIndexChanged(name);
                 
                 // Delete the index file if it exists
-                File indexFile = new File(getIndexFilePath(name));
-                if (indexFile.exists()) {
-                    indexFile.delete();
+                if (indexDirPath != null) {
+                    File indexFile = new File(getIndexFilePath(name));
+                    if (indexFile.exists()) {
+                        indexFile.delete();
+                    }
                 }
                 
                 return true;
@@ -136,56 +185,278 @@ public class IndexManager<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
      * @return List of primary keys matching the value
      */
     public <V> List<K> findByIndexedValue(String indexName, V value) {
-        Index<T, K, V> index = getIndex(indexName);
-        if (index == null) {
-            throw new DatabaseException("Index with name '" + indexName + "' not found");
-        }
-        
+        Index<T, K, V> index = requireIndex(indexName);
         return index.findByValue(value);
     }
     
     /**
-     * Add an entity to all indexes
+     * Count the entities with an indexed value, without reading them
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to count
+     * @return The number of entities with the value
+     * @throws DatabaseException If the index does not exist
+     */
+    public <V> int count(String indexName, V value) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.count(value);
+    }
+    
+    /**
+     * Count the entities per indexed value, without reading them
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The number of entities by value
+     * @throws DatabaseException If the index does not exist
+     */
+    public <V> Map<V, Integer> countBy(String indexName) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.countBy();
+    }
+    
+    /**
+     * Get the distinct values of an index
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The distinct values
+     * @throws DatabaseException If the index does not exist
+     */
+    public <V> Set<V> distinctValues(String indexName) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.distinctValues();
+    }
+    
+    /**
+     * Get the smallest value of an index
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The smallest value, or null if the index is empty
+     * @throws DatabaseException If the index does not exist or its values are not ordered
+     */
+    public <V> V min(String indexName) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.min();
+    }
+    
+    /**
+     * Get the largest value of an index
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The largest value, or null if the index is empty
+     * @throws DatabaseException If the index does not exist or its values are not ordered
+     */
+    public <V> V max(String indexName) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.max();
+    }
+    
+    /**
+     * Walk an index in value order
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param direction The direction to walk in
+     * @param afterValue The value of the position to start after, may be null
+     * @param afterKey The primary key value of the position to start after,
+     * or null to start at the beginning
+     * @param limit The maximum number of positions
+     * @return The positions following the given one
+     * @throws DatabaseException If the index does not exist, its values are
+     * not ordered or the position does not match them
+     */
+    public <V> List<IndexPosition<V, K>> findOrdered(String indexName, SortDirection direction,
+            Object afterValue, Comparable<?> afterKey, int limit) {
+        Index<T, K, V> index = requireIndex(indexName);
+        return index.findOrdered(direction, afterValue, afterKey, limit);
+    }
+    
+    /**
+     * Get the statistics of an index
+     * @param indexName The name of the index
+     * @return The index statistics
+     * @throws DatabaseException If the index does not exist
+     */
+    public IndexStatistics getStatistics(String indexName) {
+        return requireIndex(indexName).getStatistics();
+    }
+    
+    /**
+     * Add the primary key of an entity to all indexes. Every indexed value is
+     * extracted once, and checked and reserved with a single lookup.
      * @param entity The entity to add
-     * @throws DatabaseException If adding the entity violates a unique constraint
+     * @return The values the key was indexed under before, for undoing the
+     * addition with {@link #restoreValues}
+     * @throws DatabaseException If the entity violates a unique constraint,
+     * in which case the indexes are left unchanged
      */
-    public void addEntityToIndexes(T entity) {
-        for (Index<T, K, ?> index : indexes) {
-            if (!addEntityToIndex(entity, index)) {
+    public IndexedValues<T, K> insertIntoIndexes(T entity) {
+        K id = entity.getId();
+        Object[] values = new Object[indexes.size()];
+        for (int i = 0; i < values.length; i++) {
+            Index<T, K, ?> index = indexes.get(i);
+            values[i] = index.getValueExtractor().apply(entity);
+            if (!tryInsertIntoIndex(values[i], id, index)) {
+                // Undo the preceding insertions with the values already extracted
+                for (int j = 0; j < i; j++) {
+                    removeValueFromIndex(values[j], id, indexes.get(j));
+                }
                 throw new DatabaseException("Entity violates unique constraint for index '" + index.getName() + "'");
             }
         }
+        markAllDirty();
+        
+        Object[] previous = new Object[values.length];
+        Arrays.fill(previous, NOT_INDEXED);
+        return new IndexedValues<>(id, List.copyOf(indexes), previous);
     }
     
     /**
-     * Add an entity to a specific index
-     * @param entity The entity to add
-     * @param index The index to add the entity to
-     * @return true if the entity was added successfully, false if it violates a unique constraint
+     * Capture the values a primary key is indexed under
+     * @param id The primary key
+     * @param indexes The indexes to capture
+     * @return The captured values
      */
-    @SuppressWarnings("unchecked")
-    private <V> boolean addEntityToIndex(T entity, Index<T, K, ?> index) {
-        return ((Index<T, K, V>) index).addEntity(entity);
+    private IndexedValues<T, K> captureValues(K id, List<Index<T, K, ?>> indexes) {
+        Object[] values = new Object[indexes.size()];
+        for (int i = 0; i < values.length; i++) {
+            Index<T, K, ?> index = indexes.get(i);
+            values[i] = index.containsKey(id) ? index.getIndexedValue(id) : NOT_INDEXED;
+        }
+        return new IndexedValues<>(id, List.copyOf(indexes), values);
     }
     
     /**
-     * Remove an entity from all indexes
-     * @param entity The entity to remove
+     * Move the primary key of an entity to the entity's values in the indexes
+     * where they differ from the values the key is indexed under. Every
+     * indexed value is extracted once, and the new value is checked and
+     * reserved with a single lookup before the old one is released.
+     * @param newEntity The updated version of the entity
+     * @return The values the key was indexed under in the changed indexes,
+     * for undoing the move with {@link #restoreValues}
+     * @throws DatabaseException If the new version violates a unique constraint,
+     * in which case the indexes are left unchanged
      */
-    public void removeEntityFromIndexes(T entity) {
+    public IndexedValues<T, K> replaceInIndexes(T newEntity) {
+        K id = newEntity.getId();
+        List<Index<T, K, ?>> changed = new ArrayList<>();
+        List<Object> oldValues = new ArrayList<>();
         for (Index<T, K, ?> index : indexes) {
-            removeEntityFromIndex(entity, index);
+            Object newValue = index.getValueExtractor().apply(newEntity);
+            boolean indexed = index.containsKey(id);
+            Object oldValue = indexed ? index.getIndexedValue(id) : NOT_INDEXED;
+            if (indexed && Objects.equals(oldValue, newValue)) {
+                continue;
+            }
+            
+            boolean moved = indexed ? tryReplaceInIndex(oldValue, newValue, id, index)
+                    : tryInsertIntoIndex(newValue, id, index);
+            if (!moved) {
+                // Undo the preceding moves
+                restoreValues(new IndexedValues<>(id, changed, oldValues.toArray()));
+                throw new DatabaseException("Updated entity violates unique constraint for index '"
+                        + index.getName() + "'");
+            }
+            changed.add(index);
+            oldValues.add(oldValue);
+        }
+        
+        for (Index<T, K, ?> index : changed) {
+            dirtyIndexes.add(index.getName());
+        }
+        return new IndexedValues<>(id, changed, oldValues.toArray());
+    }
+    
+    /**
+     * Remove a primary key from all indexes by the values they keep for it,
+     * without the entity
+     * @param id The primary key
+     * @return The values the key was indexed under, for undoing the removal
+     * with {@link #restoreValues}
+     */
+    public IndexedValues<T, K> removeFromIndexes(K id) {
+        IndexedValues<T, K> previous = captureValues(id, indexes);
+        for (Index<T, K, ?> index : previous.indexes) {
+            removeKeyFromIndex(id, index);
+            dirtyIndexes.add(index.getName());
+        }
+        return previous;
+    }
+    
+    /**
+     * Put a primary key back under the values it was indexed under, undoing
+     * {@link #insertIntoIndexes}, {@link #replaceInIndexes} or
+     * {@link #removeFromIndexes}
+     * @param previous The values returned by the undone change
+     */
+    public void restoreValues(IndexedValues<T, K> previous) {
+        for (int i = 0; i < previous.values.length; i++) {
+            Index<T, K, ?> index = previous.indexes.get(i);
+            removeKeyFromIndex(previous.id, index);
+            if (previous.values[i] != NOT_INDEXED) {
+                tryInsertIntoIndex(previous.values[i], previous.id, index);
+            }
+            dirtyIndexes.add(index.getName());
+        }
+    }
+    
+    /**
+     * Remove a primary key from the value it is indexed under
+     * @param id The primary key
+     * @param index The index to remove the key from
+     */
+    @SuppressWarnings("unchecked")
+    private <V> void removeKeyFromIndex(K id, Index<T, K, ?> index) {
+        Index<T, K, V> typed = (Index<T, K, V>) index;
+        if (typed.containsKey(id)) {
+            V value = typed.getIndexedValue(id);
+            typed.remove(value, id);
+            notifyValueChanged(index, value);
+        }
+    }
+    
+    /**
+     * Add a primary key under a value of a specific index
+     * @param value The indexed value
+     * @param id The primary key
+     * @param index The index to add the key to
+     * @return true if the key was added, false if it violates a unique constraint
+     */
+    @SuppressWarnings("unchecked")
+    private <V> boolean tryInsertIntoIndex(Object value, K id, Index<T, K, ?> index) {
+        if (!((Index<T, K, V>) index).tryInsert((V) value, id)) {
+            return false;
+        }
+        notifyValueChanged(index, value);
+        return true;
+    }
+    
+    /**
+     * Move a primary key from one value to another in a specific index
+     * @param oldValue The value the key is indexed under
+     * @param newValue The value to move the key to
+     * @param id The primary key
+     * @param index The index to move the key in
+     * @return true if the key was moved, false if it violates a unique constraint
+     */
+    @SuppressWarnings("unchecked")
+    private <V> boolean tryReplaceInIndex(Object oldValue, Object newValue, K id, Index<T, K, ?> index) {
+        if (!((Index<T, K, V>) index).tryReplace((V) oldValue, (V) newValue, id)) {
+            return false;
         }
+        notifyValueChanged(index, oldValue);
+        notifyValueChanged(index, newValue);
+        return true;
     }
     
     /**
-     * Remove an entity from a specific index
-     * @param entity The entity to remove
-     * @param index The index to remove the entity from
+     * Remove a primary key from a value of a specific index
+     * @param value The indexed value
+     * @param id The primary key
+     * @param index The index to remove the key from
      */
     @SuppressWarnings("unchecked")
-    private <V> void removeEntityFromIndex(T entity, Index<T, K, ?> index) {
-        ((Index<T, K, V>) index).removeEntity(entity);
+    private <V> void removeValueFromIndex(Object value, K id, Index<T, K, ?> index) {
+        ((Index<T, K, V>) index).remove((V) value, id);
+        notifyValueChanged(index, value);
     }
     
     /**
@@ -194,28 +465,141 @@ public class IndexManager<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
     public void clearIndexes() {
         for (Index<T, K, ?> index : indexes) {
             index.clear();
+            notifyIndexChanged(index.getName());
         }
+        markAllDirty();
     }
     
     /**
      * Save all indexes to files
      */
     public void saveIndexes() {
+        if (indexDirPath == null) {
+            dirtyIndexes.clear();
+            return;
+        }
         for (Index<T, K, ?> index : indexes) {
+            dirtyIndexes.remove(index.getName());
             String indexFilePath = getIndexFilePath(index.getName());
             index.saveToFile(indexFilePath);
         }
     }
     
+    /**
+     * Save only the indexes modified since they were last saved. An index
+     * marked again while it is saved stays marked for the next save.
+     */
+    public void saveDirtyIndexes() {
+        if (indexDirPath == null) {
+            dirtyIndexes.clear();
+            return;
+        }
+        for (Index<T, K, ?> index : indexes) {
+            if (dirtyIndexes.remove(index.getName())) {
+                index.saveToFile(getIndexFilePath(index.getName()));
+            }
+        }
+    }
+    
+    private void markAllDirty() {
+        for (Index<T, K, ?> index : indexes) {
+            dirtyIndexes.add(index.getName());
+        }
+    }
+    
     /**
      * Load all indexes from files
      * @param entities The list of entities to reference
      */
     public void loadIndexes(List<T> entities) {
         for (Index<T, K, ?> index : indexes) {
-            String indexFilePath = getIndexFilePath(index.getName());
-            index.loadFromFile(indexFilePath, entities);
+            if (indexDirPath != null) {
+                index.loadFromFile(getIndexFilePath(index.getName()), entities);
+            } else {
+                rebuildIndex(index, entities);
+            }
+            notifyIndexChanged(index.getName());
+        }
+    }
+    
+    /**
+     * Rebuild all indexes from the entities, without reading the index files
+     * @param entities The entities to index
+     */
+    public void rebuildIndexes(List<T> entities) {
+        for (Index<T, K, ?> index : indexes) {
+            rebuildIndex(index, entities);
+            notifyIndexChanged(index.getName());
+        }
+        markAllDirty();
+    }
+    
+    /**
+     * Rebuild an index from the entities
+     * @param index The index to rebuild
+     * @param entities The entities to index
+     */
+    private void rebuildIndex(Index<T, K, ?> index, List<T> entities) {
+        index.clear();
+        for (T entity : entities) {
+            index.addEntity(entity);
+        }
+    }
+    
+    /**
+     * Set the listener notified of every change of the indexes
+     * @param changeListener The listener, or null to stop notifying
+     */
+    public void setChangeListener(IndexChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+    
+    private void notifyValueChanged(Index<T, K, ?> index, Object value) {
+        IndexChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.valueChanged(index.getName(), value);
+        }
+    }
+    
+    private void notifyIndexChanged(String indexName) {
+        IndexChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.indexChanged(indexName);
+        }
+    }
+    
+    /**
+     * Delete every index file in the index directory, including files of
+     * indexes that are not registered yet. Indexes whose file is missing are
+     * rebuilt from the entities when loaded.
+     */
+    public void deleteIndexFiles() {
+        if (indexDirPath == null) {
+            return;
         }
+        File[] files = new File(indexDirPath).listFiles((dir, fileName) -> fileName.endsWith(".idx"));
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    throw new DatabaseException("Failed to delete index file: " + file.getPath());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get an index by name
+     * @param <V> The indexed value type
+     * @param name The name of the index
+     * @return The index
+     * @throws DatabaseException If the index does not exist
+     */
+    private <V> Index<T, K, V> requireIndex(String name) {
+        Index<T, K, V> index = getIndex(name);
+        if (index == null) {
+            throw new DatabaseException("Index with name '" + name + "' not found");
+        }
+        return index;
     }
     
     /**
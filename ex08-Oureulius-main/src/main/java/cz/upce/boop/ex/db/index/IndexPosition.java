@@ -0,0 +1,16 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.db.core.PrimaryKey;
+
+/**
+ * Record representing a position in an ordered walk over an index: an
+ * indexed value and one primary key it maps to.
+ *
+ * @param <V> The indexed value type
+ * @param <K> The primary key type
+ * @param value The indexed value
+ * @param primaryKey The primary key
+ */
+public record IndexPosition<V, K extends PrimaryKey<?>>(V value, K primaryKey) {
+
+}
@@ -0,0 +1,160 @@
+package cz.upce.boop.ex.db.index;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Snapshot of the value distribution of an index.
+ *
+ * The entry count, distinct value count and min/max are exact. The most
+ * common values and the equi-depth histogram describe the distribution at the
+ * time the index was last analysed; they are refreshed once enough entries
+ * have changed since. A value that cannot be compared with the indexed values
+ * gets a neutral estimate instead of failing the estimation.
+ *
+ * @param indexName The name of the index
+ * @param entryCount The number of indexed primary keys
+ * @param distinctValues The number of distinct indexed values
+ * @param minValue The smallest indexed value, or null if the values are not
+ * ordered
+ * @param maxValue The largest indexed value, or null if the values are not
+ * ordered
+ * @param mostCommonValues The most common values, most common first
+ * @param histogramBounds The bucket bounds of the equi-depth histogram over
+ * the remaining values, empty if the values are not ordered
+ * @param histogramEntryCount The number of entries covered by the histogram
+ */
+public record IndexStatistics(String indexName, long entryCount, int distinctValues, Object minValue,
+        Object maxValue, List<ValueFrequency> mostCommonValues, List<Object> histogramBounds,
+        long histogramEntryCount) {
+
+    // Share of the entries a range is assumed to match when its bounds cannot be placed in the histogram
+    private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * An indexed value and the number of primary keys it maps to
+     *
+     * @param value The indexed value
+     * @param count The number of primary keys
+     */
+    public record ValueFrequency(Object value, long count) {
+
+    }
+
+    /**
+     * Estimate how many entries have the given value
+     *
+     * @param value The value
+     * @return The estimated number of entries
+     */
+    public long estimateEquals(Object value) {
+        for (ValueFrequency frequency : mostCommonValues) {
+            if (Objects.equals(frequency.value(), value)) {
+                return frequency.count();
+            }
+        }
+        try {
+            if (value != null && minValue != null
+                    && (compare(value, minValue) < 0 || compare(value, maxValue) > 0)) {
+                return 0;
+            }
+        } catch (ClassCastException e) {
+            // Not comparable with the indexed values, estimated like any value outside the most common ones
+        }
+
+        return averageOtherCount();
+    }
+
+    /**
+     * Estimate how many entries have a value between two bounds, inclusive.
+     * Only meaningful for ordered values.
+     *
+     * @param from The lower bound, or null for no lower bound
+     * @param to The upper bound, or null for no upper bound
+     * @return The estimated number of entries, a third of them if the bounds
+     * cannot be compared with the indexed values
+     */
+    public long estimateRange(Object from, Object to) {
+        try {
+            return estimateComparableRange(from, to);
+        } catch (ClassCastException e) {
+            // Bounds not comparable with the indexed values
+            return Math.round(entryCount * DEFAULT_RANGE_SELECTIVITY);
+        }
+    }
+
+    private long estimateComparableRange(Object from, Object to) {
+        long estimate = 0;
+        for (ValueFrequency frequency : mostCommonValues) {
+            if (inRange(frequency.value(), from, to)) {
+                estimate += frequency.count();
+            }
+        }
+
+        if (histogramBounds.size() < 2) {
+            return estimate;
+        }
+        double fraction = (to == null ? 1.0 : fractionBelow(to)) - (from == null ? 0.0 : fractionBelow(from));
+        return estimate + Math.round(Math.max(0.0, fraction) * histogramEntryCount);
+    }
+
+    /**
+     * Estimate the fraction of entries with the given value
+     *
+     * @param value The value
+     * @return The selectivity between 0 and 1
+     */
+    public double selectivity(Object value) {
+        return entryCount == 0 ? 0.0 : Math.min(1.0, (double) estimateEquals(value) / entryCount);
+    }
+
+    /**
+     * Average number of entries of a value that is not one of the most common
+     * values
+     */
+    private long averageOtherCount() {
+        int otherValues = distinctValues - mostCommonValues.size();
+        return otherValues <= 0 ? 0 : Math.round((double) histogramEntryCount / otherValues);
+    }
+
+    /**
+     * Fraction of the histogram entries with a value below the given one,
+     * interpolated linearly within a bucket for numbers
+     */
+    private double fractionBelow(Object value) {
+        int buckets = histogramBounds.size() - 1;
+        if (compare(value, histogramBounds.get(0)) < 0) {
+            return 0.0;
+        }
+        if (compare(value, histogramBounds.get(buckets)) >= 0) {
+            return 1.0;
+        }
+
+        for (int i = 0; i < buckets; i++) {
+            Object low = histogramBounds.get(i);
+            Object high = histogramBounds.get(i + 1);
+            if (compare(value, high) < 0) {
+                double within = 0.5;
+                if (value instanceof Number number && low instanceof Number lowNumber
+                        && high instanceof Number highNumber
+                        && highNumber.doubleValue() > lowNumber.doubleValue()) {
+                    within = (number.doubleValue() - lowNumber.doubleValue())
+                            / (highNumber.doubleValue() - lowNumber.doubleValue());
+                }
+                return (i + within) / buckets;
+            }
+        }
+        return 1.0;
+    }
+
+    private static boolean inRange(Object value, Object from, Object to) {
+        // Entities without a value fall in no range
+        return value != null
+                && (from == null || compare(value, from) >= 0) && (to == null || compare(value, to) <= 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+}
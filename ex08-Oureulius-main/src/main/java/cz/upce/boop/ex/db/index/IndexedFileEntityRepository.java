@@ -1,14 +1,29 @@
 package cz.upce.boop.ex.db.index;
 
+import cz.upce.boop.ex.db.cache.CacheStats;
+import cz.upce.boop.ex.db.cache.QueryResultCache;
 import cz.upce.boop.ex.db.core.DatabaseEntity;
 import cz.upce.boop.ex.db.core.DatabaseException;
 import cz.upce.boop.ex.db.core.EntitySerializer;
 import cz.upce.boop.ex.db.core.FileEntityRepository;
+import cz.upce.boop.ex.db.core.LazyResult;
+import cz.upce.boop.ex.db.core.Page;
+import cz.upce.boop.ex.db.core.PageToken;
 import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.SortDirection;
+import cz.upce.boop.ex.db.core.Transaction;
+import cz.upce.boop.ex.db.query.Query;
+import cz.upce.boop.ex.db.query.QueryPlan;
+import cz.upce.boop.ex.db.query.QueryPlanner;
+import cz.upce.boop.ex.db.wal.WalRecord;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 /**
@@ -20,7 +35,17 @@ import java.util.function.Function;
 public class IndexedFileEntityRepository<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
         extends FileEntityRepository<T, K> {
 
+    /**
+     * Key of a cached index lookup
+     */
+    private record IndexLookup(String indexName, Object value) {
+
+    }
+
     private final IndexManager<T, K> indexManager;
+    private final QueryPlanner<T, K> queryPlanner;
+    // Keyed by index lookup or query, null if the query cache is disabled
+    private final QueryResultCache<List<T>> queryCache;
 
     /**
      * Create a new indexed file entity repository
@@ -29,8 +54,56 @@ public class IndexedFileEntityRepository<T extends DatabaseEntity<K>, K extends
      * @param serializer The serializer for entities
      */
     public IndexedFileEntityRepository(String dirPath, EntitySerializer<T> serializer) {
-        super(dirPath, serializer);
+        this(dirPath, serializer, RepositoryOptions.defaults());
+    }
+
+    /**
+     * Create a new indexed file entity repository
+     *
+     * @param dirPath The directory to store entity files
+     * @param serializer The serializer for entities
+     * @param options The repository options
+     */
+    public IndexedFileEntityRepository(String dirPath, EntitySerializer<T> serializer, RepositoryOptions options) {
+        this(dirPath, serializer, options, null);
+    }
+
+    /**
+     * Create a new indexed file entity repository
+     *
+     * @param dirPath The directory to store entity files
+     * @param serializer The serializer for entities
+     * @param options The repository options
+     * @param keyParser The function recovering a primary key from a file
+     * name, or null to read the entities when the primary-key catalog is
+     * rebuilt
+     */
+    public IndexedFileEntityRepository(String dirPath, EntitySerializer<T> serializer, RepositoryOptions options,
+            Function<String, K> keyParser) {
+        super(dirPath, serializer, options, keyParser, false);
         this.indexManager = new IndexManager<>(dirPath + File.separator + "indexes");
+        this.queryPlanner = new QueryPlanner<>(this, indexManager);
+        this.queryCache = createQueryCache(options);
+        if (queryCache != null) {
+            indexManager.setChangeListener(new IndexChangeListener() {
+                @Override
+                public void valueChanged(String indexName, Object value) {
+                    queryCache.invalidateIndexValue(indexName, value);
+                }
+
+                @Override
+                public void indexChanged(String indexName) {
+                    queryCache.invalidateIndex(indexName);
+                }
+            });
+        }
+
+        // Index files may not match the entity files after a crash, so they are rebuilt when loaded
+        if (writeAheadLog != null && !writeAheadLog.wasCleanlyClosed()) {
+            indexManager.deleteIndexFiles();
+        }
+        // The log is replayed once the fields used by the overridden methods are set
+        open();
     }
 
     /**
@@ -137,7 +210,9 @@ public class IndexedFileEntityRepository<T extends DatabaseEntity<K>, K extends
     }
 
     /**
-     * Find entities by indexed value
+     * Find entities by indexed value. With the query cache enabled, repeated
+     * lookups are answered from the cache until the value or one of the
+     * matching entities changes.
      *
      * @param <V> The indexed value type
      * @param indexName The name of the index
@@ -145,114 +220,471 @@ public class IndexedFileEntityRepository<T extends DatabaseEntity<K>, K extends
      * @return List of entities matching the value
      */
     public <V> List<T> findByIndexedValue(String indexName, V value) {
-        List<K> primaryKeys = indexManager.findByIndexedValue(indexName, value);
-        List<T> result = new ArrayList<>();
+        if (queryCache == null) {
+            return findAllById(indexManager.findByIndexedValue(indexName, value));
+        }
+        return findCached(new IndexLookup(indexName, value), dependencies -> {
+            List<K> primaryKeys = indexManager.findByIndexedValue(indexName, value);
+            dependencies.addIndexValue(indexName, value);
+            for (K primaryKey : primaryKeys) {
+                dependencies.addEntity(primaryKey.toFileName());
+            }
+            return findAllById(primaryKeys);
+        });
+    }
+
+    /**
+     * Find entities by indexed value lazily. The keys come from the index
+     * and no entity is read until its handle is accessed, so callers that
+     * only need the keys or a few of the entities pay for those alone.
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to search for
+     * @return Handles of the entities matching the value
+     */
+    public <V> LazyResult<T, K> findByIndexedValueLazy(String indexName, V value) {
+        return findAllByIdLazy(indexManager.findByIndexedValue(indexName, value));
+    }
+
+    /**
+     * Find entities by indexed value lazily, loading them in batches of the
+     * given size
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to search for
+     * @param batchSize The number of entities loaded together
+     * @return Handles of the entities matching the value
+     */
+    public <V> LazyResult<T, K> findByIndexedValueLazy(String indexName, V value, int batchSize) {
+        return findAllByIdLazy(indexManager.findByIndexedValue(indexName, value), batchSize);
+    }
+
+    /**
+     * Count the entities with an indexed value. Answered from the index alone,
+     * no entity is read.
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to count
+     * @return The number of entities with the value
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> int countByIndexedValue(String indexName, V value) {
+        return indexManager.count(indexName, value);
+    }
+
+    /**
+     * Count the entities per indexed value, for example the number of users
+     * per country. Answered from the index alone, no entity is read.
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The number of entities by value
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> Map<V, Integer> countBy(String indexName) {
+        return indexManager.countBy(indexName);
+    }
+
+    /**
+     * Get the distinct values of an index
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The distinct values
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> Set<V> distinctValues(String indexName) {
+        return indexManager.distinctValues(indexName);
+    }
+
+    /**
+     * Get the smallest value of an index with ordered values
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The smallest value, or null if there are no entities
+     * @throws DatabaseException if the index does not exist or its values are
+     * not ordered
+     */
+    public <V> V minIndexedValue(String indexName) {
+        return indexManager.min(indexName);
+    }
 
-        for (K primaryKey : primaryKeys) {
-            T entity = findById(primaryKey);
-            if (entity != null) {
-                result.add(entity);
+    /**
+     * Get the largest value of an index with ordered values
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The largest value, or null if there are no entities
+     * @throws DatabaseException if the index does not exist or its values are
+     * not ordered
+     */
+    public <V> V maxIndexedValue(String indexName) {
+        return indexManager.max(indexName);
+    }
+
+    /**
+     * Get one page of entities in the order of an index with ordered values.
+     * Entities with the same value come in primary key order, and entities
+     * without a value come last. The index is walked from the position the
+     * token remembers, so only the entities of the page are read.
+     *
+     * @param indexName The name of the index
+     * @param pageSize The maximum number of entities on the page
+     * @param direction The direction of the index order
+     * @param pageToken The token of the previous page, or null for the first
+     * page
+     * @return The page
+     * @throws DatabaseException if the index does not exist, its values are
+     * not ordered, the token is invalid or an error occurs during the
+     * operation
+     */
+    public Page<T> findPage(String indexName, int pageSize, SortDirection direction, String pageToken) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        Object afterValue = null;
+        Comparable<?> afterKey = null;
+        if (pageToken != null) {
+            PageToken.Position position = pageTokens.decode(pageToken);
+            if (!indexName.equals(position.ordering()) || position.direction() != direction) {
+                throw new DatabaseException("Page token does not belong to this ordering");
             }
+            afterValue = position.value();
+            afterKey = position.keyValue();
         }
 
+        List<IndexPosition<Object, K>> positions
+                = indexManager.findOrdered(indexName, direction, afterValue, afterKey, pageSize + 1);
+        List<K> keys = new ArrayList<>(Math.min(pageSize, positions.size()));
+        for (int i = 0; i < positions.size() && i < pageSize; i++) {
+            keys.add(positions.get(i).primaryKey());
+        }
+
+        String nextPageToken = null;
+        if (positions.size() > pageSize) {
+            IndexPosition<Object, K> last = positions.get(pageSize - 1);
+            nextPageToken = pageTokens.encode(indexName, direction, last.value(), last.primaryKey());
+        }
+        return new Page<>(findAllById(keys), nextPageToken);
+    }
+
+    /**
+     * Get the first entities in the order of an index with ordered values.
+     * The index is walked from one end, so only the returned entities are
+     * read and nothing is sorted.
+     *
+     * @param indexName The name of the index
+     * @param n The maximum number of entities
+     * @param direction ASCENDING for the smallest values, DESCENDING for the
+     * largest
+     * @return The entities, in index order
+     * @throws DatabaseException if the index does not exist, its values are
+     * not ordered or an error occurs during the operation
+     */
+    public List<T> topN(String indexName, int n, SortDirection direction) {
+        if (n < 0) {
+            throw new IllegalArgumentException("N cannot be negative");
+        }
+
+        List<K> keys = new ArrayList<>(n);
+        for (IndexPosition<Object, K> position : indexManager.findOrdered(indexName, direction, null, null, n)) {
+            keys.add(position.primaryKey());
+        }
+        return findAllById(keys);
+    }
+
+    /**
+     * Get the statistics of an index: the number of entries and distinct
+     * values, min/max, the most common values and a histogram. Computed from
+     * the index alone, no entity is read.
+     *
+     * @param indexName The name of the index
+     * @return The index statistics
+     * @throws DatabaseException if the index does not exist
+     */
+    public IndexStatistics getIndexStatistics(String indexName) {
+        return indexManager.getStatistics(indexName);
+    }
+
+    /**
+     * Register a queryable attribute that is not backed by an index. Every
+     * single-column index is queryable under its own name.
+     *
+     * @param name The attribute name
+     * @param extractor The function to extract the attribute value from an
+     * entity
+     * @throws DatabaseException if an attribute or index with the same name
+     * exists
+     */
+    public void registerAttribute(String name, Function<T, ?> extractor) {
+        queryPlanner.registerAttribute(name, extractor);
+    }
+
+    /**
+     * Find the entities matching a structured query, using the indexes where
+     * possible. With the query cache enabled, repeated queries are answered
+     * from the cache until an index value or entity they depend on changes.
+     *
+     * @param query The query
+     * @return List of matching entities
+     * @throws DatabaseException if the query uses an unknown attribute or an
+     * error occurs during the operation
+     */
+    public List<T> find(Query query) {
+        if (queryCache == null) {
+            return queryPlanner.find(query);
+        }
+        return findCached(query, dependencies -> queryPlanner.find(query, dependencies));
+    }
+
+    /**
+     * Get the statistics of the query cache, including its hit rate and the
+     * number of results dropped because an index value or entity changed
+     *
+     * @return The statistics, all zero if the query cache is disabled
+     */
+    public CacheStats getQueryCacheStats() {
+        return queryCache == null ? CacheStats.empty() : queryCache.stats();
+    }
+
+    /**
+     * Answer a lookup from the query cache, or run it and cache its result.
+     * Anything invalidated while the lookup runs changes the stamp, so a
+     * stale result is not cached.
+     */
+    private List<T> findCached(Object key, Function<QueryResultCache.Dependencies, List<T>> lookup) {
+        List<T> cached = queryCache.get(key);
+        if (cached != null) {
+            return handOutAll(cached);
+        }
+
+        long stamp = queryCache.stamp();
+        QueryResultCache.Dependencies dependencies = new QueryResultCache.Dependencies();
+        List<T> result = lookup.apply(dependencies);
+        queryCache.put(key, handOutAll(result), result.size(), dependencies, stamp);
         return result;
     }
 
+    private List<T> handOutAll(List<T> entities) {
+        List<T> handedOut = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            handedOut.add(handOut(entity));
+        }
+        return handedOut;
+    }
+
+    private static <T> QueryResultCache<List<T>> createQueryCache(RepositoryOptions options) {
+        if (options.getQueryCacheMaximumSize() <= 0) {
+            return null;
+        }
+        return new QueryResultCache<>(options.getQueryCacheMaximumSize(), options.getQueryCacheTimeToLive());
+    }
+
+    /**
+     * Describe how a structured query would be executed
+     *
+     * @param query The query
+     * @return The chosen plan with its estimated number of rows
+     * @throws DatabaseException if the query uses an unknown attribute
+     */
+    public QueryPlan explain(Query query) {
+        return queryPlanner.explain(query);
+    }
+
+    /**
+     * Delete all entities with the given indexed value. The primary keys are
+     * taken from the index and removed from every index by the values the
+     * indexes keep for them, so no entity is read, and the indexes are saved
+     * once.
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to search for
+     * @return The number of deleted entities
+     */
+    public <V> int deleteByIndexedValue(String indexName, V value) {
+        List<K> primaryKeys = indexManager.findByIndexedValue(indexName, value);
+        deleteAll(primaryKeys);
+        return primaryKeys.size();
+    }
+
     @Override
     public void save(T entity) {
-        // Check if the entity violates any unique constraints
-        if (!indexManager.getIndexes().isEmpty()) {
-            for (Index<T, K, ?> index : indexManager.getIndexes()) {
-                if (index.isUnique()) {
-                    Object value = index.getValueExtractor().apply(entity);
-                    List<K> existingKeys = findByIndexedValueInternal(index, value);
-
-                    if (!existingKeys.isEmpty()) {
-                        throw new DatabaseException("Entity violates unique constraint for index '"
-                                + index.getName() + "'");
-                    }
-                }
-            }
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.save(entity)));
+            return;
         }
 
-        // Save the entity
-        super.save(entity);
+        // Without the log, writers are serialized here, as they are by commit() with it
+        synchronized (commitLock) {
+            if (entity.getId() == null) {
+                throw new IllegalArgumentException("Entity ID cannot be null");
+            }
+            if (exists(entity.getId())) {
+                throw new DatabaseException("Entity with ID " + entity.getId() + " already exists");
+            }
 
-        // Add the entity to all indexes
-        indexManager.addEntityToIndexes(entity);
+            // Add the entity to all indexes first, which checks and reserves its
+            // unique values in one lookup per index; this throws and leaves the
+            // indexes untouched on a unique constraint violation
+            IndexManager.IndexedValues<T, K> previous = indexManager.insertIntoIndexes(entity);
+
+            // Save the entity
+            try {
+                super.save(entity);
+            } catch (RuntimeException e) {
+                indexManager.restoreValues(previous);
+                throw e;
+            }
 
-        // Save the indexes
-        indexManager.saveIndexes();
+            // Save the indexes
+            indexManager.saveDirtyIndexes();
+        }
     }
 
     @Override
     public void update(T entity) {
-        // Get the existing entity
-        T existingEntity = findById(entity.getId());
-        if (existingEntity == null) {
-            throw new DatabaseException("Entity with ID " + entity.getId() + " does not exist");
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.update(entity)));
+            return;
         }
 
-        // Remove the existing entity from all indexes
-        indexManager.removeEntityFromIndexes(existingEntity);
-
-        // Check if the updated entity violates any unique constraints
-        if (!indexManager.getIndexes().isEmpty()) {
-            for (Index<T, K, ?> index : indexManager.getIndexes()) {
-                if (index.isUnique()) {
-                    Object value = index.getValueExtractor().apply(entity);
-                    List<K> existingKeys = findByIndexedValueInternal(index, value);
+        // Without the log, writers are serialized here, as they are by commit() with it
+        synchronized (commitLock) {
+            if (!exists(entity.getId())) {
+                throw new DatabaseException("Entity with ID " + entity.getId() + " does not exist");
+            }
 
-                    if (!existingKeys.isEmpty() && !existingKeys.get(0).equals(entity.getId())) {
-                        // Re-add the existing entity to all indexes
-                        indexManager.addEntityToIndexes(existingEntity);
+            // An entity whose file already holds the same content is not rewritten
+            File file = new File(databaseDir, entity.getId().toFileName());
+            byte[] data = serializeToBytes(entity);
+            if (isUnchanged(file.getName(), data)) {
+                return;
+            }
 
-                        throw new DatabaseException("Updated entity violates unique constraint for index '"
-                                + index.getName() + "'");
-                    }
-                }
+            // Move the entity only in the indexes whose value changed. The old
+            // values are kept by the indexes, so the stored entity is not read;
+            // this throws and leaves the indexes untouched on a unique constraint violation
+            IndexManager.IndexedValues<T, K> previous = indexManager.replaceInIndexes(entity);
+
+            // Update the entity
+            try {
+                writeToFile(file, entity.getId(), data);
+            } catch (RuntimeException e) {
+                indexManager.restoreValues(previous);
+                throw e;
             }
+
+            // Save the changed indexes
+            indexManager.saveDirtyIndexes();
+        }
+    }
+
+    @Override
+    public void delete(K id) {
+        if (writeAheadLog != null) {
+            commit(List.of(Transaction.Operation.delete(id)));
+            return;
         }
 
-        // Update the entity
-        super.update(entity);
+        // Without the log, writers are serialized here, as they are by commit() with it
+        synchronized (commitLock) {
+            if (!exists(id)) {
+                throw new DatabaseException("Entity with ID " + id + " does not exist");
+            }
 
-        // Add the updated entity to all indexes
-        indexManager.addEntityToIndexes(entity);
+            // Remove the key from all indexes by the values they keep for it
+            IndexManager.IndexedValues<T, K> previous = indexManager.removeFromIndexes(id);
 
-        // Save the indexes
-        indexManager.saveIndexes();
+            // Delete the entity
+            try {
+                super.delete(id);
+            } catch (RuntimeException e) {
+                indexManager.restoreValues(previous);
+                throw e;
+            }
+
+            // Save the indexes
+            indexManager.saveDirtyIndexes();
+        }
     }
 
     @Override
-    public void delete(K id) {
-        // Get the entity
-        T entity = findById(id);
-        if (entity == null) {
-            throw new DatabaseException("Entity with ID " + id + " does not exist");
+    protected List<WalRecord> prepare(List<Transaction.Operation<T, K>> operations, Deque<Runnable> undo) {
+        List<WalRecord> records = super.prepare(operations, undo);
+
+        // Apply the index changes in order, so unique constraints are checked
+        // against both the stored entities and the earlier operations. The
+        // indexes keep the current values of every key, including those of
+        // earlier operations, so no stored entity is read
+        int prepared = undo.size();
+        try {
+            for (Transaction.Operation<T, K> operation : operations) {
+                T entity = operation.entity();
+
+                switch (operation.type()) {
+                    case SAVE -> {
+                        IndexManager.IndexedValues<T, K> previous = indexManager.insertIntoIndexes(entity);
+                        undo.push(() -> indexManager.restoreValues(previous));
+                    }
+                    case UPDATE -> {
+                        // Only the indexes whose value changed are touched
+                        IndexManager.IndexedValues<T, K> previous = indexManager.replaceInIndexes(entity);
+                        undo.push(() -> indexManager.restoreValues(previous));
+                    }
+                    case DELETE -> {
+                        IndexManager.IndexedValues<T, K> previous = indexManager.removeFromIndexes(operation.id());
+                        undo.push(() -> indexManager.restoreValues(previous));
+                    }
+                    default -> throw new IllegalStateException("Unresolved operation: " + operation.type());
+                }
+            }
+        } catch (RuntimeException e) {
+            while (undo.size() > prepared) {
+                undo.pop().run();
+            }
+            throw e;
         }
 
-        // Remove the entity from all indexes
-        indexManager.removeEntityFromIndexes(entity);
+        return records;
+    }
 
-        // Delete the entity
-        super.delete(id);
+    @Override
+    protected void entityChanged(String fileName) {
+        super.entityChanged(fileName);
+        if (queryCache != null) {
+            queryCache.invalidateEntity(fileName);
+        }
+    }
 
-        // Save the indexes
-        indexManager.saveIndexes();
+    @Override
+    protected void entitiesCleared() {
+        super.entitiesCleared();
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
     }
 
-    /**
-     * Find primary keys by indexed value using a specific index
-     *
-     * @param <V> The indexed value type
-     * @param index The index to use
-     * @param value The value to search for
-     * @return List of primary keys matching the value
-     */
-    @SuppressWarnings("unchecked")
-    private <V> List<K> findByIndexedValueInternal(Index<T, K, ?> index, Object value) {
-        return ((Index<T, K, V>) index).findByValue((V) value);
+    @Override
+    protected void prepareTruncate(Deque<Runnable> undo) {
+        indexManager.clearIndexes();
+        // Run once the keys match the entity files the failed truncate left
+        undo.push(() -> indexManager.rebuildIndexes(findAll()));
+    }
+
+    @Override
+    protected void applyTransactions(List<List<WalRecord>> transactions) {
+        super.applyTransactions(transactions);
+
+        // Save the changed indexes once for the whole group
+        synchronized (commitLock) {
+            indexManager.saveDirtyIndexes();
+        }
     }
 
     /**
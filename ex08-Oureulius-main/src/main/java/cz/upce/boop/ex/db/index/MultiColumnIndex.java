@@ -10,8 +10,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Implementation of a multi-column index
@@ -21,8 +24,8 @@ import java.util.function.Function;
 public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> 
         extends AbstractIndex<T, K, List<?>> {
     
-    // List of index entries
-    private final ArrayList<MultiColumnIndexEntry<K>> entries;
+    // Index entries by indexed values, in insertion order
+    private final LinkedHashMap<List<?>, MultiColumnIndexEntry<K>> entries;
     
     /**
      * Create a new multi-column index
@@ -32,83 +35,82 @@ public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<
      */
     public MultiColumnIndex(String name, Function<T, List<?>> valueExtractor, boolean unique) {
         super(name, valueExtractor, unique);
-        this.entries = new ArrayList<>();
+        this.entries = new LinkedHashMap<>();
     }
     
     @Override
-    public boolean addEntity(T entity) {
-        List<?> values = extractValue(entity);
-        K id = entity.getId();
-        
-        if (isUnique()) {
-            // Check if the values already exist in the index
-            for (MultiColumnIndexEntry<K> entry : entries) {
-                List<?> existingValues = entry.getValues();
-                if (areListsEqual(existingValues, values)) {
+    public boolean tryInsert(List<?> values, K id) {
+        writeLock.lock();
+        try {
+            if (isUnique()) {
+                // One lookup both checks the uniqueness constraint and reserves the values
+                if (entries.putIfAbsent(values, new UniqueMultiColumnIndexEntry<>(values, id)) != null) {
                     return false; // Values already exist, violates uniqueness constraint
                 }
-            }
-            
-            // Add the new entry
-            entries.add(new UniqueMultiColumnIndexEntry<>(values, id));
-        } else {
-            // Check if the values already exist in the index
-            for (MultiColumnIndexEntry<K> entry : entries) {
-                List<?> existingValues = entry.getValues();
-                if (areListsEqual(existingValues, values)) {
+            } else {
+                MultiColumnIndexEntry<K> entry = entries.get(values);
+                if (entry != null) {
                     // Values exist, add the primary key to the list
-                    ((NonUniqueMultiColumnIndexEntry<K>) entry).addPrimaryKey(id);
+                    if (((NonUniqueMultiColumnIndexEntry<K>) entry).addPrimaryKey(id)) {
+                        recordAdd(id, values, false);
+                    }
                     return true;
                 }
-            }
             
-            // Values don't exist, create a new entry
-            ArrayList<K> ids = new ArrayList<>();
-            ids.add(id);
-            entries.add(new NonUniqueMultiColumnIndexEntry<>(values, ids));
-        }
+                // Values don't exist, create a new entry
+                ArrayList<K> ids = new ArrayList<>();
+                ids.add(id);
+                entries.put(values, new NonUniqueMultiColumnIndexEntry<>(values, ids));
+            }
         
-        return true;
+            recordAdd(id, values, true);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     @Override
-    public void removeEntity(T entity) {
-        List<?> values = extractValue(entity);
-        K id = entity.getId();
+    public void remove(List<?> values, K id) {
+        writeLock.lock();
+        try {
+            MultiColumnIndexEntry<K> entry = entries.get(values);
+            if (entry == null) {
+                return;
+            }
         
-        for (int i = 0; i < entries.size(); i++) {
-            MultiColumnIndexEntry<K> entry = entries.get(i);
-            List<?> existingValues = entry.getValues();
+            if (isUnique()) {
+                UniqueMultiColumnIndexEntry<K> uniqueEntry = (UniqueMultiColumnIndexEntry<K>) entry;
+                K existingId = uniqueEntry.getPrimaryKey();
+                if (existingId.equals(id)) {
+                    entries.remove(values);
+                    recordRemove(id, values, true);
+                }
+            } else {
+                NonUniqueMultiColumnIndexEntry<K> nonUniqueEntry = (NonUniqueMultiColumnIndexEntry<K>) entry;
+                if (!nonUniqueEntry.removePrimaryKey(id)) {
+                    return;
+                }
             
-            if (areListsEqual(existingValues, values)) {
-                if (isUnique()) {
-                    UniqueMultiColumnIndexEntry<K> uniqueEntry = (UniqueMultiColumnIndexEntry<K>) entry;
-                    K existingId = uniqueEntry.getPrimaryKey();
-                    if (existingId.equals(id)) {
-                        entries.remove(i);
-                    }
-                } else {
-                    NonUniqueMultiColumnIndexEntry<K> nonUniqueEntry = (NonUniqueMultiColumnIndexEntry<K>) entry;
-                    nonUniqueEntry.removePrimaryKey(id);
-                    
-                    // If the list is empty, remove the entry
-                    if (nonUniqueEntry.isEmpty()) {
-                        entries.remove(i);
-                    }
+                // If the list is empty, remove the entry
+                if (nonUniqueEntry.isEmpty()) {
+                    entries.remove(values);
                 }
-                return;
+                recordRemove(id, values, nonUniqueEntry.isEmpty());
             }
+        } finally {
+            writeLock.unlock();
         }
     }
     
     @Override
     public List<K> findByValue(List<?> values) {
-        List<K> result = new ArrayList<>();
+        readLock.lock();
+        try {
+            List<K> result = new ArrayList<>();
         
-        for (MultiColumnIndexEntry<K> entry : entries) {
-            List<?> existingValues = entry.getValues();
-            
-            if (areListsEqual(existingValues, values)) {
+            MultiColumnIndexEntry<K> entry = entries.get(values);
+            if (entry != null) {
                 if (isUnique()) {
                     UniqueMultiColumnIndexEntry<K> uniqueEntry = (UniqueMultiColumnIndexEntry<K>) entry;
                     result.add(uniqueEntry.getPrimaryKey());
@@ -116,43 +118,63 @@ public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<
                     NonUniqueMultiColumnIndexEntry<K> nonUniqueEntry = (NonUniqueMultiColumnIndexEntry<K>) entry;
                     result.addAll(nonUniqueEntry.getPrimaryKeys());
                 }
-                break; // We found the matching values
             }
-        }
         
-        return result;
+            return result;
+        } finally {
+            readLock.unlock();
+        }
     }
     
     @Override
-    public void clear() {
-        entries.clear();
+    public int count(List<?> values) {
+        readLock.lock();
+        try {
+            MultiColumnIndexEntry<K> entry = entries.get(values);
+            if (entry == null) {
+                return 0;
+            }
+            return isUnique() ? 1 : ((NonUniqueMultiColumnIndexEntry<K>) entry).size();
+        } finally {
+            readLock.unlock();
+        }
     }
     
-    /**
-     * Check if two lists have the same elements in the same order
-     * @param list1 The first list
-     * @param list2 The second list
-     * @return true if the lists are equal, false otherwise
-     */
-    private boolean areListsEqual(List<?> list1, List<?> list2) {
-        if (list1.size() != list2.size()) {
-            return false;
+    @Override
+    public void clear() {
+        writeLock.lock();
+        try {
+            entries.clear();
+            resetStatistics();
+        } finally {
+            writeLock.unlock();
         }
-        
-        for (int i = 0; i < list1.size(); i++) {
-            Object obj1 = list1.get(i);
-            Object obj2 = list2.get(i);
-            
-            if (obj1 == null) {
-                if (obj2 != null) {
-                    return false;
+    }
+
+    @Override
+    protected void forEachPosting(ObjIntConsumer<List<?>> action) {
+        for (MultiColumnIndexEntry<K> entry : entries.values()) {
+            int keys = isUnique() ? 1 : ((NonUniqueMultiColumnIndexEntry<K>) entry).size();
+            action.accept(entry.getValues(), keys);
+        }
+    }
+    
+    @Override
+    protected void forEachKey(BiConsumer<List<?>, K> action) {
+        for (MultiColumnIndexEntry<K> entry : entries.values()) {
+            if (isUnique()) {
+                action.accept(entry.getValues(), ((UniqueMultiColumnIndexEntry<K>) entry).getPrimaryKey());
+            } else {
+                for (K id : ((NonUniqueMultiColumnIndexEntry<K>) entry).getPrimaryKeys()) {
+                    action.accept(entry.getValues(), id);
                 }
-            } else if (!obj1.equals(obj2)) {
-                return false;
             }
         }
-        
-        return true;
+    }
+    
+    @Override
+    protected int distinctValueCount() {
+        return entries.size();
     }
     
     @Override
@@ -161,7 +183,7 @@ public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<
         oos.writeInt(entries.size());
         
         // Write each entry
-        for (MultiColumnIndexEntry<K> entry : entries) {
+        for (MultiColumnIndexEntry<K> entry : entries.values()) {
             List<?> values = entry.getValues();
             
             // Write the number of values
@@ -213,7 +235,7 @@ public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<
                 K primaryKey = (K) ois.readObject();
                 
                 // Add the entry to the index
-                entries.add(new UniqueMultiColumnIndexEntry<>(values, primaryKey));
+                entries.put(values, new UniqueMultiColumnIndexEntry<>(values, primaryKey));
             } else {
                 // Read the number of IDs
                 int idCount = ois.readInt();
@@ -226,7 +248,7 @@ public class MultiColumnIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<
                 }
                 
                 // Add the entry to the index
-                entries.add(new NonUniqueMultiColumnIndexEntry<>(values, ids));
+                entries.put(values, new NonUniqueMultiColumnIndexEntry<>(values, ids));
             }
         }
     }
@@ -8,8 +8,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Implementation of a non-unique index
@@ -20,8 +23,8 @@ import java.util.function.Function;
 public class NonUniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V> 
         extends AbstractIndex<T, K, V> {
     
-    // List of index entries
-    private final ArrayList<NonUniqueIndexEntry<V, K>> entries;
+    // Index entries by indexed value, in insertion order
+    private final LinkedHashMap<V, NonUniqueIndexEntry<V, K>> entries;
     
     /**
      * Create a new non-unique index
@@ -30,70 +33,112 @@ public class NonUniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>
      */
     public NonUniqueIndex(String name, Function<T, V> valueExtractor) {
         super(name, valueExtractor, false);
-        this.entries = new ArrayList<>();
+        this.entries = new LinkedHashMap<>();
     }
     
     @Override
-    public boolean addEntity(T entity) {
-        V value = extractValue(entity);
-        K id = entity.getId();
-        
-        // Check if the value already exists in the index
-        for (NonUniqueIndexEntry<V, K> entry : entries) {
-            V existingValue = entry.getValue();
-            if (existingValue == null ? value == null : existingValue.equals(value)) {
+    public boolean tryInsert(V value, K id) {
+        writeLock.lock();
+        try {
+            NonUniqueIndexEntry<V, K> entry = entries.get(value);
+            if (entry != null) {
                 // Value exists, add the primary key to the list
-                entry.addPrimaryKey(id);
+                if (entry.addPrimaryKey(id)) {
+                    recordAdd(id, value, false);
+                }
                 return true;
             }
-        }
         
-        // Value doesn't exist, create a new entry
-        ArrayList<K> ids = new ArrayList<>();
-        ids.add(id);
-        entries.add(new NonUniqueIndexEntry<>(value, ids));
-        return true;
+            // Value doesn't exist, create a new entry
+            ArrayList<K> ids = new ArrayList<>();
+            ids.add(id);
+            entries.put(value, new NonUniqueIndexEntry<>(value, ids));
+            recordAdd(id, value, true);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     @Override
-    public void removeEntity(T entity) {
-        V value = extractValue(entity);
-        K id = entity.getId();
-        
-        for (int i = 0; i < entries.size(); i++) {
-            NonUniqueIndexEntry<V, K> entry = entries.get(i);
-            V existingValue = entry.getValue();
+    public void remove(V value, K id) {
+        writeLock.lock();
+        try {
+            NonUniqueIndexEntry<V, K> entry = entries.get(value);
+            if (entry != null) {
+                if (!entry.removePrimaryKey(id)) {
+                    return;
+                }
             
-            if (existingValue == null ? value == null : existingValue.equals(value)) {
-                entry.removePrimaryKey(id);
-                
                 // If the list is empty, remove the entry
                 if (entry.isEmpty()) {
-                    entries.remove(i);
+                    entries.remove(value);
                 }
-                return;
+                recordRemove(id, value, entry.isEmpty());
             }
+        } finally {
+            writeLock.unlock();
         }
     }
     
     @Override
     public List<K> findByValue(V value) {
-        List<K> result = new ArrayList<>();
+        readLock.lock();
+        try {
+            List<K> result = new ArrayList<>();
         
-        for (NonUniqueIndexEntry<V, K> entry : entries) {
-            V existingValue = entry.getValue();
-            if (existingValue == null ? value == null : existingValue.equals(value)) {
+            NonUniqueIndexEntry<V, K> entry = entries.get(value);
+            if (entry != null) {
                 result.addAll(entry.getPrimaryKeys());
-                break; // We found the matching value
             }
-        }
         
-        return result;
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    @Override
+    public int count(V value) {
+        readLock.lock();
+        try {
+            NonUniqueIndexEntry<V, K> entry = entries.get(value);
+            return entry == null ? 0 : entry.size();
+        } finally {
+            readLock.unlock();
+        }
     }
     
     @Override
     public void clear() {
-        entries.clear();
+        writeLock.lock();
+        try {
+            entries.clear();
+            resetStatistics();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    protected void forEachPosting(ObjIntConsumer<V> action) {
+        for (NonUniqueIndexEntry<V, K> entry : entries.values()) {
+            action.accept(entry.getValue(), entry.size());
+        }
+    }
+    
+    @Override
+    protected void forEachKey(BiConsumer<V, K> action) {
+        for (NonUniqueIndexEntry<V, K> entry : entries.values()) {
+            for (K id : entry.getPrimaryKeys()) {
+                action.accept(entry.getValue(), id);
+            }
+        }
+    }
+    
+    @Override
+    protected int distinctValueCount() {
+        return entries.size();
     }
     
     @Override
@@ -102,7 +147,7 @@ public class NonUniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>
         oos.writeInt(entries.size());
         
         // Write each entry
-        for (NonUniqueIndexEntry<V, K> entry : entries) {
+        for (NonUniqueIndexEntry<V, K> entry : entries.values()) {
             oos.writeObject(entry.getValue()); // Value
             
             ArrayList<K> ids = entry.getPrimaryKeys();
@@ -137,7 +182,7 @@ public class NonUniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>
             }
             
             // Add the entry to the index
-            entries.add(new NonUniqueIndexEntry<>(value, ids));
+            entries.put(value, new NonUniqueIndexEntry<>(value, ids));
         }
     }
 }
\ No newline at end of file
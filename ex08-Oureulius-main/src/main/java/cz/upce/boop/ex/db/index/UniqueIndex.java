@@ -8,8 +8,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Implementation of a unique index
@@ -20,8 +23,8 @@ import java.util.function.Function;
 public class UniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V> 
         extends AbstractIndex<T, K, V> {
     
-    // List of index entries
-    private final ArrayList<UniqueIndexEntry<V, K>> entries;
+    // Index entries by indexed value, in insertion order
+    private final LinkedHashMap<V, UniqueIndexEntry<V, K>> entries;
     
     /**
      * Create a new unique index
@@ -30,62 +33,94 @@ public class UniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V
      */
     public UniqueIndex(String name, Function<T, V> valueExtractor) {
         super(name, valueExtractor, true);
-        this.entries = new ArrayList<>();
+        this.entries = new LinkedHashMap<>();
     }
     
     @Override
-    public boolean addEntity(T entity) {
-        V value = extractValue(entity);
-        
-        // Check if the value already exists in the index
-        for (UniqueIndexEntry<V, K> entry : entries) {
-            V existingValue = entry.getValue();
-            if (existingValue == null ? value == null : existingValue.equals(value)) {
+    public boolean tryInsert(V value, K id) {
+        writeLock.lock();
+        try {
+            // One lookup both checks the uniqueness constraint and reserves the value
+            if (entries.putIfAbsent(value, new UniqueIndexEntry<>(value, id)) != null) {
                 return false; // Value already exists, violates uniqueness constraint
             }
-        }
         
-        // Add the new entry
-        entries.add(new UniqueIndexEntry<>(value, entity.getId()));
-        return true;
+            recordAdd(id, value, true);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     @Override
-    public void removeEntity(T entity) {
-        V value = extractValue(entity);
-        K id = entity.getId();
-        
-        for (int i = 0; i < entries.size(); i++) {
-            UniqueIndexEntry<V, K> entry = entries.get(i);
-            V existingValue = entry.getValue();
-            K existingId = entry.getPrimaryKey();
-            
-            if ((existingValue == null ? value == null : existingValue.equals(value)) 
-                    && existingId.equals(id)) {
-                entries.remove(i);
-                return;
+    public void remove(V value, K id) {
+        writeLock.lock();
+        try {
+            UniqueIndexEntry<V, K> entry = entries.get(value);
+            if (entry != null && entry.getPrimaryKey().equals(id)) {
+                entries.remove(value);
+                recordRemove(id, value, true);
             }
+        } finally {
+            writeLock.unlock();
         }
     }
     
     @Override
     public List<K> findByValue(V value) {
-        List<K> result = new ArrayList<>();
+        readLock.lock();
+        try {
+            List<K> result = new ArrayList<>();
         
-        for (UniqueIndexEntry<V, K> entry : entries) {
-            V existingValue = entry.getValue();
-            if (existingValue == null ? value == null : existingValue.equals(value)) {
+            UniqueIndexEntry<V, K> entry = entries.get(value);
+            if (entry != null) {
                 result.add(entry.getPrimaryKey());
-                break; // Since this is a unique index, we can stop after finding one match
             }
-        }
         
-        return result;
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    @Override
+    public int count(V value) {
+        readLock.lock();
+        try {
+            return entries.containsKey(value) ? 1 : 0;
+        } finally {
+            readLock.unlock();
+        }
     }
     
     @Override
     public void clear() {
-        entries.clear();
+        writeLock.lock();
+        try {
+            entries.clear();
+            resetStatistics();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    protected void forEachPosting(ObjIntConsumer<V> action) {
+        for (V value : entries.keySet()) {
+            action.accept(value, 1);
+        }
+    }
+    
+    @Override
+    protected void forEachKey(BiConsumer<V, K> action) {
+        for (UniqueIndexEntry<V, K> entry : entries.values()) {
+            action.accept(entry.getValue(), entry.getPrimaryKey());
+        }
+    }
+    
+    @Override
+    protected int distinctValueCount() {
+        return entries.size();
     }
     
     @Override
@@ -94,7 +129,7 @@ public class UniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V
         oos.writeInt(entries.size());
         
         // Write each entry
-        for (UniqueIndexEntry<V, K> entry : entries) {
+        for (UniqueIndexEntry<V, K> entry : entries.values()) {
             oos.writeObject(entry.getValue()); // Value
             oos.writeObject(entry.getPrimaryKey()); // Primary key
         }
@@ -111,7 +146,7 @@ public class UniqueIndex<T extends DatabaseEntity<K>, K extends PrimaryKey<?>, V
             K primaryKey = (K) ois.readObject();
             
             // Add the entry to the index
-            entries.add(new UniqueIndexEntry<>(value, primaryKey));
+            entries.put(value, new UniqueIndexEntry<>(value, primaryKey));
         }
     }
 }
\ No newline at end of file
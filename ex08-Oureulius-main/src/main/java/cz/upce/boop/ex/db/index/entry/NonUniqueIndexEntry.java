@@ -3,6 +3,7 @@ package cz.upce.boop.ex.db.index.entry;
 import cz.upce.boop.ex.db.core.PrimaryKey;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 /**
  * Represents a non-unique index entry with multiple primary keys.
@@ -10,7 +11,8 @@ import java.util.ArrayList;
  * @param <K> The type of the primary key
  */
 public class NonUniqueIndexEntry<V, K extends PrimaryKey<?>> extends IndexEntry<V, K> {
-    private final ArrayList<K> primaryKeys;
+    // Primary keys in insertion order, hashed so membership checks stay constant time
+    private final LinkedHashSet<K> primaryKeys;
     
     /**
      * Creates a non-unique index entry with a list of primary keys
@@ -19,25 +21,24 @@ public class NonUniqueIndexEntry<V, K extends PrimaryKey<?>> extends IndexEntry<
      */
     public NonUniqueIndexEntry(V value, ArrayList<K> primaryKeys) {
         super(value);
-        this.primaryKeys = primaryKeys;
+        this.primaryKeys = new LinkedHashSet<>(primaryKeys);
     }
     
     /**
      * Gets the list of primary keys for this non-unique index entry
-     * @return The list of primary keys
+     * @return A copy of the list of primary keys
      */
     public ArrayList<K> getPrimaryKeys() {
-        return primaryKeys;
+        return new ArrayList<>(primaryKeys);
     }
     
     /**
      * Adds a primary key to this non-unique index entry
      * @param primaryKey The primary key to add
+     * @return true if the primary key was added, false if it was already present
      */
-    public void addPrimaryKey(K primaryKey) {
-        if (!primaryKeys.contains(primaryKey)) {
-            primaryKeys.add(primaryKey);
-        }
+    public boolean addPrimaryKey(K primaryKey) {
+        return primaryKeys.add(primaryKey);
     }
     
     /**
@@ -49,6 +50,14 @@ public class NonUniqueIndexEntry<V, K extends PrimaryKey<?>> extends IndexEntry<
         return primaryKeys.remove(primaryKey);
     }
     
+    /**
+     * Gets the number of primary keys in this non-unique index entry
+     * @return The number of primary keys
+     */
+    public int size() {
+        return primaryKeys.size();
+    }
+    
     /**
      * Checks if this non-unique index entry has no primary keys
      * @return true if there are no primary keys, false otherwise
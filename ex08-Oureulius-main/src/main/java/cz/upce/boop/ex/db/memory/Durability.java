@@ -0,0 +1,28 @@
+package cz.upce.boop.ex.db.memory;
+
+/**
+ * How much of its recent changes an in-memory repository survives losing.
+ */
+public enum Durability {
+    /**
+     * Changes are only persisted by snapshots. Everything after the last
+     * snapshot is lost when the process stops without closing the
+     * repository.
+     */
+    SNAPSHOT_ONLY,
+    /**
+     * Changes are journaled in memory and written and forced to the storage
+     * device at a fixed interval. At most one interval of changes is lost.
+     */
+    PERIODIC,
+    /**
+     * Every commit is written to the journal before it returns, so it
+     * survives a crash of the process but not of the operating system.
+     */
+    WRITE,
+    /**
+     * Every commit is forced to the storage device before it returns.
+     * Concurrent commits share a single force.
+     */
+    SYNC
+}
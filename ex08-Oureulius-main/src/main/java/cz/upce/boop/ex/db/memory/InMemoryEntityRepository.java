@@ -0,0 +1,824 @@
+package cz.upce.boop.ex.db.memory;
+
+import cz.upce.boop.ex.db.cache.CacheCopyMode;
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.EntityRepository;
+import cz.upce.boop.ex.db.core.EntitySerializer;
+import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.core.Transaction;
+import cz.upce.boop.ex.db.index.Index;
+import cz.upce.boop.ex.db.index.IndexManager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Entity repository keeping every entity in memory.
+ *
+ * Entities live in a concurrent hash map, so reads never lock and never touch
+ * the file system. Writes are validated and applied under a single lock,
+ * maintain the same indexes as {@link cz.upce.boop.ex.db.index.IndexedFileEntityRepository}
+ * and are persisted in the repository directory by two files:
+ * <ul>
+ * <li>a compact snapshot of every entity, taken periodically, once the
+ * journal grows past a size and on close</li>
+ * <li>an append-only journal of the commits since that snapshot, whose
+ * durability is set by {@link InMemoryOptions#getDurability()}</li>
+ * </ul>
+ * On start the snapshot is loaded and the journal replayed on top of it.
+ * Like the file repositories, the journal identifies a deleted entity by the
+ * file name of its key, so keys sharing a file name are restored as one
+ * entity. Indexes are not persisted; they are rebuilt from the entities when
+ * created.
+ * <p>
+ * With {@link Durability#SYNC}, a commit whose journal frame cannot be forced
+ * has already been applied in memory when the error is thrown. The repository
+ * then rejects every further commit and snapshot, so nothing else depends on
+ * it; after reopening, it holds exactly the commits that reached the journal.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public class InMemoryEntityRepository<T extends DatabaseEntity<K>, K extends PrimaryKey<?>>
+        implements EntityRepository<T, K>, AutoCloseable {
+
+    private static final String SNAPSHOT_FILE_NAME = "snapshot.dat";
+    private static final String JOURNAL_FILE_PREFIX = "journal-";
+    private static final String JOURNAL_FILE_SUFFIX = ".log";
+
+    private final File databaseDir;
+    private final EntitySerializer<T> serializer;
+    private final InMemoryOptions options;
+    private final Map<K, T> entities = new ConcurrentHashMap<>();
+    private final IndexManager<T, K> indexManager = new IndexManager<>();
+    // Null if nothing runs periodically
+    private final ScheduledExecutorService scheduler;
+
+    // Guards validation, the indexes and the order of the journal
+    private final Object commitLock = new Object();
+    // Only one snapshot is written at a time
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    // The snapshot holds every commit made before the journal of its generation
+    private long generation;
+    // Null with Durability.SNAPSHOT_ONLY
+    private volatile MutationJournal journal;
+    private long changesSinceSnapshot;
+    private boolean closed;
+    // Set when a commit could not be made durable
+    private DatabaseException failure;
+
+    /**
+     * Open an in-memory repository with the default options
+     *
+     * @param dirPath The directory to store the snapshot and journal
+     * @param serializer The serializer for entities
+     */
+    public InMemoryEntityRepository(String dirPath, EntitySerializer<T> serializer) {
+        this(dirPath, serializer, InMemoryOptions.defaults());
+    }
+
+    /**
+     * Open an in-memory repository, restoring the entities persisted by a
+     * previous session
+     *
+     * @param dirPath The directory to store the snapshot and journal
+     * @param serializer The serializer for entities
+     * @param options The repository options
+     * @throws DatabaseException If the persisted entities cannot be restored
+     */
+    public InMemoryEntityRepository(String dirPath, EntitySerializer<T> serializer, InMemoryOptions options) {
+        this.databaseDir = new File(dirPath);
+        if (!databaseDir.exists()) {
+            if (!databaseDir.mkdirs()) {
+                throw new DatabaseException("Failed to create directory: " + dirPath);
+            }
+        }
+        this.serializer = serializer;
+        this.options = options;
+
+        restore();
+        if (options.getDurability() != Durability.SNAPSHOT_ONLY) {
+            this.journal = new MutationJournal(getJournalFile(generation), options.getDurability());
+        }
+        this.scheduler = startScheduler(options);
+    }
+
+    @Override
+    public T findById(K id) {
+        T entity = entities.get(id);
+        return entity != null ? handOut(entity) : null;
+    }
+
+    @Override
+    public boolean exists(K id) {
+        return entities.containsKey(id);
+    }
+
+    @Override
+    public List<T> findAll() {
+        List<T> result = new ArrayList<>(entities.size());
+        for (T entity : entities.values()) {
+            result.add(handOut(entity));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<T> stream() {
+        return entities.values().stream().map(this::handOut);
+    }
+
+    @Override
+    public List<K> findAllIds() {
+        return new ArrayList<>(entities.keySet());
+    }
+
+    @Override
+    public int count() {
+        return entities.size();
+    }
+
+    @Override
+    public int knownCount() {
+        return entities.size();
+    }
+
+    /**
+     * Find entities that match the given condition. The condition is tested
+     * on the stored entities and must not modify them; only the matching
+     * entities are copied.
+     *
+     * @param condition The condition to match
+     * @return A list of matching entities
+     */
+    @Override
+    public List<T> findByCondition(Predicate<T> condition) {
+        List<T> result = new ArrayList<>();
+        for (T entity : entities.values()) {
+            if (condition.test(entity)) {
+                result.add(handOut(entity));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<T> findByCondition(Predicate<T> condition, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        List<T> result = new ArrayList<>();
+        for (T entity : entities.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (condition.test(entity)) {
+                result.add(handOut(entity));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void save(T entity) {
+        commit(List.of(Transaction.Operation.save(entity)));
+    }
+
+    @Override
+    public void update(T entity) {
+        commit(List.of(Transaction.Operation.update(entity)));
+    }
+
+    @Override
+    public void saveOrUpdate(T entity) {
+        commit(List.of(Transaction.Operation.saveOrUpdate(entity)));
+    }
+
+    @Override
+    public void delete(K id) {
+        commit(List.of(Transaction.Operation.delete(id)));
+    }
+
+    @Override
+    public void saveAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.save(entity));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void updateAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.update(entity));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void saveOrUpdateAll(Collection<T> entities) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            operations.add(Transaction.Operation.saveOrUpdate(entity));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void deleteAll(Collection<K> ids) {
+        List<Transaction.Operation<T, K>> operations = new ArrayList<>(ids.size());
+        for (K id : ids) {
+            operations.add(Transaction.Operation.delete(id));
+        }
+        commit(operations);
+    }
+
+    @Override
+    public void deleteAll() {
+        MutationJournal committedTo;
+        long position = 0;
+        synchronized (commitLock) {
+            checkOpen();
+            committedTo = journal;
+            if (committedTo != null) {
+                position = committedTo.append(List.of(MutationJournal.Mutation.clear()));
+            }
+            indexManager.clearIndexes();
+            entities.clear();
+            changesSinceSnapshot++;
+        }
+        completeCommit(committedTo, position);
+    }
+
+    /**
+     * Create a unique index over the stored entities
+     *
+     * @param <V> The indexed value type
+     * @param name The name of the index
+     * @param valueExtractor The function to extract the indexed value from an
+     * entity
+     * @throws DatabaseException If the stored entities contain duplicate values
+     */
+    public <V> void createUniqueIndex(String name, Function<T, V> valueExtractor) {
+        synchronized (commitLock) {
+            populateIndex(indexManager.createUniqueIndex(name, valueExtractor));
+        }
+    }
+
+    /**
+     * Create a non-unique index over the stored entities
+     *
+     * @param <V> The indexed value type
+     * @param name The name of the index
+     * @param valueExtractor The function to extract the indexed value from an
+     * entity
+     */
+    public <V> void createNonUniqueIndex(String name, Function<T, V> valueExtractor) {
+        synchronized (commitLock) {
+            populateIndex(indexManager.createNonUniqueIndex(name, valueExtractor));
+        }
+    }
+
+    /**
+     * Create a multi-column index over the stored entities
+     *
+     * @param name The name of the index
+     * @param valueExtractor The function to extract the indexed values from an
+     * entity
+     * @param unique Whether this index enforces uniqueness
+     * @throws DatabaseException If the index is unique and the stored entities
+     * contain duplicate values
+     */
+    public void createMultiColumnIndex(String name, Function<T, List<?>> valueExtractor, boolean unique) {
+        synchronized (commitLock) {
+            populateIndex(indexManager.createMultiColumnIndex(name, valueExtractor, unique));
+        }
+    }
+
+    /**
+     * Remove an index by name
+     *
+     * @param name The name of the index
+     * @return true if the index was removed, false if not found
+     */
+    public boolean removeIndex(String name) {
+        synchronized (commitLock) {
+            return indexManager.removeIndex(name);
+        }
+    }
+
+    /**
+     * Find entities by indexed value
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to search for
+     * @return List of entities matching the value
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> List<T> findByIndexedValue(String indexName, V value) {
+        List<K> primaryKeys;
+        synchronized (commitLock) {
+            primaryKeys = indexManager.findByIndexedValue(indexName, value);
+        }
+        return findAllById(primaryKeys);
+    }
+
+    /**
+     * Count the entities with an indexed value
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @param value The value to count
+     * @return The number of entities with the value
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> int countByIndexedValue(String indexName, V value) {
+        synchronized (commitLock) {
+            return indexManager.count(indexName, value);
+        }
+    }
+
+    /**
+     * Count the entities per indexed value
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The number of entities by value
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> Map<V, Integer> countBy(String indexName) {
+        synchronized (commitLock) {
+            return indexManager.countBy(indexName);
+        }
+    }
+
+    /**
+     * Get the distinct values of an index
+     *
+     * @param <V> The indexed value type
+     * @param indexName The name of the index
+     * @return The indexed values
+     * @throws DatabaseException if the index does not exist
+     */
+    public <V> Set<V> distinctValues(String indexName) {
+        synchronized (commitLock) {
+            return indexManager.distinctValues(indexName);
+        }
+    }
+
+    /**
+     * Write a snapshot of every entity and discard the journal it makes
+     * redundant. Commits continue while the snapshot is written.
+     *
+     * @throws DatabaseException If the snapshot cannot be written
+     */
+    public void snapshot() {
+        snapshotLock.lock();
+        try {
+            writeSnapshot();
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the periodic tasks, write a snapshot if anything changed since the
+     * last one and close the journal
+     *
+     * @throws DatabaseException If the snapshot or journal cannot be written
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        snapshotLock.lock();
+        try {
+            boolean changed;
+            synchronized (commitLock) {
+                if (closed) {
+                    return;
+                }
+                changed = changesSinceSnapshot > 0 && failure == null;
+            }
+            if (changed) {
+                writeSnapshot();
+            }
+
+            synchronized (commitLock) {
+                closed = true;
+                if (journal != null) {
+                    journal.close();
+                }
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Validate and apply a group of operations atomically, then journal them
+     * as a single frame. Readers by primary key may see the group while it is
+     * applied, but a failed group leaves no trace.
+     *
+     * @param operations The operations to commit
+     * @throws DatabaseException if any operation is invalid or the commit fails
+     */
+    private void commit(List<Transaction.Operation<T, K>> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        MutationJournal committedTo;
+        long position = 0;
+        synchronized (commitLock) {
+            checkOpen();
+            committedTo = journal;
+
+            // The versions staged by the group, null for deleted entities
+            Map<K, T> staged = new HashMap<>();
+            List<MutationJournal.Mutation> mutations = new ArrayList<>(operations.size());
+            Deque<Runnable> undo = new ArrayDeque<>();
+            try {
+                for (Transaction.Operation<T, K> operation : operations) {
+                    stage(operation, staged, committedTo != null ? mutations : null, undo);
+                }
+                if (committedTo != null) {
+                    position = committedTo.append(mutations);
+                }
+            } catch (RuntimeException e) {
+                while (!undo.isEmpty()) {
+                    undo.pop().run();
+                }
+                throw e;
+            }
+
+            for (Map.Entry<K, T> entry : staged.entrySet()) {
+                if (entry.getValue() != null) {
+                    entities.put(entry.getKey(), entry.getValue());
+                } else {
+                    entities.remove(entry.getKey());
+                }
+            }
+            changesSinceSnapshot++;
+        }
+        completeCommit(committedTo, position);
+    }
+
+    /**
+     * Validate an operation against the stored and staged entities, move it
+     * in the indexes and stage the resulting version. Called while holding
+     * the commit lock.
+     *
+     * @param mutations The journal mutations to add to, or null if the
+     * commit is not journaled
+     * @param undo The steps undoing the index changes of the group
+     */
+    private void stage(Transaction.Operation<T, K> operation, Map<K, T> staged,
+            List<MutationJournal.Mutation> mutations, Deque<Runnable> undo) {
+        K id = operation.id();
+        if (id == null) {
+            throw new IllegalArgumentException("Entity ID cannot be null");
+        }
+        T current = staged.containsKey(id) ? staged.get(id) : entities.get(id);
+
+        Transaction.OperationType type = operation.type();
+        if (type == Transaction.OperationType.SAVE_OR_UPDATE) {
+            type = current == null ? Transaction.OperationType.SAVE : Transaction.OperationType.UPDATE;
+        }
+
+        switch (type) {
+            case SAVE -> {
+                if (current != null) {
+                    throw new DatabaseException("Entity with ID " + id + " already exists");
+                }
+                byte[] data = serialize(operation.entity(), mutations != null);
+                T stored = store(operation.entity(), data);
+                // Checks and reserves the unique values with one lookup per index
+                IndexManager.IndexedValues<T, K> previous = indexManager.insertIntoIndexes(stored);
+                undo.push(() -> indexManager.restoreValues(previous));
+                staged.put(id, stored);
+                if (mutations != null) {
+                    mutations.add(MutationJournal.Mutation.put(data));
+                }
+            }
+            case UPDATE -> {
+                if (current == null) {
+                    throw new DatabaseException("Entity with ID " + id + " does not exist");
+                }
+                byte[] data = serialize(operation.entity(), mutations != null);
+                T stored = store(operation.entity(), data);
+                // Only the indexes whose value changed are touched, the new value is reserved before the old
+                // one is released
+                IndexManager.IndexedValues<T, K> previous = indexManager.replaceInIndexes(stored);
+                undo.push(() -> indexManager.restoreValues(previous));
+                staged.put(id, stored);
+                if (mutations != null) {
+                    mutations.add(MutationJournal.Mutation.put(data));
+                }
+            }
+            case DELETE -> {
+                if (current == null) {
+                    throw new DatabaseException("Entity with ID " + id + " does not exist");
+                }
+                IndexManager.IndexedValues<T, K> previous = indexManager.removeFromIndexes(id);
+                undo.push(() -> indexManager.restoreValues(previous));
+                staged.put(id, null);
+                if (mutations != null) {
+                    mutations.add(MutationJournal.Mutation.delete(id.toFileName()));
+                }
+            }
+            default -> throw new IllegalStateException("Unresolved operation: " + type);
+        }
+    }
+
+    /**
+     * Wait for a commit to become durable and take a snapshot if the journal
+     * has grown too large. Called after releasing the commit lock.
+     */
+    private void completeCommit(MutationJournal committedTo, long position) {
+        if (committedTo == null) {
+            return;
+        }
+        if (options.getDurability() == Durability.SYNC) {
+            try {
+                committedTo.awaitDurable(position);
+            } catch (DatabaseException e) {
+                // The commit is already visible, so later commits could depend on one that may be lost
+                synchronized (commitLock) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                throw e;
+            }
+        }
+        // The committing thread pays for the snapshot, unless another one is being written
+        if (committedTo.size() >= options.getSnapshotJournalSize() && snapshotLock.tryLock()) {
+            try {
+                MutationJournal current = journal;
+                if (current != null && current.size() >= options.getSnapshotJournalSize()) {
+                    writeSnapshot();
+                }
+            } finally {
+                snapshotLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the entities and start a new journal generation.
+     * Called while holding the snapshot lock.
+     */
+    private void writeSnapshot() {
+        List<T> captured;
+        long snapshotGeneration;
+        synchronized (commitLock) {
+            // A failed repository keeps the journal as it is, the state in memory may not be durable
+            if (closed || failure != null) {
+                return;
+            }
+            // Stored entities are replaced rather than modified, so the
+            // captured ones can be serialized after the lock is released
+            captured = new ArrayList<>(entities.values());
+            snapshotGeneration = generation + 1;
+            if (journal != null) {
+                journal.close();
+                journal = new MutationJournal(getJournalFile(snapshotGeneration), options.getDurability());
+            }
+            generation = snapshotGeneration;
+            changesSinceSnapshot = 0;
+        }
+
+        try {
+            SnapshotFile.write(new File(databaseDir, SNAPSHOT_FILE_NAME), snapshotGeneration, captured,
+                    serializer::serializeToBytes);
+        } catch (RuntimeException e) {
+            // The journals are kept, so the next snapshot is retried
+            synchronized (commitLock) {
+                changesSinceSnapshot++;
+            }
+            throw e;
+        }
+        deleteJournalsBefore(snapshotGeneration);
+    }
+
+    /**
+     * Load the snapshot and replay the journals written after it
+     */
+    private void restore() {
+        // Deletes are journaled by file name, so the entities are keyed by it until the journals are replayed
+        Map<String, T> restored = new HashMap<>();
+        long snapshotGeneration = SnapshotFile.read(new File(databaseDir, SNAPSHOT_FILE_NAME), data -> {
+            T entity = serializer.deserialize(data);
+            restored.put(entity.getId().toFileName(), entity);
+        });
+        generation = snapshotGeneration;
+
+        // Older journals are left by a crash right after a snapshot was written
+        deleteJournalsBefore(snapshotGeneration);
+        for (long journalGeneration : findJournalGenerations()) {
+            try (MutationJournal replayed = new MutationJournal(getJournalFile(journalGeneration),
+                    Durability.WRITE)) {
+                changesSinceSnapshot += replayed.replay(mutations -> replay(mutations, restored));
+            }
+            generation = journalGeneration;
+        }
+
+        for (T entity : restored.values()) {
+            entities.put(entity.getId(), entity);
+        }
+    }
+
+    private void replay(List<MutationJournal.Mutation> mutations, Map<String, T> restored) {
+        for (MutationJournal.Mutation mutation : mutations) {
+            switch (mutation.type()) {
+                case PUT -> {
+                    T entity = serializer.deserialize(ByteBuffer.wrap(mutation.data()));
+                    restored.put(entity.getId().toFileName(), entity);
+                }
+                case DELETE -> restored.remove(mutation.fileName());
+                case CLEAR -> restored.clear();
+            }
+        }
+    }
+
+    private ScheduledExecutorService startScheduler(InMemoryOptions options) {
+        boolean flush = options.getDurability() == Durability.PERIODIC;
+        boolean snapshots = !options.getSnapshotInterval().isZero();
+        if (!flush && !snapshots) {
+            return null;
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "in-memory-repository-" + databaseDir.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A failed flush leaves the journal failed, which the next commit reports;
+        // a failed snapshot is retried at the next interval
+        if (flush) {
+            long interval = options.getFlushInterval().toNanos();
+            executor.scheduleWithFixedDelay(() -> runQuietly(this::flushJournal),
+                    interval, interval, TimeUnit.NANOSECONDS);
+        }
+        if (snapshots) {
+            long interval = options.getSnapshotInterval().toNanos();
+            executor.scheduleWithFixedDelay(() -> runQuietly(this::snapshotIfChanged),
+                    interval, interval, TimeUnit.NANOSECONDS);
+        }
+        return executor;
+    }
+
+    private void flushJournal() {
+        MutationJournal current = journal;
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    private void snapshotIfChanged() {
+        if (!snapshotLock.tryLock()) {
+            return;
+        }
+        try {
+            boolean changed;
+            synchronized (commitLock) {
+                changed = changesSinceSnapshot > 0;
+            }
+            if (changed) {
+                writeSnapshot();
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private static void runQuietly(Runnable task) {
+        try {
+            task.run();
+        } catch (DatabaseException e) {
+            // Reported by the next commit or on close
+        }
+    }
+
+    /**
+     * Add the stored entities to a new index, removing it again if they
+     * violate its unique constraint. Called while holding the commit lock.
+     */
+    private void populateIndex(Index<T, K, ?> index) {
+        for (T entity : entities.values()) {
+            if (!index.addEntity(entity)) {
+                indexManager.removeIndex(index.getName());
+                throw new DatabaseException("Failed to create unique index '" + index.getName()
+                        + "': duplicate values found in existing entities");
+            }
+        }
+    }
+
+    /**
+     * Serialize an entity for the journal or for a private copy
+     *
+     * @param required Whether the bytes are needed even if the entity is
+     * stored as is
+     * @return The serialized entity, or null if not needed
+     */
+    private byte[] serialize(T entity, boolean required) {
+        if (!required && options.getCopyMode() == CacheCopyMode.SHARED) {
+            return null;
+        }
+        ByteBuffer buffer = serializer.serializeToBytes(entity);
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Get the instance to store for a saved entity, a private copy unless the
+     * entities are declared immutable
+     */
+    private T store(T entity, byte[] data) {
+        if (options.getCopyMode() == CacheCopyMode.SHARED) {
+            return entity;
+        }
+        return serializer.deserialize(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Make sure a stored entity is never modified through a reference held by
+     * a caller, unless the entities are declared immutable
+     */
+    private T handOut(T entity) {
+        if (options.getCopyMode() == CacheCopyMode.SHARED) {
+            return entity;
+        }
+        return serializer.deserialize(serializer.serializeToBytes(entity));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new DatabaseException("Repository is closed");
+        }
+        if (failure != null) {
+            throw new DatabaseException("Repository is unavailable after a commit could not be made durable",
+                    failure);
+        }
+    }
+
+    private File getJournalFile(long journalGeneration) {
+        return new File(databaseDir, JOURNAL_FILE_PREFIX + journalGeneration + JOURNAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Find the generations of the journal files in ascending order
+     */
+    private List<Long> findJournalGenerations() {
+        List<Long> generations = new ArrayList<>();
+        String[] fileNames = databaseDir.list();
+        if (fileNames == null) {
+            return generations;
+        }
+        for (String fileName : fileNames) {
+            if (fileName.startsWith(JOURNAL_FILE_PREFIX) && fileName.endsWith(JOURNAL_FILE_SUFFIX)) {
+                try {
+                    generations.add(Long.parseLong(fileName.substring(JOURNAL_FILE_PREFIX.length(),
+                            fileName.length() - JOURNAL_FILE_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a journal of this repository
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private void deleteJournalsBefore(long journalGeneration) {
+        for (long existing : findJournalGenerations()) {
+            File file = getJournalFile(existing);
+            if (existing < journalGeneration && !file.delete()) {
+                throw new DatabaseException("Failed to delete journal file: " + file.getPath());
+            }
+        }
+    }
+}
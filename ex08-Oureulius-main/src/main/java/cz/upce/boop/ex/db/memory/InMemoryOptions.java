@@ -0,0 +1,188 @@
+package cz.upce.boop.ex.db.memory;
+
+import cz.upce.boop.ex.db.cache.CacheCopyMode;
+
+import java.time.Duration;
+
+/**
+ * Configuration of an in-memory entity repository.
+ */
+public class InMemoryOptions {
+
+    private final Durability durability;
+    private final Duration flushInterval;
+    private final Duration snapshotInterval;
+    private final long snapshotJournalSize;
+    private final CacheCopyMode copyMode;
+
+    private InMemoryOptions(Builder builder) {
+        this.durability = builder.durability;
+        this.flushInterval = builder.flushInterval;
+        this.snapshotInterval = builder.snapshotInterval;
+        this.snapshotJournalSize = builder.snapshotJournalSize;
+        this.copyMode = builder.copyMode;
+    }
+
+    /**
+     * Creates the default options (every commit forced to the journal)
+     *
+     * @return The default options
+     */
+    public static InMemoryOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Creates a new InMemoryOptions builder
+     *
+     * @return A new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get how changes are persisted between snapshots
+     *
+     * @return The durability
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Get how often the journal is forced with {@link Durability#PERIODIC}
+     *
+     * @return The flush interval
+     */
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Get how often a snapshot is taken
+     *
+     * @return The snapshot interval, zero if snapshots are only taken by
+     * journal size and on close
+     */
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Get the journal size after which a snapshot is taken
+     *
+     * @return The journal size in bytes
+     */
+    public long getSnapshotJournalSize() {
+        return snapshotJournalSize;
+    }
+
+    /**
+     * Get how stored entities are handed out to callers
+     *
+     * @return The copy mode
+     */
+    public CacheCopyMode getCopyMode() {
+        return copyMode;
+    }
+
+    /**
+     * Builder class for InMemoryOptions
+     */
+    public static class Builder {
+
+        private Durability durability = Durability.SYNC;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private Duration snapshotInterval = Duration.ZERO;
+        private long snapshotJournalSize = 16 * 1024 * 1024;
+        private CacheCopyMode copyMode = CacheCopyMode.COPY;
+
+        /**
+         * Sets how changes are persisted between snapshots
+         *
+         * @param durability The durability
+         * @return The builder
+         */
+        public Builder durability(Durability durability) {
+            if (durability == null) {
+                throw new IllegalArgumentException("Durability cannot be null");
+            }
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets how often the journal is written and forced with
+         * {@link Durability#PERIODIC}
+         *
+         * @param flushInterval The flush interval
+         * @return The builder
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("Flush interval must be positive");
+            }
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Sets how often a snapshot of the entities is taken. A snapshot is
+         * only written if something changed since the previous one.
+         *
+         * @param snapshotInterval The snapshot interval, zero to take
+         * snapshots only by journal size and on close
+         * @return The builder
+         */
+        public Builder snapshotInterval(Duration snapshotInterval) {
+            if (snapshotInterval == null || snapshotInterval.isNegative()) {
+                throw new IllegalArgumentException("Snapshot interval cannot be null or negative");
+            }
+            this.snapshotInterval = snapshotInterval;
+            return this;
+        }
+
+        /**
+         * Sets the journal size after which a snapshot is taken and the
+         * journal is discarded, which bounds the time needed to restore the
+         * repository
+         *
+         * @param snapshotJournalSize The journal size in bytes
+         * @return The builder
+         */
+        public Builder snapshotJournalSize(long snapshotJournalSize) {
+            if (snapshotJournalSize <= 0) {
+                throw new IllegalArgumentException("Snapshot journal size must be positive");
+            }
+            this.snapshotJournalSize = snapshotJournalSize;
+            return this;
+        }
+
+        /**
+         * Sets how stored entities are handed out. The default
+         * {@link CacheCopyMode#COPY} is safe for mutable entities;
+         * {@link CacheCopyMode#SHARED} returns the stored instances, so reads
+         * by primary key cost a single hash lookup.
+         *
+         * @param copyMode The copy mode
+         * @return The builder
+         */
+        public Builder copyMode(CacheCopyMode copyMode) {
+            if (copyMode == null) {
+                throw new IllegalArgumentException("Copy mode cannot be null");
+            }
+            this.copyMode = copyMode;
+            return this;
+        }
+
+        /**
+         * Builds the InMemoryOptions
+         *
+         * @return The built InMemoryOptions
+         */
+        public InMemoryOptions build() {
+            return new InMemoryOptions(this);
+        }
+    }
+}
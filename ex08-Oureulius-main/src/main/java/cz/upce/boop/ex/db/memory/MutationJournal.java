@@ -0,0 +1,385 @@
+package cz.upce.boop.ex.db.memory;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the commits made to an in-memory repository since
+ * its last snapshot.
+ *
+ * Every commit is stored as one checksummed frame, so a torn write at the end
+ * of the journal is detected, ignored and cut off when the journal is
+ * replayed. How soon a frame reaches the file and the storage device depends
+ * on the {@link Durability}: with {@link Durability#PERIODIC} frames are
+ * buffered until {@link #flush()}, otherwise they are written on append, and
+ * with {@link Durability#SYNC} committers call {@link #awaitDurable(long)},
+ * where the first of them forces the journal for every frame written so far.
+ */
+final class MutationJournal implements AutoCloseable {
+
+    enum Type {
+        PUT,
+        DELETE,
+        CLEAR
+    }
+
+    /**
+     * A single change of a commit. A put carries the serialized entity, a
+     * delete only the file name of the deleted key.
+     */
+    record Mutation(Type type, byte[] data) {
+
+        static Mutation put(byte[] data) {
+            return new Mutation(Type.PUT, data);
+        }
+
+        static Mutation delete(String fileName) {
+            return new Mutation(Type.DELETE, fileName.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Get the file name of the key a delete removes
+         */
+        String fileName() {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        static Mutation clear() {
+            return new Mutation(Type.CLEAR, null);
+        }
+    }
+
+    /**
+     * Callback applying replayed commits
+     */
+    @FunctionalInterface
+    interface Replayer {
+
+        /**
+         * Apply the mutations of one commit
+         *
+         * @param mutations The mutations in commit order
+         */
+        void replay(List<Mutation> mutations);
+    }
+
+    private static final int FRAME_HEADER_SIZE = 8;
+    // Buffered frames are written early once they exceed this size
+    private static final int MAXIMUM_PENDING_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Durability durability;
+
+    // Guards appending and writing; never held while forcing
+    private final Object lock = new Object();
+    // Guards forcing, taken before the lock
+    private final Object forceLock = new Object();
+    private ByteArrayOutputStream pendingFrames = new ByteArrayOutputStream();
+    // Bytes appended, including the pending frames
+    private long size;
+    private long writtenPosition;
+    private long forcedPosition;
+    private boolean closed;
+    private Throwable failure;
+
+    /**
+     * Open a journal file, positioned for appending at its end
+     *
+     * @param file The journal file
+     * @param durability How appended frames are persisted
+     * @throws DatabaseException If the journal cannot be opened
+     */
+    MutationJournal(File file, Durability durability) {
+        this.file = file;
+        this.durability = durability;
+        try {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+            channel.position(size);
+        } catch (IOException e) {
+            throw new DatabaseException("Error opening journal " + file.getPath(), e);
+        }
+        this.writtenPosition = size;
+        this.forcedPosition = size;
+    }
+
+    /**
+     * Replay every complete commit in the journal and cut off a torn frame
+     * at its end
+     *
+     * @param replayer The callback applying the commits
+     * @return The number of replayed commits
+     * @throws DatabaseException If the journal cannot be read
+     */
+    int replay(Replayer replayer) {
+        synchronized (lock) {
+            try {
+                int count = 0;
+                long end = 0;
+                channel.position(0);
+                ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+                while (readFully(header)) {
+                    header.flip();
+                    int length = header.getInt();
+                    int checksum = header.getInt();
+                    header.clear();
+
+                    if (length < 0 || length > channel.size() - channel.position()) {
+                        break; // Torn frame at the end of the journal
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    if (!readFully(payload) || checksum(payload.array(), length) != checksum) {
+                        break;
+                    }
+                    replayer.replay(decode(payload.array()));
+                    end = channel.position();
+                    count++;
+                }
+
+                channel.truncate(end);
+                channel.position(end);
+                size = end;
+                writtenPosition = end;
+                forcedPosition = end;
+                return count;
+            } catch (IOException e) {
+                throw new DatabaseException("Error replaying journal " + file.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Append the mutations of a commit as one frame
+     *
+     * @param mutations The mutations of the commit
+     * @return The journal position after the frame, for
+     * {@link #awaitDurable(long)}
+     * @throws DatabaseException If the journal has failed or the frame cannot
+     * be written
+     */
+    long append(List<Mutation> mutations) {
+        byte[] payload = encode(mutations);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).putInt(checksum(payload, payload.length)).put(payload).flip();
+
+        synchronized (lock) {
+            checkUsable();
+            try {
+                if (durability == Durability.PERIODIC) {
+                    pendingFrames.write(frame.array(), 0, frame.limit());
+                    if (pendingFrames.size() >= MAXIMUM_PENDING_SIZE) {
+                        writePending();
+                    }
+                } else {
+                    write(frame);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw new DatabaseException("Error appending to journal " + file.getPath(), e);
+            }
+            size += frame.limit();
+            return size;
+        }
+    }
+
+    /**
+     * Wait until the journal is forced up to a position. If it is not yet,
+     * the calling thread forces every frame written so far, covering the
+     * commits of the threads waiting behind it.
+     *
+     * @param position The position returned by {@link #append(List)}
+     * @throws DatabaseException If the journal cannot be forced
+     */
+    void awaitDurable(long position) {
+        synchronized (forceLock) {
+            if (forcedPosition >= position) {
+                return;
+            }
+            long target;
+            synchronized (lock) {
+                checkUsable();
+                target = writtenPosition;
+            }
+            force(target);
+        }
+    }
+
+    /**
+     * Write the buffered frames and force the journal
+     *
+     * @throws DatabaseException If the journal cannot be written or forced
+     */
+    void flush() {
+        synchronized (forceLock) {
+            long target;
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                checkUsable();
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    failure = e;
+                    throw new DatabaseException("Error writing journal " + file.getPath(), e);
+                }
+                target = writtenPosition;
+            }
+            if (forcedPosition < target) {
+                force(target);
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes appended to the journal
+     *
+     * @return The journal size, including frames not written yet
+     */
+    long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Write and force the buffered frames and close the journal
+     *
+     * @throws DatabaseException If the journal cannot be flushed or closed
+     */
+    @Override
+    public void close() {
+        synchronized (forceLock) {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                if (failure == null) {
+                    writePending();
+                    channel.force(false);
+                    forcedPosition = writtenPosition;
+                }
+                channel.close();
+            } catch (IOException e) {
+                throw new DatabaseException("Error closing journal " + file.getPath(), e);
+            }
+        }
+    }
+
+    private void checkUsable() {
+        if (closed) {
+            throw new DatabaseException("Journal is closed");
+        }
+        if (failure != null) {
+            throw new DatabaseException("Journal is unavailable after a previous error", failure);
+        }
+    }
+
+    /**
+     * Force the journal up to a written position. Called while holding the
+     * force lock.
+     */
+    private void force(long target) {
+        try {
+            channel.force(false);
+            forcedPosition = target;
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+            }
+            throw new DatabaseException("Error forcing journal " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Write the buffered frames. Called while holding the lock.
+     */
+    private void writePending() throws IOException {
+        if (pendingFrames.size() == 0) {
+            return;
+        }
+        ByteBuffer frames = ByteBuffer.wrap(pendingFrames.toByteArray());
+        pendingFrames = new ByteArrayOutputStream();
+        write(frames);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        writtenPosition += length;
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(List<Mutation> mutations) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(mutations.size());
+            for (Mutation mutation : mutations) {
+                out.writeByte(mutation.type().ordinal());
+                if (mutation.type() != Type.CLEAR) {
+                    out.writeInt(mutation.data().length);
+                    out.write(mutation.data());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DatabaseException("Error encoding journal frame", e);
+        }
+    }
+
+    private static List<Mutation> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        int count = in.readInt();
+        List<Mutation> mutations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Type type = Type.values()[in.readByte()];
+            if (type == Type.CLEAR) {
+                mutations.add(Mutation.clear());
+                continue;
+            }
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            mutations.add(new Mutation(type, data));
+        }
+        return mutations;
+    }
+}
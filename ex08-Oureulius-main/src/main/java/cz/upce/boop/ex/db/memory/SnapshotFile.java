@@ -0,0 +1,144 @@
+package cz.upce.boop.ex.db.memory;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact snapshot of every entity of an in-memory repository in a single
+ * file: a header with the journal generation the snapshot precedes, the
+ * serialized entities back to back and a checksum of the whole file. A new
+ * snapshot is written to a temporary file and moved over the previous one,
+ * so a crash while writing leaves the previous snapshot intact.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x4D454D53;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Read a snapshot
+     *
+     * @param file The snapshot file
+     * @param reader The callback receiving each serialized entity; the buffer
+     * must not be kept after it returns
+     * @return The journal generation the snapshot precedes, 0 if there is no
+     * snapshot
+     * @throws DatabaseException If the snapshot cannot be read or is damaged
+     */
+    static long read(File file, Consumer<ByteBuffer> reader) {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32());
+                DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new DatabaseException("Not a snapshot file: " + file.getPath());
+            }
+            long generation = in.readLong();
+            int count = in.readInt();
+
+            byte[] data = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new DatabaseException("Snapshot file is damaged: " + file.getPath());
+                }
+                if (length > data.length) {
+                    data = new byte[Math.max(length, data.length * 2)];
+                }
+                in.readFully(data, 0, length);
+                reader.accept(ByteBuffer.wrap(data, 0, length));
+            }
+
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new DatabaseException("Snapshot file is damaged: " + file.getPath());
+            }
+            return generation;
+        } catch (IOException e) {
+            throw new DatabaseException("Error reading snapshot " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Write a snapshot, replacing the previous one once it is durable
+     *
+     * @param <T> The entity type
+     * @param file The snapshot file
+     * @param generation The journal generation the snapshot precedes
+     * @param entities The entities to write
+     * @param serializer The function serializing an entity, whose buffer
+     * may be reused by the next call
+     * @throws DatabaseException If the snapshot cannot be written
+     */
+    static <T> void write(File file, long generation, List<T> entities, Function<T, ByteBuffer> serializer) {
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(entities.size());
+            // Serialized buffers are not always backed by an accessible array
+            byte[] scratch = new byte[256];
+            for (T entity : entities) {
+                ByteBuffer data = serializer.apply(entity);
+                int length = data.remaining();
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                data.get(scratch, 0, length);
+                out.writeInt(length);
+                out.write(scratch, 0, length);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            stream.getChannel().force(true);
+        } catch (IOException e) {
+            temporary.delete();
+            throw new DatabaseException("Error writing snapshot " + file.getPath(), e);
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DatabaseException("Error replacing snapshot " + file.getPath(), e);
+        }
+        forceDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    private static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform allows forcing a directory, the snapshot is durable anyway
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package cz.upce.boop.ex.db.query;
+
+/**
+ * Access path chosen by the {@link QueryPlanner}.
+ */
+public enum PlanType {
+    /**
+     * A single lookup in a unique index, returning at most one entity
+     */
+    UNIQUE_PROBE,
+    /**
+     * A lookup in one non-unique index
+     */
+    INDEX_LOOKUP,
+    /**
+     * Lookups in several indexes whose primary keys are intersected
+     */
+    INDEX_INTERSECTION,
+    /**
+     * A scan of every entity
+     */
+    FULL_SCAN
+}
@@ -0,0 +1,209 @@
+package cz.upce.boop.ex.db.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Structured query over named entity attributes.
+ *
+ * Unlike an opaque predicate, a query can be inspected by the
+ * {@link QueryPlanner}, which answers equality terms on indexed attributes
+ * from the indexes instead of scanning every entity. Values are compared with
+ * {@code equals}, so they must have the same type as the attribute values
+ * (an {@code int} attribute is matched by {@code Integer} values, not by
+ * {@code Long} values).
+ */
+public sealed interface Query {
+
+    /**
+     * Matches entities whose attribute equals the value
+     *
+     * @param attribute The attribute name
+     * @param value The value to match
+     */
+    record Eq(String attribute, Object value) implements Query {
+
+        @Override
+        public String toString() {
+            return attribute + " = " + value;
+        }
+    }
+
+    /**
+     * Matches entities whose attribute equals any of the values
+     *
+     * @param attribute The attribute name
+     * @param values The values to match
+     */
+    record In(String attribute, Set<Object> values) implements Query {
+
+        @Override
+        public String toString() {
+            return attribute + " IN " + values;
+        }
+    }
+
+    /**
+     * Matches entities whose attribute lies between two bounds, inclusive
+     *
+     * @param attribute The attribute name
+     * @param from The lower bound, or null for no lower bound
+     * @param to The upper bound, or null for no upper bound
+     */
+    record Range(String attribute, Comparable<?> from, Comparable<?> to) implements Query {
+
+        @Override
+        public String toString() {
+            if (from == null) {
+                return attribute + " <= " + to;
+            }
+            if (to == null) {
+                return attribute + " >= " + from;
+            }
+            return attribute + " BETWEEN " + from + " AND " + to;
+        }
+    }
+
+    /**
+     * Matches entities matching all of the terms
+     *
+     * @param terms The terms
+     */
+    record And(List<Query> terms) implements Query {
+
+        @Override
+        public String toString() {
+            return join(terms, " AND ");
+        }
+    }
+
+    /**
+     * Matches entities matching any of the terms
+     *
+     * @param terms The terms
+     */
+    record Or(List<Query> terms) implements Query {
+
+        @Override
+        public String toString() {
+            return join(terms, " OR ");
+        }
+    }
+
+    /**
+     * Matches entities not matching the term
+     *
+     * @param term The negated term
+     */
+    record Not(Query term) implements Query {
+
+        @Override
+        public String toString() {
+            return "NOT (" + term + ")";
+        }
+    }
+
+    /**
+     * Creates a term matching entities whose attribute equals the value
+     *
+     * @param attribute The attribute name
+     * @param value The value to match
+     * @return The query
+     */
+    static Query eq(String attribute, Object value) {
+        return new Eq(requireAttribute(attribute), value);
+    }
+
+    /**
+     * Creates a term matching entities whose attribute equals any of the values
+     *
+     * @param attribute The attribute name
+     * @param values The values to match
+     * @return The query
+     */
+    static Query in(String attribute, Collection<?> values) {
+        return new In(requireAttribute(attribute), new LinkedHashSet<>(values));
+    }
+
+    /**
+     * Creates a term matching entities whose attribute lies between two
+     * bounds, inclusive
+     *
+     * @param attribute The attribute name
+     * @param from The lower bound, or null for no lower bound
+     * @param to The upper bound, or null for no upper bound
+     * @return The query
+     */
+    static Query range(String attribute, Comparable<?> from, Comparable<?> to) {
+        if (from == null && to == null) {
+            throw new IllegalArgumentException("Range needs at least one bound");
+        }
+        return new Range(requireAttribute(attribute), from, to);
+    }
+
+    /**
+     * Creates a query matching entities matching all of the terms
+     *
+     * @param terms The terms
+     * @return The query
+     */
+    static Query and(Query... terms) {
+        return new And(requireTerms(terms));
+    }
+
+    /**
+     * Creates a query matching entities matching any of the terms
+     *
+     * @param terms The terms
+     * @return The query
+     */
+    static Query or(Query... terms) {
+        return new Or(requireTerms(terms));
+    }
+
+    /**
+     * Creates a query matching entities not matching the term
+     *
+     * @param term The negated term
+     * @return The query
+     */
+    static Query not(Query term) {
+        if (term == null) {
+            throw new IllegalArgumentException("Term cannot be null");
+        }
+        return new Not(term);
+    }
+
+    private static String requireAttribute(String attribute) {
+        if (attribute == null || attribute.isEmpty()) {
+            throw new IllegalArgumentException("Attribute name cannot be null or empty");
+        }
+        return attribute;
+    }
+
+    private static List<Query> requireTerms(Query... terms) {
+        if (terms.length == 0) {
+            throw new IllegalArgumentException("At least one term is required");
+        }
+        List<Query> list = new ArrayList<>(terms.length);
+        for (Query term : terms) {
+            if (term == null) {
+                throw new IllegalArgumentException("Term cannot be null");
+            }
+            list.add(term);
+        }
+        return List.copyOf(list);
+    }
+
+    private static String join(List<Query> terms, String separator) {
+        StringJoiner joiner = new StringJoiner(separator, "(", ")");
+        for (Query term : terms) {
+            joiner.add(term.toString());
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package cz.upce.boop.ex.db.query;
+
+import java.util.List;
+
+/**
+ * Description of how a query is executed, as returned by
+ * {@link QueryPlanner#explain(Query)}.
+ *
+ * @param type The access path
+ * @param indexes The names of the indexes used, in lookup order
+ * @param estimatedRows The number of entities the access path reads, or
+ * {@link #UNKNOWN_ROWS} for a full scan of a repository that cannot count
+ * its entities without reading its storage
+ * @param filter The terms evaluated on every entity read, or null if the
+ * access path alone answers the query
+ */
+public record QueryPlan(PlanType type, List<String> indexes, long estimatedRows, Query filter) {
+
+    /**
+     * Estimated number of rows of a plan whose row count is not known
+     */
+    public static final long UNKNOWN_ROWS = -1;
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.name());
+        if (!indexes.isEmpty()) {
+            sb.append(" using ").append(indexes);
+        }
+        sb.append(" (estimated rows: ").append(estimatedRows == UNKNOWN_ROWS ? "unknown" : estimatedRows).append(')');
+        if (filter != null) {
+            sb.append(", filter: ").append(filter);
+        }
+        return sb.toString();
+    }
+}
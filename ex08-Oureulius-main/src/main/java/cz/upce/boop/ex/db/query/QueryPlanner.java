@@ -0,0 +1,354 @@
+package cz.upce.boop.ex.db.query;
+
+import cz.upce.boop.ex.db.cache.QueryResultCache;
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.EntityRepository;
+import cz.upce.boop.ex.db.core.PrimaryKey;
+import cz.upce.boop.ex.db.index.Index;
+import cz.upce.boop.ex.db.index.IndexManager;
+import cz.upce.boop.ex.db.index.MultiColumnIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Plans and executes structured queries against a repository and its indexes.
+ *
+ * Every single-column index is an attribute named after the index; further
+ * attributes can be registered with {@link #registerAttribute}. The planner
+ * splits a query into its top-level AND terms and answers equality and IN
+ * terms on indexed attributes from the indexes, smallest result first. An
+ * equality on a unique index is a probe returning at most one entity; several
+ * index terms are intersected until few candidates remain. All other terms
+ * are evaluated on the candidates. A query without any index term scans every
+ * entity.
+ *
+ * @param <T> The entity type
+ * @param <K> The primary key type
+ */
+public class QueryPlanner<T extends DatabaseEntity<K>, K extends PrimaryKey<?>> {
+
+    // Once this few candidates remain, checking the remaining terms on them is cheaper than another intersection
+    private static final int INTERSECTION_CUTOFF = 16;
+
+    /**
+     * Index term of a query and the primary keys it matches
+     */
+    private record Lookup<K>(Query term, String indexName, boolean unique, Collection<K> keys) {
+
+    }
+
+    /**
+     * Executable plan: the index terms answered from the indexes, the
+     * candidate keys, or null for a full scan, and the filter applied to the
+     * candidates
+     */
+    private record Plan<T, K>(QueryPlan description, List<Lookup<K>> lookups, Collection<K> keys,
+            Predicate<T> filter) {
+
+    }
+
+    private final EntityRepository<T, K> repository;
+    private final IndexManager<T, K> indexManager;
+    private final Map<String, Function<T, ?>> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new query planner
+     *
+     * @param repository The repository holding the entities
+     * @param indexManager The indexes of the repository
+     */
+    public QueryPlanner(EntityRepository<T, K> repository, IndexManager<T, K> indexManager) {
+        this.repository = repository;
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * Register an attribute that is not backed by an index
+     *
+     * @param name The attribute name
+     * @param extractor The function to extract the attribute value from an entity
+     * @throws DatabaseException If an attribute or index with the same name exists
+     */
+    public void registerAttribute(String name, Function<T, ?> extractor) {
+        if (findIndex(name) != null || attributes.putIfAbsent(name, extractor) != null) {
+            throw new DatabaseException("Attribute '" + name + "' already exists");
+        }
+    }
+
+    /**
+     * Find the entities matching a query
+     *
+     * @param query The query
+     * @return The matching entities
+     * @throws DatabaseException If the query uses an unknown attribute or the
+     * entities cannot be read
+     */
+    public List<T> find(Query query) {
+        return find(query, null);
+    }
+
+    /**
+     * Find the entities matching a query and record what the result depends
+     * on: the index values that were looked up and the candidates that were
+     * read, or every entity if the query needed a full scan
+     *
+     * @param query The query
+     * @param dependencies Collects the dependencies of the result, or null
+     * @return The matching entities
+     * @throws DatabaseException If the query uses an unknown attribute or the
+     * entities cannot be read
+     */
+    public List<T> find(Query query, QueryResultCache.Dependencies dependencies) {
+        Plan<T, K> plan = plan(query);
+        if (dependencies != null) {
+            addDependencies(plan, dependencies);
+        }
+        if (plan.keys() == null) {
+            return repository.findByCondition(plan.filter());
+        }
+
+        List<T> candidates = repository.findAllById(plan.keys());
+        if (plan.filter() == null) {
+            return candidates;
+        }
+
+        List<T> result = new ArrayList<>();
+        for (T entity : candidates) {
+            if (plan.filter().test(entity)) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Describe how a query would be executed, without reading any entity
+     *
+     * @param query The query
+     * @return The chosen plan
+     * @throws DatabaseException If the query uses an unknown attribute
+     */
+    public QueryPlan explain(Query query) {
+        return plan(query).description();
+    }
+
+    private static <T, K extends PrimaryKey<?>> void addDependencies(Plan<T, K> plan,
+            QueryResultCache.Dependencies dependencies) {
+        if (plan.keys() == null) {
+            dependencies.addEverything();
+            return;
+        }
+        // An entity can only enter the result through a value of a lookup, and
+        // only leave it by changing while it is a candidate
+        for (Lookup<K> lookup : plan.lookups()) {
+            if (lookup.term() instanceof Query.Eq eq) {
+                dependencies.addIndexValue(lookup.indexName(), eq.value());
+            } else {
+                for (Object value : ((Query.In) lookup.term()).values()) {
+                    dependencies.addIndexValue(lookup.indexName(), value);
+                }
+            }
+        }
+        for (K key : plan.keys()) {
+            dependencies.addEntity(key.toFileName());
+        }
+    }
+
+    private Plan<T, K> plan(Query query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null");
+        }
+
+        List<Query> terms = new ArrayList<>();
+        flatten(query, terms);
+
+        List<Lookup<K>> lookups = new ArrayList<>();
+        List<Query> filters = new ArrayList<>();
+        for (Query term : terms) {
+            Lookup<K> lookup = lookup(term);
+            if (lookup != null) {
+                lookups.add(lookup);
+            } else {
+                filters.add(term);
+            }
+        }
+
+        if (lookups.isEmpty()) {
+            // Counting the entities may list the whole directory, so only a count known in memory is reported
+            return new Plan<>(new QueryPlan(PlanType.FULL_SCAN, List.of(), repository.knownCount(), query),
+                    List.of(), null, compile(query));
+        }
+
+        lookups.sort(Comparator.comparingInt(lookup -> lookup.keys().size()));
+        Lookup<K> first = lookups.get(0);
+        List<String> usedIndexes = new ArrayList<>();
+        usedIndexes.add(first.indexName());
+        Collection<K> keys = first.keys();
+
+        PlanType type;
+        if (first.unique() && first.term() instanceof Query.Eq) {
+            type = PlanType.UNIQUE_PROBE;
+            for (int i = 1; i < lookups.size(); i++) {
+                filters.add(lookups.get(i).term());
+            }
+        } else {
+            Set<K> intersection = null;
+            for (int i = 1; i < lookups.size(); i++) {
+                Lookup<K> lookup = lookups.get(i);
+                if (keys.size() <= INTERSECTION_CUTOFF) {
+                    filters.add(lookup.term());
+                    continue;
+                }
+                if (intersection == null) {
+                    intersection = new LinkedHashSet<>(keys);
+                    keys = intersection;
+                }
+                intersection.retainAll(new HashSet<>(lookup.keys()));
+                usedIndexes.add(lookup.indexName());
+            }
+            type = usedIndexes.size() > 1 ? PlanType.INDEX_INTERSECTION : PlanType.INDEX_LOOKUP;
+        }
+
+        Query filter = filters.isEmpty() ? null
+                : filters.size() == 1 ? filters.get(0) : new Query.And(List.copyOf(filters));
+        return new Plan<>(new QueryPlan(type, List.copyOf(usedIndexes), keys.size(), filter),
+                lookups, keys, filter == null ? null : compile(filter));
+    }
+
+    private static void flatten(Query query, List<Query> terms) {
+        if (query instanceof Query.And and) {
+            for (Query term : and.terms()) {
+                flatten(term, terms);
+            }
+        } else {
+            terms.add(query);
+        }
+    }
+
+    /**
+     * Answer a term from an index, or return null if no index can answer it
+     */
+    private Lookup<K> lookup(Query term) {
+        if (term instanceof Query.Eq eq) {
+            Index<T, K, Object> index = findIndex(eq.attribute());
+            if (index != null) {
+                return new Lookup<>(term, index.getName(), index.isUnique(), index.findByValue(eq.value()));
+            }
+        } else if (term instanceof Query.In in) {
+            Index<T, K, Object> index = findIndex(in.attribute());
+            if (index != null) {
+                Set<K> keys = new LinkedHashSet<>();
+                for (Object value : in.values()) {
+                    keys.addAll(index.findByValue(value));
+                }
+                return new Lookup<>(term, index.getName(), index.isUnique(), keys);
+            }
+        }
+        return null;
+    }
+
+    private Predicate<T> compile(Query query) {
+        if (query instanceof Query.Eq eq) {
+            Function<T, ?> extractor = extractor(eq.attribute());
+            Object value = eq.value();
+            return entity -> Objects.equals(extractor.apply(entity), value);
+        }
+        if (query instanceof Query.In in) {
+            Function<T, ?> extractor = extractor(in.attribute());
+            Set<Object> values = in.values();
+            return entity -> values.contains(extractor.apply(entity));
+        }
+        if (query instanceof Query.Range range) {
+            Function<T, ?> extractor = extractor(range.attribute());
+            Comparable<?> from = range.from();
+            Comparable<?> to = range.to();
+            return entity -> inRange(extractor.apply(entity), from, to);
+        }
+        if (query instanceof Query.And and) {
+            List<Predicate<T>> terms = compileAll(and.terms());
+            return entity -> {
+                for (Predicate<T> term : terms) {
+                    if (!term.test(entity)) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        }
+        if (query instanceof Query.Or or) {
+            List<Predicate<T>> terms = compileAll(or.terms());
+            return entity -> {
+                for (Predicate<T> term : terms) {
+                    if (term.test(entity)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+        return compile(((Query.Not) query).term()).negate();
+    }
+
+    /**
+     * Check whether a value lies between two bounds, either of which may be
+     * null. A null value or a value of another type than a bound does not.
+     */
+    private static boolean inRange(Object value, Comparable<?> from, Comparable<?> to) {
+        return value != null
+                && (from == null || comparable(from, value) && compare(from, value) <= 0)
+                && (to == null || comparable(to, value) && compare(to, value) >= 0);
+    }
+
+    private static boolean comparable(Comparable<?> bound, Object value) {
+        return bound.getClass().isInstance(value) || value.getClass().isInstance(bound);
+    }
+
+    /**
+     * Compare a bound with a value of a compatible type
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable<?> bound, Object value) {
+        return ((Comparable<Object>) bound).compareTo(value);
+    }
+
+    private List<Predicate<T>> compileAll(List<Query> queries) {
+        List<Predicate<T>> predicates = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            predicates.add(compile(query));
+        }
+        return predicates;
+    }
+
+    private Function<T, ?> extractor(String attribute) {
+        Function<T, ?> extractor = attributes.get(attribute);
+        if (extractor != null) {
+            return extractor;
+        }
+
+        Index<T, K, Object> index = findIndex(attribute);
+        if (index == null) {
+            throw new DatabaseException("Unknown attribute '" + attribute + "'");
+        }
+        return index.getValueExtractor();
+    }
+
+    /**
+     * Find the single-column index backing an attribute
+     */
+    private Index<T, K, Object> findIndex(String attribute) {
+        Index<T, K, Object> index = indexManager.getIndex(attribute);
+        return index instanceof MultiColumnIndex ? null : index;
+    }
+}
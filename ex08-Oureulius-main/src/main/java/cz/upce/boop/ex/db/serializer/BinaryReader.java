@@ -0,0 +1,139 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields written by a {@link BinaryWriter}, in the same order.
+ *
+ * A reader wraps a buffer that is reused for the next entity, so it is only
+ * valid during the call it is passed to and must not be kept.
+ */
+public final class BinaryReader {
+
+    private ByteBuffer data;
+    // Strings are copied here before decoding, the data may be a direct buffer
+    private byte[] scratch = new byte[256];
+
+    BinaryReader() {
+    }
+
+    void reset(ByteBuffer data) {
+        this.data = data;
+    }
+
+    /**
+     * Read a signed integer
+     *
+     * @return The value
+     * @throws DatabaseException if the data ends or is malformed
+     */
+    public int readInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read a signed long
+     *
+     * @return The value
+     * @throws DatabaseException if the data ends or is malformed
+     */
+    public long readLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read an unsigned varint
+     *
+     * @return The value
+     * @throws DatabaseException if the data ends or is malformed
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new DatabaseException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned varint long
+     *
+     * @return The value
+     * @throws DatabaseException if the data ends or is malformed
+     */
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new DatabaseException("Malformed varint");
+    }
+
+    /**
+     * Read a boolean
+     *
+     * @return The value
+     * @throws DatabaseException if the data ends
+     */
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    /**
+     * Read a string
+     *
+     * @return The value, which may be null
+     * @throws DatabaseException if the data ends or is malformed
+     */
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > data.remaining()) {
+            throw new DatabaseException("Unexpected end of binary data");
+        }
+
+        if (data.hasArray()) {
+            String value = new String(data.array(), data.arrayOffset() + data.position(), length,
+                    StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+            return value;
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        data.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check whether more fields follow, for example fields added in a later
+     * version of the layout
+     *
+     * @return true if there is unread data, false otherwise
+     */
+    public boolean hasRemaining() {
+        return data.hasRemaining();
+    }
+
+    byte readByte() {
+        if (!data.hasRemaining()) {
+            throw new DatabaseException("Unexpected end of binary data");
+        }
+        return data.get();
+    }
+}
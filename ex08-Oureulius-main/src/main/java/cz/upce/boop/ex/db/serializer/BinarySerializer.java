@@ -0,0 +1,120 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.EntitySerializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Base class for serializers storing entities in a compact binary layout.
+ *
+ * Every record starts with a marker byte that never occurs in UTF-8 text,
+ * followed by the layout version as a varint. The fields follow in the order
+ * the subclass writes them, without any key names: integers as varints and
+ * strings as length-prefixed UTF-8. To evolve the layout, append fields,
+ * raise the version and let {@link #read} skip the fields a record of an
+ * older version does not have.
+ *
+ * The repository writes and reads the bytes directly. The string form of
+ * {@link #serialize} is the Base64 encoding of the same bytes.
+ *
+ * @param <T> The entity type
+ */
+public abstract class BinarySerializer<T extends DatabaseEntity<?>> implements EntitySerializer<T> {
+
+    // 0xFE is not valid in UTF-8, so a binary record is never mistaken for a text one
+    private static final byte MARKER = (byte) 0xFE;
+
+    private final int version;
+    private final ThreadLocal<BinaryWriter> writers = ThreadLocal.withInitial(BinaryWriter::new);
+    private final ThreadLocal<BinaryReader> readers = ThreadLocal.withInitial(BinaryReader::new);
+
+    /**
+     * Create a serializer
+     *
+     * @param version The version of the layout written by {@link #write}
+     */
+    protected BinarySerializer(int version) {
+        if (version < 0) {
+            throw new IllegalArgumentException("Version cannot be negative");
+        }
+        this.version = version;
+    }
+
+    /**
+     * Write the fields of an entity
+     *
+     * @param entity The entity to write
+     * @param out The writer
+     */
+    protected abstract void write(T entity, BinaryWriter out);
+
+    /**
+     * Read the fields of an entity in the order {@link #write} wrote them
+     *
+     * @param in The reader
+     * @param version The layout version of the record, at most the current
+     * one
+     * @return The entity
+     */
+    protected abstract T read(BinaryReader in, int version);
+
+    @Override
+    public ByteBuffer serializeToBytes(T entity) {
+        BinaryWriter writer = writers.get();
+        writer.reset();
+        writer.writeByte(MARKER);
+        writer.writeVarInt(version);
+        write(entity, writer);
+        return writer.toByteBuffer();
+    }
+
+    @Override
+    public T deserialize(ByteBuffer data) {
+        BinaryReader reader = readers.get();
+        reader.reset(data);
+        if (!data.hasRemaining() || reader.readByte() != MARKER) {
+            throw new DatabaseException("Not a binary record");
+        }
+
+        int recordVersion = reader.readVarInt();
+        if (recordVersion > version) {
+            throw new DatabaseException("Record version " + recordVersion + " is newer than version " + version);
+        }
+        return read(reader, recordVersion);
+    }
+
+    @Override
+    public String serialize(T entity) {
+        ByteBuffer bytes = serializeToBytes(entity);
+        return Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes.array(), bytes.position(), bytes.limit()));
+    }
+
+    @Override
+    public T deserialize(String data) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException("Not a binary record", e);
+        }
+        return deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public T deserialize(CharSequence data) {
+        return deserialize(data.toString());
+    }
+
+    /**
+     * Get the version of the layout written by this serializer
+     *
+     * @return The version
+     */
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,151 @@
+package cz.upce.boop.ex.db.serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the fields of an entity for a {@link BinarySerializer}.
+ *
+ * Integers are written as varints, seven bits per byte, so small values take
+ * a single byte. Signed values are zigzag encoded first, so small negative
+ * values are short as well. Strings are written as their UTF-8 length
+ * followed by the bytes, with null written as a zero length.
+ */
+public final class BinaryWriter {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int position;
+
+    BinaryWriter() {
+    }
+
+    /**
+     * Write a signed integer
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeInt(int value) {
+        return writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Write a signed long
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeLong(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Write an integer as an unsigned varint. Negative values take five
+     * bytes, so use {@link #writeInt} for values that may be negative.
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Write a long as an unsigned varint
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Write a boolean as one byte
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) (value ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * Write a string, which may be null, as length-prefixed UTF-8
+     *
+     * @param value The value
+     * @return The writer
+     */
+    public BinaryWriter writeString(String value) {
+        if (value == null) {
+            return writeVarInt(0);
+        }
+
+        int length = value.length();
+        if (isAscii(value)) {
+            // One byte per character, written without an intermediate array
+            writeVarInt(length + 1);
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    void writeByte(byte value) {
+        ensureCapacity(1);
+        buffer[position++] = value;
+    }
+
+    void reset() {
+        position = 0;
+    }
+
+    /**
+     * Get the written bytes. The buffer wraps the writer's array, so it is
+     * only valid until the writer is reset.
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, position);
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+        }
+    }
+}
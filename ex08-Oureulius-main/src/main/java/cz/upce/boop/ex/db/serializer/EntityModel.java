@@ -0,0 +1,789 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.PrimaryKey;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Properties of an entity class, inspected once by the
+ * {@link SerializerFactory}.
+ *
+ * Every getter, setter and constructor is bound with
+ * {@link LambdaMetafactory}, so reading or writing a property is a plain
+ * interface call into a generated class, without reflection, and int, long
+ * and boolean values are never boxed for beans.
+ *
+ * @param <T> The entity type
+ */
+final class EntityModel<T> {
+
+    private final Class<T> type;
+    private final Property<T>[] properties;
+    // Exactly one of these is set, records are created from all their values at once
+    private final Supplier<T> constructor;
+    private final MethodHandle canonicalConstructor;
+
+    private EntityModel(Class<T> type, Property<T>[] properties, Supplier<T> constructor,
+            MethodHandle canonicalConstructor) {
+        this.type = type;
+        this.properties = properties;
+        this.constructor = constructor;
+        this.canonicalConstructor = canonicalConstructor;
+    }
+
+    /**
+     * Inspect an entity class. Records use their components in declaration
+     * order. Beans use every property with a public getter and a matching
+     * setter, the id first and the rest in alphabetical order, and need a
+     * public constructor without parameters.
+     *
+     * @throws DatabaseException if the class or a property type is not
+     * supported
+     */
+    static <T> EntityModel<T> of(Class<T> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            throw new DatabaseException("Cannot generate serializer for abstract type " + type.getName());
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            return type.isRecord() ? ofRecord(type, lookup) : ofBean(type, lookup);
+        } catch (DatabaseException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DatabaseException("Cannot generate serializer for " + type.getName(), e);
+        }
+    }
+
+    private static <T> EntityModel<T> ofRecord(Class<T> type, MethodHandles.Lookup lookup) throws Throwable {
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] parameterTypes = new Class<?>[components.length];
+        List<Property<T>> properties = new ArrayList<>();
+        for (int i = 0; i < components.length; i++) {
+            parameterTypes[i] = components[i].getType();
+            properties.add(property(lookup, type, components[i].getName(),
+                    lookup.unreflect(components[i].getAccessor()), null));
+        }
+
+        MethodHandle canonical = lookup.unreflectConstructor(type.getDeclaredConstructor(parameterTypes))
+                .asSpreader(Object[].class, components.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        return new EntityModel<>(type, toArray(properties), null, canonical);
+    }
+
+    private static <T> EntityModel<T> ofBean(Class<T> type, MethodHandles.Lookup lookup) throws Throwable {
+        Constructor<T> noArgs;
+        try {
+            noArgs = type.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new DatabaseException("No public constructor without parameters in " + type.getName(), e);
+        }
+        Supplier<T> constructor = bind(lookup, Supplier.class, "get", MethodType.methodType(Object.class),
+                lookup.unreflectConstructor(noArgs), MethodType.methodType(type));
+
+        Map<String, Property<T>> byName = new TreeMap<>();
+        for (Method getter : type.getMethods()) {
+            String suffix = getterSuffix(getter);
+            if (suffix == null) {
+                continue;
+            }
+            Method setter;
+            try {
+                setter = type.getMethod("set" + suffix, getter.getReturnType());
+            } catch (NoSuchMethodException e) {
+                // Read-only property
+                continue;
+            }
+            String name = propertyName(suffix);
+            byName.put(name, property(lookup, type, name, lookup.unreflect(getter), lookup.unreflect(setter)));
+        }
+
+        List<Property<T>> properties = new ArrayList<>();
+        Property<T> id = byName.remove("id");
+        if (id != null) {
+            properties.add(id);
+        }
+        properties.addAll(byName.values());
+        return new EntityModel<>(type, toArray(properties), constructor, null);
+    }
+
+    /**
+     * Get the part of a getter name after "get" or "is", or null if the
+     * method is not a getter
+     */
+    private static String getterSuffix(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.isSynthetic()
+                || method.getParameterCount() != 0 || method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+        String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class) {
+            return name.substring(3);
+        }
+        if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+            return name.substring(2);
+        }
+        return null;
+    }
+
+    /**
+     * Decapitalize the way the JavaBeans convention does, so "FirstName"
+     * becomes "firstName" but "URL" stays "URL"
+     */
+    private static String propertyName(String suffix) {
+        if (suffix.length() > 1 && Character.isUpperCase(suffix.charAt(1))) {
+            return suffix;
+        }
+        return Character.toLowerCase(suffix.charAt(0)) + suffix.substring(1);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T> Property<T>[] toArray(List<Property<T>> properties) {
+        return properties.toArray(new Property[0]);
+    }
+
+    /**
+     * Bind the accessors of one property to the interfaces matching its type
+     *
+     * @param setter The setter, null for record components
+     */
+    private static <T> Property<T> property(MethodHandles.Lookup lookup, Class<T> type, String name,
+            MethodHandle getter, MethodHandle setter) throws Throwable {
+        Class<?> valueType = getter.type().returnType();
+
+        if (valueType == int.class) {
+            ToIntFunction<T> get = bind(lookup, ToIntFunction.class, "applyAsInt",
+                    MethodType.methodType(int.class, Object.class), getter, getter.type());
+            ObjIntConsumer<T> set = setter == null ? null : bind(lookup, ObjIntConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, int.class), setter, setter.type());
+            return new IntProperty<>(name, get, set);
+        }
+        if (valueType == long.class) {
+            ToLongFunction<T> get = bind(lookup, ToLongFunction.class, "applyAsLong",
+                    MethodType.methodType(long.class, Object.class), getter, getter.type());
+            ObjLongConsumer<T> set = setter == null ? null : bind(lookup, ObjLongConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, long.class), setter, setter.type());
+            return new LongProperty<>(name, get, set);
+        }
+        if (valueType == boolean.class) {
+            Predicate<T> get = bind(lookup, Predicate.class, "test",
+                    MethodType.methodType(boolean.class, Object.class), getter, getter.type());
+            ObjBooleanConsumer<T> set = setter == null ? null : bind(lookup, ObjBooleanConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, boolean.class), setter, setter.type());
+            return new BooleanProperty<>(name, get, set);
+        }
+
+        Codec codec = codec(lookup, valueType);
+        if (codec == null) {
+            throw new DatabaseException("Unsupported type " + valueType.getName() + " of property " + name
+                    + " in " + type.getName());
+        }
+        Function<T, Object> get = bind(lookup, Function.class, "apply",
+                MethodType.methodType(Object.class, Object.class), getter, getter.type());
+        BiConsumer<T, Object> set = setter == null ? null : bind(lookup, BiConsumer.class, "accept",
+                MethodType.methodType(void.class, Object.class, Object.class), setter, setter.type());
+        return new ObjectProperty<>(name, codec, get, set);
+    }
+
+    /**
+     * Generate an implementation of a functional interface calling the given
+     * method handle directly
+     */
+    @SuppressWarnings("unchecked")
+    private static <F> F bind(MethodHandles.Lookup lookup, Class<?> functionalInterface, String methodName,
+            MethodType erasedType, MethodHandle implementation, MethodType instantiatedType) throws Throwable {
+        return (F) LambdaMetafactory.metafactory(lookup, methodName, MethodType.methodType(functionalInterface),
+                erasedType, implementation, instantiatedType).getTarget().invoke();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Codec codec(MethodHandles.Lookup lookup, Class<?> valueType) throws Throwable {
+        if (valueType == String.class) {
+            return Codec.STRING;
+        }
+        if (valueType == Integer.class) {
+            return Codec.INTEGER;
+        }
+        if (valueType == Long.class) {
+            return Codec.LONG;
+        }
+        if (valueType == Boolean.class) {
+            return Codec.BOOLEAN;
+        }
+        if (valueType.isEnum()) {
+            return new EnumCodec((Class<? extends Enum>) valueType);
+        }
+        if (PrimaryKey.class.isAssignableFrom(valueType) && !Modifier.isAbstract(valueType.getModifiers())) {
+            return keyCodec(lookup, valueType);
+        }
+        return null;
+    }
+
+    private static Codec keyCodec(MethodHandles.Lookup lookup, Class<?> keyType) throws Throwable {
+        try {
+            MethodHandle constructor = lookup.findConstructor(keyType, MethodType.methodType(void.class, String.class));
+            Function<String, Object> create = bind(lookup, Function.class, "apply",
+                    MethodType.methodType(Object.class, Object.class), constructor, constructor.type());
+            return new KeyCodec(create, null);
+        } catch (NoSuchMethodException e) {
+            // Not a string key, try an int key
+        }
+        try {
+            MethodHandle constructor = lookup.findConstructor(keyType, MethodType.methodType(void.class, int.class));
+            IntFunction<Object> create = bind(lookup, IntFunction.class, "apply",
+                    MethodType.methodType(Object.class, int.class), constructor, constructor.type());
+            return new KeyCodec(null, create);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the property names, which are the keys of the text format
+     */
+    String[] names() {
+        String[] names = new String[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = properties[i].name;
+        }
+        return names;
+    }
+
+    /**
+     * Append "name=value" lines, leaving out null values
+     */
+    void writeText(T entity, StringBuilder out) {
+        for (Property<T> property : properties) {
+            property.appendText(entity, out);
+        }
+    }
+
+    /**
+     * Create an entity from values located by a schema of {@link #names()},
+     * so the slot of every property is its position. Missing keys leave the
+     * default value.
+     */
+    T fromText(RecordView record) {
+        if (constructor != null) {
+            T entity = constructor.get();
+            for (int i = 0; i < properties.length; i++) {
+                properties[i].readText(record, i, entity);
+            }
+            return entity;
+        }
+
+        Object[] values = new Object[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            values[i] = properties[i].textValue(record, i);
+        }
+        return construct(values);
+    }
+
+    void writeBinary(T entity, BinaryWriter out) {
+        for (Property<T> property : properties) {
+            property.write(entity, out);
+        }
+    }
+
+    /**
+     * Create an entity from the fields written by {@link #writeBinary}. A
+     * record that ends early leaves the remaining properties at their default
+     * value.
+     */
+    T fromBinary(BinaryReader in) {
+        if (constructor != null) {
+            T entity = constructor.get();
+            for (int i = 0; i < properties.length && in.hasRemaining(); i++) {
+                properties[i].read(in, entity);
+            }
+            return entity;
+        }
+
+        Object[] values = new Object[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            values[i] = in.hasRemaining() ? properties[i].readValue(in) : properties[i].defaultValue();
+        }
+        return construct(values);
+    }
+
+    private T construct(Object[] values) {
+        try {
+            return type.cast((Object) canonicalConstructor.invokeExact(values));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DatabaseException("Cannot create " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Setter of a boolean property. The JDK has no primitive consumer for
+     * booleans, and binding a setter to {@link BiConsumer} would box every
+     * value. It is public because the bound implementation is generated in
+     * the package of the entity class.
+     *
+     * @param <T> The entity type
+     */
+    @FunctionalInterface
+    public interface ObjBooleanConsumer<T> {
+
+        void accept(T entity, boolean value);
+    }
+
+    /**
+     * Reads and writes one property. Setters are null for record components,
+     * whose values are collected and passed to the canonical constructor.
+     */
+    private abstract static class Property<T> {
+
+        final String name;
+
+        Property(String name) {
+            this.name = name;
+        }
+
+        abstract void appendText(T entity, StringBuilder out);
+
+        abstract void readText(RecordView record, int slot, T entity);
+
+        abstract Object textValue(RecordView record, int slot);
+
+        abstract void write(T entity, BinaryWriter out);
+
+        abstract void read(BinaryReader in, T entity);
+
+        abstract Object readValue(BinaryReader in);
+
+        abstract Object defaultValue();
+    }
+
+    private static final class IntProperty<T> extends Property<T> {
+
+        private final ToIntFunction<T> getter;
+        private final ObjIntConsumer<T> setter;
+
+        IntProperty(String name, ToIntFunction<T> getter, ObjIntConsumer<T> setter) {
+            super(name);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        void appendText(T entity, StringBuilder out) {
+            out.append(name).append('=').append(getter.applyAsInt(entity)).append('\n');
+        }
+
+        @Override
+        void readText(RecordView record, int slot, T entity) {
+            if (record.has(slot)) {
+                setter.accept(entity, record.getInt(slot));
+            }
+        }
+
+        @Override
+        Object textValue(RecordView record, int slot) {
+            return record.getInt(slot, 0);
+        }
+
+        @Override
+        void write(T entity, BinaryWriter out) {
+            out.writeInt(getter.applyAsInt(entity));
+        }
+
+        @Override
+        void read(BinaryReader in, T entity) {
+            setter.accept(entity, in.readInt());
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return in.readInt();
+        }
+
+        @Override
+        Object defaultValue() {
+            return 0;
+        }
+    }
+
+    private static final class LongProperty<T> extends Property<T> {
+
+        private final ToLongFunction<T> getter;
+        private final ObjLongConsumer<T> setter;
+
+        LongProperty(String name, ToLongFunction<T> getter, ObjLongConsumer<T> setter) {
+            super(name);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        void appendText(T entity, StringBuilder out) {
+            out.append(name).append('=').append(getter.applyAsLong(entity)).append('\n');
+        }
+
+        @Override
+        void readText(RecordView record, int slot, T entity) {
+            if (record.has(slot)) {
+                setter.accept(entity, record.getLong(slot));
+            }
+        }
+
+        @Override
+        Object textValue(RecordView record, int slot) {
+            return record.has(slot) ? record.getLong(slot) : 0L;
+        }
+
+        @Override
+        void write(T entity, BinaryWriter out) {
+            out.writeLong(getter.applyAsLong(entity));
+        }
+
+        @Override
+        void read(BinaryReader in, T entity) {
+            setter.accept(entity, in.readLong());
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return in.readLong();
+        }
+
+        @Override
+        Object defaultValue() {
+            return 0L;
+        }
+    }
+
+    private static final class BooleanProperty<T> extends Property<T> {
+
+        private final Predicate<T> getter;
+        private final ObjBooleanConsumer<T> setter;
+
+        BooleanProperty(String name, Predicate<T> getter, ObjBooleanConsumer<T> setter) {
+            super(name);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        void appendText(T entity, StringBuilder out) {
+            out.append(name).append('=').append(getter.test(entity)).append('\n');
+        }
+
+        @Override
+        void readText(RecordView record, int slot, T entity) {
+            if (record.has(slot)) {
+                setter.accept(entity, Boolean.parseBoolean(record.get(slot)));
+            }
+        }
+
+        @Override
+        Object textValue(RecordView record, int slot) {
+            return record.has(slot) && Boolean.parseBoolean(record.get(slot));
+        }
+
+        @Override
+        void write(T entity, BinaryWriter out) {
+            out.writeBoolean(getter.test(entity));
+        }
+
+        @Override
+        void read(BinaryReader in, T entity) {
+            setter.accept(entity, in.readBoolean());
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return in.readBoolean();
+        }
+
+        @Override
+        Object defaultValue() {
+            return false;
+        }
+    }
+
+    private static final class ObjectProperty<T> extends Property<T> {
+
+        private final Codec codec;
+        private final Function<T, Object> getter;
+        private final BiConsumer<T, Object> setter;
+
+        ObjectProperty(String name, Codec codec, Function<T, Object> getter, BiConsumer<T, Object> setter) {
+            super(name);
+            this.codec = codec;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        void appendText(T entity, StringBuilder out) {
+            Object value = getter.apply(entity);
+            if (value != null) {
+                out.append(name).append('=').append(codec.toText(value)).append('\n');
+            }
+        }
+
+        @Override
+        void readText(RecordView record, int slot, T entity) {
+            String text = record.get(slot);
+            if (text != null) {
+                setter.accept(entity, codec.fromText(name, text));
+            }
+        }
+
+        @Override
+        Object textValue(RecordView record, int slot) {
+            String text = record.get(slot);
+            return text == null ? null : codec.fromText(name, text);
+        }
+
+        @Override
+        void write(T entity, BinaryWriter out) {
+            codec.write(getter.apply(entity), out);
+        }
+
+        @Override
+        void read(BinaryReader in, T entity) {
+            setter.accept(entity, codec.read(in));
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return codec.read(in);
+        }
+
+        @Override
+        Object defaultValue() {
+            return null;
+        }
+    }
+
+    /**
+     * Converts the values of an object property. Null values are written as
+     * an absent flag in the binary format and left out of the text format.
+     */
+    private abstract static class Codec {
+
+        static final Codec STRING = new Codec() {
+            @Override
+            String toText(Object value) {
+                return (String) value;
+            }
+
+            @Override
+            Object fromText(String property, String text) {
+                return text;
+            }
+
+            @Override
+            void write(Object value, BinaryWriter out) {
+                // Strings carry their own null marker
+                out.writeString((String) value);
+            }
+
+            @Override
+            Object read(BinaryReader in) {
+                return in.readString();
+            }
+
+            @Override
+            void writeValue(Object value, BinaryWriter out) {
+                out.writeString((String) value);
+            }
+
+            @Override
+            Object readValue(BinaryReader in) {
+                return in.readString();
+            }
+        };
+
+        static final Codec INTEGER = new Codec() {
+            @Override
+            Object fromText(String property, String text) {
+                try {
+                    return Integer.valueOf(text);
+                } catch (NumberFormatException e) {
+                    throw new DatabaseException("Invalid integer format for key: " + property, e);
+                }
+            }
+
+            @Override
+            void writeValue(Object value, BinaryWriter out) {
+                out.writeInt((Integer) value);
+            }
+
+            @Override
+            Object readValue(BinaryReader in) {
+                return in.readInt();
+            }
+        };
+
+        static final Codec LONG = new Codec() {
+            @Override
+            Object fromText(String property, String text) {
+                try {
+                    return Long.valueOf(text);
+                } catch (NumberFormatException e) {
+                    throw new DatabaseException("Invalid long format for key: " + property, e);
+                }
+            }
+
+            @Override
+            void writeValue(Object value, BinaryWriter out) {
+                out.writeLong((Long) value);
+            }
+
+            @Override
+            Object readValue(BinaryReader in) {
+                return in.readLong();
+            }
+        };
+
+        static final Codec BOOLEAN = new Codec() {
+            @Override
+            Object fromText(String property, String text) {
+                return Boolean.valueOf(text);
+            }
+
+            @Override
+            void writeValue(Object value, BinaryWriter out) {
+                out.writeBoolean((Boolean) value);
+            }
+
+            @Override
+            Object readValue(BinaryReader in) {
+                return in.readBoolean();
+            }
+        };
+
+        String toText(Object value) {
+            return value.toString();
+        }
+
+        abstract Object fromText(String property, String text);
+
+        abstract void writeValue(Object value, BinaryWriter out);
+
+        abstract Object readValue(BinaryReader in);
+
+        void write(Object value, BinaryWriter out) {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                writeValue(value, out);
+            }
+        }
+
+        Object read(BinaryReader in) {
+            return in.readBoolean() ? readValue(in) : null;
+        }
+    }
+
+    /**
+     * Stores an enum constant by name, so reordering the constants keeps old
+     * records readable
+     */
+    private static final class EnumCodec extends Codec {
+
+        @SuppressWarnings("rawtypes")
+        private final Class<? extends Enum> enumType;
+
+        @SuppressWarnings("rawtypes")
+        EnumCodec(Class<? extends Enum> enumType) {
+            this.enumType = enumType;
+        }
+
+        @Override
+        String toText(Object value) {
+            return ((Enum<?>) value).name();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object fromText(String property, String text) {
+            try {
+                return Enum.valueOf(enumType, text);
+            } catch (IllegalArgumentException e) {
+                throw new DatabaseException("Invalid value " + text + " for key: " + property, e);
+            }
+        }
+
+        @Override
+        void writeValue(Object value, BinaryWriter out) {
+            out.writeString(((Enum<?>) value).name());
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return fromText("enum", in.readString());
+        }
+    }
+
+    /**
+     * Stores a primary key by its value, using the key's constructor taking
+     * either a String or an int
+     */
+    private static final class KeyCodec extends Codec {
+
+        private final Function<String, Object> stringConstructor;
+        private final IntFunction<Object> intConstructor;
+
+        KeyCodec(Function<String, Object> stringConstructor, IntFunction<Object> intConstructor) {
+            this.stringConstructor = stringConstructor;
+            this.intConstructor = intConstructor;
+        }
+
+        @Override
+        String toText(Object value) {
+            return String.valueOf(((PrimaryKey<?>) value).getValue());
+        }
+
+        @Override
+        Object fromText(String property, String text) {
+            if (stringConstructor != null) {
+                return stringConstructor.apply(text);
+            }
+            try {
+                return intConstructor.apply(Integer.parseInt(text));
+            } catch (NumberFormatException e) {
+                throw new DatabaseException("Invalid integer format for key: " + property, e);
+            }
+        }
+
+        @Override
+        void writeValue(Object value, BinaryWriter out) {
+            Object key = ((PrimaryKey<?>) value).getValue();
+            if (stringConstructor != null) {
+                out.writeString((String) key);
+            } else {
+                out.writeInt((Integer) key);
+            }
+        }
+
+        @Override
+        Object readValue(BinaryReader in) {
+            return stringConstructor != null ? stringConstructor.apply(in.readString()) : intConstructor.apply(in.readInt());
+        }
+    }
+}
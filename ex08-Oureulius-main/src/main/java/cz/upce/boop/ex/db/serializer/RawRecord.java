@@ -0,0 +1,199 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a serialized entity in the "key=value" text format, used
+ * to filter and project entities without deserializing them.
+ *
+ * Values are located on demand directly in the file content: nothing is
+ * parsed up front and only the requested values are allocated. Lines are
+ * interpreted exactly as {@link SerializedEntity#fromFileContent} does, so the
+ * first line with a given key wins.
+ *
+ * A record wraps a buffer that is reused for the next file, so it is only
+ * valid during the call it is passed to and must not be kept.
+ */
+public final class RawRecord {
+
+    private final CharSequence content;
+
+    /**
+     * Create a view of serialized content
+     *
+     * @param content The serialized entity
+     */
+    public RawRecord(CharSequence content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the value of a key
+     *
+     * @param key The key
+     * @return The value, or null if the key is not present
+     */
+    public String get(String key) {
+        long range = find(key);
+        if (range < 0) {
+            return null;
+        }
+        return RecordView.substring(content, start(range), end(range));
+    }
+
+    /**
+     * Get the integer value of a key, without allocating a string
+     *
+     * @param key The key
+     * @return The integer value
+     * @throws DatabaseException if the key is not present or the value is not
+     * a valid integer
+     */
+    public int getInt(String key) {
+        long range = find(key);
+        if (range < 0) {
+            throw new DatabaseException("Key not found: " + key);
+        }
+
+        int start = start(range);
+        int end = end(range);
+        try {
+            return Integer.parseInt(content, start, end, 10);
+        } catch (NumberFormatException e) {
+            throw new DatabaseException("Invalid integer format for key: " + key, e);
+        }
+    }
+
+    /**
+     * Check if a key is present
+     *
+     * @param key The key
+     * @return true if the key is present, false otherwise
+     */
+    public boolean containsKey(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Compare the value of a key with the expected characters, without
+     * allocating a string
+     *
+     * @param key The key
+     * @param expected The expected value
+     * @return true if the key is present and its value equals the expected
+     * one, false otherwise
+     */
+    public boolean valueEquals(String key, CharSequence expected) {
+        long range = find(key);
+        if (range < 0) {
+            return false;
+        }
+
+        int start = start(range);
+        int length = end(range) - start;
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (content.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the values of some keys out of the record. Missing keys map to
+     * null.
+     *
+     * @param keys The keys to copy
+     * @return The values by key, in the order of the keys
+     */
+    public Map<String, String> project(String... keys) {
+        Map<String, String> projection = new LinkedHashMap<>(keys.length * 2);
+        for (String key : keys) {
+            projection.put(key, get(key));
+        }
+        return projection;
+    }
+
+    /**
+     * Locate the value of a key, trimming lines the same way as
+     * {@link SerializedEntity#fromFileContent}
+     *
+     * @return The value start and end packed into a long, or -1 if the key is
+     * not present
+     */
+    private long find(String key) {
+        int length = content.length();
+        int lineStart = 0;
+
+        while (lineStart < length) {
+            int lineEnd = lineEnd(lineStart, length);
+            long range = matchLine(key, lineStart, lineEnd);
+            if (range >= 0) {
+                return range;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return -1;
+    }
+
+    private int lineEnd(int from, int length) {
+        int lineEnd = from;
+        while (lineEnd < length && content.charAt(lineEnd) != '\n') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Locate the value of a key on one line
+     *
+     * @return The value start and end packed into a long, or -1 if the line
+     * has another key
+     */
+    private long matchLine(String key, int lineStart, int lineEnd) {
+        int keyLength = key.length();
+        int start = lineStart;
+        while (start < lineEnd && content.charAt(start) <= ' ') {
+            start++;
+        }
+        int equalsPos = start + keyLength;
+        if (equalsPos >= lineEnd || content.charAt(equalsPos) != '=' || keyLength == 0
+                || !regionMatches(start, key)) {
+            return -1;
+        }
+        int end = lineEnd;
+        while (end > equalsPos + 1 && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return ((long) (equalsPos + 1) << 32) | end;
+    }
+
+    private boolean regionMatches(int start, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (content.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        // The key must be the text before the first '=' of the line
+        return key.indexOf('=') < 0;
+    }
+
+    private static int start(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int end(long range) {
+        return (int) range;
+    }
+
+    @Override
+    public String toString() {
+        return content.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package cz.upce.boop.ex.db.serializer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed set of keys of a serialized entity, each bound to a slot.
+ *
+ * Keys are resolved to slots once, when the schema is created. Parsing
+ * locates the value of every known key in the "key=value" content and records
+ * only its offsets, so no string is allocated until a value is read. Lines
+ * are interpreted exactly as {@link SerializedEntity#fromFileContent} does,
+ * so the first line with a given key wins and unknown keys are ignored.
+ */
+public final class RecordSchema {
+
+    private final String[] keys;
+    private final Map<String, Integer> slots;
+    // Views reused by the serializer on each thread, see parseReusing
+    private final ThreadLocal<RecordView> reusableViews;
+
+    private RecordSchema(String[] keys) {
+        this.keys = keys;
+        this.slots = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].isEmpty() || keys[i].indexOf('=') >= 0 || slots.putIfAbsent(keys[i], i) != null) {
+                throw new IllegalArgumentException("Invalid or duplicate key: " + keys[i]);
+            }
+        }
+        this.reusableViews = ThreadLocal.withInitial(() -> new RecordView(this));
+    }
+
+    /**
+     * Creates a schema. Slots are numbered in the order of the keys, and
+     * parsing is fastest when the content lists the keys in that order.
+     *
+     * @param keys The keys
+     * @return The schema
+     * @throws IllegalArgumentException if a key is empty, contains '=' or is
+     * repeated
+     */
+    public static RecordSchema of(String... keys) {
+        return new RecordSchema(keys.clone());
+    }
+
+    /**
+     * Get the slot of a key
+     *
+     * @param key The key
+     * @return The slot
+     * @throws IllegalArgumentException if the key is not part of the schema
+     */
+    public int slot(String key) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            throw new IllegalArgumentException("Key not in schema: " + key);
+        }
+        return slot;
+    }
+
+    /**
+     * Get the key of a slot
+     *
+     * @param slot The slot
+     * @return The key
+     */
+    public String key(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Get the number of slots
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Parse serialized content. The view refers to the content, which must
+     * not change while the view is in use.
+     *
+     * @param content The serialized entity
+     * @return A view of the values of the known keys
+     */
+    public RecordView parse(CharSequence content) {
+        RecordView view = new RecordView(this);
+        view.reset(content);
+        locate(content, view.offsets);
+        return view;
+    }
+
+    /**
+     * Parse serialized content into the view of the calling thread, which is
+     * overwritten by the next call on the same thread
+     */
+    RecordView parseReusing(CharSequence content) {
+        RecordView view = reusableViews.get();
+        view.reset(content);
+        locate(content, view.offsets);
+        return view;
+    }
+
+    /**
+     * Fill the start and end offsets of every slot, -1 for missing keys
+     */
+    private void locate(CharSequence content, int[] offsets) {
+        Arrays.fill(offsets, -1);
+        int length = content.length();
+        int lineStart = 0;
+        // The slot after the last match, where the next line most likely belongs
+        int expected = 0;
+
+        while (lineStart < length) {
+            int lineEnd = indexOf(content, '\n', lineStart, length);
+            expected = locateLine(content, lineStart, lineEnd, offsets, expected);
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Record the value offsets of one "key=value" line, trimmed the same way
+     * String.trim() does
+     *
+     * @return The slot most likely used by the next line
+     */
+    private int locateLine(CharSequence content, int start, int end, int[] offsets, int expected) {
+        while (start < end && content.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int equalsPos = indexOf(content, '=', start, end);
+        if (equalsPos == start || equalsPos == end) {
+            return expected;
+        }
+        int slot = match(content, start, equalsPos, expected);
+        if (slot < 0 || offsets[2 * slot] >= 0) {
+            return expected;
+        }
+        offsets[2 * slot] = equalsPos + 1;
+        offsets[2 * slot + 1] = end;
+        return slot + 1;
+    }
+
+    private static int indexOf(CharSequence content, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find the slot of the key between start and end, trying the expected
+     * slot first
+     */
+    private int match(CharSequence content, int start, int end, int expected) {
+        if (expected < keys.length && regionEquals(content, start, end, keys[expected])) {
+            return expected;
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (slot != expected && regionEquals(content, start, end, keys[slot])) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(CharSequence content, int start, int end, String key) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (content.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
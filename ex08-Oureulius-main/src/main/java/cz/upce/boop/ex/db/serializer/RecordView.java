@@ -0,0 +1,128 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.nio.CharBuffer;
+
+/**
+ * Values of a serialized entity located by a {@link RecordSchema}.
+ *
+ * The view only holds the offsets of each value in the content, so reading a
+ * string value allocates that string and nothing else, and integers are
+ * parsed in place. A view handed to a {@link SchemaTextSerializer} is reused
+ * for the next entity and must not be kept.
+ */
+public final class RecordView {
+
+    private final RecordSchema schema;
+    // Start and end of the value of each slot, -1 if the key is missing
+    final int[] offsets;
+    private CharSequence content;
+
+    RecordView(RecordSchema schema) {
+        this.schema = schema;
+        this.offsets = new int[2 * schema.size()];
+    }
+
+    void reset(CharSequence content) {
+        this.content = content;
+    }
+
+    /**
+     * Check if the key of a slot is present
+     *
+     * @param slot The slot
+     * @return true if the key is present, false otherwise
+     */
+    public boolean has(int slot) {
+        return offsets[2 * slot] >= 0;
+    }
+
+    /**
+     * Get the value of a slot
+     *
+     * @param slot The slot
+     * @return The value, or null if the key is missing
+     */
+    public String get(int slot) {
+        int start = offsets[2 * slot];
+        if (start < 0) {
+            return null;
+        }
+        return substring(content, start, offsets[2 * slot + 1]);
+    }
+
+    /**
+     * Get the integer value of a slot, without allocating a string
+     *
+     * @param slot The slot
+     * @return The integer value
+     * @throws DatabaseException if the key is missing or the value is not a
+     * valid integer
+     */
+    public int getInt(int slot) {
+        int start = offsets[2 * slot];
+        if (start < 0) {
+            throw new DatabaseException("Key not found: " + schema.key(slot));
+        }
+        try {
+            return Integer.parseInt(content, start, offsets[2 * slot + 1], 10);
+        } catch (NumberFormatException e) {
+            throw new DatabaseException("Invalid integer format for key: " + schema.key(slot), e);
+        }
+    }
+
+    /**
+     * Get the integer value of a slot, or a default if the key is missing
+     *
+     * @param slot The slot
+     * @param defaultValue The value returned if the key is missing
+     * @return The integer value
+     * @throws DatabaseException if the value is not a valid integer
+     */
+    public int getInt(int slot, int defaultValue) {
+        return has(slot) ? getInt(slot) : defaultValue;
+    }
+
+    /**
+     * Get the long value of a slot, without allocating a string
+     *
+     * @param slot The slot
+     * @return The long value
+     * @throws DatabaseException if the key is missing or the value is not a
+     * valid long
+     */
+    public long getLong(int slot) {
+        int start = offsets[2 * slot];
+        if (start < 0) {
+            throw new DatabaseException("Key not found: " + schema.key(slot));
+        }
+        try {
+            return Long.parseLong(content, start, offsets[2 * slot + 1], 10);
+        } catch (NumberFormatException e) {
+            throw new DatabaseException("Invalid long format for key: " + schema.key(slot), e);
+        }
+    }
+
+    /**
+     * Copy characters out of the content without an intermediate view
+     */
+    static String substring(CharSequence content, int start, int end) {
+        if (content instanceof String string) {
+            return string.substring(start, end);
+        }
+        if (content instanceof CharBuffer buffer && buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position() + start, end - start);
+        }
+        return content.subSequence(start, end).toString();
+    }
+
+    /**
+     * Get the schema that located the values
+     *
+     * @return The schema
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+}
@@ -0,0 +1,60 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+
+/**
+ * Text serializer whose keys are known up front.
+ *
+ * Deserialization locates the values with a {@link RecordSchema} instead of
+ * building a {@link SerializedEntity}, so reading an entity allocates little
+ * more than its field values. The file format is the same as that of any
+ * {@link TextSerializer}.
+ *
+ * @param <T> The entity type
+ */
+public abstract class SchemaTextSerializer<T extends DatabaseEntity<?>> extends TextSerializer<T> {
+
+    private final RecordSchema schema;
+
+    /**
+     * Create a serializer
+     *
+     * @param schema The keys written by {@link #objectToSerializedEntity}
+     */
+    protected SchemaTextSerializer(RecordSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Convert located values to an entity. The view is reused for the next
+     * entity, so it must not be kept.
+     *
+     * @param record The values of the entity
+     * @return The entity
+     */
+    protected abstract T recordToObject(RecordView record);
+
+    /**
+     * Get the schema of the serialized entities
+     *
+     * @return The schema
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    protected T serializedEntityToObject(SerializedEntity serialized) {
+        return recordToObject(schema.parse(serialized.toFileContent()));
+    }
+
+    @Override
+    public T deserialize(String data) {
+        return recordToObject(schema.parseReusing(data));
+    }
+
+    @Override
+    public T deserialize(CharSequence data) {
+        return recordToObject(schema.parseReusing(data));
+    }
+}
@@ -52,15 +52,17 @@ public record SerializedEntity(List<KeyValuePair> pairs) {
     }
 
     public SerializedEntity extractOptionalValue(String key, Consumer<String> consumer) {
-        if (containsKey(key)) {
-            consumer.accept(getValue(key));
+        String value = getValue(key);
+        if (value != null) {
+            consumer.accept(value);
         }
         return this;
     }
 
     public SerializedEntity extractOptionalIntValue(String key, Consumer<Integer> consumer) {
-        if (containsKey(key)) {
-            consumer.accept(getIntValue(key));
+        String value = getValue(key);
+        if (value != null) {
+            consumer.accept(parseInt(key, value));
         }
         return this;
     }
@@ -102,6 +104,10 @@ public record SerializedEntity(List<KeyValuePair> pairs) {
         if (value == null) {
             throw new DatabaseException("Key not found: " + key);
         }
+        return parseInt(key, value);
+    }
+
+    private static int parseInt(String key, String value) {
         try {
             return Integer.parseInt(value);
         } catch (NumberFormatException e) {
@@ -123,30 +129,59 @@ public record SerializedEntity(List<KeyValuePair> pairs) {
     }
 
     /**
-     * Creates a SerializedEntity from a string representation
+     * Creates a SerializedEntity from a string representation. Lines are
+     * located directly in the character sequence, so only the key and value
+     * strings of each pair are allocated.
      *
      * @param content The string representation of the entity
      * @return The deserialized entity
      */
-    public static SerializedEntity fromFileContent(String content) {
+    public static SerializedEntity fromFileContent(CharSequence content) {
         List<KeyValuePair> pairs = new ArrayList<>();
-        String[] lines = content.split("\n");
+        int length = content.length();
+        int lineStart = 0;
 
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty()) {
-                continue;
-            }
-
-            KeyValuePair pair = KeyValuePair.fromString(line);
+        while (lineStart < length) {
+            int lineEnd = indexOf(content, '\n', lineStart, length);
+            KeyValuePair pair = parseLine(content, lineStart, lineEnd);
             if (pair != null) {
                 pairs.add(pair);
             }
+            lineStart = lineEnd + 1;
         }
 
         return new SerializedEntity(pairs);
     }
 
+    /**
+     * Parses one "key=value" line, trimmed the same way String.trim() does
+     */
+    private static KeyValuePair parseLine(CharSequence content, int start, int end) {
+        while (start < end && content.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int equalsPos = indexOf(content, '=', start, end);
+        if (equalsPos == start || equalsPos == end) {
+            return null;
+        }
+        return new KeyValuePair(
+                content.subSequence(start, equalsPos).toString(),
+                content.subSequence(equalsPos + 1, end).toString());
+    }
+
+    private static int indexOf(CharSequence content, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
     /**
      * Builder class for SerializedEntity
      */
@@ -0,0 +1,109 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+/**
+ * Creates serializers for entity classes without hand-written mapping code.
+ *
+ * The entity class is inspected once, when the serializer is created. Beans
+ * contribute every property with a public getter and setter and need a
+ * public constructor without parameters; records contribute their components
+ * and are created through the canonical constructor. Supported property
+ * types are String, int, long, boolean, their wrapper types, enums and
+ * primary keys with a public constructor taking a String or an int.
+ *
+ * The accessors are bound with {@link java.lang.invoke.LambdaMetafactory}, so
+ * serializing an entity involves no reflection. Record components are
+ * written in declaration order, bean properties with the id first and the
+ * rest in alphabetical order. Null values are left out of the text format.
+ *
+ * <pre>
+ * EntitySerializer&lt;User&gt; serializer = SerializerFactory.text(User.class);
+ * </pre>
+ */
+public final class SerializerFactory {
+
+    private SerializerFactory() {
+    }
+
+    /**
+     * Create a serializer writing the "key=value" text format, with one key
+     * per property
+     *
+     * @param <T> The entity type
+     * @param type The entity class
+     * @return The serializer
+     * @throws DatabaseException if the class or one of its property types is
+     * not supported
+     */
+    public static <T extends DatabaseEntity<?>> SchemaTextSerializer<T> text(Class<T> type) {
+        return new GeneratedTextSerializer<>(EntityModel.of(type));
+    }
+
+    /**
+     * Create a serializer writing the binary format of a
+     * {@link BinarySerializer}. The fields carry no names, so adding, removing
+     * or renaming a property other than a record component appended at the
+     * end changes the layout of existing records.
+     *
+     * @param <T> The entity type
+     * @param type The entity class
+     * @param version The version of the layout
+     * @return The serializer
+     * @throws DatabaseException if the class or one of its property types is
+     * not supported
+     */
+    public static <T extends DatabaseEntity<?>> BinarySerializer<T> binary(Class<T> type, int version) {
+        return new GeneratedBinarySerializer<>(EntityModel.of(type), version);
+    }
+
+    private static final class GeneratedTextSerializer<T extends DatabaseEntity<?>> extends SchemaTextSerializer<T> {
+
+        private final EntityModel<T> model;
+        private final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(StringBuilder::new);
+
+        GeneratedTextSerializer(EntityModel<T> model) {
+            super(RecordSchema.of(model.names()));
+            this.model = model;
+        }
+
+        @Override
+        public String serialize(T entity) {
+            StringBuilder builder = builders.get();
+            builder.setLength(0);
+            model.writeText(entity, builder);
+            return builder.toString();
+        }
+
+        @Override
+        protected SerializedEntity objectToSerializedEntity(T entity) {
+            return SerializedEntity.fromFileContent(serialize(entity));
+        }
+
+        @Override
+        protected T recordToObject(RecordView record) {
+            return model.fromText(record);
+        }
+    }
+
+    private static final class GeneratedBinarySerializer<T extends DatabaseEntity<?>> extends BinarySerializer<T> {
+
+        private final EntityModel<T> model;
+
+        GeneratedBinarySerializer(EntityModel<T> model, int version) {
+            super(version);
+            this.model = model;
+        }
+
+        @Override
+        protected void write(T entity, BinaryWriter out) {
+            model.writeBinary(entity, out);
+        }
+
+        @Override
+        protected T read(BinaryReader in, int version) {
+            return model.fromBinary(in);
+        }
+    }
+}
@@ -34,4 +34,11 @@ public abstract class TextSerializer<T extends DatabaseEntity<?>> implements Ent
 
         return serializedEntityToObject(serialized);
     }
+
+    @Override
+    public T deserialize(CharSequence data) {
+        SerializedEntity serialized = SerializedEntity.fromFileContent(data);
+
+        return serializedEntityToObject(serialized);
+    }
 }
@@ -0,0 +1,51 @@
+package cz.upce.boop.ex.db.wal;
+
+/**
+ * Record representing one redo operation in the write-ahead log.
+ *
+ * @param type The kind of the operation
+ * @param fileName The name of the entity file the operation applies to, empty
+ * for TRUNCATE records
+ * @param data The new file content for PUT records, null otherwise
+ */
+public record WalRecord(Type type, String fileName, byte[] data) {
+
+    /**
+     * Kind of a logged operation
+     */
+    public enum Type {
+        PUT,
+        DELETE,
+        TRUNCATE
+    }
+
+    /**
+     * Creates a record replacing the content of an entity file
+     *
+     * @param fileName The name of the entity file
+     * @param data The new file content
+     * @return A new PUT record
+     */
+    public static WalRecord put(String fileName, byte[] data) {
+        return new WalRecord(Type.PUT, fileName, data);
+    }
+
+    /**
+     * Creates a record deleting an entity file
+     *
+     * @param fileName The name of the entity file
+     * @return A new DELETE record
+     */
+    public static WalRecord delete(String fileName) {
+        return new WalRecord(Type.DELETE, fileName, null);
+    }
+
+    /**
+     * Creates a record deleting every entity file
+     *
+     * @return A new TRUNCATE record
+     */
+    public static WalRecord truncate() {
+        return new WalRecord(Type.TRUNCATE, "", null);
+    }
+}
@@ -0,0 +1,399 @@
+package cz.upce.boop.ex.db.wal;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log with group commit.
+ *
+ * Every committed transaction is stored as one checksummed frame, so a torn
+ * write at the end of the log is detected and ignored during recovery.
+ * Concurrent committers append their frames to a shared in-memory buffer; the
+ * first of them to wait for durability becomes the leader, writes every
+ * pending frame, forces the log once for the whole group and applies the
+ * group's records through the {@link Applier} in log order. The remaining
+ * committers of the group simply wait for the leader to finish.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    /**
+     * Callback applying logged transactions to the data files
+     */
+    @FunctionalInterface
+    public interface Applier {
+
+        /**
+         * Apply transactions in the order they were logged
+         *
+         * @param transactions The records of each transaction
+         */
+        void apply(List<List<WalRecord>> transactions);
+    }
+
+    private static final String LOG_FILE_NAME = "journal.log";
+    private static final String OPEN_MARKER_NAME = "journal.open";
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final File dataDir;
+    private final File openMarker;
+    private final FileChannel channel;
+    private final boolean sync;
+    private final long checkpointSize;
+    private final Applier applier;
+    private final boolean cleanlyClosed;
+
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pendingFrames = new ByteArrayOutputStream();
+    private List<List<WalRecord>> pendingTransactions = new ArrayList<>();
+    private final Set<String> unsyncedFiles = new HashSet<>();
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean flushing;
+    private boolean closed;
+    private Throwable failure;
+
+    /**
+     * Open the write-ahead log stored in the given directory
+     *
+     * @param logDir The directory holding the log file
+     * @param dataDir The directory holding the entity files the log applies to
+     * @param sync Whether commits force the log to the storage device
+     * @param checkpointSize The log size in bytes after which the log is
+     * truncated once all of its records are applied
+     * @param applier The callback applying committed transactions
+     * @throws DatabaseException If the log cannot be opened
+     */
+    public WriteAheadLog(File logDir, File dataDir, boolean sync, long checkpointSize, Applier applier) {
+        if (!logDir.exists() && !logDir.mkdirs()) {
+            throw new DatabaseException("Failed to create log directory: " + logDir.getPath());
+        }
+
+        this.dataDir = dataDir;
+        this.openMarker = new File(logDir, OPEN_MARKER_NAME);
+        this.sync = sync;
+        this.checkpointSize = checkpointSize;
+        this.applier = applier;
+
+        try {
+            this.cleanlyClosed = !openMarker.exists();
+            openMarker.createNewFile();
+            this.channel = FileChannel.open(new File(logDir, LOG_FILE_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DatabaseException("Error opening write-ahead log in " + logDir.getPath(), e);
+        }
+    }
+
+    /**
+     * Check whether the log was closed properly the last time it was used.
+     * After an unclean shutdown, state derived from the data files (such as
+     * index files) may be out of date.
+     *
+     * @return true if the previous session closed the log
+     */
+    public boolean wasCleanlyClosed() {
+        return cleanlyClosed;
+    }
+
+    /**
+     * Replay every complete transaction in the log and truncate it
+     *
+     * @param recoveryApplier The callback applying recovered transactions
+     * @return The number of replayed transactions
+     * @throws DatabaseException If the log cannot be read or applied
+     */
+    public int recover(Applier recoveryApplier) {
+        synchronized (lock) {
+            try {
+                List<List<WalRecord>> transactions = new ArrayList<>();
+                channel.position(0);
+                ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+                while (readFully(header)) {
+                    header.flip();
+                    int length = header.getInt();
+                    int checksum = header.getInt();
+                    header.clear();
+
+                    if (length < 0 || length > channel.size() - channel.position()) {
+                        break; // Torn frame at the end of the log
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    if (!readFully(payload) || checksum(payload.array(), length) != checksum) {
+                        break;
+                    }
+                    transactions.add(decode(payload.array()));
+                }
+
+                if (!transactions.isEmpty()) {
+                    recoveryApplier.apply(transactions);
+                    trackUnsyncedFiles(transactions);
+                }
+                checkpoint();
+                return transactions.size();
+            } catch (IOException e) {
+                throw new DatabaseException("Error recovering write-ahead log", e);
+            }
+        }
+    }
+
+    /**
+     * Append a transaction to the log. The transaction is neither durable nor
+     * applied until {@link #awaitDurable(long)} returns for its sequence
+     * number.
+     *
+     * @param records The records of the transaction
+     * @return The log sequence number of the transaction
+     * @throws DatabaseException If the log has failed or the records cannot be
+     * encoded
+     */
+    public long append(List<WalRecord> records) {
+        byte[] payload = encode(records);
+        synchronized (lock) {
+            if (closed) {
+                throw new DatabaseException("Write-ahead log is closed");
+            }
+            if (failure != null) {
+                throw new DatabaseException("Write-ahead log is unavailable after a previous error", failure);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            header.putInt(payload.length).putInt(checksum(payload, payload.length));
+            pendingFrames.write(header.array(), 0, FRAME_HEADER_SIZE);
+            pendingFrames.write(payload, 0, payload.length);
+            pendingTransactions.add(records);
+            return ++appendedLsn;
+        }
+    }
+
+    /**
+     * Wait until a transaction is durable and applied. If no other thread is
+     * flushing the log, the calling thread flushes every pending transaction
+     * with a single write and force.
+     *
+     * @param lsn The log sequence number returned by {@link #append(List)}
+     * @throws DatabaseException If writing or applying the log fails
+     */
+    public void awaitDurable(long lsn) {
+        byte[] frames;
+        List<List<WalRecord>> transactions;
+        long target;
+
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw new DatabaseException("Write-ahead log is unavailable after a previous error", failure);
+                }
+                if (durableLsn >= lsn) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException("Interrupted while waiting for commit", e);
+                }
+            }
+
+            flushing = true;
+            frames = pendingFrames.toByteArray();
+            pendingFrames = new ByteArrayOutputStream();
+            transactions = pendingTransactions;
+            pendingTransactions = new ArrayList<>();
+            target = appendedLsn;
+        }
+
+        Throwable error = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frames);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+
+            applier.apply(transactions);
+            trackUnsyncedFiles(transactions);
+            if (channel.size() >= checkpointSize) {
+                checkpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        } finally {
+            synchronized (lock) {
+                flushing = false;
+                if (error == null) {
+                    durableLsn = target;
+                } else {
+                    failure = error;
+                }
+                lock.notifyAll();
+            }
+        }
+
+        if (error != null) {
+            throw new DatabaseException("Error committing to write-ahead log", error);
+        }
+    }
+
+    /**
+     * Flush and apply all pending transactions, truncate the log and mark it
+     * as cleanly closed. Transactions appended after close was called are
+     * rejected.
+     *
+     * @throws DatabaseException If the log cannot be flushed or closed
+     */
+    @Override
+    public void close() {
+        long lsn;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            // Rejecting new appends first guarantees nothing is left unapplied
+            // when the log is truncated below
+            closed = true;
+            lsn = appendedLsn;
+        }
+        awaitDurable(lsn);
+
+        synchronized (lock) {
+            try {
+                checkpoint();
+                channel.close();
+                openMarker.delete();
+            } catch (IOException e) {
+                throw new DatabaseException("Error closing write-ahead log", e);
+            }
+        }
+    }
+
+    /**
+     * Make the applied data files durable and truncate the log. Must only be
+     * called when every record written to the log has been applied.
+     */
+    private void checkpoint() throws IOException {
+        List<String> fileNames;
+        synchronized (lock) {
+            fileNames = new ArrayList<>(unsyncedFiles);
+            unsyncedFiles.clear();
+        }
+        if (sync) {
+            for (String fileName : fileNames) {
+                File file = new File(dataDir, fileName);
+                if (file.exists()) {
+                    try (FileChannel data = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        data.force(true);
+                    }
+                }
+            }
+            forceDirectory();
+        }
+
+        channel.truncate(0);
+        channel.position(0);
+        if (sync) {
+            channel.force(true);
+        }
+    }
+
+    private void trackUnsyncedFiles(List<List<WalRecord>> transactions) {
+        synchronized (lock) {
+            for (List<WalRecord> records : transactions) {
+                trackUnsyncedRecords(records);
+            }
+        }
+    }
+
+    private void trackUnsyncedRecords(List<WalRecord> records) {
+        for (WalRecord record : records) {
+            // Truncation only removes files, which is covered by forcing the directory
+            if (record.type() != WalRecord.Type.TRUNCATE) {
+                unsyncedFiles.add(record.fileName());
+            }
+        }
+    }
+
+    private void forceDirectory() {
+        try (FileChannel directory = FileChannel.open(dataDir.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Not every platform allows forcing a directory, the data files are durable anyway
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(List<WalRecord> records) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(records.size());
+            for (WalRecord record : records) {
+                out.writeByte(record.type().ordinal());
+                out.writeUTF(record.fileName());
+                if (record.type() == WalRecord.Type.PUT) {
+                    out.writeInt(record.data().length);
+                    out.write(record.data());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DatabaseException("Error encoding log record", e);
+        }
+    }
+
+    private static List<WalRecord> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        int count = in.readInt();
+        List<WalRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WalRecord.Type type = WalRecord.Type.values()[in.readByte()];
+            String fileName = in.readUTF();
+            switch (type) {
+                case PUT -> {
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    records.add(WalRecord.put(fileName, data));
+                }
+                case DELETE -> records.add(WalRecord.delete(fileName));
+                case TRUNCATE -> records.add(WalRecord.truncate());
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,93 @@
+package cz.upce.boop.ex.db.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntityCacheTest {
+
+    @Test
+    void returnsCachedValuesAndCountsHitsAndMisses() {
+        EntityCache<String, String> cache = new EntityCache<>(100, 100);
+
+        assertNull(cache.get("a"));
+        cache.put("a", "A", 1, cache.stamp());
+
+        assertEquals("A", cache.get("a"));
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    void ignoresValuesLoadedBeforeAnInvalidation() {
+        EntityCache<String, String> cache = new EntityCache<>(100, 100);
+        long stamp = cache.stamp();
+
+        cache.invalidate("a");
+        cache.put("a", "stale", 1, stamp);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void invalidationDropsValues() {
+        EntityCache<String, String> cache = new EntityCache<>(100, 100);
+        cache.put("a", "A", 1, cache.stamp());
+        cache.put("b", "B", 1, cache.stamp());
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+
+        cache.invalidateAll();
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.stats().weight());
+    }
+
+    @Test
+    void staysWithinTheMaximumWeight() {
+        EntityCache<Integer, Integer> cache = new EntityCache<>(50, 100);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i, 3, cache.stamp());
+        }
+        assertTrue(cache.stats().weight() <= 50);
+
+        // Rejections also count values that lost the admission contest
+        long rejected = cache.stats().rejectionCount();
+        cache.put(-1, -1, 51, cache.stamp());
+
+        assertEquals(rejected + 1, cache.stats().rejectionCount());
+        assertNull(cache.get(-1));
+    }
+
+    @Test
+    void frequentlyUsedValuesSurviveAScan() {
+        EntityCache<Integer, Integer> cache = new EntityCache<>(100, 1000);
+        for (int round = 0; round < 10; round++) {
+            for (int hot = 0; hot < 50; hot++) {
+                if (cache.get(hot) == null) {
+                    cache.put(hot, hot, 1, cache.stamp());
+                }
+            }
+        }
+
+        for (int scanned = 1000; scanned < 11000; scanned++) {
+            if (cache.get(scanned) == null) {
+                cache.put(scanned, scanned, 1, cache.stamp());
+            }
+        }
+
+        int survivors = 0;
+        for (int hot = 0; hot < 50; hot++) {
+            if (cache.get(hot) != null) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 45, "Only " + survivors + " hot values survived");
+    }
+}
@@ -0,0 +1,125 @@
+package cz.upce.boop.ex.db.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryResultCacheTest {
+
+    private final QueryResultCache<String> cache = new QueryResultCache<>(3, Duration.ZERO);
+
+    @Test
+    void cachesResultsUntilTheirDependenciesChange() {
+        put("cz", indexValue("country", "CZ"));
+        put("sk", indexValue("country", "SK"));
+        put("user", entity("1"));
+
+        cache.invalidateIndexValue("country", "SK");
+        cache.invalidateIndexValue("age", "CZ");
+        cache.invalidateEntity("2");
+
+        assertEquals("cz", cache.get("cz"));
+        assertNull(cache.get("sk"));
+        assertEquals("user", cache.get("user"));
+
+        cache.invalidateEntity("1");
+        assertNull(cache.get("user"));
+        assertEquals("cz", cache.get("cz"));
+
+        cache.invalidateIndex("country");
+        assertNull(cache.get("cz"));
+        assertEquals(new CacheStats(3, 3, 0, 0, 3, 0, 0), cache.stats());
+    }
+
+    @Test
+    void scanResultsDependOnEveryEntity() {
+        QueryResultCache.Dependencies everything = new QueryResultCache.Dependencies();
+        everything.addEverything();
+        put("scan", everything);
+        put("cz", indexValue("country", "CZ"));
+
+        cache.invalidateIndexValue("country", "SK");
+        assertEquals("scan", cache.get("scan"));
+
+        cache.invalidateEntity("anything");
+        assertNull(cache.get("scan"));
+        assertEquals("cz", cache.get("cz"));
+    }
+
+    @Test
+    void resultComputedDuringAnInvalidationIsNotCached() {
+        long stamp = cache.stamp();
+        cache.invalidateEntity("1");
+
+        cache.put("stale", "stale", 1, entity("1"), stamp);
+
+        assertNull(cache.get("stale"));
+        assertEquals(1, cache.stats().rejectionCount());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedResult() {
+        put("a", entity("a"));
+        put("b", entity("b"));
+        put("c", entity("c"));
+        cache.get("a");
+
+        put("d", entity("d"));
+
+        assertNull(cache.get("b"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(3, cache.stats().size());
+        assertEquals(1, cache.stats().evictionCount());
+        // The dependencies of an evicted result are gone too
+        cache.invalidateEntity("b");
+        assertEquals(0, cache.stats().invalidationCount());
+    }
+
+    @Test
+    void resultsExpire() throws InterruptedException {
+        QueryResultCache<String> expiring = new QueryResultCache<>(10, Duration.ofMillis(1));
+        expiring.put("a", "a", 1, entity("a"), expiring.stamp());
+
+        Thread.sleep(20);
+
+        assertNull(expiring.get("a"));
+        assertEquals(1, expiring.stats().evictionCount());
+    }
+
+    @Test
+    void tracksWeightAndClearsEverything() {
+        cache.put("a", "a", 5, entity("a"), cache.stamp());
+        cache.put("b", "b", 7, indexValue("country", "CZ"), cache.stamp());
+        assertEquals(12, cache.stats().weight());
+
+        cache.put("a", "a2", 1, entity("a"), cache.stamp());
+        assertEquals(8, cache.stats().weight());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.stats().weight());
+        assertEquals(0, cache.stats().size());
+        assertNull(cache.get("b"));
+        assertThrows(IllegalArgumentException.class, () -> new QueryResultCache<String>(0, Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> new QueryResultCache<String>(1, Duration.ofSeconds(-1)));
+    }
+
+    private void put(String key, QueryResultCache.Dependencies dependencies) {
+        cache.put(key, key, 1, dependencies, cache.stamp());
+    }
+
+    private static QueryResultCache.Dependencies indexValue(String indexName, Object value) {
+        QueryResultCache.Dependencies dependencies = new QueryResultCache.Dependencies();
+        dependencies.addIndexValue(indexName, value);
+        return dependencies;
+    }
+
+    private static QueryResultCache.Dependencies entity(String fileName) {
+        QueryResultCache.Dependencies dependencies = new QueryResultCache.Dependencies();
+        dependencies.addEntity(fileName);
+        return dependencies;
+    }
+}
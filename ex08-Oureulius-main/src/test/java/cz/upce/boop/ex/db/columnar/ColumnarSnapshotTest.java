@@ -0,0 +1,196 @@
+package cz.upce.boop.ex.db.columnar;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.FileEntityRepository;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.query.Query;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarSnapshotTest {
+
+    private static final String[] COUNTRIES = {"CZ", "SK", "PL", "UK", null};
+
+    /**
+     * A filter of the snapshot and the equivalent condition on entities
+     */
+    private record Filter(Query query, Predicate<User> condition) {
+
+    }
+
+    private static final List<Filter> FILTERS = List.of(
+            new Filter(null, user -> true),
+            new Filter(Query.eq("country", "CZ"), user -> "CZ".equals(user.getCountry())),
+            new Filter(Query.eq("country", null), user -> user.getCountry() == null),
+            new Filter(Query.eq("age", 30), user -> user.getAge() == 30),
+            new Filter(Query.eq("age", 30L), user -> false),
+            new Filter(Query.in("country", List.of("SK", "PL", "DE")),
+                    user -> List.of("SK", "PL", "DE").contains(user.getCountry())),
+            new Filter(Query.range("age", 25, 40), user -> user.getAge() >= 25 && user.getAge() <= 40),
+            new Filter(Query.range("age", null, 20), user -> user.getAge() <= 20),
+            new Filter(Query.range("country", "PL", "SK"), user -> user.getCountry() != null
+                    && user.getCountry().compareTo("PL") >= 0 && user.getCountry().compareTo("SK") <= 0),
+            new Filter(Query.and(Query.eq("country", "CZ"), Query.range("age", 30, null)),
+                    user -> "CZ".equals(user.getCountry()) && user.getAge() >= 30),
+            new Filter(Query.or(Query.eq("country", "UK"), Query.not(Query.range("age", 18, 60))),
+                    user -> "UK".equals(user.getCountry()) || user.getAge() < 18 || user.getAge() > 60));
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resultsEqualScanResults(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog);
+                ColumnarSnapshot<User, StringPrimaryKey> snapshot = snapshot(repository)) {
+            saveUsers(repository, 0, 300);
+
+            assertSameAsScan(repository, snapshot);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resultsFollowTheChangesOfTheRepository(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            saveUsers(repository, 0, 200);
+            try (ColumnarSnapshot<User, StringPrimaryKey> snapshot = snapshot(repository)) {
+                assertEquals(200, snapshot.size());
+
+                repository.update(new User("5", "user5", "First", "Last", "DE", 99));
+                repository.delete(new StringPrimaryKey("6"));
+                repository.deleteAll(List.of(new StringPrimaryKey("70"), new StringPrimaryKey("71")));
+                saveUsers(repository, 200, 250);
+                assertSameAsScan(repository, snapshot);
+                assertEquals(Map.of("DE", 1L), snapshot.countBy("country", Query.eq("country", "DE")));
+
+                repository.truncate();
+                assertEquals(0, snapshot.size());
+                saveUsers(repository, 0, 10);
+                assertSameAsScan(repository, snapshot);
+            }
+        }
+    }
+
+    @Test
+    void closedSnapshotStopsFollowingChanges() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false)) {
+            saveUsers(repository, 0, 10);
+            ColumnarSnapshot<User, StringPrimaryKey> snapshot = snapshot(repository);
+            snapshot.close();
+
+            saveUsers(repository, 10, 20);
+
+            assertEquals(10, snapshot.size());
+        }
+    }
+
+    @Test
+    void aggregatesOfNoRowsAndInvalidColumnsOrBounds() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false);
+                ColumnarSnapshot<User, StringPrimaryKey> snapshot = snapshot(repository)) {
+            saveUsers(repository, 0, 10);
+            Query none = Query.eq("country", "DE");
+
+            assertEquals(0, snapshot.count(none));
+            assertEquals(0, snapshot.sum("age", none));
+            assertTrue(Double.isNaN(snapshot.average("age", none)));
+            assertNull(snapshot.min("age", none));
+            assertNull(snapshot.max("age", none));
+            assertEquals(Map.of(), snapshot.countBy("country", none));
+
+            assertThrows(DatabaseException.class, () -> snapshot.sum("country", null));
+            assertThrows(DatabaseException.class, () -> snapshot.countBy("age", null));
+            assertThrows(DatabaseException.class, () -> snapshot.count(Query.eq("missing", 1)));
+            assertThrows(DatabaseException.class, () -> snapshot.count(Query.range("age", "a", null)));
+            assertThrows(DatabaseException.class, () -> snapshot.count(Query.range("country", 1, null)));
+            assertThrows(IllegalStateException.class, () -> ColumnarSnapshot.builder(repository).build());
+            assertThrows(IllegalArgumentException.class, () -> ColumnarSnapshot.builder(repository)
+                    .intColumn("age", User::getAge).intColumn("age", User::getAge));
+        }
+    }
+
+    private void assertSameAsScan(FileEntityRepository<User, StringPrimaryKey> repository,
+            ColumnarSnapshot<User, StringPrimaryKey> snapshot) {
+        List<User> all = repository.findAll();
+        assertEquals(all.size(), snapshot.size());
+
+        for (Filter filter : FILTERS) {
+            List<User> matching = all.stream().filter(filter.condition()).toList();
+            String description = String.valueOf(filter.query());
+
+            assertEquals(matching.size(), snapshot.count(filter.query()), description);
+            assertEquals(sortedIds(matching), snapshot.findIds(filter.query()).stream()
+                    .map(StringPrimaryKey::getValue).sorted().toList(), description);
+            assertEquals(matching.stream().mapToLong(User::getAge).sum(), snapshot.sum("age", filter.query()),
+                    description);
+            assertEquals(matching.stream().map(User::getAge).min(Integer::compare).orElse(null),
+                    snapshot.min("age", filter.query()), description);
+            assertEquals(matching.stream().map(User::getAge).max(Integer::compare).orElse(null),
+                    snapshot.max("age", filter.query()), description);
+
+            Map<String, Long> counts = matching.stream().collect(Collectors.groupingBy(
+                    user -> Objects.requireNonNullElse(user.getCountry(), "<null>"), TreeMap::new,
+                    Collectors.counting()));
+            assertEquals(counts, withNullKey(snapshot.countBy("country", filter.query())), description);
+            Map<String, Long> sums = matching.stream().collect(Collectors.groupingBy(
+                    user -> Objects.requireNonNullElse(user.getCountry(), "<null>"), TreeMap::new,
+                    Collectors.summingLong(User::getAge)));
+            assertEquals(sums, withNullKey(snapshot.sumBy("country", "age", filter.query())), description);
+            snapshot.averageBy("country", "age", filter.query()).forEach((country, average) -> assertEquals(
+                    (double) sums.get(Objects.requireNonNullElse(country, "<null>"))
+                    / counts.get(Objects.requireNonNullElse(country, "<null>")), average, 1e-9));
+        }
+    }
+
+    private static <V> Map<String, V> withNullKey(Map<String, V> map) {
+        Map<String, V> result = new TreeMap<>();
+        map.forEach((key, value) -> result.put(Objects.requireNonNullElse(key, "<null>"), value));
+        return result;
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(),
+                RepositoryOptions.builder().writeAheadLog(writeAheadLog).build());
+    }
+
+    private static ColumnarSnapshot<User, StringPrimaryKey> snapshot(
+            FileEntityRepository<User, StringPrimaryKey> repository) {
+        return ColumnarSnapshot.builder(repository)
+                .intColumn("age", User::getAge)
+                .stringColumn("country", User::getCountry)
+                .build();
+    }
+
+    private static void saveUsers(FileEntityRepository<User, StringPrimaryKey> repository, int from, int to) {
+        List<User> users = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", COUNTRIES[i % COUNTRIES.length],
+                    10 + (i * 7) % 60));
+        }
+        repository.saveAll(users);
+    }
+
+    private static List<String> sortedIds(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).sorted().toList();
+    }
+}
@@ -0,0 +1,121 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.index.IndexedFileEntityRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchOperationsTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void saveAllSavesNothingIfOneEntityExists(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(user("2", "CZ"));
+
+            assertThrows(DatabaseException.class,
+                    () -> repository.saveAll(List.of(user("1", "SK"), user("2", "SK"), user("3", "SK"))));
+
+            assertEquals(1, repository.count());
+            assertEquals("CZ", repository.findById(new StringPrimaryKey("2")).getCountry());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void saveAllRejectsDuplicatesWithinTheBatch(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            assertThrows(DatabaseException.class,
+                    () -> repository.saveAll(List.of(user("1", "SK"), user("1", "CZ"))));
+
+            assertEquals(0, repository.count());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void updateAllUpdatesNothingIfOneEntityIsMissing(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(List.of(user("1", "CZ"), user("2", "CZ")));
+
+            assertThrows(DatabaseException.class,
+                    () -> repository.updateAll(List.of(user("1", "SK"), user("9", "SK"))));
+
+            assertEquals("CZ", repository.findById(new StringPrimaryKey("1")).getCountry());
+            assertFalse(repository.exists(new StringPrimaryKey("9")));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void saveOrUpdateAllMixesInsertsAndUpdates(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(user("1", "CZ"));
+
+            repository.saveOrUpdateAll(List.of(user("1", "SK"), user("2", "AT")));
+
+            assertEquals(2, repository.count());
+            assertEquals("SK", repository.findById(new StringPrimaryKey("1")).getCountry());
+            assertEquals("AT", repository.findById(new StringPrimaryKey("2")).getCountry());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deleteAllByIdDeletesNothingIfOneEntityIsMissing(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(List.of(user("1", "CZ"), user("2", "CZ")));
+
+            assertThrows(DatabaseException.class,
+                    () -> repository.deleteAll(List.of(new StringPrimaryKey("1"), new StringPrimaryKey("9"))));
+
+            assertTrue(repository.exists(new StringPrimaryKey("1")));
+            assertEquals(2, repository.count());
+        }
+    }
+
+    @Test
+    void failedBatchLeavesTheIndexesUntouched() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer())) {
+            repository.createUniqueIndex("username", User::getUsername);
+            repository.createNonUniqueIndex("country", User::getCountry);
+            repository.save(new User("1", "taken", "First", "Last", "CZ", 30));
+
+            // The second entity reuses a unique username
+            assertThrows(DatabaseException.class, () -> repository.saveAll(List.of(
+                    new User("2", "free", "First", "Last", "SK", 30),
+                    new User("3", "taken", "First", "Last", "SK", 30))));
+
+            assertEquals(List.of(), repository.findByIndexedValue("username", "free"));
+            assertEquals(List.of(), repository.findByIndexedValue("country", "SK"));
+            assertEquals(1, repository.findByIndexedValue("username", "taken").size());
+
+            repository.save(new User("2", "free", "First", "Last", "SK", 30));
+            assertEquals(1, repository.findByIndexedValue("country", "SK").size());
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder().writeAheadLog(writeAheadLog).build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static User user(String id, String country) {
+        return new User(id, "user" + id, "First", "Last", country, 30);
+    }
+}
@@ -0,0 +1,119 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.cache.CacheCopyMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class EntityCacheInvalidationTest {
+
+    private static final StringPrimaryKey ID = new StringPrimaryKey("1");
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void repeatedReadsAreServedFromTheCache(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog, CacheCopyMode.COPY)) {
+            repository.save(user("CZ"));
+
+            repository.findById(ID);
+            repository.findById(ID);
+            repository.findById(ID);
+
+            assertEquals(2, repository.getCacheStats().hitCount());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void writesInvalidateCachedEntities(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog, CacheCopyMode.COPY)) {
+            repository.save(user("CZ"));
+            assertEquals("CZ", repository.findById(ID).getCountry());
+
+            repository.update(user("SK"));
+            assertEquals("SK", repository.findById(ID).getCountry());
+
+            repository.beginTransaction().update(user("AT")).commit();
+            assertEquals("AT", repository.findById(ID).getCountry());
+
+            repository.delete(ID);
+            assertNull(repository.findById(ID));
+
+            repository.save(user("PL"));
+            assertEquals("PL", repository.findById(ID).getCountry());
+
+            repository.truncate();
+            assertNull(repository.findById(ID));
+        }
+    }
+
+    @Test
+    void failedTransactionLeavesTheCacheConsistent() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(true, CacheCopyMode.COPY)) {
+            repository.save(user("CZ"));
+            repository.findById(ID);
+
+            Transaction<User, StringPrimaryKey> transaction = repository.beginTransaction()
+                    .update(user("SK"))
+                    .save(user("PL"));
+            try {
+                transaction.commit();
+            } catch (DatabaseException e) {
+                // Expected, the entity already exists
+            }
+
+            assertEquals("CZ", repository.findById(ID).getCountry());
+            assertEquals(List.of(ID), repository.findAllIds());
+        }
+    }
+
+    @Test
+    void copyModeHandsOutPrivateCopies() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false, CacheCopyMode.COPY)) {
+            repository.save(user("CZ"));
+
+            User first = repository.findById(ID);
+            first.setCountry("modified");
+            User second = repository.findById(ID);
+
+            assertNotSame(first, second);
+            assertEquals("CZ", second.getCountry());
+        }
+    }
+
+    @Test
+    void sharedModeHandsOutTheCachedInstance() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false, CacheCopyMode.SHARED)) {
+            repository.save(user("CZ"));
+
+            assertSame(repository.findById(ID), repository.findById(ID));
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog, CacheCopyMode copyMode) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(writeAheadLog)
+                .cacheMaximumSize(100)
+                .cacheCopyMode(copyMode)
+                .build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static User user(String country) {
+        return new User("1", "user1", "First", "Last", country, 30);
+    }
+}
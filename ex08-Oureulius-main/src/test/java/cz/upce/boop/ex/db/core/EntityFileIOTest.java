@@ -0,0 +1,61 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EntityFileIOTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsMultiByteTextLargerThanTheInitialBuffers() throws Exception {
+        String text = "Příliš žluťoučký kůň 😀\n".repeat(2000);
+        Path file = dir.resolve("record.txt");
+
+        EntityFileIO.write(file, EntityFileIO.encode(text), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        assertEquals(text, EntityFileIO.decode(EntityFileIO.read(file)).toString());
+    }
+
+    @Test
+    void truncatingWriteReplacesLongerContent() throws Exception {
+        Path file = dir.resolve("record.txt");
+        EntityFileIO.write(file, EntityFileIO.encode("a much longer first version"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        EntityFileIO.write(file, EntityFileIO.encode("short"),
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        assertEquals("short", EntityFileIO.decode(EntityFileIO.read(file)).toString());
+    }
+
+    @Test
+    void rejectsInvalidUtf8() {
+        ByteBuffer invalid = ByteBuffer.wrap(new byte[]{'a', (byte) 0xC3, (byte) 0x28});
+
+        assertThrows(DatabaseException.class, () -> EntityFileIO.decode(invalid));
+    }
+
+    @Test
+    void repositoryKeepsNonAsciiValues() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository
+                = new FileEntityRepository<>(dir.toString(), new UserSerializer())) {
+            repository.save(new User("1", "jdvorak", "Jiří", "Dvořák", "CZ", 42));
+
+            User read = repository.findById(new StringPrimaryKey("1"));
+            assertEquals("Jiří", read.getFirstName());
+            assertEquals("Dvořák", read.getLastName());
+            assertEquals(42, read.getAge());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FindAllByIdTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void returnsFoundEntitiesInTheOrderOfTheKeys(boolean cached) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(cached)) {
+            saveUsers(repository, 100);
+            // Warm the cache for some of the keys
+            repository.findById(key(42));
+            repository.findById(key(7));
+
+            List<StringPrimaryKey> keys = List.of(key(42), key(3), key(500), key(99), key(7), key(3));
+
+            List<User> found = repository.findAllById(keys);
+
+            assertEquals(List.of("42", "3", "99", "7", "3"), ids(found));
+            assertEquals(List.of(), repository.findAllById(List.of()));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void mapContainsOnlyFoundKeysInTheOrderOfTheKeys(boolean cached) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(cached)) {
+            saveUsers(repository, 100);
+            repository.findById(key(10));
+
+            Map<StringPrimaryKey, User> found = repository.findAllByIdAsMap(
+                    List.of(key(10), key(-1), key(55), key(10), key(0)));
+
+            assertEquals(List.of(key(10), key(55), key(0)), new ArrayList<>(found.keySet()));
+            found.forEach((key, user) -> assertEquals(key, user.getId()));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void readsTheCurrentStateAfterChanges(boolean cached) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(cached)) {
+            saveUsers(repository, 10);
+            repository.findAllById(List.of(key(1), key(2)));
+
+            repository.update(new User("1", "renamed", "First", "Last", "SK", 60));
+            repository.delete(key(2));
+
+            List<User> found = repository.findAllById(List.of(key(1), key(2)));
+            assertEquals(List.of("1"), ids(found));
+            assertEquals("renamed", found.get(0).getUsername());
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean cached) {
+        RepositoryOptions.Builder options = RepositoryOptions.builder().scanParallelism(4);
+        if (cached) {
+            options.cacheMaximumSize(1_000);
+        }
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options.build());
+    }
+
+    private static void saveUsers(FileEntityRepository<User, StringPrimaryKey> repository, int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", "CZ", 20 + i % 50));
+        }
+        repository.saveAll(users);
+    }
+
+    private static StringPrimaryKey key(int id) {
+        return new StringPrimaryKey(String.valueOf(id));
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).toList();
+    }
+}
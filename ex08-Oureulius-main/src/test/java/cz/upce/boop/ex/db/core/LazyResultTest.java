@@ -0,0 +1,142 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.index.IndexedFileEntityRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyResultTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<List<StringPrimaryKey>> loads = new ArrayList<>();
+
+    @Test
+    void nothingIsLoadedUntilAHandleIsAccessed() {
+        LazyResult<User, StringPrimaryKey> result = result(10, 4, -1);
+
+        assertEquals(10, result.size());
+        assertEquals(keys(10), result.ids());
+        assertEquals(new StringPrimaryKey("3"), result.get(3).getId());
+        assertEquals(0, result.loadedCount());
+        assertEquals(List.of(), loads);
+    }
+
+    @Test
+    void accessingAHandleLoadsItsBatch() {
+        LazyResult<User, StringPrimaryKey> result = result(10, 4, -1);
+
+        assertEquals("user5", result.get(5).get().getUsername());
+
+        assertEquals(List.of(keys(10).subList(4, 8)), loads);
+        assertTrue(result.get(4).isLoaded());
+        assertFalse(result.get(3).isLoaded());
+        assertFalse(result.get(8).isLoaded());
+
+        result.get(7).get();
+        assertEquals(1, loads.size());
+    }
+
+    @Test
+    void iterationLoadsBatchByBatchAndSkipsMissingEntities() {
+        LazyResult<User, StringPrimaryKey> result = result(10, 4, 6);
+
+        List<String> usernames = new ArrayList<>();
+        for (User user : result.entities()) {
+            usernames.add(user.getUsername());
+        }
+
+        assertEquals(List.of("user0", "user1", "user2", "user3", "user4", "user5", "user7", "user8", "user9"),
+                usernames);
+        assertEquals(3, loads.size());
+        assertEquals(10, result.loadedCount());
+        assertTrue(result.get(6).isLoaded());
+        assertNull(result.get(6).get());
+        assertEquals(3, loads.size());
+    }
+
+    @Test
+    void loadAllOnlyLoadsWhatIsNotLoadedYet() {
+        LazyResult<User, StringPrimaryKey> result = result(6, 4, -1);
+        result.get(1).get();
+
+        assertEquals(6, result.loadAll().size());
+
+        assertEquals(List.of(keys(6).subList(0, 4), keys(6).subList(4, 6)), loads);
+        assertThrows(IllegalArgumentException.class, () -> new LazyResult<>(keys(1), this::load, 0));
+    }
+
+    @Test
+    void indexLookupReturnsHandlesOfTheIndexedEntities() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = new IndexedFileEntityRepository<>(
+                dir.toString(), new UserSerializer(), RepositoryOptions.builder().build())) {
+            repository.createNonUniqueIndex("country", User::getCountry);
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                users.add(new User(String.valueOf(i), "user" + i, "First", "Last", i % 2 == 0 ? "CZ" : "SK", 30));
+            }
+            repository.saveAll(users);
+
+            LazyResult<User, StringPrimaryKey> result = repository.findByIndexedValueLazy("country", "CZ", 3);
+            assertEquals(10, result.size());
+            assertEquals(0, result.loadedCount());
+
+            repository.delete(result.get(4).getId());
+            User first = result.get(0).get();
+            assertEquals("CZ", first.getCountry());
+            assertEquals(3, result.loadedCount());
+
+            List<User> loaded = result.loadAll();
+            assertEquals(9, loaded.size());
+            assertEquals(repository.findByIndexedValue("country", "CZ").stream().map(User::getId).toList(),
+                    loaded.stream().map(User::getId).toList());
+            assertEquals(List.of(new StringPrimaryKey("1"), new StringPrimaryKey("3")),
+                    repository.findAllByIdLazy(List.of(new StringPrimaryKey("1"), new StringPrimaryKey("3")))
+                            .loadAll().stream().map(User::getId).toList());
+        }
+    }
+
+    /**
+     * Create a result over keys 0 to count - 1 whose loader records its calls
+     * and leaves out the given key
+     */
+    private LazyResult<User, StringPrimaryKey> result(int count, int batchSize, int missing) {
+        return new LazyResult<>(keys(count), ids -> {
+            Map<StringPrimaryKey, User> loaded = load(ids);
+            loaded.remove(new StringPrimaryKey(String.valueOf(missing)));
+            return loaded;
+        }, batchSize);
+    }
+
+    private Map<StringPrimaryKey, User> load(Collection<StringPrimaryKey> ids) {
+        loads.add(List.copyOf(ids));
+        Map<StringPrimaryKey, User> loaded = new HashMap<>();
+        for (StringPrimaryKey id : ids) {
+            loaded.put(id, new User(id.getValue(), "user" + id.getValue(), "First", "Last", "CZ", 30));
+        }
+        return loaded;
+    }
+
+    private static List<StringPrimaryKey> keys(int count) {
+        List<StringPrimaryKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(new StringPrimaryKey(String.valueOf(i)));
+        }
+        return keys;
+    }
+}
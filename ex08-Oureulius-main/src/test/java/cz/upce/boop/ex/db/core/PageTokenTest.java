@@ -0,0 +1,124 @@
+package cz.upce.boop.ex.db.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PageTokenTest {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final PageToken pageTokens = new PageToken(SECRET);
+
+    @Test
+    void roundTripsEveryEncodableType() {
+        List<Object> values = new ArrayList<>(Arrays.asList(null, "Dvořák. = ..", "", 42, 42L, (short) 4, (byte) 2,
+                1.5, 2.5f, true, 'x', new BigDecimal("1.50"), new BigInteger("123456789012345678901234567890"),
+                LocalDate.of(2024, 2, 29), LocalDateTime.of(2024, 2, 29, 13, 45, 1), Instant.ofEpochSecond(1_700_000_000)));
+
+        for (Object value : values) {
+            String token = pageTokens.encode("age", SortDirection.DESCENDING, value, new StringPrimaryKey("a.b"));
+
+            PageToken.Position position = pageTokens.decode(token);
+
+            assertEquals("age", position.ordering());
+            assertEquals(SortDirection.DESCENDING, position.direction());
+            assertEquals(value, position.value());
+            assertEquals("a.b", position.keyValue());
+        }
+    }
+
+    @Test
+    void keyOfAPositionKeepsTheTypeOfTheKeyValue() {
+        String token = pageTokens.encode("id", SortDirection.ASCENDING, null, new IntPrimaryKey(10));
+
+        assertEquals(Integer.valueOf(10), pageTokens.decode(token).keyValue());
+    }
+
+    @Test
+    void rejectsTokensThatWereAltered() {
+        String token = pageTokens.encode("age", SortDirection.ASCENDING, 30, new StringPrimaryKey("7"));
+        String[] parts = token.split("\\.");
+
+        // Another value under the original signature
+        parts[3] = field("99");
+        assertInvalid(String.join(".", parts));
+        // A flipped character in the signature
+        char last = token.charAt(token.length() - 1);
+        assertInvalid(token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A'));
+        assertInvalid(token.substring(0, token.lastIndexOf('.')));
+        assertInvalid(token + "x");
+        assertInvalid("");
+        assertInvalid("no-separator");
+        assertInvalid("!!!.###");
+    }
+
+    @Test
+    void rejectsTokensSignedWithAnotherSecret() {
+        String token = new PageToken(null).encode("age", SortDirection.ASCENDING, 30, new StringPrimaryKey("7"));
+
+        assertInvalid(token);
+        assertEquals(30, new PageToken(SECRET.clone()).decode(
+                pageTokens.encode("age", SortDirection.ASCENDING, 30, new StringPrimaryKey("7"))).value());
+    }
+
+    @Test
+    void rejectsMalformedFieldsEvenWhenSigned() {
+        String token = pageTokens.encode("age", SortDirection.ASCENDING, "v", new StringPrimaryKey("7"));
+        String[] parts = token.split("\\.");
+
+        // Correctly signed, so only the parsing of the fields can reject them
+        String[] unknownTag = Arrays.copyOf(parts, 6);
+        unknownTag[2] = field("X");
+        assertInvalid(signed(String.join(".", unknownTag)));
+
+        String[] badNumber = Arrays.copyOf(parts, 6);
+        badNumber[2] = field("I");
+        assertInvalid(signed(String.join(".", badNumber)));
+
+        assertInvalid(signed(String.join(".", Arrays.copyOf(parts, 5))));
+    }
+
+    @Test
+    void refusesValuesThatCannotBeEncoded() {
+        assertThrows(DatabaseException.class,
+                () -> pageTokens.encode("x", SortDirection.ASCENDING, new Object(), new StringPrimaryKey("1")));
+        assertThrows(DatabaseException.class,
+                () -> pageTokens.encode("x", SortDirection.ASCENDING, List.of(1), new StringPrimaryKey("1")));
+    }
+
+    private void assertInvalid(String token) {
+        DatabaseException error = assertThrows(DatabaseException.class, () -> pageTokens.decode(token));
+        assertEquals("Invalid page token", error.getMessage());
+    }
+
+    private static String field(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String signed(String fields) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+            return fields + "." + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(fields.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
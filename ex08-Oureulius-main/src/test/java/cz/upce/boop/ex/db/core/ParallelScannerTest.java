@@ -0,0 +1,125 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelScannerTest {
+
+    private static final List<Integer> SOURCES = IntStream.range(0, 10_000).boxed().toList();
+    private static final Predicate<Integer> EVEN = value -> value % 2 == 0;
+
+    @TempDir
+    Path dir;
+
+    private final ParallelScanner scanner = new ParallelScanner(4, null);
+
+    @AfterEach
+    void closeScanner() {
+        scanner.close();
+    }
+
+    @Test
+    void orderedScanMatchesASequentialFilter() {
+        List<Integer> expected = SOURCES.stream().filter(EVEN).toList();
+
+        assertEquals(expected, scanner.scan(SOURCES, Function.identity(), EVEN, ParallelScanner.NO_LIMIT,
+                ScanOrder.ORDERED));
+        assertEquals(expected.subList(0, 25), scanner.scan(SOURCES, Function.identity(), EVEN, 25,
+                ScanOrder.ORDERED));
+    }
+
+    @Test
+    void unorderedLimitedScanReturnsDistinctMatches() {
+        List<Integer> found = scanner.scan(SOURCES, Function.identity(), EVEN, 100, ScanOrder.UNORDERED);
+
+        assertEquals(100, found.size());
+        assertEquals(100, new HashSet<>(found).size());
+        assertTrue(found.stream().allMatch(EVEN));
+    }
+
+    @Test
+    void limitedScanStopsReadingEarly() {
+        AtomicInteger reads = new AtomicInteger();
+        Function<Integer, Integer> reader = value -> {
+            reads.incrementAndGet();
+            return value;
+        };
+
+        scanner.scan(SOURCES, reader, EVEN, 10, ScanOrder.ORDERED);
+
+        assertTrue(reads.get() < SOURCES.size() / 2, reads.get() + " sources read");
+    }
+
+    @Test
+    void skipsSourcesWithoutAnEntity() {
+        Function<Integer, Integer> reader = value -> value % 3 == 0 ? null : value;
+
+        List<Integer> found = scanner.scan(SOURCES, reader, null, ParallelScanner.NO_LIMIT, ScanOrder.ORDERED);
+
+        assertEquals(SOURCES.stream().filter(value -> value % 3 != 0).toList(), found);
+    }
+
+    @Test
+    void rethrowsTheFailureOfAWorker() {
+        Function<Integer, Integer> reader = value -> {
+            if (value == 7_777) {
+                throw new DatabaseException("broken file");
+            }
+            return value;
+        };
+
+        DatabaseException error = assertThrows(DatabaseException.class,
+                () -> scanner.scan(SOURCES, reader, null, ParallelScanner.NO_LIMIT, ScanOrder.UNORDERED));
+        assertEquals("broken file", error.getMessage());
+    }
+
+    @Test
+    void parallelRepositoryFindsTheSameEntitiesAsASequentialOne() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", i % 3 == 0 ? "CZ" : "SK", i % 90));
+        }
+        Predicate<User> condition = user -> user.getAge() > 40;
+
+        List<String> sequential;
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(1)) {
+            repository.saveAll(users);
+            sequential = ids(repository.findByCondition(condition));
+        }
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(4)) {
+            assertEquals(sequential, ids(repository.findByCondition(condition)));
+            assertEquals(sequential.subList(0, 10), ids(repository.findByCondition(condition, 10)));
+            assertEquals(500, repository.findAll().size());
+
+            Set<String> unordered = new HashSet<>(ids(repository.findByCondition(condition, 10, ScanOrder.UNORDERED)));
+            assertEquals(10, unordered.size());
+            assertTrue(sequential.containsAll(unordered));
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(int parallelism) {
+        RepositoryOptions options = RepositoryOptions.builder().scanParallelism(parallelism).build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).toList();
+    }
+}
@@ -0,0 +1,155 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrimaryKeyCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bloomFilterHasNoFalseNegativesAndFewFalsePositives() {
+        BloomFilter filter = new BloomFilter(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(i + ".txt");
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(i + ".txt"));
+            if (filter.mightContain("other" + i + ".txt")) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 500, falsePositives + " false positives");
+
+        filter.clear();
+        assertFalse(filter.mightContain("1.txt"));
+    }
+
+    @Test
+    void walksKeysInBothDirectionsFromAKey() {
+        PrimaryKeyCatalog<IntPrimaryKey> catalog = new PrimaryKeyCatalog<>();
+        for (int i = 1; i <= 5; i++) {
+            catalog.add(new IntPrimaryKey(i));
+        }
+        catalog.remove(new IntPrimaryKey(3).toFileName());
+
+        assertEquals(keys(1, 2), catalog.keysAfter(null, SortDirection.ASCENDING, 2));
+        assertEquals(keys(4, 5), catalog.keysAfter(2, SortDirection.ASCENDING, 10));
+        assertEquals(keys(2, 1), catalog.keysAfter(4, SortDirection.DESCENDING, 10));
+        assertEquals(keys(4, 5), catalog.keysAfter(3, SortDirection.ASCENDING, 10));
+        assertFalse(catalog.contains(new IntPrimaryKey(3).toFileName()));
+        assertEquals(4, catalog.size());
+        assertThrows(DatabaseException.class, () -> catalog.keysAfter("2", SortDirection.ASCENDING, 10));
+    }
+
+    @Test
+    void savedCatalogIsLoadedOnceAndItsFileDeleted() {
+        PrimaryKeyCatalog<IntPrimaryKey> catalog = new PrimaryKeyCatalog<>();
+        catalog.add(new IntPrimaryKey(7));
+        catalog.add(new IntPrimaryKey(3));
+        File file = dir.resolve("catalog").resolve("keys.dat").toFile();
+
+        catalog.saveToFile(file);
+        PrimaryKeyCatalog<IntPrimaryKey> loaded = PrimaryKeyCatalog.loadFromFile(file);
+
+        assertEquals(keys(3, 7), loaded.keys());
+        assertFalse(file.exists());
+        assertNull(PrimaryKeyCatalog.loadFromFile(file));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void catalogIsRebuiltAfterAnUncleanShutdown(boolean withKeyParser) {
+        Function<String, StringPrimaryKey> keyParser = withKeyParser ? StringPrimaryKey::fromFileName : null;
+        FileEntityRepository<User, StringPrimaryKey> crashed = open(keyParser);
+        // File names of keys with invalid characters cannot be parsed back, so these entities are read
+        crashed.saveAll(List.of(user("1"), user("a/b"), user("c_d")));
+
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(keyParser)) {
+            assertEquals(3, repository.count());
+            assertEquals(Set.of("1", "a/b", "c_d"), ids(repository));
+            assertTrue(repository.exists(new StringPrimaryKey("a/b")));
+            assertFalse(repository.exists(new StringPrimaryKey("2")));
+        }
+    }
+
+    @Test
+    void catalogFollowsWritesAndSurvivesACleanClose() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(StringPrimaryKey::fromFileName)) {
+            repository.saveAll(List.of(user("1"), user("2"), user("3")));
+            repository.delete(new StringPrimaryKey("2"));
+            repository.beginTransaction().save(user("4")).delete(new StringPrimaryKey("1")).commit();
+
+            assertEquals(Set.of("3", "4"), ids(repository));
+            assertEquals(2, repository.knownCount());
+        }
+
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(StringPrimaryKey::fromFileName)) {
+            assertEquals(Set.of("3", "4"), ids(repository));
+            repository.truncate();
+            assertEquals(0, repository.count());
+        }
+    }
+
+    @Test
+    void bloomFilterAloneAnswersExistenceChecks() {
+        RepositoryOptions options = RepositoryOptions.builder().bloomFilter(true).build();
+        try (FileEntityRepository<User, StringPrimaryKey> repository
+                = new FileEntityRepository<>(dir.toString(), new UserSerializer(), options)) {
+            repository.save(user("1"));
+
+            assertTrue(repository.exists(new StringPrimaryKey("1")));
+            assertFalse(repository.exists(new StringPrimaryKey("2")));
+            repository.delete(new StringPrimaryKey("1"));
+            assertFalse(repository.exists(new StringPrimaryKey("1")));
+            repository.save(user("1"));
+            assertTrue(repository.exists(new StringPrimaryKey("1")));
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(Function<String, StringPrimaryKey> keyParser) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(true)
+                .primaryKeyCatalog(true)
+                .bloomFilter(true)
+                .build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options, keyParser);
+    }
+
+    private static Set<String> ids(FileEntityRepository<User, StringPrimaryKey> repository) {
+        Set<String> ids = new TreeSet<>();
+        for (StringPrimaryKey key : repository.findAllIds()) {
+            ids.add(key.getValue());
+        }
+        return ids;
+    }
+
+    private static List<IntPrimaryKey> keys(int... values) {
+        return Arrays.stream(values).mapToObj(IntPrimaryKey::new).toList();
+    }
+
+    private static User user(String id) {
+        return new User(id, "user" + id, "First", "Last", "CZ", 30);
+    }
+}
@@ -0,0 +1,104 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserBinarySerializer;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.serializer.RawRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RawScanTest {
+
+    private static final String[] COUNTRIES = {"CZ", "SK", "UK"};
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void rawConditionFindsTheSameEntitiesAsAnEntityCondition(boolean compression) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(compression)) {
+            saveUsers(repository);
+
+            assertSameEntities(repository.findByCondition(user -> user.getCountry().equals("UK")),
+                    repository.findByRawCondition(record -> record.valueEquals("country", "UK")));
+            assertSameEntities(repository.findByCondition(user -> user.getAge() > 60),
+                    repository.findByRawCondition(record -> record.getInt("age") > 60));
+            assertEquals(List.of(), repository.findByRawCondition(record -> record.containsKey("missing")));
+        }
+    }
+
+    @Test
+    void limitedRawScanReturnsTheFirstMatches() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false)) {
+            saveUsers(repository);
+            Predicate<User> condition = user -> user.getCountry().equals("SK");
+
+            assertSameEntities(repository.findByCondition(condition, 5),
+                    repository.findByRawCondition(record -> record.valueEquals("country", "SK"), 5,
+                            ScanOrder.ORDERED));
+            assertThrows(IllegalArgumentException.class,
+                    () -> repository.findByRawCondition(record -> true, -1, ScanOrder.ORDERED));
+        }
+    }
+
+    @Test
+    void projectionReturnsOnlyTheRequestedValues() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false)) {
+            saveUsers(repository);
+
+            List<Map<String, String>> projected = repository.findProjected(
+                    record -> record.valueEquals("country", "CZ"), record -> record.project("id", "username"));
+
+            List<Map<String, String>> expected = repository.findByCondition(user -> user.getCountry().equals("CZ"))
+                    .stream()
+                    .map(user -> Map.of("id", user.getId().getValue(), "username", user.getUsername()))
+                    .toList();
+            assertEquals(expected, projected);
+            assertThrows(IllegalArgumentException.class, () -> repository.findProjected(record -> true, null));
+        }
+    }
+
+    @Test
+    void rawScansRequireATextSerializer() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = new FileEntityRepository<>(
+                dir.toString(), new UserBinarySerializer(), RepositoryOptions.builder().build())) {
+            Predicate<RawRecord> any = record -> true;
+
+            assertThrows(DatabaseException.class, () -> repository.findByRawCondition(any));
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean compression) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(true)
+                .compression(compression)
+                .scanParallelism(2)
+                .build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static void saveUsers(FileEntityRepository<User, StringPrimaryKey> repository) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", COUNTRIES[i % 3], 18 + i % 60));
+        }
+        repository.saveAll(users);
+    }
+
+    private static void assertSameEntities(List<User> expected, List<User> actual) {
+        assertEquals(expected.stream().map(user -> user.getId().getValue()).toList(),
+                actual.stream().map(user -> user.getId().getValue()).toList());
+    }
+}
@@ -0,0 +1,195 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordCompressorTest {
+
+    private static final int MAXIMUM_RECORD_SIZE = 64 * 1024;
+    private static final byte MARKER = (byte) 0xFF;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compressibleRecordRoundTrips() {
+        RecordCompressor compressor = compressor(true);
+        byte[] record = record(1);
+
+        byte[] stored = compress(compressor, record);
+
+        assertEquals(MARKER, stored[0]);
+        assertTrue(stored.length < record.length);
+        assertArrayEquals(record, decompress(compressor, stored));
+    }
+
+    @Test
+    void recordsThatWouldNotShrinkAreStoredAsTheyAre() {
+        RecordCompressor compressor = compressor(true);
+        byte[] random = new byte[200];
+        new Random(1).nextBytes(random);
+        random[0] = 'x';
+        ByteBuffer tooLarge = ByteBuffer.wrap(new byte[MAXIMUM_RECORD_SIZE + 1]);
+
+        assertArrayEquals(random, compress(compressor, random));
+        assertSame(tooLarge, compressor.compress(tooLarge));
+        assertArrayEquals(random, decompress(compressor, random));
+        assertEquals(0, compressor.decompress(ByteBuffer.allocate(0)).remaining());
+    }
+
+    @Test
+    void disabledCompressorStillReadsCompressedRecords() {
+        byte[] record = record(2);
+        byte[] stored = compress(compressor(true), record);
+        RecordCompressor disabled = compressor(false);
+
+        assertArrayEquals(record, compress(disabled, record));
+        assertArrayEquals(record, decompress(disabled, stored));
+        assertThrows(DatabaseException.class, () -> disabled.train(List.of(record)));
+    }
+
+    @Test
+    void trainedDictionariesAreKeptAndOlderRecordsStayReadable() {
+        RecordCompressor compressor = compressor(true);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(record(i));
+        }
+        byte[] record = record(100);
+        byte[] withoutDictionary = compress(compressor, record);
+
+        CompressionStats first = compressor.train(samples);
+        byte[] withFirst = compress(compressor, record);
+        CompressionStats second = compressor.train(samples.subList(0, 10));
+        byte[] withSecond = compress(compressor, record);
+
+        assertEquals(1, first.dictionaryId());
+        assertEquals(2, second.dictionaryId());
+        assertTrue(first.dictionarySize() > 0);
+        assertTrue(withFirst.length < withoutDictionary.length,
+                withFirst.length + " bytes with, " + withoutDictionary.length + " without a dictionary");
+        assertTrue(new File(dir.toFile(), "dict-1.bin").isFile());
+
+        RecordCompressor reopened = compressor(true);
+        for (byte[] stored : new byte[][]{withoutDictionary, withFirst, withSecond}) {
+            assertArrayEquals(record, decompress(reopened, stored));
+        }
+        assertEquals(2, reopened.getStats().dictionaryId());
+    }
+
+    @Test
+    void recordOfAMissingDictionaryIsRejected() {
+        RecordCompressor compressor = compressor(true);
+        compressor.train(List.of(record(1), record(2), record(3)));
+        byte[] stored = compress(compressor, record(4));
+        assertTrue(new File(dir.toFile(), "dict-1.bin").delete());
+
+        DatabaseException error = assertThrows(DatabaseException.class,
+                () -> compressor(true).decompress(ByteBuffer.wrap(stored)));
+        assertEquals("Missing compression dictionary 1", error.getMessage());
+    }
+
+    @Test
+    void corruptHeadersAreRejected() {
+        RecordCompressor compressor = compressor(true);
+        byte[] stored = compress(compressor, record(1));
+
+        assertRejected(compressor, new byte[]{MARKER});
+        assertRejected(compressor, new byte[]{MARKER, 0});
+        assertRejected(compressor, new byte[]{MARKER, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, 0});
+        assertRejected(compressor, Arrays.copyOf(stored, stored.length / 2));
+
+        byte[] garbage = stored.clone();
+        for (int i = 4; i < garbage.length; i++) {
+            garbage[i] = (byte) 0xFF;
+        }
+        assertRejected(compressor, garbage);
+    }
+
+    @Test
+    void oversizedLengthsAreRejectedBeforeAllocating() {
+        RecordCompressor compressor = compressor(true);
+        // Dictionary 0, length 2^31 - 1 and 2^32 - 1 read as -1
+        byte[] huge = {MARKER, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        byte[] negative = {MARKER, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        byte[] justOver = ByteBuffer.allocate(8).put(MARKER).put((byte) 0)
+                .put(new byte[]{(byte) 0x81, (byte) 0x80, 0x04}).array();
+
+        for (byte[] header : new byte[][]{huge, negative, justOver}) {
+            DatabaseException error = assertThrows(DatabaseException.class,
+                    () -> compressor.decompress(ByteBuffer.wrap(header)));
+            assertTrue(error.getMessage().endsWith("exceeds the maximum record size " + MAXIMUM_RECORD_SIZE),
+                    error.getMessage());
+        }
+    }
+
+    @Test
+    void repositoryReadsRecordsAcrossDictionariesAndSettings() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", "CZ", 20 + i % 40));
+        }
+        RepositoryOptions compressed = RepositoryOptions.builder().compression(true).build();
+        try (FileEntityRepository<User, StringPrimaryKey> repository
+                = new FileEntityRepository<>(dir.toString(), new UserSerializer(), compressed)) {
+            repository.saveAll(users.subList(0, 50));
+            CompressionStats trained = repository.trainCompressionDictionary(50);
+            repository.saveAll(users.subList(50, 100));
+
+            assertEquals(1, trained.dictionaryId());
+            assertTrue(repository.getCompressionStats().ratio() < 1.0);
+        }
+        try (FileEntityRepository<User, StringPrimaryKey> repository = new FileEntityRepository<>(
+                dir.toString(), new UserSerializer(), RepositoryOptions.builder().build())) {
+            assertEquals(100, repository.findAll().size());
+            assertEquals("user75", repository.findById(new StringPrimaryKey("75")).getUsername());
+            assertThrows(DatabaseException.class, () -> repository.trainCompressionDictionary(10));
+        }
+    }
+
+    private RecordCompressor compressor(boolean enabled) {
+        return new RecordCompressor(dir.toFile(), enabled, MAXIMUM_RECORD_SIZE);
+    }
+
+    private static byte[] record(int i) {
+        return new UserSerializer().serialize(new User(String.valueOf(i), "user" + i, "Firstname", "Lastname",
+                "CZ", 20 + i % 40)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(RecordCompressor compressor, byte[] record) {
+        return toArray(compressor.compress(ByteBuffer.wrap(record)));
+    }
+
+    private static byte[] decompress(RecordCompressor compressor, byte[] stored) {
+        return toArray(compressor.decompress(ByteBuffer.wrap(stored)));
+    }
+
+    private static void assertRejected(RecordCompressor compressor, byte[] stored) {
+        assertThrows(DatabaseException.class, () -> compressor.decompress(ByteBuffer.wrap(stored)),
+                Arrays.toString(stored));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
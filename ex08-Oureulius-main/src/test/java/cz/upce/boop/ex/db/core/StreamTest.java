@@ -0,0 +1,131 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamTest {
+
+    private static final int COUNT = 200;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void streamReturnsTheSameEntitiesAsFindAll(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(users());
+
+            Set<String> expected = ids(repository.findAll());
+            try (Stream<User> stream = repository.stream()) {
+                assertEquals(expected, ids(stream.toList()));
+            }
+            try (Stream<User> stream = repository.stream().parallel()) {
+                assertEquals(expected, ids(stream.toList()));
+            }
+            assertEquals(COUNT, expected.size());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void streamByConditionMatchesFindByCondition(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(users());
+
+            try (Stream<User> stream = repository.streamByCondition(user -> user.getAge() > 50)) {
+                assertEquals(ids(repository.findByCondition(user -> user.getAge() > 50)), ids(stream.toList()));
+            }
+            assertThrows(IllegalArgumentException.class, () -> repository.streamByCondition(null));
+        }
+    }
+
+    @Test
+    void findFirstStopsEvaluatingTheCondition() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(false)) {
+            repository.saveAll(users());
+            AtomicInteger tested = new AtomicInteger();
+
+            try (Stream<User> stream = repository.streamByCondition(user -> tested.incrementAndGet() > 0)) {
+                assertTrue(stream.findFirst().isPresent());
+            }
+            assertEquals(1, tested.get());
+
+            tested.set(0);
+            try (Stream<User> stream = repository.streamByCondition(user -> tested.incrementAndGet() > 0)) {
+                assertEquals(5, stream.limit(5).count());
+            }
+            assertTrue(tested.get() <= 5, tested.get() + " entities tested");
+        }
+    }
+
+    @Test
+    void streamIsEmptyForAnEmptyRepository() {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(true);
+                Stream<User> stream = repository.stream()) {
+            assertEquals(0, stream.count());
+        }
+    }
+
+    @Test
+    void spliteratorOverAnIteratorSplitsIntoBatches() {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            paths.add(Path.of(String.valueOf(i)));
+        }
+        Function<Path, String> reader = path -> path.toString().endsWith("7") ? null : path.toString();
+        Spliterator<String> root = new EntitySpliterator<>(paths.iterator(), reader, null);
+
+        assertEquals(Long.MAX_VALUE, root.estimateSize());
+        Spliterator<String> batch = root.trySplit();
+        assertNotNull(batch);
+        assertTrue(batch.estimateSize() > 0 && batch.estimateSize() < Long.MAX_VALUE);
+        Spliterator<String> half = batch.trySplit();
+        assertNotNull(half);
+
+        List<String> read = new ArrayList<>();
+        half.forEachRemaining(read::add);
+        batch.forEachRemaining(read::add);
+        root.forEachRemaining(read::add);
+
+        List<String> expected = paths.stream().map(Path::toString).filter(name -> !name.endsWith("7")).toList();
+        assertEquals(expected, read);
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder().writeAheadLog(writeAheadLog).build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static List<User> users() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", "CZ", i % 90));
+        }
+        return users;
+    }
+
+    private static Set<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).collect(Collectors.toCollection(HashSet::new));
+    }
+}
@@ -0,0 +1,133 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void commitAppliesEveryOperation(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(user("1", "CZ"));
+            repository.save(user("2", "CZ"));
+
+            try (Transaction<User, StringPrimaryKey> transaction = repository.beginTransaction()) {
+                transaction.save(user("3", "SK"))
+                        .update(user("1", "AT"))
+                        .delete(new StringPrimaryKey("2"))
+                        .commit();
+            }
+
+            assertEquals("SK", repository.findById(new StringPrimaryKey("3")).getCountry());
+            assertEquals("AT", repository.findById(new StringPrimaryKey("1")).getCountry());
+            assertFalse(repository.exists(new StringPrimaryKey("2")));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void failedCommitAppliesNothing(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(user("1", "CZ"));
+            repository.save(user("2", "CZ"));
+
+            Transaction<User, StringPrimaryKey> transaction = repository.beginTransaction()
+                    .save(user("3", "SK"))
+                    .update(user("1", "AT"))
+                    .delete(new StringPrimaryKey("2"))
+                    // Already exists, so the whole transaction fails
+                    .save(user("1", "PL"));
+            assertThrows(DatabaseException.class, transaction::commit);
+
+            assertFalse(repository.exists(new StringPrimaryKey("3")));
+            assertEquals("CZ", repository.findById(new StringPrimaryKey("1")).getCountry());
+            assertTrue(repository.exists(new StringPrimaryKey("2")));
+            assertEquals(2, repository.count());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void laterOperationsSeeEarlierOnesOfTheSameTransaction(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.beginTransaction()
+                    .save(user("1", "CZ"))
+                    .update(user("1", "SK"))
+                    .delete(new StringPrimaryKey("1"))
+                    .saveOrUpdate(user("1", "AT"))
+                    .commit();
+
+            assertEquals("AT", repository.findById(new StringPrimaryKey("1")).getCountry());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void rollbackDiscardsStagedOperations(boolean writeAheadLog) {
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            Transaction<User, StringPrimaryKey> transaction = repository.beginTransaction().save(user("1", "CZ"));
+            transaction.rollback();
+
+            assertNull(repository.findById(new StringPrimaryKey("1")));
+            assertThrows(IllegalStateException.class, () -> transaction.save(user("2", "CZ")));
+            assertThrows(IllegalStateException.class, transaction::commit);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void committedEntitiesSurviveAReopenWithoutClose(boolean writeAheadLog) {
+        FileEntityRepository<User, StringPrimaryKey> crashed = open(writeAheadLog);
+        crashed.beginTransaction().save(user("1", "CZ")).save(user("2", "SK")).commit();
+
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            assertEquals(2, repository.count());
+            assertEquals("SK", repository.findById(new StringPrimaryKey("2")).getCountry());
+        }
+    }
+
+    @Test
+    void reopenAfterATornLogTailKeepsCommittedEntities() throws IOException {
+        FileEntityRepository<User, StringPrimaryKey> crashed = open(true);
+        crashed.save(user("1", "CZ"));
+        crashed.beginTransaction().save(user("2", "SK")).update(user("1", "AT")).commit();
+        Files.write(dir.resolve("wal").resolve("journal.log"), new byte[]{0, 0, 1, 0, 7, 7},
+                StandardOpenOption.APPEND);
+
+        try (FileEntityRepository<User, StringPrimaryKey> repository = open(true)) {
+            assertEquals(2, repository.count());
+            assertEquals("AT", repository.findById(new StringPrimaryKey("1")).getCountry());
+
+            repository.save(user("3", "PL"));
+            assertEquals(3, repository.count());
+        }
+    }
+
+    private FileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder().writeAheadLog(writeAheadLog).build();
+        return new FileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+    }
+
+    private static User user(String id, String country) {
+        return new User(id, "user" + id, "First", "Last", country, 30);
+    }
+}
@@ -0,0 +1,129 @@
+package cz.upce.boop.ex.db.core;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.index.IndexedFileEntityRepository;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnchangedUpdateTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void unchangedEntityIsNeitherWrittenNorReported(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(writeAheadLog)
+                .primaryKeyCatalog(true)
+                .build();
+        try (FileEntityRepository<User, StringPrimaryKey> repository
+                = new FileEntityRepository<>(dir.toString(), new UserSerializer(), options)) {
+            List<StringPrimaryKey> changes = recordChanges(repository);
+            repository.save(user("CZ", 30));
+            File file = entityFile();
+            assertTrue(file.setLastModified(OLD_TIMESTAMP));
+
+            repository.update(user("CZ", 30));
+
+            assertEquals(OLD_TIMESTAMP, file.lastModified());
+            assertEquals(1, changes.size());
+
+            repository.update(user("CZ", 31));
+
+            assertNotEquals(OLD_TIMESTAMP, file.lastModified());
+            assertEquals(2, changes.size());
+            assertEquals(31, repository.findById(new StringPrimaryKey("1")).getAge());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void unchangedEntityIsDetectedAfterReopening(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(writeAheadLog)
+                .primaryKeyCatalog(true)
+                .build();
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options)) {
+            repository.save(user("CZ", 30));
+        }
+        File file = entityFile();
+        assertTrue(file.setLastModified(OLD_TIMESTAMP));
+
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options)) {
+            repository.update(user("CZ", 30));
+
+            assertEquals(OLD_TIMESTAMP, file.lastModified());
+
+            repository.delete(new StringPrimaryKey("1"));
+            repository.save(user("CZ", 31));
+            assertTrue(file.setLastModified(OLD_TIMESTAMP));
+            repository.update(user("CZ", 30));
+
+            assertNotEquals(OLD_TIMESTAMP, file.lastModified());
+            assertEquals(30, repository.findById(new StringPrimaryKey("1")).getAge());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void indexesAreOnlySavedWhenAnIndexedValueChanges(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder().writeAheadLog(writeAheadLog).build();
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options)) {
+            repository.createNonUniqueIndex("country", User::getCountry);
+            repository.save(user("CZ", 30));
+            File indexFile = dir.resolve("indexes").resolve("country.idx").toFile();
+            assertTrue(indexFile.setLastModified(OLD_TIMESTAMP));
+
+            repository.update(user("CZ", 31));
+
+            assertEquals(OLD_TIMESTAMP, indexFile.lastModified());
+            assertEquals(31, repository.findByIndexedValue("country", "CZ").get(0).getAge());
+
+            repository.update(user("SK", 31));
+
+            assertNotEquals(OLD_TIMESTAMP, indexFile.lastModified());
+            assertEquals(List.of(), repository.findByIndexedValue("country", "CZ"));
+            assertEquals(1, repository.findByIndexedValue("country", "SK").size());
+        }
+    }
+
+    private File entityFile() {
+        return dir.resolve(new StringPrimaryKey("1").toFileName()).toFile();
+    }
+
+    private static List<StringPrimaryKey> recordChanges(FileEntityRepository<User, StringPrimaryKey> repository) {
+        List<StringPrimaryKey> changes = new ArrayList<>();
+        repository.addChangeListener(new EntityChangeListener<>() {
+            @Override
+            public void entityChanged(StringPrimaryKey id) {
+                changes.add(id);
+            }
+
+            @Override
+            public void entitiesCleared() {
+            }
+        });
+        return changes;
+    }
+
+    private static User user(String country, int age) {
+        return new User("1", "user1", "First", "Last", country, age);
+    }
+}
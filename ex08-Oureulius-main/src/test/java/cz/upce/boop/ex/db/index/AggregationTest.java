@@ -0,0 +1,120 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregationTest {
+
+    private static final String[] COUNTRIES = {"CZ", "CZ", "SK", "PL", "CZ"};
+
+    @TempDir
+    Path dir;
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> repository;
+
+    @BeforeEach
+    void createRepository() {
+        repository = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(),
+                RepositoryOptions.builder().build());
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.createNonUniqueIndex("age", User::getAge);
+    }
+
+    @AfterEach
+    void closeRepository() {
+        repository.close();
+    }
+
+    @Test
+    void aggregatesMatchTheEntities() {
+        saveUsers(100);
+        List<User> users = repository.findAll();
+
+        Map<String, Integer> expected = users.stream()
+                .collect(Collectors.groupingBy(User::getCountry, Collectors.summingInt(user -> 1)));
+        assertEquals(expected, repository.countBy("country"));
+        assertEquals(expected.keySet(), repository.distinctValues("country"));
+        assertEquals(60, repository.countByIndexedValue("country", "CZ"));
+        assertEquals(0, repository.countByIndexedValue("country", "DE"));
+        assertEquals(1, repository.countByIndexedValue("username", "user7"));
+        assertEquals(100, repository.distinctValues("username").size());
+
+        assertEquals(users.stream().mapToInt(User::getAge).min().getAsInt(),
+                (int) repository.<Integer>minIndexedValue("age"));
+        assertEquals(users.stream().mapToInt(User::getAge).max().getAsInt(),
+                (int) repository.<Integer>maxIndexedValue("age"));
+    }
+
+    @Test
+    void aggregatesAreAnsweredWithoutReadingEntities() {
+        saveUsers(20);
+        File[] entityFiles = dir.toFile().listFiles(File::isFile);
+        assertTrue(entityFiles.length >= 20);
+        for (File file : entityFiles) {
+            assertTrue(file.delete());
+        }
+
+        assertEquals(Map.of("CZ", 12, "SK", 4, "PL", 4), repository.countBy("country"));
+        assertEquals(Set.of("CZ", "SK", "PL"), repository.distinctValues("country"));
+        assertEquals(20, (int) repository.<Integer>minIndexedValue("age"));
+    }
+
+    @Test
+    void aggregatesFollowChanges() {
+        saveUsers(10);
+
+        repository.delete(new StringPrimaryKey("0"));
+        repository.update(new User("2", "user2", "First", "Last", "DE", 99));
+
+        assertEquals(Map.of("CZ", 5, "PL", 2, "DE", 1, "SK", 1), repository.countBy("country"));
+        assertEquals(21, (int) repository.<Integer>minIndexedValue("age"));
+        assertEquals(99, (int) repository.<Integer>maxIndexedValue("age"));
+
+        repository.truncate();
+
+        assertEquals(Map.of(), repository.countBy("country"));
+        assertNull(repository.minIndexedValue("age"));
+        assertNull(repository.maxIndexedValue("age"));
+    }
+
+    @Test
+    void unknownIndexesAndUnorderedValuesAreRejected() {
+        repository.createNonUniqueIndex("mixed", user -> user.getAge() % 2 == 0 ? user.getAge() : user.getCountry());
+        saveUsers(10);
+
+        assertThrows(DatabaseException.class, () -> repository.countBy("missing"));
+        assertThrows(DatabaseException.class, () -> repository.minIndexedValue("mixed"));
+        // Five even ages and the countries CZ, PL and SK of the odd ones
+        assertEquals(8, repository.distinctValues("mixed").size());
+    }
+
+    private void saveUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", COUNTRIES[i % COUNTRIES.length],
+                    20 + i % 45));
+        }
+        repository.saveAll(users);
+    }
+}
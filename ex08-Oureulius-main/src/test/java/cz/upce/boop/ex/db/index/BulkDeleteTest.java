@@ -0,0 +1,136 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.wal.WalRecord;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkDeleteTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deleteByIndexedValueRemovesTheEntitiesFromEveryIndex(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(users());
+
+            assertEquals(4, repository.deleteByIndexedValue("country", "CZ"));
+
+            assertEquals(6, repository.count());
+            assertEquals(List.of(), repository.findByIndexedValue("country", "CZ"));
+            assertFalse(repository.exists(new StringPrimaryKey("0")));
+            // The unique values of the deleted entities are free again
+            repository.save(new User("new", "user0", "First", "Last", "AT", 20));
+            assertEquals("new", repository.findByIndexedValue("username", "user0").get(0).getId().getValue());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deleteByConditionReturnsTheNumberOfDeletedEntities(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(users());
+
+            assertEquals(5, repository.deleteByCondition(user -> user.getAge() >= 25));
+
+            assertEquals(5, repository.count());
+            assertTrue(repository.findAll().stream().allMatch(user -> user.getAge() < 25));
+            assertEquals(3, repository.countByIndexedValue("country", "CZ"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void truncateDeletesEverythingAndKeepsTheRepositoryUsable(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.saveAll(users());
+
+            repository.truncate();
+
+            assertEquals(0, repository.count());
+            assertEquals(List.of(), repository.findByIndexedValue("country", "SK"));
+            repository.save(new User("1", "user1", "First", "Last", "SK", 20));
+            assertEquals(1, repository.findByIndexedValue("country", "SK").size());
+        }
+
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> reopened = open(writeAheadLog)) {
+            assertEquals(1, reopened.count());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void failedTruncateKeepsTheKeysAndTheIndexes(boolean writeAheadLog) {
+        AtomicBoolean failing = new AtomicBoolean();
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(writeAheadLog)
+                .primaryKeyCatalog(true)
+                .build();
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options) {
+            @Override
+            protected void applyTransactions(List<List<WalRecord>> transactions) {
+                if (failing.get()) {
+                    throw new DatabaseException("Simulated failure");
+                }
+                super.applyTransactions(transactions);
+            }
+        };
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.saveAll(users());
+
+        failing.set(true);
+        assertThrows(DatabaseException.class, repository::truncate);
+
+        assertEquals(10, repository.count());
+        assertTrue(repository.exists(new StringPrimaryKey("0")));
+        assertEquals(4, repository.countByIndexedValue("country", "CZ"));
+        assertEquals("0", repository.findByIndexedValue("username", "user0").get(0).getId().getValue());
+        if (writeAheadLog) {
+            // The log stays unavailable after the failure
+            assertThrows(DatabaseException.class, repository::close);
+        } else {
+            failing.set(false);
+            repository.truncate();
+            assertEquals(0, repository.count());
+            repository.close();
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder().writeAheadLog(writeAheadLog).build();
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        return repository;
+    }
+
+    private static List<User> users() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", i % 2 == 0 ? "CZ" : "SK", 20 + i));
+        }
+        // Leaves 0, 2, 4 and 6 in CZ
+        users.set(8, new User("8", "user8", "First", "Last", "AT", 28));
+        return users;
+    }
+}
@@ -0,0 +1,134 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexStatisticsTest {
+
+    private static final int COUNT = 1_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void exactCountsAndMostCommonValues() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            saveUsers(repository);
+
+            IndexStatistics country = repository.getIndexStatistics("country");
+            assertEquals(COUNT, country.entryCount());
+            // CZ, SK and one country per remaining user
+            assertEquals(2 + 100, country.distinctValues());
+            assertEquals(new IndexStatistics.ValueFrequency("CZ", 800), country.mostCommonValues().get(0));
+            assertEquals(new IndexStatistics.ValueFrequency("SK", 100), country.mostCommonValues().get(1));
+            assertEquals(800, country.estimateEquals("CZ"));
+            assertEquals(1, country.estimateEquals("X7"));
+            assertEquals(0.8, country.selectivity("CZ"), 1e-9);
+
+            IndexStatistics age = repository.getIndexStatistics("age");
+            assertEquals(0, age.minValue());
+            assertEquals(99, age.maxValue());
+            assertEquals(100, age.distinctValues());
+        }
+    }
+
+    @Test
+    void rangeEstimatesFollowTheHistogram() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            saveUsers(repository);
+            IndexStatistics age = repository.getIndexStatistics("age");
+
+            assertEstimate(repository.findByCondition(user -> user.getAge() >= 20 && user.getAge() <= 49).size(),
+                    age.estimateRange(20, 49));
+            assertEstimate(repository.findByCondition(user -> user.getAge() <= 9).size(),
+                    age.estimateRange(null, 9));
+            assertEquals(COUNT, age.estimateRange(null, null));
+            assertEquals(0, age.estimateRange(200, 300));
+            assertEquals(0, age.estimateEquals(-5));
+        }
+    }
+
+    @Test
+    void valuesOfAnotherTypeGetNeutralEstimates() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            saveUsers(repository);
+            IndexStatistics age = repository.getIndexStatistics("age");
+
+            assertEquals(Math.round(COUNT / 3.0), age.estimateRange("a", "z"));
+            assertEquals(age.estimateEquals(42), age.estimateEquals("42"));
+            assertTrue(age.selectivity("42") <= 1.0);
+        }
+    }
+
+    @Test
+    void statisticsFollowChangesAndSurviveReopening() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            saveUsers(repository);
+            repository.getIndexStatistics("age");
+
+            repository.deleteByCondition(user -> user.getAge() == 0 || user.getAge() == 99);
+            repository.save(new User("new", "new", "First", "Last", "SK", 150));
+
+            IndexStatistics age = repository.getIndexStatistics("age");
+            assertEquals(COUNT - 20 + 1, age.entryCount());
+            assertEquals(1, age.minValue());
+            assertEquals(150, age.maxValue());
+            // Two of the deleted users were from SK
+            assertEquals(99, repository.getIndexStatistics("country").estimateEquals("SK"));
+        }
+
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            IndexStatistics age = repository.getIndexStatistics("age");
+            assertEquals(COUNT - 20 + 1, age.entryCount());
+            assertEquals(99, age.distinctValues());
+            assertEquals(150, age.maxValue());
+        }
+    }
+
+    @Test
+    void unorderedValuesHaveNoMinMaxOrHistogram() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open()) {
+            repository.createNonUniqueIndex("mixed", user -> user.getAge() % 2 == 0 ? user.getAge() : user.getCountry());
+            saveUsers(repository);
+
+            IndexStatistics mixed = repository.getIndexStatistics("mixed");
+            assertNull(mixed.minValue());
+            assertNull(mixed.maxValue());
+            assertEquals(List.of(), mixed.histogramBounds());
+            assertEquals(COUNT, mixed.entryCount());
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open() {
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository = new IndexedFileEntityRepository<>(
+                dir.toString(), new UserSerializer(), RepositoryOptions.builder().build());
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.createNonUniqueIndex("age", User::getAge);
+        return repository;
+    }
+
+    private static void saveUsers(IndexedFileEntityRepository<User, StringPrimaryKey> repository) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            String country = i < 800 ? "CZ" : i < 900 ? "SK" : "X" + i % 100;
+            users.add(new User(String.valueOf(i), "user" + i, "First", "Last", country, i % 100));
+        }
+        repository.saveAll(users);
+    }
+
+    private static void assertEstimate(long actual, long estimate) {
+        assertTrue(Math.abs(actual - estimate) <= actual / 10, "estimated " + estimate + " for " + actual);
+    }
+}
@@ -0,0 +1,98 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndexedValuesTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void updateTakesTheOldValuesFromTheIndexes(boolean writeAheadLog) throws IOException {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "svoboda", "Petr", "Svoboda", "CZ", 40));
+            // The old version cannot be read, so it must not be needed
+            corrupt("1");
+
+            repository.update(new User("1", "novak2", "Jan", "Novak", "SK", 30));
+
+            assertIndexed(repository, "SK", "1");
+            assertIndexed(repository, "CZ", "2");
+            assertEquals(List.of(List.of("SK", 30)), repository.distinctValues("countryAge").stream()
+                    .filter(value -> ((List<?>) value).get(0).equals("SK")).toList());
+            assertEquals("novak2", repository.findByIndexedValue("username", "novak2").get(0).getUsername());
+            assertEquals(List.of(), repository.findByIndexedValue("username", "novak"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deleteTakesTheOldValuesFromTheIndexes(boolean writeAheadLog) throws IOException {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "svoboda", "Petr", "Svoboda", "CZ", 40));
+            corrupt("1");
+
+            repository.delete(new StringPrimaryKey("1"));
+
+            assertIndexed(repository, "CZ", "2");
+            assertEquals(0, repository.countByIndexedValue("username", "novak"));
+            // The username is free again
+            repository.save(new User("3", "novak", "Jana", "Novakova", "SK", 25));
+            assertIndexed(repository, "SK", "3");
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void valuesPerKeyAreRebuiltWhenReopening(boolean writeAheadLog) throws IOException {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "svoboda", "Petr", "Svoboda", "CZ", 40));
+        }
+
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            corrupt("1");
+            repository.update(new User("1", "novak", "Jan", "Novak", "PL", 31));
+
+            assertIndexed(repository, "PL", "1");
+            assertIndexed(repository, "CZ", "2");
+            assertEquals(31, (int) repository.<Integer>minIndexedValue("age"));
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository = new IndexedFileEntityRepository<>(
+                dir.toString(), new UserSerializer(), RepositoryOptions.builder().writeAheadLog(writeAheadLog).build());
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.createNonUniqueIndex("age", User::getAge);
+        repository.createMultiColumnIndex("countryAge", user -> List.of(user.getCountry(), user.getAge()), false);
+        return repository;
+    }
+
+    private void corrupt(String id) throws IOException {
+        Files.writeString(dir.resolve(new StringPrimaryKey(id).toFileName()), "garbage without any keys");
+    }
+
+    private static void assertIndexed(IndexedFileEntityRepository<User, StringPrimaryKey> repository,
+            String country, String... ids) {
+        assertEquals(List.of(ids), repository.findByIndexedValue("country", country).stream()
+                .map(user -> user.getId().getValue()).sorted().toList());
+    }
+}
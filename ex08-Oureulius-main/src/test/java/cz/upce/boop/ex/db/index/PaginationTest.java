@@ -0,0 +1,192 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.IntPrimaryKey;
+import cz.upce.boop.ex.db.core.Page;
+import cz.upce.boop.ex.db.core.PageToken;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.SortDirection;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaginationTest {
+
+    private static final int COUNT = 53;
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void primaryKeyPagesCoverEveryEntityOnceInOrder(boolean primaryKeyCatalog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(primaryKeyCatalog, null)) {
+            saveUsers(repository);
+            List<String> ids = repository.findAll().stream().map(PaginationTest::id).toList();
+
+            assertEquals(ids.stream().sorted().toList(), pageThrough(token -> repository.findPage(10, token)));
+            assertEquals(ids.stream().sorted(Comparator.reverseOrder()).toList(),
+                    pageThrough(token -> repository.findPage(10, SortDirection.DESCENDING, token)));
+            assertThrows(IllegalArgumentException.class, () -> repository.findPage(0, null));
+        }
+    }
+
+    @Test
+    void pagesStayConsistentWhileEntitiesChange() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(true, null)) {
+            saveUsers(repository);
+
+            Page<User> first = repository.findPage(5, null);
+            String lastOfFirst = id(first.items().get(4));
+            // Deleting the last entity of a page does not lose the position
+            repository.delete(first.items().get(4).getId());
+            repository.save(new User("0", "early", "First", "Last", "CZ", 30));
+
+            Page<User> second = repository.findPage(5, first.nextPageToken());
+            assertTrue(second.items().stream().allMatch(user -> id(user).compareTo(lastOfFirst) > 0));
+        }
+    }
+
+    @Test
+    void indexPagesFollowTheIndexOrderWithTiesByPrimaryKey() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, null)) {
+            saveUsers(repository);
+            Comparator<User> order = Comparator.comparingInt(User::getAge).thenComparing(PaginationTest::id);
+            List<User> all = repository.findAll();
+
+            List<String> ascending = all.stream().sorted(order).map(PaginationTest::id).toList();
+            assertEquals(ascending, pageThrough(token -> repository.findPage("age", 7, SortDirection.ASCENDING, token)));
+
+            List<String> descending = all.stream().sorted(order.reversed()).map(PaginationTest::id).toList();
+            assertEquals(descending,
+                    pageThrough(token -> repository.findPage("age", 7, SortDirection.DESCENDING, token)));
+        }
+    }
+
+    @Test
+    void topNWalksTheIndex() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, null)) {
+            saveUsers(repository);
+            List<User> all = repository.findAll();
+            Comparator<User> byAge = Comparator.comparingInt(User::getAge).thenComparing(PaginationTest::id);
+
+            assertEquals(all.stream().sorted(byAge).limit(5).map(PaginationTest::id).toList(),
+                    repository.topN("age", 5, SortDirection.ASCENDING).stream().map(PaginationTest::id).toList());
+            assertEquals(all.stream().sorted(byAge.reversed()).limit(5).map(PaginationTest::id).toList(),
+                    repository.topN("age", 5, SortDirection.DESCENDING).stream().map(PaginationTest::id).toList());
+            assertEquals(COUNT, repository.topN("age", 1_000, SortDirection.ASCENDING).size());
+            assertEquals(List.of(), repository.topN("age", 0, SortDirection.ASCENDING));
+        }
+    }
+
+    @Test
+    void tokensOnlyWorkForTheirOrdering() {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, null)) {
+            saveUsers(repository);
+            String byAge = repository.findPage("age", 5, SortDirection.ASCENDING, null).nextPageToken();
+            String byKey = repository.findPage(5, null).nextPageToken();
+
+            assertOtherOrdering(() -> repository.findPage("country", 5, SortDirection.ASCENDING, byAge));
+            assertOtherOrdering(() -> repository.findPage("age", 5, SortDirection.DESCENDING, byAge));
+            assertOtherOrdering(() -> repository.findPage(5, byAge));
+            assertOtherOrdering(() -> repository.findPage("age", 5, SortDirection.ASCENDING, byKey));
+            assertOtherOrdering(() -> repository.findPage(5, SortDirection.DESCENDING, byKey));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void signedTokensWithPositionsOfOtherTypesAreRejected(boolean primaryKeyCatalog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(primaryKeyCatalog, SECRET)) {
+            saveUsers(repository);
+            PageToken pageTokens = new PageToken(SECRET);
+
+            String intKey = pageTokens.encode("pk", SortDirection.ASCENDING, null, new IntPrimaryKey(5));
+            String intKeyByAge = pageTokens.encode("age", SortDirection.ASCENDING, 25, new IntPrimaryKey(5));
+            String textAge = pageTokens.encode("age", SortDirection.ASCENDING, "25", new StringPrimaryKey("005"));
+
+            assertThrows(DatabaseException.class, () -> repository.findPage(5, intKey));
+            assertThrows(DatabaseException.class, () -> repository.findPage("age", 5, SortDirection.ASCENDING,
+                    intKeyByAge));
+            assertThrows(DatabaseException.class, () -> repository.findPage("age", 5, SortDirection.ASCENDING,
+                    textAge));
+        }
+    }
+
+    @Test
+    void tokensSurviveReopeningOnlyWithASharedSecret() {
+        String shared;
+        String random;
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, SECRET)) {
+            saveUsers(repository);
+            shared = repository.findPage(5, null).nextPageToken();
+        }
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, null)) {
+            random = repository.findPage(5, null).nextPageToken();
+            assertThrows(DatabaseException.class, () -> repository.findPage(5, shared));
+        }
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(false, SECRET)) {
+            assertFalse(repository.findPage(5, shared).items().isEmpty());
+            assertThrows(DatabaseException.class, () -> repository.findPage(5, random));
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open(boolean primaryKeyCatalog, byte[] secret) {
+        RepositoryOptions.Builder options = RepositoryOptions.builder().primaryKeyCatalog(primaryKeyCatalog);
+        if (secret != null) {
+            options.pageTokenSecret(secret);
+        }
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository = new IndexedFileEntityRepository<>(
+                dir.toString(), new UserSerializer(), options.build());
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.createNonUniqueIndex("age", User::getAge);
+        return repository;
+    }
+
+    private static void saveUsers(IndexedFileEntityRepository<User, StringPrimaryKey> repository) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            users.add(new User(String.format("%03d", (i * 37) % 100), "user" + i, "First", "Last",
+                    i % 2 == 0 ? "CZ" : "SK", 20 + i % 6));
+        }
+        repository.saveAll(users);
+    }
+
+    private static List<String> pageThrough(Function<String, Page<User>> fetch) {
+        List<String> ids = new ArrayList<>();
+        String token = null;
+        do {
+            Page<User> page = fetch.apply(token);
+            page.items().forEach(user -> ids.add(id(user)));
+            token = page.nextPageToken();
+        } while (token != null);
+        return ids;
+    }
+
+    private static void assertOtherOrdering(Executable executable) {
+        DatabaseException error = assertThrows(DatabaseException.class, executable);
+        assertEquals("Page token does not belong to this ordering", error.getMessage());
+    }
+
+    private static String id(User user) {
+        return user.getId().getValue();
+    }
+}
@@ -0,0 +1,125 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.cache.CacheStats;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.query.Query;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void indexLookupIsCachedUntilItsValueChanges(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            saveUsers(repository);
+
+            assertEquals(List.of("1", "3"), ids(repository.findByIndexedValue("country", "CZ")));
+            assertEquals(List.of("1", "3"), ids(repository.findByIndexedValue("country", "CZ")));
+            assertEquals(1, stats(repository).hitCount());
+
+            // Another value of the index does not drop the result
+            repository.save(new User("5", "user5", "First", "Last", "SK", 50));
+            ids(repository.findByIndexedValue("country", "CZ"));
+            assertEquals(2, stats(repository).hitCount());
+
+            repository.save(new User("6", "user6", "First", "Last", "CZ", 60));
+            assertEquals(List.of("1", "3", "6"), ids(repository.findByIndexedValue("country", "CZ")));
+            assertEquals(2, stats(repository).hitCount());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resultIsDroppedWhenOneOfItsEntitiesChanges(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            saveUsers(repository);
+            repository.findByIndexedValue("country", "CZ");
+
+            repository.update(new User("3", "user3", "Changed", "Last", "CZ", 31));
+
+            List<User> found = repository.findByIndexedValue("country", "CZ");
+            assertEquals("Changed", found.get(1).getFirstName());
+            assertEquals(0, stats(repository).hitCount());
+
+            repository.delete(new StringPrimaryKey("1"));
+            assertEquals(List.of("3"), ids(repository.findByIndexedValue("country", "CZ")));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void scannedQueryIsDroppedByAnyChange(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            saveUsers(repository);
+            Query adults = Query.range("age", 30, null);
+
+            assertEquals(List.of("3", "4"), ids(repository.find(adults)));
+            assertEquals(List.of("3", "4"), ids(repository.find(adults)));
+            assertEquals(1, stats(repository).hitCount());
+
+            repository.save(new User("5", "user5", "First", "Last", "PL", 70));
+            assertEquals(List.of("3", "4", "5"), ids(repository.find(adults)));
+
+            Query indexed = Query.and(Query.eq("country", "SK"), Query.range("age", 30, null));
+            assertEquals(List.of("4"), ids(repository.find(indexed)));
+            repository.update(new User("4", "user4", "First", "Last", "SK", 20));
+            assertEquals(List.of(), ids(repository.find(indexed)));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void truncateDropsEveryResult(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            saveUsers(repository);
+            repository.findByIndexedValue("country", "CZ");
+            repository.find(Query.eq("country", "SK"));
+
+            repository.truncate();
+
+            assertEquals(List.of(), repository.findByIndexedValue("country", "CZ"));
+            assertEquals(List.of(), repository.find(Query.eq("country", "SK")));
+            assertEquals(0, stats(repository).hitCount());
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        RepositoryOptions options = RepositoryOptions.builder()
+                .writeAheadLog(writeAheadLog)
+                .queryCacheMaximumSize(100)
+                .build();
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository
+                = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(), options);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.registerAttribute("age", User::getAge);
+        return repository;
+    }
+
+    private static void saveUsers(IndexedFileEntityRepository<User, StringPrimaryKey> repository) {
+        repository.save(new User("1", "user1", "First", "Last", "CZ", 10));
+        repository.save(new User("2", "user2", "First", "Last", "SK", 20));
+        repository.save(new User("3", "user3", "First", "Last", "CZ", 30));
+        repository.save(new User("4", "user4", "First", "Last", "SK", 40));
+    }
+
+    private static CacheStats stats(IndexedFileEntityRepository<User, StringPrimaryKey> repository) {
+        return repository.getQueryCacheStats();
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).sorted().toList();
+    }
+}
@@ -0,0 +1,157 @@
+package cz.upce.boop.ex.db.index;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UniqueConstraintTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void rejectedSaveLeavesNoValueReserved(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+
+            // The username is free, the full name is taken
+            assertThrows(DatabaseException.class,
+                    () -> repository.save(new User("2", "jnovak", "Jan", "Novak", "SK", 20)));
+
+            assertNull(repository.findById(new StringPrimaryKey("2")));
+            assertEquals(0, repository.countByIndexedValue("username", "jnovak"));
+            assertEquals(0, repository.countByIndexedValue("country", "SK"));
+            repository.save(new User("3", "jnovak", "Jana", "Novakova", "SK", 20));
+            assertEquals(List.of("3"), ids(repository.findByIndexedValue("username", "jnovak")));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void rejectedUpdateKeepsTheOldValues(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "svoboda", "Petr", "Svoboda", "CZ", 40));
+
+            assertThrows(DatabaseException.class,
+                    () -> repository.update(new User("2", "svoboda2", "Jan", "Novak", "SK", 40)));
+            assertThrows(DatabaseException.class,
+                    () -> repository.update(new User("2", "novak", "Petr", "Svoboda", "SK", 40)));
+
+            assertEquals(List.of("2"), ids(repository.findByIndexedValue("username", "svoboda")));
+            assertEquals(0, repository.countByIndexedValue("username", "svoboda2"));
+            assertEquals(List.of("1", "2"), ids(repository.findByIndexedValue("country", "CZ")));
+            assertEquals("svoboda", repository.findById(new StringPrimaryKey("2")).getUsername());
+
+            // Keeping its own unique values is not a violation
+            repository.update(new User("2", "svoboda", "Petr", "Svoboda", "SK", 41));
+            assertEquals(List.of("2"), ids(repository.findByIndexedValue("country", "SK")));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void valuesCanBeSwappedThroughAFreeValue(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "a", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "b", "Petr", "Svoboda", "CZ", 40));
+
+            repository.update(new User("1", "tmp", "Jan", "Novak", "CZ", 30));
+            repository.update(new User("2", "a", "Petr", "Svoboda", "CZ", 40));
+            repository.update(new User("1", "b", "Jan", "Novak", "CZ", 30));
+
+            assertEquals(List.of("2"), ids(repository.findByIndexedValue("username", "a")));
+            assertEquals(List.of("1"), ids(repository.findByIndexedValue("username", "b")));
+            assertEquals(0, repository.countByIndexedValue("username", "tmp"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void concurrentSavesOfOneValueAdmitExactlyOne(boolean writeAheadLog) throws Exception {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            int threads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<>();
+            try {
+                for (int i = 0; i < threads; i++) {
+                    String id = String.valueOf(i);
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            repository.save(new User(id, "taken", "First" + id, "Last", "CZ", 30));
+                            return true;
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
+                    }));
+                }
+                start.countDown();
+
+                int saved = 0;
+                for (Future<Boolean> result : results) {
+                    if (result.get(30, TimeUnit.SECONDS)) {
+                        saved++;
+                    }
+                }
+                assertEquals(1, saved);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            assertEquals(1, repository.findAll().size());
+            assertEquals(1, repository.countByIndexedValue("username", "taken"));
+            assertEquals(1, repository.countByIndexedValue("country", "CZ"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void creatingAUniqueIndexOverDuplicatesFails(boolean writeAheadLog) {
+        try (IndexedFileEntityRepository<User, StringPrimaryKey> repository = open(writeAheadLog)) {
+            repository.save(new User("1", "novak", "Jan", "Novak", "CZ", 30));
+            repository.save(new User("2", "svoboda", "Petr", "Svoboda", "CZ", 40));
+
+            assertThrows(DatabaseException.class, () -> repository.createUniqueIndex("country2", User::getCountry));
+
+            assertNull(repository.getIndex("country2"));
+            assertTrue(repository.exists(new StringPrimaryKey("2")));
+            assertFalse(repository.findByIndexedValue("country", "CZ").isEmpty());
+        }
+    }
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> open(boolean writeAheadLog) {
+        IndexedFileEntityRepository<User, StringPrimaryKey> repository = new IndexedFileEntityRepository<>(
+                dir.toString(), new UserSerializer(), RepositoryOptions.builder().writeAheadLog(writeAheadLog).build());
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createMultiColumnIndex("fullName", user -> List.of(user.getFirstName(), user.getLastName()), true);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        return repository;
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).sorted().toList();
+    }
+}
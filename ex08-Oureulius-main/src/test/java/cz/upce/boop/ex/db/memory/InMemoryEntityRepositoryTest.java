@@ -0,0 +1,284 @@
+package cz.upce.boop.ex.db.memory;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryEntityRepositoryTest {
+
+    @TempDir
+    File dir;
+
+    @ParameterizedTest
+    @EnumSource(Durability.class)
+    void restoresTheSnapshotAndTheJournalAfterClosing(Durability durability) {
+        Map<String, String> expected;
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(durability)) {
+            makeChanges(repository);
+            expected = contents(repository);
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(durability)) {
+            assertEquals(expected, contents(repository));
+            assertEquals(expected.size(), repository.count());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Durability.class, names = {"WRITE", "SYNC"})
+    void restoresTheSnapshotAndTheJournalAfterACrash(Durability durability) {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(durability);
+        makeChanges(crashed);
+        Map<String, String> expected = contents(crashed);
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(durability)) {
+            assertEquals(expected, contents(repository));
+            assertNull(repository.findById(new StringPrimaryKey("3")));
+            assertEquals("DE", repository.findById(new StringPrimaryKey("1")).getCountry());
+            assertTrue(repository.exists(new StringPrimaryKey("25")));
+        }
+    }
+
+    @Test
+    void snapshotOnlyLosesTheChangesAfterTheLastSnapshotInACrash() {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(Durability.SNAPSHOT_ONLY);
+        saveUsers(crashed, 0, 5);
+        crashed.snapshot();
+        saveUsers(crashed, 5, 10);
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.SNAPSHOT_ONLY)) {
+            assertEquals(5, repository.count());
+        }
+        assertEquals(0, journalFiles().length);
+    }
+
+    @Test
+    void periodicDurabilityLosesTheUnflushedChangesInACrash() {
+        InMemoryOptions options = InMemoryOptions.builder()
+                .durability(Durability.PERIODIC)
+                .flushInterval(Duration.ofHours(1))
+                .build();
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = new InMemoryEntityRepository<>(
+                dir.getPath(), new UserSerializer(), options);
+        saveUsers(crashed, 0, 5);
+        crashed.snapshot();
+        saveUsers(crashed, 5, 10);
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = new InMemoryEntityRepository<>(
+                dir.getPath(), new UserSerializer(), options)) {
+            assertEquals(5, repository.count());
+        }
+    }
+
+    @Test
+    void replaysDeletesAndClears() {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(Durability.WRITE);
+        saveUsers(crashed, 0, 10);
+        crashed.snapshot();
+        crashed.delete(new StringPrimaryKey("2"));
+        crashed.deleteAll(List.of(new StringPrimaryKey("4"), new StringPrimaryKey("5")));
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(7, repository.count());
+            assertFalse(repository.exists(new StringPrimaryKey("2")));
+            assertFalse(repository.exists(new StringPrimaryKey("5")));
+
+            repository.deleteAll();
+            saveUsers(repository, 20, 22);
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(List.of("20", "21"), List.copyOf(contents(repository).keySet()));
+        }
+    }
+
+    @Test
+    void ignoresATornFrameAtTheEndOfTheJournal() throws IOException {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(Durability.WRITE);
+        saveUsers(crashed, 0, 3);
+        crashed.snapshot();
+        saveUsers(crashed, 3, 4);
+        saveUsers(crashed, 4, 5);
+        File[] journals = journalFiles();
+        assertEquals(1, journals.length);
+        // A frame header promising more bytes than were written before the crash
+        try (RandomAccessFile file = new RandomAccessFile(journals[0], "rw")) {
+            file.seek(file.length());
+            file.write(ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(42).array());
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(5, repository.count());
+            // The journal keeps working after the torn frame was cut off
+            saveUsers(repository, 5, 6);
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(6, repository.count());
+        }
+    }
+
+    @Test
+    void ignoresAFrameWithABadChecksum() throws IOException {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(Durability.WRITE);
+        saveUsers(crashed, 0, 1);
+        saveUsers(crashed, 1, 2);
+        File[] journals = journalFiles();
+        try (RandomAccessFile file = new RandomAccessFile(journals[0], "rw")) {
+            // Flip the last payload byte of the second frame
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(List.of("0"), List.copyOf(contents(repository).keySet()));
+        }
+    }
+
+    @Test
+    void rejectedBatchLeavesNoTraceInTheJournal() {
+        InMemoryEntityRepository<User, StringPrimaryKey> crashed = open(Durability.WRITE);
+        saveUsers(crashed, 0, 2);
+        assertThrows(DatabaseException.class, () -> crashed.saveAll(List.of(
+                user(5, "CZ"), user(1, "CZ"))));
+        assertFalse(crashed.exists(new StringPrimaryKey("5")));
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            assertEquals(List.of("0", "1"), List.copyOf(contents(repository).keySet()));
+        }
+    }
+
+    @Test
+    void uniqueIndexesRejectConflictsAndKeepTheOldValues() {
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            saveUsers(repository, 0, 3);
+            repository.createUniqueIndex("username", User::getUsername);
+            repository.createNonUniqueIndex("country", User::getCountry);
+
+            User conflicting = user(1, "DE");
+            conflicting.setUsername("user2");
+            assertThrows(DatabaseException.class, () -> repository.update(conflicting));
+            assertEquals(List.of("1"), ids(repository.findByIndexedValue("username", "user1")));
+            assertEquals(0, repository.countByIndexedValue("country", "DE"));
+
+            // A value released earlier in a batch can be taken by a later operation
+            User first = user(0, "DE");
+            first.setUsername("user2");
+            User second = user(1, "CZ");
+            second.setUsername("user0");
+            repository.deleteAll(List.of(new StringPrimaryKey("2")));
+            repository.updateAll(List.of(first, second));
+            assertEquals(List.of("0"), ids(repository.findByIndexedValue("username", "user2")));
+            assertEquals(List.of("1"), ids(repository.findByIndexedValue("username", "user0")));
+            assertEquals(List.of(), ids(repository.findByIndexedValue("username", "user1")));
+            assertEquals(List.of("0"), ids(repository.findByIndexedValue("country", "DE")));
+
+            // A rejected batch puts every key back under its values
+            User third = user(2, "CZ");
+            third.setUsername("user0");
+            assertThrows(DatabaseException.class, () -> repository.saveAll(List.of(user(3, "CZ"), third)));
+            assertEquals(List.of(), ids(repository.findByIndexedValue("username", "user3")));
+            assertEquals(List.of("1"), ids(repository.findByIndexedValue("username", "user0")));
+        }
+    }
+
+    @Test
+    void snapshotDiscardsTheJournal() {
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.SYNC)) {
+            saveUsers(repository, 0, 5);
+            repository.snapshot();
+            saveUsers(repository, 5, 6);
+            repository.snapshot();
+
+            File[] journals = journalFiles();
+            assertEquals(1, journals.length);
+            assertEquals(0, journals[0].length());
+        }
+
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.SYNC)) {
+            assertEquals(6, repository.count());
+        }
+    }
+
+    @Test
+    void damagedSnapshotIsRejected() throws IOException {
+        try (InMemoryEntityRepository<User, StringPrimaryKey> repository = open(Durability.WRITE)) {
+            saveUsers(repository, 0, 5);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "snapshot.dat"), "rw")) {
+            file.seek(20);
+            int value = file.read();
+            file.seek(20);
+            file.write(value ^ 0xFF);
+        }
+
+        assertThrows(DatabaseException.class, () -> open(Durability.WRITE));
+    }
+
+    /**
+     * Save 30 users, take a snapshot and change some of them afterwards, so
+     * the state is split between the snapshot and the journal
+     */
+    private static void makeChanges(InMemoryEntityRepository<User, StringPrimaryKey> repository) {
+        saveUsers(repository, 0, 20);
+        repository.snapshot();
+        saveUsers(repository, 20, 30);
+        repository.update(user(1, "DE"));
+        repository.saveOrUpdate(user(2, "DE"));
+        repository.delete(new StringPrimaryKey("3"));
+        repository.deleteAll(List.of(new StringPrimaryKey("21"), new StringPrimaryKey("22")));
+    }
+
+    private InMemoryEntityRepository<User, StringPrimaryKey> open(Durability durability) {
+        return new InMemoryEntityRepository<>(dir.getPath(), new UserSerializer(),
+                InMemoryOptions.builder().durability(durability).build());
+    }
+
+    private File[] journalFiles() {
+        return dir.listFiles((directory, name) -> name.startsWith("journal-"));
+    }
+
+    private static Map<String, String> contents(InMemoryEntityRepository<User, StringPrimaryKey> repository) {
+        Map<String, String> contents = new TreeMap<>();
+        for (User user : repository.findAll()) {
+            contents.put(user.getId().getValue(), user.toString());
+        }
+        return contents;
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).sorted().toList();
+    }
+
+    private static void saveUsers(InMemoryEntityRepository<User, StringPrimaryKey> repository, int from, int to) {
+        for (int i = from; i < to; i++) {
+            repository.save(user(i, "CZ"));
+        }
+    }
+
+    private static User user(int i, String country) {
+        return new User(String.valueOf(i), "user" + i, "First" + i, "Last" + i, country, 20 + i);
+    }
+}
@@ -0,0 +1,146 @@
+package cz.upce.boop.ex.db.query;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import cz.upce.boop.ex.db.index.IndexedFileEntityRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryPlannerTest {
+
+    private static final String[] COUNTRIES = {"CZ", "SK", "PL"};
+    private static final String[] LAST_NAMES = {"Novak", "Svoboda", "Dvorak", "Cerny"};
+
+    @TempDir
+    Path dir;
+
+    private IndexedFileEntityRepository<User, StringPrimaryKey> repository;
+
+    @BeforeEach
+    void createRepository() {
+        repository = new IndexedFileEntityRepository<>(dir.toString(), new UserSerializer(),
+                RepositoryOptions.builder().build());
+        repository.createUniqueIndex("username", User::getUsername);
+        repository.createNonUniqueIndex("country", User::getCountry);
+        repository.createNonUniqueIndex("age", User::getAge);
+        repository.registerAttribute("lastName", User::getLastName);
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            users.add(new User(String.valueOf(i), "user" + i, "First", LAST_NAMES[i % LAST_NAMES.length],
+                    COUNTRIES[i % COUNTRIES.length], 20 + i % 10));
+        }
+        repository.saveAll(users);
+    }
+
+    @AfterEach
+    void closeRepository() {
+        repository.close();
+    }
+
+    @Test
+    void uniqueProbe() {
+        Query query = Query.and(Query.eq("username", "user42"), Query.eq("country", "CZ"));
+
+        assertEquals(Query.eq("country", "CZ"), assertPlan(PlanType.UNIQUE_PROBE, query, 1).filter());
+        assertSameAsScan(query, user -> user.getUsername().equals("user42") && user.getCountry().equals("CZ"));
+        assertSameAsScan(Query.and(Query.eq("username", "user42"), Query.eq("country", "SK")),
+                user -> false);
+    }
+
+    @Test
+    void indexLookupWithResidualFilter() {
+        Query query = Query.and(Query.eq("country", "SK"), Query.eq("lastName", "Novak"));
+
+        QueryPlan plan = assertPlan(PlanType.INDEX_LOOKUP, query, 100);
+        assertEquals(List.of("country"), plan.indexes());
+        assertEquals(Query.eq("lastName", "Novak"), plan.filter());
+        assertSameAsScan(query, user -> user.getCountry().equals("SK") && user.getLastName().equals("Novak"));
+    }
+
+    @Test
+    void inLookup() {
+        Query query = Query.in("age", List.of(21, 23, 99));
+
+        assertNull(assertPlan(PlanType.INDEX_LOOKUP, query, 60).filter());
+        assertSameAsScan(query, user -> Set.of(21, 23, 99).contains(user.getAge()));
+    }
+
+    @Test
+    void intersectionOfIndexes() {
+        Query query = Query.and(Query.eq("country", "CZ"), Query.eq("age", 23),
+                Query.range("lastName", "C", "E"));
+
+        QueryPlan plan = assertPlan(PlanType.INDEX_INTERSECTION, query, 10);
+        assertEquals(List.of("age", "country"), plan.indexes());
+        assertEquals(Query.range("lastName", "C", "E"), plan.filter());
+        assertSameAsScan(query, user -> user.getCountry().equals("CZ") && user.getAge() == 23
+                && user.getLastName().compareTo("C") >= 0 && user.getLastName().compareTo("E") <= 0);
+    }
+
+    @Test
+    void fullScan() {
+        Query query = Query.or(Query.eq("country", "PL"), Query.not(Query.range("age", 22, null)));
+
+        QueryPlan plan = repository.explain(query);
+        assertEquals(PlanType.FULL_SCAN, plan.type());
+        assertEquals(query, plan.filter());
+        assertSameAsScan(query, user -> user.getCountry().equals("PL") || user.getAge() < 22);
+        assertSameAsScan(Query.range("lastName", null, "D"), user -> user.getLastName().compareTo("D") <= 0);
+    }
+
+    @Test
+    void valuesOfAnotherTypeMatchNothing() {
+        assertSameAsScan(Query.eq("age", 23L), user -> false);
+        assertSameAsScan(Query.range("age", "20", "30"), user -> false);
+    }
+
+    @Test
+    void unknownAttributeIsRejected() {
+        assertThrows(DatabaseException.class, () -> repository.find(Query.eq("nickname", "x")));
+        assertThrows(DatabaseException.class, () -> repository.registerAttribute("country", User::getCountry));
+    }
+
+    @Test
+    void resultsFollowChanges() {
+        Query query = Query.and(Query.eq("country", "CZ"), Query.eq("age", 20));
+        Predicate<User> condition = user -> user.getCountry().equals("CZ") && user.getAge() == 20;
+
+        repository.update(new User("1", "user1", "First", "Novak", "CZ", 20));
+        repository.delete(new StringPrimaryKey("0"));
+
+        assertSameAsScan(query, condition);
+        assertFalse(repository.find(query).isEmpty());
+    }
+
+    private QueryPlan assertPlan(PlanType type, Query query, long estimatedRows) {
+        QueryPlan plan = repository.explain(query);
+        assertEquals(type, plan.type());
+        assertEquals(estimatedRows, plan.estimatedRows());
+        return plan;
+    }
+
+    private void assertSameAsScan(Query query, Predicate<User> condition) {
+        assertEquals(sortedIds(repository.findByCondition(condition)), sortedIds(repository.find(query)));
+    }
+
+    private static List<String> sortedIds(List<User> users) {
+        return users.stream().map(user -> user.getId().getValue()).sorted().toList();
+    }
+}
@@ -0,0 +1,191 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserBinarySerializer;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.FileEntityRepository;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinarySerializerTest {
+
+    /**
+     * Second version of the user layout, appending a nickname
+     */
+    private static final class NicknameSerializer extends BinarySerializer<User> {
+
+        private int lastVersion;
+        private String lastNickname;
+
+        NicknameSerializer() {
+            super(2);
+        }
+
+        @Override
+        protected void write(User entity, BinaryWriter out) {
+            // The fields of the first version, in the same order as UserBinarySerializer
+            out.writeString(entity.getId().getValue())
+                    .writeString(entity.getFirstName())
+                    .writeString(entity.getLastName())
+                    .writeString(entity.getUsername())
+                    .writeString(entity.getCountry())
+                    .writeInt(entity.getAge())
+                    .writeString("nick-" + entity.getUsername());
+        }
+
+        @Override
+        protected User read(BinaryReader in, int version) {
+            User user = new User(in.readString(), null, in.readString(), in.readString(), null, 0);
+            user.setUsername(in.readString());
+            user.setCountry(in.readString());
+            user.setAge(in.readInt());
+            lastVersion = version;
+            lastNickname = version >= 2 ? in.readString() : null;
+            return user;
+        }
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fieldsRoundTrip() {
+        BinaryWriter writer = new BinaryWriter();
+        int[] ints = {0, 1, -1, 63, -64, 64, 300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        long[] longs = {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+        String[] strings = {null, "", "ascii", "Dvořák 🙂", "x".repeat(1_000), "ž".repeat(300)};
+        for (int value : ints) {
+            writer.writeInt(value).writeVarInt(value);
+        }
+        for (long value : longs) {
+            writer.writeLong(value).writeVarLong(value);
+        }
+        for (String value : strings) {
+            writer.writeString(value);
+        }
+        writer.writeBoolean(true).writeBoolean(false);
+
+        ByteBuffer heap = writer.toByteBuffer();
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining()).put(heap.duplicate()).flip();
+        for (ByteBuffer data : new ByteBuffer[]{heap, direct}) {
+            BinaryReader reader = new BinaryReader();
+            reader.reset(data);
+            for (int value : ints) {
+                assertEquals(value, reader.readInt());
+                assertEquals(value, reader.readVarInt());
+            }
+            for (long value : longs) {
+                assertEquals(value, reader.readLong());
+                assertEquals(value, reader.readVarLong());
+            }
+            for (String value : strings) {
+                assertEquals(value, reader.readString());
+            }
+            assertTrue(reader.readBoolean());
+            assertFalse(reader.readBoolean());
+            assertFalse(reader.hasRemaining());
+            assertThrows(DatabaseException.class, reader::readInt);
+        }
+    }
+
+    @Test
+    void smallValuesTakeOneByte() {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeInt(-5).writeVarInt(127).writeString("");
+
+        assertEquals(3, writer.toByteBuffer().remaining());
+    }
+
+    @Test
+    void entityRoundTripsAsBytesAndAsString() {
+        UserBinarySerializer serializer = new UserBinarySerializer();
+        User user = new User("1", "novak", "Jiří", null, "CZ", -3);
+
+        assertSameUser(user, serializer.deserialize(serializer.serializeToBytes(user)));
+        assertSameUser(user, serializer.deserialize(serializer.serialize(user)));
+        assertSameUser(user, serializer.deserialize((CharSequence) serializer.serialize(user)));
+    }
+
+    @Test
+    void rejectsDataThatIsNotACompleteRecordOfAKnownVersion() {
+        UserBinarySerializer serializer = new UserBinarySerializer();
+        User user = new User("1", "novak", "Jan", "Novak", "CZ", 30);
+        byte[] bytes = toArray(serializer.serializeToBytes(user));
+
+        assertThrows(DatabaseException.class, () -> serializer.deserialize(ByteBuffer.wrap(new byte[0])));
+        assertThrows(DatabaseException.class,
+                () -> serializer.deserialize(ByteBuffer.wrap(new UserSerializer().serialize(user).getBytes())));
+        assertThrows(DatabaseException.class,
+                () -> serializer.deserialize(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 2))));
+        assertThrows(DatabaseException.class, () -> serializer.deserialize("not base64!"));
+
+        byte[] newer = toArray(new NicknameSerializer().serializeToBytes(user));
+        DatabaseException error = assertThrows(DatabaseException.class,
+                () -> serializer.deserialize(ByteBuffer.wrap(newer)));
+        assertEquals("Record version 2 is newer than version 1", error.getMessage());
+
+        byte[] malformed = {(byte) 0xFE, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1};
+        assertThrows(DatabaseException.class, () -> serializer.deserialize(ByteBuffer.wrap(malformed)));
+    }
+
+    @Test
+    void newerLayoutReadsOlderRecords() {
+        User user = new User("1", "novak", "Jan", "Novak", "CZ", 30);
+        byte[] old = toArray(new UserBinarySerializer().serializeToBytes(user));
+        NicknameSerializer serializer = new NicknameSerializer();
+
+        assertSameUser(user, serializer.deserialize(ByteBuffer.wrap(old)));
+        assertEquals(1, serializer.lastVersion);
+        assertNull(serializer.lastNickname);
+
+        assertSameUser(user, serializer.deserialize(serializer.serializeToBytes(user)));
+        assertEquals(2, serializer.lastVersion);
+        assertEquals("nick-novak", serializer.lastNickname);
+    }
+
+    @Test
+    void repositoryStoresTheBinaryRecords() throws IOException {
+        User user = new User("1", "novak", "Jan", "Novák", "CZ", 30);
+        try (FileEntityRepository<User, StringPrimaryKey> repository = new FileEntityRepository<>(
+                dir.toString(), new UserBinarySerializer(), RepositoryOptions.builder().build())) {
+            repository.save(user);
+
+            assertSameUser(user, repository.findById(new StringPrimaryKey("1")));
+            assertSameUser(user, repository.findAll().get(0));
+        }
+
+        byte[] stored = Files.readAllBytes(dir.resolve(new StringPrimaryKey("1").toFileName()));
+        assertEquals((byte) 0xFE, stored[0]);
+        assertTrue(stored.length < new UserSerializer().serialize(user).getBytes().length);
+    }
+
+    private static void assertSameUser(User expected, User actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUsername(), actual.getUsername());
+        assertEquals(expected.getFirstName(), actual.getFirstName());
+        assertEquals(expected.getLastName(), actual.getLastName());
+        assertEquals(expected.getCountry(), actual.getCountry());
+        assertEquals(expected.getAge(), actual.getAge());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,61 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawRecordTest {
+
+    private static final String CONTENT = "  id = 7 \n\nno separator\n=no key\nurl=a=b\r\nage=42\nempty=\nage=43\n";
+
+    @Test
+    void locatesValuesLikeTheParser() {
+        RawRecord record = new RawRecord(CONTENT);
+        SerializedEntity parsed = SerializedEntity.fromFileContent(CONTENT);
+
+        for (String key : new String[]{"id", "id ", "url", "age", "empty", "no separator", "", "missing", "a"}) {
+            assertEquals(parsed.getValue(key), record.get(key), key);
+            assertEquals(parsed.containsKey(key), record.containsKey(key), key);
+        }
+        assertEquals("a=b", record.get("url"));
+        assertNull(record.get("url=a"));
+    }
+
+    @Test
+    void readsIntegersWithoutParsingTheRecord() {
+        RawRecord record = new RawRecord(CONTENT);
+
+        assertEquals(42, record.getInt("age"));
+        assertThrows(DatabaseException.class, () -> record.getInt("missing"));
+        assertThrows(DatabaseException.class, () -> record.getInt("url"));
+    }
+
+    @Test
+    void comparesValuesInPlace() {
+        RawRecord record = new RawRecord(CONTENT);
+
+        assertTrue(record.valueEquals("url", "a=b"));
+        assertTrue(record.valueEquals("empty", ""));
+        assertFalse(record.valueEquals("url", "a=c"));
+        assertFalse(record.valueEquals("url", "a="));
+        assertFalse(record.valueEquals("missing", ""));
+    }
+
+    @Test
+    void projectsRequestedKeysInOrder() {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("age", "42");
+        expected.put("missing", null);
+        expected.put("url", "a=b");
+
+        assertEquals(expected, new RawRecord(CONTENT).project("age", "missing", "url"));
+    }
+}
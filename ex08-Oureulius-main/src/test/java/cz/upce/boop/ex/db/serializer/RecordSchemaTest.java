@@ -0,0 +1,78 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordSchemaTest {
+
+    private static final RecordSchema SCHEMA = RecordSchema.of("id", "name", "age", "size", "url");
+
+    @Test
+    void locatesValuesLikeTheParserInAnyOrder() {
+        String content = "url=a=b\n  name = Dvořák \r\nunknown=1\nage=42\nage=43\n=x\nno separator\nid=7\n";
+        RecordView view = SCHEMA.parse(content);
+        SerializedEntity parsed = SerializedEntity.fromFileContent(content);
+
+        for (int slot = 0; slot < SCHEMA.size(); slot++) {
+            String key = SCHEMA.key(slot);
+            assertEquals(parsed.getValue(key), view.get(slot), key);
+            assertEquals(parsed.containsKey(key), view.has(slot), key);
+        }
+        assertEquals("a=b", view.get(SCHEMA.slot("url")));
+        assertEquals(42, view.getInt(SCHEMA.slot("age")));
+        assertFalse(view.has(SCHEMA.slot("size")));
+        assertNull(view.get(SCHEMA.slot("size")));
+    }
+
+    @Test
+    void readsNumbersInPlace() {
+        // A buffer whose content does not start at the beginning of its array
+        String content = "id=x\nage=-12\nsize=9000000000\n";
+        RecordView view = SCHEMA.parse(CharBuffer.wrap(("##" + content).toCharArray(), 2, content.length()).slice());
+
+        assertEquals(-12, view.getInt(SCHEMA.slot("age")));
+        assertEquals(9_000_000_000L, view.getLong(SCHEMA.slot("size")));
+        assertEquals(5, view.getInt(SCHEMA.slot("url"), 5));
+        assertThrows(DatabaseException.class, () -> view.getInt(SCHEMA.slot("size")));
+        assertThrows(DatabaseException.class, () -> view.getInt(SCHEMA.slot("url")));
+        assertThrows(DatabaseException.class, () -> view.getLong(SCHEMA.slot("id")));
+    }
+
+    @Test
+    void rejectsInvalidKeys() {
+        assertThrows(IllegalArgumentException.class, () -> RecordSchema.of("id", "id"));
+        assertThrows(IllegalArgumentException.class, () -> RecordSchema.of("a=b"));
+        assertThrows(IllegalArgumentException.class, () -> RecordSchema.of(""));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.slot("missing"));
+    }
+
+    @Test
+    void schemaSerializerRoundTrips() {
+        UserSerializer serializer = new UserSerializer();
+        User user = new User("1", "novak", "Jiří", "Novák", "CZ", 42);
+
+        String content = serializer.serialize(user);
+        User fromString = serializer.deserialize(content);
+        User fromBuffer = serializer.deserialize(CharBuffer.wrap(content));
+
+        for (User copy : new User[]{fromString, fromBuffer}) {
+            assertEquals(user.getId(), copy.getId());
+            assertEquals(user.getUsername(), copy.getUsername());
+            assertEquals(user.getFirstName(), copy.getFirstName());
+            assertEquals(user.getLastName(), copy.getLastName());
+            assertEquals(user.getCountry(), copy.getCountry());
+            assertEquals(user.getAge(), copy.getAge());
+        }
+        assertTrue(content.contains("lastName=Novák"));
+    }
+}
@@ -0,0 +1,48 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.db.core.DatabaseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SerializedEntityTest {
+
+    @Test
+    void parsesTrimmedLinesAndSkipsMalformedOnes() {
+        SerializedEntity entity = SerializedEntity.fromFileContent(
+                "  id = 7 \n\nno separator\n=no key\nurl=a=b\r\nempty=\n");
+
+        assertEquals(List.of(new KeyValuePair("id ", " 7"), new KeyValuePair("url", "a=b"),
+                new KeyValuePair("empty", "")), entity.pairs());
+        assertEquals("a=b", entity.getValue("url"));
+        assertNull(entity.getValue("missing"));
+        assertFalse(entity.containsKey("no separator"));
+    }
+
+    @Test
+    void roundTripsThroughFileContent() {
+        SerializedEntity entity = SerializedEntity.builder()
+                .add("id", "1")
+                .add("name", "Dvořák")
+                .add("age", 42)
+                .build();
+
+        SerializedEntity parsed = SerializedEntity.fromFileContent(entity.toFileContent());
+
+        assertEquals(entity, parsed);
+        assertEquals(42, parsed.getIntValue("age"));
+    }
+
+    @Test
+    void reportsInvalidIntegers() {
+        SerializedEntity entity = SerializedEntity.fromFileContent("age=old\n");
+
+        assertThrows(DatabaseException.class, () -> entity.getIntValue("age"));
+        assertThrows(DatabaseException.class, () -> entity.getIntValue("missing"));
+    }
+}
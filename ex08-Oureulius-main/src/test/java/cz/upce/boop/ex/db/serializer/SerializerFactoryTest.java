@@ -0,0 +1,277 @@
+package cz.upce.boop.ex.db.serializer;
+
+import cz.upce.boop.ex.User;
+import cz.upce.boop.ex.UserSerializer;
+import cz.upce.boop.ex.db.core.DatabaseEntity;
+import cz.upce.boop.ex.db.core.DatabaseException;
+import cz.upce.boop.ex.db.core.FileEntityRepository;
+import cz.upce.boop.ex.db.core.IntPrimaryKey;
+import cz.upce.boop.ex.db.core.RepositoryOptions;
+import cz.upce.boop.ex.db.core.StringPrimaryKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SerializerFactoryTest {
+
+    public enum Status {
+        ACTIVE, BLOCKED
+    }
+
+    public static class Account implements DatabaseEntity<IntPrimaryKey> {
+
+        private IntPrimaryKey id;
+        private String name;
+        private long balance;
+        private boolean verified;
+        private Integer level;
+        private Status status;
+
+        public Account() {
+        }
+
+        Account(int id, String name, long balance, boolean verified, Integer level, Status status) {
+            this.id = new IntPrimaryKey(id);
+            this.name = name;
+            this.balance = balance;
+            this.verified = verified;
+            this.level = level;
+            this.status = status;
+        }
+
+        @Override
+        public IntPrimaryKey getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(IntPrimaryKey id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        public void setBalance(long balance) {
+            this.balance = balance;
+        }
+
+        public boolean isVerified() {
+            return verified;
+        }
+
+        public void setVerified(boolean verified) {
+            this.verified = verified;
+        }
+
+        public Integer getLevel() {
+            return level;
+        }
+
+        public void setLevel(Integer level) {
+            this.level = level;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+
+        public String getDisplayName() {
+            return name + " (" + status + ")";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Account other && Objects.equals(id, other.id) && Objects.equals(name, other.name)
+                    && balance == other.balance && verified == other.verified
+                    && Objects.equals(level, other.level) && status == other.status;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, name, balance, verified, level, status);
+        }
+    }
+
+    public record Product(StringPrimaryKey id, String name, int quantity, boolean available, Long price)
+            implements DatabaseEntity<StringPrimaryKey> {
+
+        @Override
+        public StringPrimaryKey getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(StringPrimaryKey id) {
+            throw new UnsupportedOperationException("Products are immutable");
+        }
+    }
+
+    public record OldProduct(StringPrimaryKey id, String name) implements DatabaseEntity<StringPrimaryKey> {
+
+        @Override
+        public StringPrimaryKey getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(StringPrimaryKey id) {
+            throw new UnsupportedOperationException("Products are immutable");
+        }
+    }
+
+    public static class Unsupported implements DatabaseEntity<StringPrimaryKey> {
+
+        private StringPrimaryKey id;
+        private List<String> tags;
+
+        @Override
+        public StringPrimaryKey getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(StringPrimaryKey id) {
+            this.id = id;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    public static class NoDefaultConstructor extends Unsupported {
+
+        public NoDefaultConstructor(String id) {
+            setId(new StringPrimaryKey(id));
+        }
+    }
+
+    @TempDir
+    Path dir;
+
+    private static final Account ACCOUNT = new Account(7, "Jiří = Novák", -1_234_567_890_123L, true, null,
+            Status.BLOCKED);
+    private static final Product PRODUCT = new Product(new StringPrimaryKey("p-1"), "Hrnek", 3, true, null);
+
+    @Test
+    void beanRoundTripsThroughText() {
+        SchemaTextSerializer<Account> serializer = SerializerFactory.text(Account.class);
+
+        String text = serializer.serialize(ACCOUNT);
+
+        assertEquals("id=7\nbalance=-1234567890123\nname=Jiří = Novák\nstatus=BLOCKED\nverified=true\n", text);
+        assertEquals(ACCOUNT, serializer.deserialize(text));
+        assertEquals(ACCOUNT, serializer.deserialize(new StringBuilder(text)));
+    }
+
+    @Test
+    void beanRoundTripsThroughBinary() {
+        BinarySerializer<Account> serializer = SerializerFactory.binary(Account.class, 1);
+        Account account = new Account(8, null, 5, false, 42, Status.ACTIVE);
+
+        assertEquals(ACCOUNT, serializer.deserialize(serializer.serializeToBytes(ACCOUNT)));
+        assertEquals(account, serializer.deserialize(serializer.serializeToBytes(account)));
+        assertEquals(account, serializer.deserialize(serializer.serialize(account)));
+    }
+
+    @Test
+    void recordRoundTripsThroughTextAndBinary() {
+        SchemaTextSerializer<Product> text = SerializerFactory.text(Product.class);
+        BinarySerializer<Product> binary = SerializerFactory.binary(Product.class, 1);
+        Product priced = new Product(new StringPrimaryKey("p-2"), "", -1, false, Long.MIN_VALUE);
+
+        assertEquals("id=p-1\nname=Hrnek\nquantity=3\navailable=true\n", text.serialize(PRODUCT));
+        for (Product product : new Product[]{PRODUCT, priced}) {
+            assertEquals(product, text.deserialize(text.serialize(product)));
+            assertEquals(product, binary.deserialize(binary.serializeToBytes(product)));
+        }
+    }
+
+    @Test
+    void missingValuesKeepTheirDefaults() {
+        SchemaTextSerializer<Product> text = SerializerFactory.text(Product.class);
+        Product sparse = text.deserialize("id=p-3\nunknown=1\n");
+        assertEquals(new Product(new StringPrimaryKey("p-3"), null, 0, false, null), sparse);
+
+        // A record of a layout with fewer components ends early
+        ByteBuffer old = SerializerFactory.binary(OldProduct.class, 1)
+                .serializeToBytes(new OldProduct(new StringPrimaryKey("p-4"), "Talíř"));
+        Product upgraded = SerializerFactory.binary(Product.class, 1).deserialize(old);
+        assertEquals(new Product(new StringPrimaryKey("p-4"), "Talíř", 0, false, null), upgraded);
+    }
+
+    @Test
+    void readsFilesOfTheHandWrittenSerializer() {
+        User user = new User("1", "novak", "Jan", "Novák", "CZ", 30);
+        User read = SerializerFactory.text(User.class).deserialize(new UserSerializer().serialize(user));
+
+        assertEquals(user.getId(), read.getId());
+        assertEquals(user.getUsername(), read.getUsername());
+        assertEquals(user.getLastName(), read.getLastName());
+        assertEquals(user.getCountry(), read.getCountry());
+        assertEquals(user.getAge(), read.getAge());
+    }
+
+    @Test
+    void invalidValuesAreRejected() {
+        SchemaTextSerializer<Account> serializer = SerializerFactory.text(Account.class);
+
+        assertThrows(DatabaseException.class, () -> serializer.deserialize("id=7\nbalance=lots\n"));
+        assertThrows(DatabaseException.class, () -> serializer.deserialize("id=x\n"));
+        assertThrows(DatabaseException.class, () -> serializer.deserialize("id=7\nstatus=UNKNOWN\n"));
+    }
+
+    @Test
+    void unsupportedClassesAreRejected() {
+        assertThrows(DatabaseException.class, () -> SerializerFactory.text(Unsupported.class));
+        assertThrows(DatabaseException.class, () -> SerializerFactory.text(NoDefaultConstructor.class));
+        assertThrows(DatabaseException.class, () -> SerializerFactory.binary(DatabaseEntity.class, 1));
+    }
+
+    @Test
+    void repositoryUsesGeneratedSerializers() {
+        try (FileEntityRepository<Product, StringPrimaryKey> repository = new FileEntityRepository<>(
+                dir.resolve("text").toString(), SerializerFactory.text(Product.class),
+                RepositoryOptions.builder().build())) {
+            repository.save(PRODUCT);
+            assertEquals(PRODUCT, repository.findById(PRODUCT.id()));
+        }
+        try (FileEntityRepository<Account, IntPrimaryKey> repository = new FileEntityRepository<>(
+                dir.resolve("binary").toString(), SerializerFactory.binary(Account.class, 1),
+                RepositoryOptions.builder().build())) {
+            repository.save(ACCOUNT);
+            assertEquals(List.of(ACCOUNT), repository.findAll());
+            assertTrue(repository.exists(new IntPrimaryKey(7)));
+            assertFalse(repository.exists(new IntPrimaryKey(8)));
+            assertNull(repository.findById(new IntPrimaryKey(8)));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cz.upce.boop.ex.db.wal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    File dir;
+
+    private final List<List<WalRecord>> applied = new ArrayList<>();
+
+    @Test
+    void appliesCommittedTransactionsInOrder() {
+        try (WriteAheadLog log = open()) {
+            long first = log.append(List.of(put("a", "1")));
+            long second = log.append(List.of(put("b", "2"), WalRecord.delete("a")));
+            log.awaitDurable(second);
+
+            assertTrue(second > first);
+            assertEquals(2, applied.size());
+            assertEquals("a", applied.get(0).get(0).fileName());
+            assertEquals(WalRecord.Type.DELETE, applied.get(1).get(1).type());
+        }
+    }
+
+    @Test
+    void recoveryReplaysCompleteTransactionsAndIgnoresATornTail() throws IOException {
+        WriteAheadLog crashed = open();
+        crashed.awaitDurable(crashed.append(List.of(put("a", "1"))));
+        crashed.awaitDurable(crashed.append(List.of(put("b", "2"), put("c", "3"))));
+        // A frame header promising more bytes than were written before the crash
+        appendToLog(ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(42).array());
+
+        List<List<WalRecord>> recovered = new ArrayList<>();
+        try (WriteAheadLog log = open()) {
+            assertFalse(log.wasCleanlyClosed());
+            assertEquals(2, log.recover(recovered::addAll));
+
+            assertEquals(1, recovered.get(0).size());
+            assertEquals(2, recovered.get(1).size());
+            assertArrayEquals("3".getBytes(StandardCharsets.UTF_8), recovered.get(1).get(1).data());
+
+            // The log keeps working after the torn frame was cut off
+            log.awaitDurable(log.append(List.of(put("d", "4"))));
+        }
+
+        try (WriteAheadLog log = open()) {
+            assertTrue(log.wasCleanlyClosed());
+            assertEquals(0, log.recover(transactions -> {
+            }));
+        }
+    }
+
+    @Test
+    void recoveryStopsAtAFrameWithABadChecksum() throws IOException {
+        WriteAheadLog crashed = open();
+        crashed.awaitDurable(crashed.append(List.of(put("a", "1"))));
+        crashed.awaitDurable(crashed.append(List.of(put("b", "2"))));
+        File logFile = new File(dir, "wal/journal.log");
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            // Flip the last payload byte of the second frame
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        List<List<WalRecord>> recovered = new ArrayList<>();
+        try (WriteAheadLog log = open()) {
+            assertEquals(1, log.recover(recovered::addAll));
+            assertEquals("a", recovered.get(0).get(0).fileName());
+        }
+    }
+
+    private WriteAheadLog open() {
+        return new WriteAheadLog(new File(dir, "wal"), dir, true, Long.MAX_VALUE, applied::addAll);
+    }
+
+    private void appendToLog(byte[] bytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "wal/journal.log"), "rw")) {
+            file.seek(file.length());
+            file.write(bytes);
+        }
+    }
+
+    private static WalRecord put(String fileName, String data) {
+        return WalRecord.put(fileName, data.getBytes(StandardCharsets.UTF_8));
+    }
+}